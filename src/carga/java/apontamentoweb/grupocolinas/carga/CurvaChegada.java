@@ -0,0 +1,146 @@
+package apontamentoweb.grupocolinas.carga;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Taxa de chegada de pontos (por segundo) ao longo do teste, e o sorteio dos instantes de
+ * chegada como processo de Poisson não homogêneo (thinning), para não chegarem todos
+ * alinhados no início de cada segundo.
+ * <p>
+ * Curvas:
+ * <ul>
+ *   <li>{@code constante}: {@code base} o tempo todo;</li>
+ *   <li>{@code rampa}: de {@code base} até {@code pico} linearmente na duração do teste;</li>
+ *   <li>{@code troca-turno}: {@code base} com picos gaussianos de altura {@code pico} nos instantes
+ *       {@code centros} (segundos) e desvio {@code largura} — as trocas de turno das 06:00 e 14:00
+ *       comprimidas no tempo do teste;</li>
+ *   <li>{@code degraus}: lista "taxa:segundos,taxa:segundos,...".</li>
+ * </ul>
+ */
+final class CurvaChegada {
+
+    private final String tipo;
+    private final double base;
+    private final double pico;
+    private final double[] centros;
+    private final double largura;
+    private final double[] taxasDegrau;
+    private final double[] fimDegrau;
+    private final double duracao;
+    private final double taxaMaxima;
+
+    private CurvaChegada(String tipo, double base, double pico, double[] centros, double largura,
+                         double[] taxasDegrau, double[] fimDegrau, double duracao) {
+        this.tipo = tipo;
+        this.base = base;
+        this.pico = pico;
+        this.centros = centros;
+        this.largura = largura;
+        this.taxasDegrau = taxasDegrau;
+        this.fimDegrau = fimDegrau;
+        this.duracao = duracao;
+        double maxima = Math.max(base, pico);
+        for (double taxa : taxasDegrau) {
+            maxima = Math.max(maxima, taxa);
+        }
+        this.taxaMaxima = maxima;
+    }
+
+    static CurvaChegada criar(String tipo, double base, double pico, String centros, double largura,
+                              String degraus, double duracao) {
+        switch (tipo) {
+            case "constante":
+            case "rampa":
+                return new CurvaChegada(tipo, base, pico, new double[0], largura, new double[0], new double[0], duracao);
+            case "troca-turno": {
+                double[] c;
+                if (centros == null || centros.isBlank()) {
+                    // Dois turnos: a 1/4 e a 3/4 do teste
+                    c = new double[]{duracao / 4, duracao * 3 / 4};
+                } else {
+                    String[] partes = centros.split(",");
+                    c = new double[partes.length];
+                    for (int i = 0; i < partes.length; i++) {
+                        c[i] = Double.parseDouble(partes[i].trim());
+                    }
+                }
+                return new CurvaChegada(tipo, base, pico, c, largura, new double[0], new double[0], duracao);
+            }
+            case "degraus": {
+                if (degraus == null || degraus.isBlank()) {
+                    throw new IllegalArgumentException("Curva 'degraus' precisa de --degraus taxa:segundos,...");
+                }
+                List<double[]> lista = new ArrayList<>();
+                double fim = 0;
+                for (String degrau : degraus.split(",")) {
+                    String[] partes = degrau.trim().split(":");
+                    fim += Double.parseDouble(partes[1]);
+                    lista.add(new double[]{Double.parseDouble(partes[0]), fim});
+                }
+                double[] taxas = new double[lista.size()];
+                double[] fins = new double[lista.size()];
+                for (int i = 0; i < lista.size(); i++) {
+                    taxas[i] = lista.get(i)[0];
+                    fins[i] = lista.get(i)[1];
+                }
+                return new CurvaChegada(tipo, 0, 0, new double[0], largura, taxas, fins, fim);
+            }
+            default:
+                throw new IllegalArgumentException("Curva desconhecida: " + tipo + " (constante, rampa, troca-turno, degraus)");
+        }
+    }
+
+    double duracao() {
+        return duracao;
+    }
+
+    /** Pontos por segundo no instante {@code t} (segundos desde o início). */
+    double taxa(double t) {
+        switch (tipo) {
+            case "rampa":
+                return base + (pico - base) * Math.min(1, t / duracao);
+            case "troca-turno": {
+                double taxa = base;
+                for (double centro : centros) {
+                    double z = (t - centro) / largura;
+                    taxa += (pico - base) * Math.exp(-z * z / 2);
+                }
+                return Math.min(taxa, taxaMaxima);
+            }
+            case "degraus":
+                for (int i = 0; i < fimDegrau.length; i++) {
+                    if (t < fimDegrau[i]) {
+                        return taxasDegrau[i];
+                    }
+                }
+                return 0;
+            default:
+                return base;
+        }
+    }
+
+    /** Próxima chegada depois de {@code t}, ou um valor >= duração quando não há mais chegadas. */
+    double proximaChegada(double t, Random aleatorio) {
+        if (taxaMaxima <= 0) {
+            return duracao;
+        }
+        while (t < duracao) {
+            t += -Math.log(1 - aleatorio.nextDouble()) / taxaMaxima;
+            if (aleatorio.nextDouble() * taxaMaxima <= taxa(t)) {
+                return t;
+            }
+        }
+        return t;
+    }
+
+    // Pontos esperados no teste todo (integral da curva), para o resumo antes de começar
+    double totalEsperado() {
+        double total = 0;
+        for (double t = 0; t < duracao; t += 0.1) {
+            total += taxa(t) * 0.1;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,96 @@
+package apontamentoweb.grupocolinas.carga;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * JPEG válido (decodificável pelo processamento de fotos do servidor) com tamanho aproximado
+ * ao pedido. A imagem base é gerada uma vez; cada ponto recebe uma cópia com um segmento de
+ * comentário aleatório logo após o SOI, para que o hash SHA-256 seja único e o armazenamento
+ * por hash não deduplique as fotos do teste.
+ */
+final class FotoSintetica {
+
+    private static final int MAX_SEGMENTO = 65_533;
+
+    private final byte[] base;
+
+    FotoSintetica(int largura, int altura, int tamanhoKb, long semente) throws IOException {
+        Random aleatorio = new Random(semente);
+        BufferedImage imagem = new BufferedImage(largura, altura, BufferedImage.TYPE_INT_RGB);
+        // Gradiente com ruído: comprime como uma foto de câmera, não como um bloco de cor sólida
+        for (int y = 0; y < altura; y++) {
+            for (int x = 0; x < largura; x++) {
+                int r = (x * 255 / largura + aleatorio.nextInt(40)) & 0xFF;
+                int g = (y * 255 / altura + aleatorio.nextInt(40)) & 0xFF;
+                int b = ((x + y) * 127 / (largura + altura) + aleatorio.nextInt(40)) & 0xFF;
+                imagem.setRGB(x, y, (r << 16) | (g << 8) | b);
+            }
+        }
+        byte[] jpeg = codificar(imagem, 0.85f);
+        // Abaixo do tamanho pedido: completa com segmentos de comentário
+        int falta = tamanhoKb * 1024 - jpeg.length;
+        this.base = falta > 4 ? comComentario(jpeg, falta, aleatorio) : jpeg;
+    }
+
+    int tamanho() {
+        return base.length;
+    }
+
+    /** Cópia da foto com 16 bytes aleatórios num comentário, para um hash diferente a cada ponto. */
+    byte[] unica(Random aleatorio) {
+        byte[] marca = new byte[16];
+        aleatorio.nextBytes(marca);
+        byte[] foto = new byte[base.length + 4 + marca.length];
+        foto[0] = base[0];
+        foto[1] = base[1];
+        foto[2] = (byte) 0xFF;
+        foto[3] = (byte) 0xFE;
+        foto[4] = 0;
+        foto[5] = (byte) (marca.length + 2);
+        System.arraycopy(marca, 0, foto, 6, marca.length);
+        System.arraycopy(base, 2, foto, 6 + marca.length, base.length - 2);
+        return foto;
+    }
+
+    private static byte[] codificar(BufferedImage imagem, float qualidade) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpg").next();
+        ByteArrayOutputStream saida = new ByteArrayOutputStream();
+        try (MemoryCacheImageOutputStream stream = new MemoryCacheImageOutputStream(saida)) {
+            writer.setOutput(stream);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(qualidade);
+            writer.write(null, new IIOImage(imagem, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return saida.toByteArray();
+    }
+
+    private static byte[] comComentario(byte[] jpeg, int bytes, Random aleatorio) {
+        ByteArrayOutputStream saida = new ByteArrayOutputStream(jpeg.length + bytes + 64);
+        saida.write(jpeg, 0, 2); // SOI
+        int restante = bytes;
+        while (restante > 4) {
+            int conteudo = Math.min(MAX_SEGMENTO, restante - 4);
+            byte[] dados = new byte[conteudo];
+            aleatorio.nextBytes(dados);
+            saida.write(0xFF);
+            saida.write(0xFE);
+            saida.write((conteudo + 2) >> 8);
+            saida.write((conteudo + 2) & 0xFF);
+            saida.write(dados, 0, conteudo);
+            restante -= conteudo + 4;
+        }
+        saida.write(jpeg, 2, jpeg.length - 2);
+        return saida.toByteArray();
+    }
+}
@@ -0,0 +1,473 @@
+package apontamentoweb.grupocolinas.carga;
+
+import apontamentoweb.grupocolinas.GrupocolinasApplication;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Gerador de carga da troca de turno: todos os frentistas de todos os postos batendo ponto em
+ * poucos minutos, com a aprovação dos pendentes acontecendo ao mesmo tempo.
+ * <p>
+ * Modelo aberto: os pontos chegam segundo a {@link CurvaChegada} independentemente de o
+ * servidor ter respondido os anteriores, e a latência é medida a partir do instante em que cada
+ * ponto deveria ter saído — um servidor lento não reduz a carga que recebe nem esconde a fila
+ * (coordinated omission). Os aprovadores (um por cliente) trabalham em ciclo fechado: listam os
+ * pendentes e aprovam em lote.
+ * <p>
+ * Uso (ver o perfil "carga" no pom.xml):
+ * <pre>
+ *   gcloud emulators firestore start --host-port=localhost:8085
+ *   FIRESTORE_EMULATOR_HOST=localhost:8085 mvn spring-boot:run
+ *   mvn -Pcarga test-compile exec:exec -Dcarga.args="--curva troca-turno --postos 10 --funcionarios 40 --pico 60"
+ * </pre>
+ * Com {@code --iniciar-app --emulador localhost:8085} a aplicação sobe no mesmo processo (mais
+ * simples, mas gerador e servidor disputam a mesma CPU).
+ * <p>
+ * O resultado (configuração, vazão, p50/p90/p99/p999, erros por tipo e série por segundo) é
+ * gravado em JSON em {@code --saida} (padrão target/carga/resultado-AAAAMMDD-HHMMSS.json).
+ */
+public final class GeradorCarga {
+
+    private static final DateTimeFormatter HORA_PONTO = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'").withZone(ZoneOffset.UTC);
+    private static final String SENHA_PDV = "1234";
+
+    private final Opcoes opcoes;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final HttpClient http;
+    private final String autorizacao;
+    private final Random aleatorio;
+
+    private final Latencias pontos = new Latencias();
+    private final Latencias listagens = new Latencias();
+    private final Latencias aprovacoes = new Latencias();
+    private final AtomicInteger emVoo = new AtomicInteger();
+    private final AtomicInteger aprovados = new AtomicInteger();
+    private Latencias[] pontosPorSegundo;
+    private AtomicIntegerArray ofertadosPorSegundo;
+
+    private GeradorCarga(Opcoes opcoes) {
+        this.opcoes = opcoes;
+        this.aleatorio = new Random(opcoes.longo("semente", 42));
+        this.http = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .executor(Executors.newFixedThreadPool(opcoes.inteiro("threads-http", 8), daemon("http")))
+                .build();
+        this.autorizacao = "Basic " + Base64.getEncoder().encodeToString(
+                (opcoes.texto("usuario", "1") + ":" + opcoes.texto("senha", "1")).getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Opcoes opcoes = Opcoes.ler(args);
+        ConfigurableApplicationContext app = null;
+        if (opcoes.flag("iniciar-app")) {
+            app = iniciarApp(opcoes);
+        }
+        try {
+            new GeradorCarga(opcoes).executar();
+        } finally {
+            if (app != null) {
+                app.close();
+            }
+        }
+        System.exit(0);
+    }
+
+    private static ConfigurableApplicationContext iniciarApp(Opcoes opcoes) {
+        String emulador = opcoes.texto("emulador", System.getenv("FIRESTORE_EMULATOR_HOST"));
+        if (emulador == null || emulador.isEmpty()) {
+            throw new IllegalArgumentException("--iniciar-app precisa de --emulador host:porta (ou FIRESTORE_EMULATOR_HOST)");
+        }
+        int porta = URI.create(opcoes.texto("url", "http://localhost:8080")).getPort();
+        System.out.println("Subindo a aplicação na porta " + porta + " com o emulador em " + emulador);
+        return SpringApplication.run(GrupocolinasApplication.class,
+                "--server.port=" + (porta > 0 ? porta : 8080),
+                "--apontamento.firestore.emulador-host=" + emulador);
+    }
+
+    private void executar() throws Exception {
+        String url = opcoes.texto("url", "http://localhost:8080");
+        CurvaChegada curva = CurvaChegada.criar(
+                opcoes.texto("curva", "troca-turno"),
+                opcoes.decimal("base", 1),
+                opcoes.decimal("pico", 30),
+                opcoes.texto("centros", null),
+                opcoes.decimal("largura", 20),
+                opcoes.texto("degraus", null),
+                opcoes.decimal("duracao", 120));
+        List<String> postos = postos(opcoes.texto("postos", "default"));
+        int porPosto = opcoes.inteiro("funcionarios", 30);
+        String modoFoto = opcoes.texto("foto-modo", "multipart");
+        int fotoKb = opcoes.inteiro("foto-kb", 150);
+        String[] dimensao = opcoes.texto("foto-dimensao", "1280x960").split("x");
+        long timeoutMs = opcoes.longo("timeout-ms", 30_000);
+        int maxEmVoo = opcoes.inteiro("max-em-voo", 2000);
+
+        List<String[]> funcionarios = new ArrayList<>();
+        for (String posto : postos) {
+            for (int i = 1; i <= porPosto; i++) {
+                funcionarios.add(new String[]{"carga-" + posto + "-" + i, posto, "Frentista " + i + " " + posto});
+            }
+        }
+
+        FotoSintetica foto = "nenhuma".equals(modoFoto) ? null
+                : new FotoSintetica(Integer.parseInt(dimensao[0]), Integer.parseInt(dimensao[1]), fotoKb, aleatorio.nextLong());
+
+        System.out.printf("Curva %s, %.0fs, ~%.0f pontos; %d postos x %d funcionários; foto %s%n",
+                opcoes.texto("curva", "troca-turno"), curva.duracao(), curva.totalEsperado(), postos.size(), porPosto,
+                foto == null ? "nenhuma" : modoFoto + " " + foto.tamanho() / 1024 + "KB");
+
+        if (!opcoes.flag("sem-preparo")) {
+            preparar(url, funcionarios);
+        }
+
+        int segundos = (int) Math.ceil(curva.duracao()) + 1;
+        pontosPorSegundo = new Latencias[segundos];
+        for (int i = 0; i < segundos; i++) {
+            pontosPorSegundo[i] = new Latencias();
+        }
+        ofertadosPorSegundo = new AtomicIntegerArray(segundos);
+
+        ScheduledExecutorService aprovadores = Executors.newScheduledThreadPool(1, daemon("aprovador"));
+        long intervaloAprovacaoMs = opcoes.longo("aprovacao-intervalo-ms", 2000);
+        if (intervaloAprovacaoMs > 0) {
+            for (String cliente : postos(opcoes.texto("clientes", String.join(",", postos)))) {
+                aprovadores.scheduleWithFixedDelay(() -> aprovar(url, cliente, opcoes.inteiro("aprovacao-lote", 100), timeoutMs),
+                        intervaloAprovacaoMs, intervaloAprovacaoMs, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        Instant inicio = Instant.now();
+        long t0 = System.nanoTime();
+        double t = curva.proximaChegada(0, aleatorio);
+        while (t < curva.duracao()) {
+            long agendado = t0 + (long) (t * 1e9);
+            long espera = agendado - System.nanoTime();
+            if (espera > 0) {
+                TimeUnit.NANOSECONDS.sleep(espera);
+            }
+            int segundo = (int) t;
+            ofertadosPorSegundo.incrementAndGet(segundo);
+            if (emVoo.get() >= maxEmVoo) {
+                // O gerador não segura mais conexões abertas: conta como erro, sem enviar
+                registrarPonto(segundo, agendado, "descartado-gerador");
+            } else {
+                String[] funcionario = funcionarios.get(aleatorio.nextInt(funcionarios.size()));
+                baterPonto(url, funcionario, foto, modoFoto, segundo, agendado, timeoutMs);
+            }
+            t = curva.proximaChegada(t, aleatorio);
+        }
+
+        // Espera as respostas pendentes
+        long limite = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs + 5000);
+        while (emVoo.get() > 0 && System.nanoTime() < limite) {
+            Thread.sleep(50);
+        }
+        aprovadores.shutdownNow();
+        double duracaoReal = (System.nanoTime() - t0) / 1e9;
+
+        Path saida = Paths.get(opcoes.texto("saida", "target/carga/resultado-"
+                + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")) + ".json"));
+        Map<String, Object> relatorio = relatorio(inicio, duracaoReal, curva.duracao(), foto);
+        if (saida.getParent() != null) {
+            Files.createDirectories(saida.getParent());
+        }
+        objectMapper.writer().with(SerializationFeature.INDENT_OUTPUT).writeValue(saida.toFile(), relatorio);
+        imprimirResumo(relatorio);
+        System.out.println("Resultado gravado em " + saida.toAbsolutePath());
+    }
+
+    // "10" gera posto-01..posto-10; senão é a lista de postos separados por vírgula
+    private static List<String> postos(String valor) {
+        List<String> postos = new ArrayList<>();
+        if (valor.matches("\\d+")) {
+            int quantidade = Integer.parseInt(valor);
+            for (int i = 1; i <= quantidade; i++) {
+                postos.add(String.format("posto-%02d", i));
+            }
+        } else {
+            for (String posto : valor.split(",")) {
+                if (!posto.isBlank()) {
+                    postos.add(posto.trim());
+                }
+            }
+        }
+        return postos;
+    }
+
+    // Cadastra os funcionários do teste (idempotente do ponto de vista do teste: o diretório busca por idLogin)
+    private void preparar(String url, List<String[]> funcionarios) throws Exception {
+        System.out.println("Cadastrando " + funcionarios.size() + " funcionários...");
+        Semaphore limite = new Semaphore(16);
+        AtomicInteger falhas = new AtomicInteger();
+        List<CompletableFuture<?>> envios = new ArrayList<>();
+        for (String[] funcionario : funcionarios) {
+            Map<String, Object> usuario = new LinkedHashMap<>();
+            usuario.put("idLogin", funcionario[0]);
+            usuario.put("posto", funcionario[1]);
+            usuario.put("name", funcionario[2]);
+            usuario.put("email", funcionario[0] + "@carga.local");
+            usuario.put("senha", "carga");
+            usuario.put("senhaPdv", SENHA_PDV);
+            usuario.put("role", "funcionario");
+            usuario.put("permissao", "1");
+            usuario.put("horarioEntrada", "06:00");
+            usuario.put("horarioSaida", "14:00");
+            usuario.put("escala", "6x1");
+            HttpRequest request = HttpRequest.newBuilder(URI.create(url + "/api/usuarios"))
+                    .timeout(Duration.ofSeconds(30))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(usuario)))
+                    .build();
+            limite.acquire();
+            envios.add(http.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((r, e) -> {
+                        limite.release();
+                        if (e != null || r.statusCode() >= 300) {
+                            falhas.incrementAndGet();
+                        }
+                    }));
+        }
+        CompletableFuture.allOf(envios.toArray(new CompletableFuture[0])).exceptionally(e -> null).join();
+        if (falhas.get() == funcionarios.size()) {
+            throw new IllegalStateException("Nenhum funcionário cadastrado; a aplicação está no ar em " + url + "?");
+        }
+        if (falhas.get() > 0) {
+            System.out.println("Aviso: " + falhas.get() + " cadastros falharam");
+        }
+    }
+
+    private void baterPonto(String url, String[] funcionario, FotoSintetica foto, String modoFoto,
+                            int segundo, long agendado, long timeoutMs) throws IOException {
+        Map<String, Object> campos = new LinkedHashMap<>();
+        campos.put("idLogin", funcionario[0]);
+        campos.put("senhaPdv", SENHA_PDV);
+        campos.put("posto", funcionario[1]);
+        campos.put("usuario", funcionario[2]);
+        campos.put("horaPonto", HORA_PONTO.format(Instant.now()));
+
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url + "/api/login"))
+                .timeout(Duration.ofMillis(timeoutMs));
+        if (foto != null && "multipart".equals(modoFoto)) {
+            String fronteira = "----carga" + Long.toHexString(aleatorio.nextLong());
+            request.header("Content-Type", "multipart/form-data; boundary=" + fronteira)
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(multipart(fronteira, campos, foto.unica(aleatorio))));
+        } else {
+            if (foto != null) {
+                campos.put("foto", "data:image/jpeg;base64," + Base64.getEncoder().encodeToString(foto.unica(aleatorio)));
+            }
+            request.header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(campos)));
+        }
+
+        emVoo.incrementAndGet();
+        http.sendAsync(request.build(), HttpResponse.BodyHandlers.discarding())
+                .whenComplete((resposta, erro) -> {
+                    emVoo.decrementAndGet();
+                    registrarPonto(segundo, agendado, erro != null ? tipoErro(erro) : erroHttp(resposta.statusCode()));
+                });
+    }
+
+    private void registrarPonto(int segundo, long agendado, String erro) {
+        long micros = (System.nanoTime() - agendado) / 1000;
+        pontos.registrar(micros, erro);
+        pontosPorSegundo[segundo].registrar(micros, erro);
+    }
+
+    // Um ciclo do aprovador: lista uma página de pendentes do cliente e aprova todos em lote
+    private void aprovar(String url, String cliente, int lote, long timeoutMs) {
+        try {
+            String c = URLEncoder.encode(cliente, StandardCharsets.UTF_8);
+            long inicio = System.nanoTime();
+            HttpResponse<byte[]> lista = http.send(HttpRequest.newBuilder(URI.create(url + "/api/pontos?cliente=" + c + "&tamanho=" + lote))
+                    .timeout(Duration.ofMillis(timeoutMs))
+                    .header("Authorization", autorizacao)
+                    .GET().build(), HttpResponse.BodyHandlers.ofByteArray());
+            listagens.registrar((System.nanoTime() - inicio) / 1000, erroHttp(lista.statusCode()));
+            if (lista.statusCode() != 200) {
+                return;
+            }
+            List<Map<String, Object>> pendentes = objectMapper.readValue(lista.body(), new TypeReference<>() {
+            });
+            if (pendentes.isEmpty()) {
+                return;
+            }
+            List<Object> ids = new ArrayList<>();
+            for (Map<String, Object> ponto : pendentes) {
+                ids.add(ponto.get("id"));
+            }
+
+            inicio = System.nanoTime();
+            HttpResponse<Void> resposta = http.send(HttpRequest.newBuilder(URI.create(url + "/api/pontos/aprovar-lote?cliente=" + c))
+                    .timeout(Duration.ofMillis(timeoutMs))
+                    .header("Authorization", autorizacao)
+                    .header("Content-Type", "application/json")
+                    .PUT(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(Map.of("ids", ids, "usuario", "carga"))))
+                    .build(), HttpResponse.BodyHandlers.discarding());
+            aprovacoes.registrar((System.nanoTime() - inicio) / 1000, erroHttp(resposta.statusCode()));
+            if (resposta.statusCode() == 200) {
+                aprovados.addAndGet(ids.size());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            listagens.registrar(0, tipoErro(e));
+        }
+    }
+
+    private Map<String, Object> relatorio(Instant inicio, double duracaoReal, double duracaoCurva, FotoSintetica foto) {
+        Map<String, Object> relatorio = new LinkedHashMap<>();
+        relatorio.put("inicio", inicio.toString());
+        relatorio.put("duracaoSegundos", duracaoReal);
+        relatorio.put("configuracao", opcoes.valores);
+        relatorio.put("fotoBytes", foto != null ? foto.tamanho() : 0);
+        relatorio.put("processadores", Runtime.getRuntime().availableProcessors());
+
+        Map<String, Object> operacoes = new LinkedHashMap<>();
+        operacoes.put("ponto", pontos.resumo(duracaoCurva));
+        operacoes.put("listarPendentes", listagens.resumo(duracaoReal));
+        operacoes.put("aprovarLote", aprovacoes.resumo(duracaoReal));
+        relatorio.put("operacoes", operacoes);
+        relatorio.put("pontosAprovados", aprovados.get());
+
+        List<Map<String, Object>> serie = new ArrayList<>();
+        for (int s = 0; s < pontosPorSegundo.length; s++) {
+            Map<String, Object> resumo = pontosPorSegundo[s].resumo(1);
+            Map<String, Object> ponto = new LinkedHashMap<>();
+            ponto.put("segundo", s);
+            ponto.put("ofertados", ofertadosPorSegundo.get(s));
+            ponto.put("sucesso", resumo.get("sucesso"));
+            ponto.put("erros", pontosPorSegundo[s].erros());
+            ponto.put("latenciaMs", resumo.get("latenciaMs"));
+            serie.add(ponto);
+        }
+        relatorio.put("seriePorSegundo", serie);
+        return relatorio;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void imprimirResumo(Map<String, Object> relatorio) {
+        Map<String, Object> operacoes = (Map<String, Object>) relatorio.get("operacoes");
+        System.out.printf("%-16s %8s %8s %9s %9s %9s %9s %9s%n", "operação", "req", "erro%", "req/s", "p50 ms", "p99 ms", "p999 ms", "max ms");
+        for (Map.Entry<String, Object> item : operacoes.entrySet()) {
+            Map<String, Object> op = (Map<String, Object>) item.getValue();
+            Map<String, Object> lat = (Map<String, Object>) op.get("latenciaMs");
+            System.out.printf("%-16s %8d %7.2f%% %9.1f %9.1f %9.1f %9.1f %9.1f%n", item.getKey(),
+                    ((Number) op.get("requisicoes")).longValue(), ((Number) op.get("taxaErro")).doubleValue() * 100,
+                    ((Number) op.get("vazaoPorSegundo")).doubleValue(),
+                    lat.get("p50"), lat.get("p99"), lat.get("p999"), lat.get("max"));
+            Map<String, Object> erros = (Map<String, Object>) op.get("erros");
+            if (!erros.isEmpty()) {
+                System.out.println("                 erros: " + erros);
+            }
+        }
+    }
+
+    private static byte[] multipart(String fronteira, Map<String, Object> campos, byte[] foto) {
+        ByteArrayOutputStream corpo = new ByteArrayOutputStream(foto.length + 1024);
+        for (Map.Entry<String, Object> campo : campos.entrySet()) {
+            escrever(corpo, "--" + fronteira + "\r\nContent-Disposition: form-data; name=\"" + campo.getKey() + "\"\r\n\r\n"
+                    + campo.getValue() + "\r\n");
+        }
+        escrever(corpo, "--" + fronteira + "\r\nContent-Disposition: form-data; name=\"foto\"; filename=\"foto.jpg\"\r\n"
+                + "Content-Type: image/jpeg\r\n\r\n");
+        corpo.write(foto, 0, foto.length);
+        escrever(corpo, "\r\n--" + fronteira + "--\r\n");
+        return corpo.toByteArray();
+    }
+
+    private static void escrever(ByteArrayOutputStream saida, String texto) {
+        byte[] bytes = texto.getBytes(StandardCharsets.UTF_8);
+        saida.write(bytes, 0, bytes.length);
+    }
+
+    private static String erroHttp(int status) {
+        return status >= 200 && status < 300 ? null : "http-" + status;
+    }
+
+    private static String tipoErro(Throwable erro) {
+        Throwable causa = erro instanceof CompletionException && erro.getCause() != null ? erro.getCause() : erro;
+        if (causa instanceof HttpTimeoutException) {
+            return "timeout";
+        }
+        if (causa instanceof IOException) {
+            return "conexao";
+        }
+        return causa.getClass().getSimpleName();
+    }
+
+    private static ThreadFactory daemon(String nome) {
+        AtomicInteger contador = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, "carga-" + nome + "-" + contador.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    // Argumentos "--chave valor" e flags "--chave" (sem valor)
+    static final class Opcoes {
+        final Map<String, String> valores = new LinkedHashMap<>();
+
+        static Opcoes ler(String[] args) {
+            Opcoes opcoes = new Opcoes();
+            for (int i = 0; i < args.length; i++) {
+                if (!args[i].startsWith("--")) {
+                    throw new IllegalArgumentException("Argumento inesperado: " + args[i]);
+                }
+                String chave = args[i].substring(2);
+                if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+                    opcoes.valores.put(chave, args[++i]);
+                } else {
+                    opcoes.valores.put(chave, "true");
+                }
+            }
+            return opcoes;
+        }
+
+        String texto(String chave, String padrao) {
+            return valores.getOrDefault(chave, padrao);
+        }
+
+        int inteiro(String chave, int padrao) {
+            return valores.containsKey(chave) ? Integer.parseInt(valores.get(chave)) : padrao;
+        }
+
+        long longo(String chave, long padrao) {
+            return valores.containsKey(chave) ? Long.parseLong(valores.get(chave)) : padrao;
+        }
+
+        double decimal(String chave, double padrao) {
+            return valores.containsKey(chave) ? Double.parseDouble(valores.get(chave)) : padrao;
+        }
+
+        boolean flag(String chave) {
+            return Boolean.parseBoolean(valores.getOrDefault(chave, "false"));
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package apontamentoweb.grupocolinas.carga;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Latências e erros de uma operação. As latências (microssegundos, medidas a partir do instante
+ * em que a requisição deveria ter saído, não de quando saiu) ficam todas num long[] e os
+ * percentis são exatos, calculados uma vez no fim.
+ */
+final class Latencias {
+
+    private long[] valores = new long[1024];
+    private int quantidade;
+    private long sucesso;
+    private final Map<String, Long> erros = new TreeMap<>();
+
+    synchronized void registrar(long micros, String erro) {
+        if (erro != null) {
+            erros.merge(erro, 1L, Long::sum);
+        } else {
+            sucesso++;
+        }
+        if (quantidade == valores.length) {
+            valores = Arrays.copyOf(valores, quantidade * 2);
+        }
+        valores[quantidade++] = micros;
+    }
+
+    synchronized long total() {
+        return quantidade;
+    }
+
+    synchronized long erros() {
+        return quantidade - sucesso;
+    }
+
+    synchronized Map<String, Object> resumo(double segundos) {
+        long[] ordenados = Arrays.copyOf(valores, quantidade);
+        Arrays.sort(ordenados);
+
+        Map<String, Object> latencia = new LinkedHashMap<>();
+        latencia.put("p50", percentil(ordenados, 0.50));
+        latencia.put("p90", percentil(ordenados, 0.90));
+        latencia.put("p99", percentil(ordenados, 0.99));
+        latencia.put("p999", percentil(ordenados, 0.999));
+        latencia.put("max", quantidade > 0 ? ordenados[quantidade - 1] / 1000.0 : 0);
+        latencia.put("media", quantidade > 0 ? Arrays.stream(ordenados).average().orElse(0) / 1000.0 : 0);
+
+        Map<String, Object> resumo = new LinkedHashMap<>();
+        resumo.put("requisicoes", quantidade);
+        resumo.put("sucesso", sucesso);
+        resumo.put("erros", new LinkedHashMap<>(erros));
+        resumo.put("taxaErro", quantidade > 0 ? (double) (quantidade - sucesso) / quantidade : 0);
+        resumo.put("vazaoPorSegundo", segundos > 0 ? sucesso / segundos : 0);
+        resumo.put("latenciaMs", latencia);
+        return resumo;
+    }
+
+    static double percentil(long[] ordenados, double p) {
+        if (ordenados.length == 0) {
+            return 0;
+        }
+        int indice = (int) Math.ceil(p * ordenados.length) - 1;
+        return ordenados[Math.max(0, Math.min(indice, ordenados.length - 1))] / 1000.0;
+    }
+}
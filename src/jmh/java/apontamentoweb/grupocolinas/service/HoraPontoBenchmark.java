@@ -0,0 +1,31 @@
+package apontamentoweb.grupocolinas.service;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Conversão do horaPonto ISO enviado pelo PDV em Timestamp, feita a cada batida de ponto.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HoraPontoBenchmark {
+
+    private final String[] horarios = {
+            "2026-10-18T11:02:33.125Z",
+            "2026-10-18T20:59:01.000Z",
+            "2026-10-19T03:15:47.908Z",
+            "2026-10-19T12:00:00.000Z"
+    };
+    private int indice;
+
+    @Benchmark
+    public Object converterHoraPonto() {
+        indice = (indice + 1) & 3;
+        return PontoIngestaoService.converterHoraPonto(horarios[indice]);
+    }
+}
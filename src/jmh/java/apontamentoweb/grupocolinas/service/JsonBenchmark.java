@@ -0,0 +1,84 @@
+package apontamentoweb.grupocolinas.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.DocumentosSinteticos;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialização JSON das respostas baseadas em Map, com o ObjectMapper configurado como no Spring:
+ * uma página da listagem de pendentes (200 itens, com Timestamp do Firestore) e a planilha
+ * mensal organizada de um posto com 10k pontos.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonBenchmark {
+
+    private ObjectMapper objectMapper;
+    private List<Map<String, Object>> paginaPendentes;
+    private Map<String, Map<String, List<Map<String, Object>>>> planilha;
+
+    @Setup
+    public void preparar() throws Exception {
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+
+        paginaPendentes = new ArrayList<>();
+        try (DocumentosSinteticos sinteticos = new DocumentosSinteticos()) {
+            for (int i = 0; i < MapeamentoBenchmark.PAGINA; i++) {
+                Map<String, Object> ponto = new HashMap<>();
+                ponto.put("idLogin", "F" + (1000 + i % 80));
+                ponto.put("usuario", "Funcionario " + (i % 80));
+                ponto.put("horaPonto", Timestamp.ofTimeSecondsAndNanos(1_790_000_000L + i * 97L, 0));
+                ponto.put("posto", "default");
+                ponto.put("status", "Pendente");
+                ponto.put("fotoHash", String.format("%064x", i));
+                ponto.put("fotoMiniaturaHash", String.format("%064x", i + 1));
+                paginaPendentes.add(FirestoreService.pontoParaListagem(sinteticos.documento("pontos", "p" + i, ponto), "default", true));
+            }
+        }
+
+        List<Map<String, Object>> documentos = new ArrayList<>();
+        int id = 0;
+        for (int f = 0; f < 83; f++) {
+            Map<String, Object> dias = new HashMap<>();
+            for (int d = 1; d <= 30; d++) {
+                Map<String, Object> linhas = new HashMap<>();
+                for (int b = 0; b < 4; b++) {
+                    Map<String, Object> linha = new HashMap<>();
+                    String pontoId = "p" + (id++);
+                    linha.put("pontoId", pontoId);
+                    linha.put("idLogin", "F" + f);
+                    linha.put("usuario", "Funcionario " + f);
+                    linha.put("status", "Aprovado");
+                    linha.put("aprovadoPor", "gestor");
+                    linha.put("dataAprovacao", new Date(1_790_000_000_000L + id * 1000L));
+                    linha.put("horaPonto", LocalDate.of(2026, 9, d).atTime(8 + b * 3, 0).toInstant(ZoneOffset.UTC).toString());
+                    linhas.put(pontoId, linha);
+                }
+                dias.put(LocalDate.of(2026, 9, d).toString(), linhas);
+            }
+            documentos.add(Map.of("idLogin", "F" + f, "dias", dias));
+        }
+        planilha = PlanilhaService.organizar(documentos);
+    }
+
+    @Benchmark
+    public byte[] paginaPendentes() throws Exception {
+        return objectMapper.writeValueAsBytes(paginaPendentes);
+    }
+
+    @Benchmark
+    public byte[] planilhaMensal() throws Exception {
+        return objectMapper.writeValueAsBytes(planilha);
+    }
+}
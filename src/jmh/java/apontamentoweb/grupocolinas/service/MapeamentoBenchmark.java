@@ -0,0 +1,104 @@
+package apontamentoweb.grupocolinas.service;
+
+import apontamentoweb.grupocolinas.model.entity.Ponto;
+import apontamentoweb.grupocolinas.model.entity.User;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.DocumentosSinteticos;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Conversão de documentos do Firestore para as entidades: PontoService.documentToPonto
+ * (listagem dos pendentes) e UserService.documentToUser (login / diretório de usuários).
+ * Cada invocação converte uma página de {@link #PAGINA} documentos.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MapeamentoBenchmark {
+
+    static final int PAGINA = 200;
+
+    private final PontoService pontoService = new PontoService();
+    private final UserService userService = new UserService();
+    private DocumentosSinteticos sinteticos;
+    private List<QueryDocumentSnapshot> pontos;
+    private List<QueryDocumentSnapshot> usuarios;
+
+    @Setup
+    public void preparar() {
+        sinteticos = new DocumentosSinteticos();
+        pontos = new ArrayList<>(PAGINA);
+        usuarios = new ArrayList<>(PAGINA);
+        long base = 1_790_000_000L;
+        for (int i = 0; i < PAGINA; i++) {
+            Map<String, Object> ponto = new HashMap<>();
+            ponto.put("idLogin", "F" + (1000 + i % 80));
+            ponto.put("usuario", "Funcionario " + (i % 80));
+            ponto.put("horaPonto", Timestamp.ofTimeSecondsAndNanos(base + i * 97L, 123_000_000));
+            ponto.put("posto", "default");
+            ponto.put("status", "Pendente");
+            ponto.put("senhaPdv", "1234");
+            ponto.put("fotoHash", String.format("%064x", i));
+            ponto.put("fotoMiniaturaHash", String.format("%064x", i + 1));
+            ponto.put("createdAt", Timestamp.ofTimeSecondsAndNanos(base + i * 97L + 1, 0));
+            pontos.add(sinteticos.documento("pontos", "p" + i, ponto));
+
+            Map<String, Object> usuario = new HashMap<>();
+            usuario.put("idLogin", "F" + (1000 + i));
+            usuario.put("name", "Funcionario " + i);
+            usuario.put("email", "f" + i + "@grupocolinas.com.br");
+            usuario.put("permissao", "1");
+            usuario.put("role", "funcionario");
+            usuario.put("senhaPdv", "1234");
+            usuario.put("horarioEntrada", "08:00");
+            usuario.put("horarioSaida", "17:00");
+            usuario.put("escala", "5x2");
+            usuario.put("ativo", "1");
+            usuario.put("posto", "default");
+            usuarios.add(sinteticos.documento("users", "u" + i, usuario));
+        }
+    }
+
+    @TearDown
+    public void encerrar() throws Exception {
+        sinteticos.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAGINA)
+    public void documentToPonto(Blackhole bh) {
+        for (QueryDocumentSnapshot doc : pontos) {
+            Ponto ponto = pontoService.documentToPonto(doc);
+            bh.consume(ponto);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAGINA)
+    public void documentToUser(Blackhole bh) {
+        for (QueryDocumentSnapshot doc : usuarios) {
+            User usuario = userService.documentToUser(doc);
+            bh.consume(usuario);
+        }
+    }
+
+    // Item da listagem JSON dos pendentes (GET /api/pontos e feed SSE)
+    @Benchmark
+    @OperationsPerInvocation(PAGINA)
+    public void pontoParaListagem(Blackhole bh) {
+        for (QueryDocumentSnapshot doc : pontos) {
+            bh.consume(FirestoreService.pontoParaListagem(doc, "default", true));
+        }
+    }
+}
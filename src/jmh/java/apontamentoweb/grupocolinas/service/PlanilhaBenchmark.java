@@ -0,0 +1,70 @@
+package apontamentoweb.grupocolinas.service;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Agrupamento e ordenação da planilha mensal (obterPlanilhaMensalOrganizada): documentos da
+ * planilha materializada -> idLogin -> dia -> linhas ordenadas por horaPonto. Cada funcionário
+ * tem 4 batidas por dia em 30 dias, então 10k pontos são ~83 funcionários e 1M são ~8300.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class PlanilhaBenchmark {
+
+    private static final int DIAS = 30;
+    private static final int BATIDAS_POR_DIA = 4;
+
+    @Param({"10000", "100000", "1000000"})
+    public int pontos;
+
+    private List<Map<String, Object>> documentos;
+
+    @Setup
+    public void preparar() {
+        Random aleatorio = new Random(42);
+        int funcionarios = Math.max(1, pontos / (DIAS * BATIDAS_POR_DIA));
+        documentos = new ArrayList<>(funcionarios);
+        int gerados = 0;
+        for (int f = 0; f < funcionarios && gerados < pontos; f++) {
+            String idLogin = "F" + (10000 + f);
+            Map<String, Object> dias = new HashMap<>();
+            for (int d = 1; d <= DIAS && gerados < pontos; d++) {
+                String dia = LocalDate.of(2026, 9, d).toString();
+                Map<String, Object> linhas = new HashMap<>();
+                for (int b = 0; b < BATIDAS_POR_DIA && gerados < pontos; b++, gerados++) {
+                    String pontoId = Long.toString(aleatorio.nextLong() & Long.MAX_VALUE, 36);
+                    int segundo = 8 * 3600 + b * 3 * 3600 + aleatorio.nextInt(1800);
+                    Map<String, Object> linha = new HashMap<>();
+                    linha.put("pontoId", pontoId);
+                    linha.put("idLogin", idLogin);
+                    linha.put("usuario", "Funcionario " + f);
+                    linha.put("status", "Aprovado");
+                    linha.put("aprovadoPor", "gestor");
+                    linha.put("horaPonto", LocalDate.of(2026, 9, d).atStartOfDay().plusSeconds(segundo).toInstant(ZoneOffset.UTC).toString());
+                    linhas.put(pontoId, linha);
+                }
+                dias.put(dia, linhas);
+            }
+            Map<String, Object> doc = new HashMap<>();
+            doc.put("ano", 2026);
+            doc.put("mes", 9);
+            doc.put("idLogin", idLogin);
+            doc.put("dias", dias);
+            documentos.add(doc);
+        }
+    }
+
+    @Benchmark
+    public Object organizar() {
+        return PlanilhaService.organizar(documentos);
+    }
+}
@@ -0,0 +1,35 @@
+package com.google.cloud.firestore;
+
+import com.google.cloud.NoCredentials;
+import com.google.cloud.Timestamp;
+
+import java.util.Map;
+
+/**
+ * Monta snapshots do Firestore a partir de mapas, sem servidor, para os benchmarks.
+ * Fica no pacote do SDK porque os construtores dos snapshots não são públicos.
+ */
+public final class DocumentosSinteticos implements AutoCloseable {
+
+    private final FirestoreImpl firestore;
+
+    public DocumentosSinteticos() {
+        this.firestore = (FirestoreImpl) FirestoreOptions.newBuilder()
+                .setProjectId("benchmark")
+                .setCredentials(NoCredentials.getInstance())
+                .build()
+                .getService();
+    }
+
+    public QueryDocumentSnapshot documento(String colecao, String id, Map<String, Object> dados) {
+        DocumentSnapshot base = DocumentSnapshot.fromObject(firestore, firestore.collection(colecao).document(id), dados,
+                UserDataConverter.NO_DELETES);
+        Timestamp agora = Timestamp.now();
+        return new QueryDocumentSnapshot(firestore, base.getReference(), base.getProtoFields(), agora, agora, agora);
+    }
+
+    @Override
+    public void close() throws Exception {
+        firestore.close();
+    }
+}
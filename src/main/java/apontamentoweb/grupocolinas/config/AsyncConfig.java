@@ -0,0 +1,32 @@
+package apontamentoweb.grupocolinas.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.async.AsyncWebRequest;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.concurrent.Callable;
+
+@Configuration
+public class AsyncConfig implements WebMvcConfigurer {
+
+    // Atributo da requisição com um timeout assíncrono próprio (ms), acima do spring.mvc.async.request-timeout.
+    // Usado pelas respostas em streaming (exportações), que podem levar bem mais que o registro de ponto.
+    public static final String ATRIBUTO_TIMEOUT_ASYNC = "apontamento.async.timeout";
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.registerCallableInterceptors(new CallableProcessingInterceptor() {
+            @Override
+            public <T> void beforeConcurrentHandling(NativeWebRequest request, Callable<T> task) {
+                Object timeout = request.getAttribute(ATRIBUTO_TIMEOUT_ASYNC, RequestAttributes.SCOPE_REQUEST);
+                if (timeout instanceof Long ms && request instanceof AsyncWebRequest asyncRequest) {
+                    asyncRequest.setTimeout(ms);
+                }
+            }
+        });
+    }
+}
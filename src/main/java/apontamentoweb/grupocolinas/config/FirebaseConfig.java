@@ -1,10 +1,13 @@
 package apontamentoweb.grupocolinas.config;
 
+import com.google.auth.oauth2.AccessToken;
 import com.google.auth.oauth2.GoogleCredentials;
 import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.FirestoreOptions;
 import com.google.firebase.FirebaseApp;
 import com.google.firebase.FirebaseOptions;
 import com.google.firebase.cloud.FirestoreClient;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.io.ClassPathResource;
@@ -26,8 +29,28 @@ public class FirebaseConfig {
             "/ftp/crestos&macal/avaliacao/apontamento/backend/serviceAccountKey.json"
     };
 
+    // Emulador local do Firestore (testes de carga); vazio usa o projeto real com o ServiceAccountKey.json
+    @Value("${apontamento.firestore.emulador-host:}")
+    private String emuladorHost;
+
+    @Value("${apontamento.firestore.emulador-projeto:apontamento-local}")
+    private String emuladorProjeto;
+
     @Bean
     public FirebaseApp firebaseApp() throws IOException {
+        if (FirebaseApp.getApps().isEmpty() && !emuladorHost.isEmpty()) {
+            System.out.println("Firestore: usando o emulador em " + emuladorHost);
+            // O emulador aceita qualquer token; "owner" ignora as regras de segurança
+            FirebaseOptions options = FirebaseOptions.builder()
+                    .setCredentials(GoogleCredentials.create(new AccessToken("owner", null)))
+                    .setProjectId(emuladorProjeto)
+                    .setFirestoreOptions(FirestoreOptions.newBuilder()
+                            .setEmulatorHost(emuladorHost)
+                            .setProjectId(emuladorProjeto)
+                            .build())
+                    .build();
+            return FirebaseApp.initializeApp(options);
+        }
         if (FirebaseApp.getApps().isEmpty()) {
             InputStream serviceAccount = findServiceAccountFile();
 
@@ -0,0 +1,81 @@
+package apontamentoweb.grupocolinas.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mede a serialização JSON das respostas (apontamento.json.escrita, por padrão de URI), a etapa
+ * que fica entre o fim do controller e o fim do http.server.requests do Actuator.
+ */
+@Configuration
+public class MetricasConfig implements WebMvcConfigurer {
+
+    private final MeterRegistry registry;
+    private final ObjectMapper objectMapper;
+
+    public MetricasConfig(MeterRegistry registry, ObjectMapper objectMapper) {
+        this.registry = registry;
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        for (int i = 0; i < converters.size(); i++) {
+            if (converters.get(i) instanceof MappingJackson2HttpMessageConverter) {
+                converters.set(i, new JsonMedido(objectMapper, registry));
+            }
+        }
+    }
+
+    static final class JsonMedido extends MappingJackson2HttpMessageConverter {
+        private final MeterRegistry registry;
+
+        JsonMedido(ObjectMapper objectMapper, MeterRegistry registry) {
+            super(objectMapper);
+            this.registry = registry;
+        }
+
+        @Override
+        protected void writeInternal(Object object, Type type, HttpOutputMessage outputMessage) throws IOException, HttpMessageNotWritableException {
+            long inicio = System.nanoTime();
+            try {
+                super.writeInternal(object, type, outputMessage);
+            } finally {
+                // O registry reaproveita o Timer já registrado com o mesmo nome e tags
+                Timer.builder("apontamento.json.escrita")
+                        .description("Serialização JSON das respostas")
+                        .tag("uri", uri())
+                        .register(registry)
+                        .record(System.nanoTime() - inicio, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        // Padrão do mapeamento (/api/pontos/{pontoId}/...), não a URI real: a tag não cresce com ids
+        private static String uri() {
+            if (RequestContextHolder.getRequestAttributes() instanceof ServletRequestAttributes atributos) {
+                HttpServletRequest request = atributos.getRequest();
+                Object padrao = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+                if (padrao != null) {
+                    return padrao.toString();
+                }
+            }
+            return "desconhecida";
+        }
+    }
+}
@@ -25,6 +25,8 @@ public class SecurityConfig {
                 .authorizeHttpRequests(auth -> auth
                         // Endpoints públicos
                         .requestMatchers("/api/login", "/api/usuarios/**").permitAll()
+                        // Saúde e métricas para o Prometheus (restringir por rede/firewall)
+                        .requestMatchers("/actuator/health", "/actuator/prometheus").permitAll()
                         // Qualquer outra rota precisa de autenticação
                         .anyRequest().authenticated()
                 );
@@ -45,7 +47,7 @@ public class SecurityConfig {
         config.setAllowedMethods(List.of("GET", "POST", "PUT", "DELETE", "OPTIONS"));
         config.setAllowedHeaders(List.of("*"));
         config.setAllowCredentials(true);
-        config.setExposedHeaders(List.of("Authorization"));
+        config.setExposedHeaders(List.of("Authorization", "X-Proximo-Cursor"));
 
         UrlBasedCorsConfigurationSource source = new UrlBasedCorsConfigurationSource();
         source.registerCorsConfiguration("/**", config);
@@ -0,0 +1,138 @@
+package apontamentoweb.grupocolinas.controller;
+
+import apontamentoweb.grupocolinas.service.FotoColetaService;
+import apontamentoweb.grupocolinas.service.FotoProcessamentoService;
+import apontamentoweb.grupocolinas.service.FotoStorageService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+/**
+ * Entrega as fotos dos pontos a partir do armazenamento local. Como o conteúdo é
+ * endereçado pelo hash, a resposta é imutável: ETag = hash e cache de 1 ano no navegador.
+ * Suporta Range (um intervalo) e usa sendfile do Tomcat quando disponível, caindo para
+ * FileChannel.transferTo caso contrário.
+ */
+@RestController
+@RequestMapping("/api/fotos")
+@CrossOrigin(origins = {"http://localhost:3000", "https://18.230.5.22"})
+public class FotoController {
+
+    @Autowired
+    private FotoStorageService fotoStorageService;
+
+    @Autowired
+    private FotoProcessamentoService fotoProcessamentoService;
+
+    @Autowired
+    private FotoColetaService fotoColetaService;
+
+    // Profundidade da fila e contadores do pool de redução das fotos
+    @GetMapping("/processamento/estatisticas")
+    public ResponseEntity<Map<String, Object>> estatisticasProcessamento() {
+        return ResponseEntity.ok(fotoProcessamentoService.estatisticas());
+    }
+
+    // Passadas e remoções da coleta de fotos sem referência
+    @GetMapping("/coleta/estatisticas")
+    public ResponseEntity<Map<String, Object>> estatisticasColeta() {
+        return ResponseEntity.ok(fotoColetaService.estatisticas());
+    }
+
+    @GetMapping("/{hash}")
+    public void obterFoto(@PathVariable String hash, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if (!fotoStorageService.existe(hash)) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        String etag = "\"" + hash + "\"";
+        response.setHeader(HttpHeaders.ETAG, etag);
+        response.setHeader(HttpHeaders.CACHE_CONTROL, "private, max-age=31536000, immutable");
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch != null && (ifNoneMatch.contains(etag) || ifNoneMatch.trim().equals("*"))) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        Path arquivo = fotoStorageService.caminho(hash);
+        try (FileChannel canal = FileChannel.open(arquivo, StandardOpenOption.READ)) {
+            long tamanho = canal.size();
+            long inicio = 0;
+            long fim = tamanho - 1;
+
+            String range = request.getHeader(HttpHeaders.RANGE);
+            if (range != null && range.startsWith("bytes=") && !range.contains(",")) {
+                long[] intervalo = interpretarRange(range.substring(6).trim(), tamanho);
+                if (intervalo == null) {
+                    response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + tamanho);
+                    response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                    return;
+                }
+                inicio = intervalo[0];
+                fim = intervalo[1];
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + inicio + "-" + fim + "/" + tamanho);
+            }
+
+            long quantidade = fim - inicio + 1;
+            response.setContentType(fotoStorageService.contentType(hash));
+            response.setContentLengthLong(quantidade);
+
+            // Tomcat NIO: o próprio conector envia o arquivo com sendfile, sem passar pelo heap
+            if (Boolean.TRUE.equals(request.getAttribute("org.apache.tomcat.sendfile.support"))) {
+                request.setAttribute("org.apache.tomcat.sendfile.filename", arquivo.toAbsolutePath().toString());
+                request.setAttribute("org.apache.tomcat.sendfile.start", inicio);
+                request.setAttribute("org.apache.tomcat.sendfile.end", fim + 1);
+                return;
+            }
+
+            WritableByteChannel saida = Channels.newChannel(response.getOutputStream());
+            long posicao = inicio;
+            while (posicao <= fim) {
+                posicao += canal.transferTo(posicao, fim + 1 - posicao, saida);
+            }
+        }
+    }
+
+    // Retorna {inicio, fim} (inclusivos) ou null se o intervalo não puder ser atendido
+    private long[] interpretarRange(String especificacao, long tamanho) {
+        int traco = especificacao.indexOf('-');
+        if (traco < 0 || tamanho == 0) {
+            return null;
+        }
+        try {
+            String a = especificacao.substring(0, traco).trim();
+            String b = especificacao.substring(traco + 1).trim();
+            if (a.isEmpty()) {
+                // bytes=-N: os últimos N bytes
+                long sufixo = Long.parseLong(b);
+                if (sufixo <= 0) {
+                    return null;
+                }
+                return new long[]{Math.max(0, tamanho - sufixo), tamanho - 1};
+            }
+            long inicio = Long.parseLong(a);
+            long fim = b.isEmpty() ? tamanho - 1 : Math.min(Long.parseLong(b), tamanho - 1);
+            if (inicio >= tamanho || inicio > fim) {
+                return null;
+            }
+            return new long[]{inicio, fim};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -1,32 +1,138 @@
 package apontamentoweb.grupocolinas.controller;
 
+import apontamentoweb.grupocolinas.dto.PaginaCursor;
 import apontamentoweb.grupocolinas.model.entity.*;
+import apontamentoweb.grupocolinas.service.ClienteRegistry;
+import apontamentoweb.grupocolinas.service.Compartimento;
 import apontamentoweb.grupocolinas.service.FirestoreService;
+import apontamentoweb.grupocolinas.service.FotoStorageService;
+import apontamentoweb.grupocolinas.service.IdempotenciaService;
+import apontamentoweb.grupocolinas.service.PontoHistoricoService;
+import apontamentoweb.grupocolinas.service.PontoJournalService;
+import apontamentoweb.grupocolinas.service.PontoReplicaService;
+import apontamentoweb.grupocolinas.service.PontoStreamService;
+import apontamentoweb.grupocolinas.service.UltimosPontosService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.*;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.util.*;
+import java.util.concurrent.RejectedExecutionException;
 
 @RestController
 @RequestMapping("/api")
-@CrossOrigin(origins = {"http://localhost:3000", "https://18.230.5.22"})
+@CrossOrigin(origins = {"http://localhost:3000", "https://18.230.5.22"}, exposedHeaders = PontoController.HEADER_PROXIMO_CURSOR)
 public class PontoController {
 
+    public static final String HEADER_PROXIMO_CURSOR = "X-Proximo-Cursor";
+    private static final int MAX_TAMANHO_PAGINA = 500;
+    private static final int MAX_PONTOS_POR_LOTE = 500;
+
     @Autowired
     private FirestoreService firestoreService;
 
+    @Autowired
+    private PontoJournalService pontoJournalService;
+
+    @Autowired
+    private PontoStreamService pontoStreamService;
+
+    @Autowired
+    private PontoReplicaService pontoReplicaService;
+
+    @Autowired
+    private ClienteRegistry clientes;
+
+    @Autowired
+    private IdempotenciaService idempotenciaService;
+
+    @Autowired
+    private UltimosPontosService ultimosPontosService;
+
+    @Autowired
+    private PontoHistoricoService pontoHistoricoService;
+
+    // Feed SSE dos pendentes: snapshot inicial e depois só os deltas (added/modified/removed)
+    @GetMapping(value = "/pontos/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamPontos(@RequestParam(defaultValue = "default") String cliente) {
+        return pontoStreamService.inscrever(cliente);
+    }
+
+    @GetMapping("/pontos/stream/estatisticas")
+    public ResponseEntity<Map<String, Object>> estatisticasStream() {
+        return ResponseEntity.ok(pontoStreamService.estatisticas());
+    }
+
+    // Lista os pontos pendentes em páginas; o cursor da próxima página vem no header X-Proximo-Cursor
     @GetMapping("/pontos")
     public ResponseEntity<List<Map<String, Object>>> listarPontos(
-            @RequestParam(defaultValue = "default") String cliente) {
+            @RequestParam(defaultValue = "default") String cliente,
+            @RequestParam(defaultValue = "200") int tamanho,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "miniatura") String foto,
+            @RequestParam(required = false) String posto,
+            @RequestParam(required = false) String idLogin) {
+        Compartimento consulta = clientes.resolver(cliente).consulta();
         try {
-            return ResponseEntity.ok(firestoreService.listarPontosPendentes(cliente));
+            consulta.entrar();
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+        try {
+            int tamanhoPagina = Math.max(1, Math.min(tamanho, MAX_TAMANHO_PAGINA));
+            PaginaCursor<Map<String, Object>> pagina = firestoreService.listarPontosPendentes(
+                    cliente, posto, idLogin, tamanhoPagina, cursor, !"original".equals(foto));
+
+            ResponseEntity.BodyBuilder resposta = ResponseEntity.ok();
+            if (pagina.getProximoCursor() != null) {
+                resposta.header(HEADER_PROXIMO_CURSOR, pagina.getProximoCursor());
+            }
+            return resposta.body(pagina.getItens());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
         } catch (Exception e) {
             e.printStackTrace();
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        } finally {
+            consulta.sair();
         }
     }
 
+    @GetMapping("/pontos/contagem")
+    public ResponseEntity<Map<String, Object>> contarPontos(
+            @RequestParam(defaultValue = "default") String cliente,
+            @RequestParam(required = false) String posto,
+            @RequestParam(required = false) String idLogin) {
+        Compartimento consulta = clientes.resolver(cliente).consulta();
+        try {
+            consulta.entrar();
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+        try {
+            return ResponseEntity.ok(Map.of("pendentes", firestoreService.contarPontosPendentes(cliente, posto, idLogin)));
+        } catch (Exception e) {
+            e.printStackTrace();
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        } finally {
+            consulta.sair();
+        }
+    }
+
+    // Ocupação e recusas dos compartimentos (ponto/consulta) de cada cliente
+    @GetMapping("/clientes/estatisticas")
+    public ResponseEntity<Map<String, Object>> estatisticasClientes() {
+        return ResponseEntity.ok(clientes.estatisticas());
+    }
+
+    // Estado da réplica dos pendentes: sincronização e atraso em relação ao Firestore (503 se alguma coleção está fora)
+    @GetMapping("/pontos/replica/saude")
+    public ResponseEntity<Map<String, Object>> saudeReplica() {
+        Map<String, Object> saude = pontoReplicaService.saude();
+        return ResponseEntity.status("DEGRADADA".equals(saude.get("status")) ? HttpStatus.SERVICE_UNAVAILABLE : HttpStatus.OK).body(saude);
+    }
+
     @PutMapping("/pontos/{pontoId}/aprovar")
     public ResponseEntity<PontoResponse> aprovarPonto(
             @PathVariable String pontoId,
@@ -50,5 +156,134 @@ public class PontoController {
         }
     }
 
+    @PutMapping("/pontos/{pontoId}/recusar")
+    public ResponseEntity<PontoResponse> recusarPonto(
+            @PathVariable String pontoId,
+            @RequestBody PontoEfetivadoRequest request,
+            @RequestParam(defaultValue = "default") String cliente) {
+        PontoResponse response = new PontoResponse();
+        try {
+            firestoreService.atualizarStatusPonto(pontoId, "Recusado", extrasRecusa(request.getUsuario(), request.getJustificativa()), cliente);
+
+            response.setSucesso(true);
+            response.setMensagem("Ponto recusado com sucesso");
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            e.printStackTrace();
+            response.setSucesso(false);
+            response.setMensagem("Erro ao recusar ponto: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(response);
+        }
+    }
+
+    @PutMapping("/pontos/aprovar-lote")
+    public ResponseEntity<Map<String, Object>> aprovarPontosEmLote(
+            @RequestBody PontoLoteRequest request,
+            @RequestParam(defaultValue = "default") String cliente) {
+        Map<String, Object> extras = new HashMap<>();
+        extras.put("aprovadoPor", request.getUsuario());
+        extras.put("dataAprovacao", new Date());
+        return atualizarEmLote(request, "Aprovado", extras, cliente);
+    }
+
+    @PutMapping("/pontos/recusar-lote")
+    public ResponseEntity<Map<String, Object>> recusarPontosEmLote(
+            @RequestBody PontoLoteRequest request,
+            @RequestParam(defaultValue = "default") String cliente) {
+        return atualizarEmLote(request, "Recusado", extrasRecusa(request.getUsuario(), request.getJustificativa()), cliente);
+    }
+
+    private ResponseEntity<Map<String, Object>> atualizarEmLote(PontoLoteRequest request, String status,
+                                                                 Map<String, Object> extras, String cliente) {
+        List<String> ids = request.getIds();
+        if (ids == null || ids.isEmpty()) {
+            return ResponseEntity.badRequest()
+                    .body(Map.of("sucesso", false, "mensagem", "Nenhum ponto informado"));
+        }
+        if (ids.size() > MAX_PONTOS_POR_LOTE) {
+            return ResponseEntity.badRequest()
+                    .body(Map.of("sucesso", false, "mensagem", "Máximo de " + MAX_PONTOS_POR_LOTE + " pontos por requisição"));
+        }
+
+        try {
+            Map<String, String> erros = firestoreService.atualizarStatusPontosEmLote(ids, status, extras, cliente);
+
+            List<Map<String, Object>> resultados = new ArrayList<>();
+            boolean todosOk = true;
+            for (Map.Entry<String, String> item : erros.entrySet()) {
+                Map<String, Object> resultado = new LinkedHashMap<>();
+                resultado.put("id", item.getKey());
+                resultado.put("sucesso", item.getValue() == null);
+                resultado.put("mensagem", item.getValue() == null ? "Ponto " + status.toLowerCase() : item.getValue());
+                resultados.add(resultado);
+                todosOk &= item.getValue() == null;
+            }
+            return ResponseEntity.ok(Map.of("sucesso", todosOk, "resultados", resultados));
+        } catch (Exception e) {
+            e.printStackTrace();
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("sucesso", false, "mensagem", "Erro ao atualizar pontos: " + e.getMessage()));
+        }
+    }
+
+    private Map<String, Object> extrasRecusa(String usuario, String justificativa) {
+        Map<String, Object> extras = new HashMap<>();
+        extras.put("aprovadoPor", usuario);
+        extras.put("dataAprovacao", new Date());
+        if (justificativa != null) {
+            extras.put("justificativa", justificativa);
+        }
+        return extras;
+    }
+
+    // Foto do ponto: redireciona para /api/fotos/{hash}, migrando antes as fotos antigas em base64
+    @GetMapping("/pontos/{pontoId}/foto")
+    public ResponseEntity<Void> fotoPonto(
+            @PathVariable String pontoId,
+            @RequestParam(defaultValue = "default") String cliente) {
+        try {
+            String fotoHash = firestoreService.obterOuMigrarFotoPonto(pontoId, cliente);
+            if (fotoHash == null) {
+                return ResponseEntity.notFound().build();
+            }
+            return ResponseEntity.status(HttpStatus.FOUND)
+                    .location(java.net.URI.create(FotoStorageService.url(fotoHash)))
+                    .build();
+        } catch (Exception e) {
+            e.printStackTrace();
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    // Situação do journal local de pontos (bytes ainda não enviados ao Firestore, falhas de drenagem)
+    @GetMapping("/pontos/journal")
+    public ResponseEntity<Map<String, Object>> estatisticasJournal() {
+        return ResponseEntity.ok(pontoJournalService.estatisticas());
+    }
+
+    // Janela de idempotência do registro de ponto (chaves em memória, reenvios respondidos sem gravar)
+    @GetMapping("/pontos/idempotencia")
+    public ResponseEntity<Map<String, Object>> estatisticasIdempotencia() {
+        return ResponseEntity.ok(idempotenciaService.estatisticas());
+    }
+
+    // Supressão de toque duplo (intervalo mínimo entre pontos do mesmo funcionário)
+    @GetMapping("/pontos/intervalo-minimo")
+    public ResponseEntity<Map<String, Object>> estatisticasIntervaloMinimo() {
+        return ResponseEntity.ok(ultimosPontosService.estatisticas());
+    }
+
+    // Movimentação dos pontos processados para pontosHistorico (fila contínua e migrações por cliente)
+    @GetMapping("/pontos/historico")
+    public ResponseEntity<Map<String, Object>> estatisticasHistorico() {
+        return ResponseEntity.ok(pontoHistoricoService.estatisticas());
+    }
+
+    // Migra os processados existentes; retomar=true continua do checkpoint de cada cliente
+    @PostMapping("/pontos/historico/migracao")
+    public ResponseEntity<Map<String, Object>> migrarHistorico(@RequestParam(defaultValue = "true") boolean retomar) {
+        return ResponseEntity.accepted().body(pontoHistoricoService.migrar(retomar));
+    }
+
     // ... outros métodos do PontoController mantendo o parâmetro 'cliente'
 }
\ No newline at end of file
@@ -1,12 +1,42 @@
 package apontamentoweb.grupocolinas.controller;
 
 
+import apontamentoweb.grupocolinas.config.AsyncConfig;
+import apontamentoweb.grupocolinas.service.ArquivoLegalExportService;
+import apontamentoweb.grupocolinas.service.ClienteRegistry;
+import apontamentoweb.grupocolinas.service.Compartimento;
 import apontamentoweb.grupocolinas.service.FirestoreService;
+import apontamentoweb.grupocolinas.service.JornadaService;
+import apontamentoweb.grupocolinas.service.PlanilhaCacheService;
+import apontamentoweb.grupocolinas.service.PlanilhaExportService;
+import apontamentoweb.grupocolinas.service.PlanilhaService;
+import apontamentoweb.grupocolinas.service.PontoArquivoService;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPInputStream;
 
 @RestController
 @RequestMapping("/api/relatorios")
@@ -14,22 +44,333 @@ import java.util.concurrent.ExecutionException;
 public class RelatoriosController {
 
     private final FirestoreService firestoreService;
+    private final PlanilhaService planilhaService;
+    private final PlanilhaCacheService planilhaCache;
 
-    public RelatoriosController(FirestoreService firestoreService) {
+    private final PlanilhaExportService planilhaExportService;
+    private final ArquivoLegalExportService arquivoLegalExportService;
+    private final PontoArquivoService pontoArquivo;
+    private final JornadaService jornadaService;
+    private final ClienteRegistry clientes;
+    private final long timeoutExportacaoMs;
+
+    public RelatoriosController(FirestoreService firestoreService, PlanilhaService planilhaService, PlanilhaCacheService planilhaCache,
+                                PlanilhaExportService planilhaExportService,
+                                ArquivoLegalExportService arquivoLegalExportService, PontoArquivoService pontoArquivo,
+                                JornadaService jornadaService,
+                                ClienteRegistry clientes,
+                                @Value("${apontamento.relatorios.exportacao.timeout-ms:600000}") long timeoutExportacaoMs) {
         this.firestoreService = firestoreService;
+        this.planilhaService = planilhaService;
+        this.planilhaCache = planilhaCache;
+        this.planilhaExportService = planilhaExportService;
+        this.arquivoLegalExportService = arquivoLegalExportService;
+        this.pontoArquivo = pontoArquivo;
+        this.jornadaService = jornadaService;
+        this.clientes = clientes;
+        this.timeoutExportacaoMs = timeoutExportacaoMs;
+    }
+
+    // Relatórios rodam no compartimento "consulta" do cliente: concorrência limitada por cliente
+    // e recusados (503) enquanto o registro de pontos estiver sob pressão
+    private CompletableFuture<ResponseEntity<?>> consultar(String cliente, String mensagemErro, Callable<ResponseEntity<?>> relatorio) {
+        try {
+            return clientes.resolver(cliente).consulta().executar(relatorio)
+                    .exceptionally(e -> {
+                        e.printStackTrace();
+                        return ResponseEntity.status(500).body(mensagemErro);
+                    });
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.completedFuture(ocupado());
+        }
+    }
+
+    private static ResponseEntity<?> ocupado() {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .body(Map.of("sucesso", false, "mensagem", "Servidor ocupado com registros de ponto. Tente novamente."));
     }
 
-//    @GetMapping("/planilha-mensal")
-//    public ResponseEntity<?> gerarPlanilhaMensal(
-//            @RequestParam int ano,
-//            @RequestParam int mes
-//    ) {
-//        try {
-//            Map<String, Map<String, java.util.List<Map<String, Object>>>> planilha = firestoreService.obterPlanilhaMensalOrganizada(ano, mes);
-//            return ResponseEntity.ok(planilha);
-//        } catch (ExecutionException | InterruptedException e) {
-//            e.printStackTrace();
-//            return ResponseEntity.status(500).body("Erro ao gerar planilha mensal");
-//        }
-//    }
+    // Regenera a planilha materializada do mês a partir de pontosEfetivados
+    @PostMapping("/planilha-mensal/reconstruir")
+    public CompletableFuture<ResponseEntity<?>> reconstruirPlanilhaMensal(
+            @RequestParam int ano,
+            @RequestParam int mes,
+            @RequestParam(defaultValue = "default") String cliente,
+            HttpServletRequest request
+    ) {
+        // Relê o mês inteiro de pontosEfetivados: passa do timeout padrão das requisições assíncronas
+        request.setAttribute(AsyncConfig.ATRIBUTO_TIMEOUT_ASYNC, timeoutExportacaoMs);
+        return consultar(cliente, "Erro ao reconstruir planilha mensal", () -> {
+            int funcionarios = planilhaService.reconstruir(ano, mes, cliente);
+            planilhaCache.invalidar(cliente, List.of(YearMonth.of(ano, mes)));
+            return ResponseEntity.ok(Map.of("sucesso", true, "funcionarios", funcionarios));
+        });
+    }
+
+    // Horas trabalhadas, extras, atrasos e faltas do mês por funcionário, conforme a escala do cadastro
+    @GetMapping("/jornada")
+    public CompletableFuture<ResponseEntity<?>> calcularJornada(
+            @RequestParam int ano,
+            @RequestParam int mes,
+            @RequestParam(defaultValue = "default") String cliente,
+            HttpServletRequest request
+    ) {
+        if (mes < 1 || mes > 12) {
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().body("Mês inválido"));
+        }
+        // Cruza o mês inteiro de marcações com a escala de cada funcionário
+        request.setAttribute(AsyncConfig.ATRIBUTO_TIMEOUT_ASYNC, timeoutExportacaoMs);
+        return consultar(cliente, "Erro ao calcular jornada",
+                () -> ResponseEntity.ok(jornadaService.calcularMes(ano, mes, cliente)));
+    }
+
+    // Planilha do mês em JSON, a partir da planilha materializada; meses fechados vêm do cache em disco
+    @GetMapping("/planilha-mensal")
+    public CompletableFuture<ResponseEntity<?>> gerarPlanilhaMensal(
+            @RequestParam int ano,
+            @RequestParam int mes,
+            @RequestParam(defaultValue = "default") String cliente,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String codificacoes
+    ) {
+        if (mes < 1 || mes > 12) {
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().body("Mês inválido"));
+        }
+        return consultar(cliente, "Erro ao gerar planilha mensal", () -> {
+            PlanilhaCacheService.ArquivoMapeado arquivo = planilhaCache.obter(ano, mes, cliente);
+            if (arquivo == null) {
+                return ResponseEntity.ok(firestoreService.obterPlanilhaMensalOrganizada(ano, mes, cliente));
+            }
+            if (codificacoes != null && codificacoes.contains("gzip")) {
+                return ResponseEntity.ok()
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .header(HttpHeaders.CONTENT_ENCODING, "gzip")
+                        .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                        .body(arquivo);
+            }
+            return ResponseEntity.ok()
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                    .body(new InputStreamResource(new GZIPInputStream(arquivo.getInputStream())));
+        });
+    }
+
+    @GetMapping("/planilha-mensal/cache")
+    public ResponseEntity<Map<String, Object>> estatisticasCachePlanilha() {
+        return ResponseEntity.ok(planilhaCache.estatisticas());
+    }
+
+    // Planilha do mês em CSV/XLSX, em streaming a partir de pontosEfetivados. Fica em um método
+    // próprio porque o corpo em streaming precisa do tipo ResponseEntity<StreamingResponseBody>.
+    @GetMapping(value = "/planilha-mensal", params = {"formato", "formato!=json"})
+    public ResponseEntity<StreamingResponseBody> exportarPlanilhaMensal(
+            @RequestParam int ano,
+            @RequestParam int mes,
+            @RequestParam(defaultValue = "default") String cliente,
+            @RequestParam String formato,
+            HttpServletRequest request
+    ) {
+        if (mes < 1 || mes > 12) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        MediaType tipo = tipoPlanilha(formato);
+        if (tipo == null) {
+            // Formato inválido (use json, csv ou xlsx)
+            return ResponseEntity.badRequest().build();
+        }
+        boolean xlsx = "xlsx".equalsIgnoreCase(formato);
+        String nomeArquivo = String.format("planilha-%s-%04d-%02d.%s", cliente, ano, mes, formato.toLowerCase());
+
+        return transmitir(cliente, nomeArquivo, tipo, request, saida -> {
+            if (xlsx) {
+                planilhaExportService.exportarXlsx(ano, mes, cliente, saida);
+            } else {
+                planilhaExportService.exportarCsv(ano, mes, cliente, saida);
+            }
+        });
+    }
+
+    // Planilha do mês de todos os postos juntos, na ordem de aprovação. Os postos são lidos
+    // ao mesmo tempo, cada um no seu compartimento de consulta (503 se algum estiver ocupado).
+    @GetMapping("/planilha-mensal/consolidada")
+    public ResponseEntity<StreamingResponseBody> exportarPlanilhaConsolidada(
+            @RequestParam int ano,
+            @RequestParam int mes,
+            @RequestParam(defaultValue = "csv") String formato,
+            HttpServletRequest request
+    ) {
+        MediaType tipo = tipoPlanilha(formato);
+        if (mes < 1 || mes > 12 || tipo == null) {
+            return ResponseEntity.badRequest().build();
+        }
+        boolean xlsx = "xlsx".equalsIgnoreCase(formato);
+
+        PlanilhaExportService.Consolidado consolidado;
+        try {
+            consolidado = planilhaExportService.consolidar(ano, mes);
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+        // As leituras esperam a escrita: se o corpo não rodar, elas precisam desistir
+        aoConcluir(request, consolidado::cancelar);
+        return anexo(String.format("planilha-consolidada-%04d-%02d.%s", ano, mes, formato.toLowerCase()), tipo, request, saida -> {
+            if (xlsx) {
+                consolidado.exportarXlsx(saida);
+            } else {
+                consolidado.exportarCsv(saida);
+            }
+        });
+    }
+
+    private static MediaType tipoPlanilha(String formato) {
+        switch (formato.toLowerCase()) {
+            case "csv":
+                return new MediaType("text", "csv", StandardCharsets.UTF_8);
+            case "xlsx":
+                return MediaType.parseMediaType("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet");
+            default:
+                return null;
+        }
+    }
+
+    // AFD/AEJ (Portaria 671) do mês, ou do ano inteiro quando mes não é informado, em streaming a partir
+    // de pontosEfetivados. Com cliente=todos ou mais de um mês, sai um ZIP com um arquivo por cliente e mês.
+    @GetMapping("/arquivo-legal")
+    public ResponseEntity<StreamingResponseBody> exportarArquivoLegal(
+            @RequestParam String tipo,
+            @RequestParam int ano,
+            @RequestParam(required = false) Integer mes,
+            @RequestParam(defaultValue = "default") String cliente,
+            HttpServletRequest request
+    ) {
+        ArquivoLegalExportService.Tipo tipoArquivo;
+        try {
+            tipoArquivo = ArquivoLegalExportService.Tipo.valueOf(tipo.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            // Tipo inválido (use afd ou aej)
+            return ResponseEntity.badRequest().build();
+        }
+        if (mes != null && (mes < 1 || mes > 12)) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        List<YearMonth> meses = new ArrayList<>();
+        for (int m = mes != null ? mes : 1; m <= (mes != null ? mes : 12); m++) {
+            meses.add(YearMonth.of(ano, m));
+        }
+        List<String> exportados = new ArrayList<>();
+        if ("todos".equals(cliente)) {
+            clientes.todos().forEach(c -> exportados.add(c.getId()));
+        } else {
+            exportados.add(clientes.resolver(cliente).getId());
+        }
+
+        if (exportados.size() == 1 && meses.size() == 1) {
+            return transmitir(cliente, ArquivoLegalExportService.nomeArquivo(tipoArquivo, exportados.get(0), meses.get(0)),
+                    new MediaType("text", "plain", StandardCharsets.ISO_8859_1), request,
+                    saida -> arquivoLegalExportService.exportar(tipoArquivo, exportados.get(0), meses.get(0), saida));
+        }
+        String nomeZip = String.format("%s_%s_%04d%s.zip", tipoArquivo, cliente, ano, mes != null ? String.format("-%02d", mes) : "");
+        return transmitir(cliente, nomeZip, MediaType.parseMediaType("application/zip"), request,
+                saida -> arquivoLegalExportService.exportarZip(tipoArquivo, exportados, meses, saida));
+    }
+
+    // Compacta no arquivo colunar os meses fechados de de a ate (yyyy-MM), em segundo plano
+    @PostMapping("/arquivo/compactar")
+    public ResponseEntity<?> compactarArquivo(
+            @RequestParam String de,
+            @RequestParam String ate,
+            @RequestParam(defaultValue = "default") String cliente
+    ) {
+        YearMonth inicio;
+        YearMonth fim;
+        try {
+            inicio = YearMonth.parse(de);
+            fim = YearMonth.parse(ate);
+        } catch (DateTimeParseException e) {
+            return ResponseEntity.badRequest().body(Map.of("sucesso", false, "mensagem", "Use meses no formato yyyy-MM"));
+        }
+        if (inicio.isAfter(fim) || !PlanilhaCacheService.fechado(fim)) {
+            return ResponseEntity.badRequest().body(Map.of("sucesso", false, "mensagem", "Só meses já fechados podem ser compactados"));
+        }
+        return ResponseEntity.accepted().body(pontoArquivo.agendarCompactacao(cliente, inicio, fim));
+    }
+
+    // Pontos arquivados do período (yyyy-MM-dd, inclusive), opcionalmente de um funcionário, lidos
+    // só dos arquivos colunares: auditorias de vários anos sem ler o Firestore
+    @GetMapping("/arquivo/pontos")
+    public ResponseEntity<StreamingResponseBody> consultarArquivo(
+            @RequestParam String de,
+            @RequestParam String ate,
+            @RequestParam(required = false) String idLogin,
+            @RequestParam(defaultValue = "default") String cliente,
+            HttpServletRequest request
+    ) {
+        LocalDate inicio;
+        LocalDate fim;
+        try {
+            inicio = LocalDate.parse(de);
+            fim = LocalDate.parse(ate);
+        } catch (DateTimeParseException e) {
+            return ResponseEntity.badRequest().build();
+        }
+        if (inicio.isAfter(fim)) {
+            return ResponseEntity.badRequest().build();
+        }
+        String nomeArquivo = String.format("pontos_%s_%s_%s.json", cliente, inicio, fim);
+        return transmitir(cliente, nomeArquivo, MediaType.APPLICATION_JSON, request,
+                saida -> pontoArquivo.consultar(cliente, inicio, fim, idLogin, saida));
+    }
+
+    @GetMapping("/arquivo")
+    public ResponseEntity<Map<String, Object>> estatisticasArquivo() {
+        return ResponseEntity.ok(pontoArquivo.estatisticas());
+    }
+
+    // Exportação em streaming: a vaga no compartimento de consulta do cliente fica ocupada até o fim
+    private ResponseEntity<StreamingResponseBody> transmitir(String cliente, String nomeArquivo, MediaType tipo,
+                                                             HttpServletRequest request, StreamingResponseBody exportacao) {
+        Compartimento consulta = clientes.resolver(cliente).consulta();
+        try {
+            consulta.entrar();
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+        // A vaga sai no fim do corpo ou, se ele nunca rodar (cliente desconectou, executor recusou,
+        // timeout assíncrono), no fim da requisição assíncrona; o que vier primeiro
+        AtomicBoolean liberada = new AtomicBoolean();
+        Runnable liberar = () -> {
+            if (liberada.compareAndSet(false, true)) {
+                consulta.sair();
+            }
+        };
+        aoConcluir(request, liberar);
+        return anexo(nomeArquivo, tipo, request, saida -> {
+            try {
+                exportacao.writeTo(saida);
+            } finally {
+                liberar.run();
+            }
+        });
+    }
+
+    // Roda no fim da requisição assíncrona (concluída, com erro ou por timeout), mesmo se o corpo nunca rodou
+    private static void aoConcluir(HttpServletRequest request, Runnable acao) {
+        WebAsyncUtils.getAsyncManager(request).registerCallableInterceptor(acao, new CallableProcessingInterceptor() {
+            @Override
+            public <T> void afterCompletion(NativeWebRequest webRequest, Callable<T> task) {
+                acao.run();
+            }
+        });
+    }
+
+    private ResponseEntity<StreamingResponseBody> anexo(String nomeArquivo, MediaType tipo, HttpServletRequest request,
+                                                        StreamingResponseBody corpo) {
+        // A exportação de um posto grande passa do timeout padrão das requisições assíncronas
+        request.setAttribute(AsyncConfig.ATRIBUTO_TIMEOUT_ASYNC, timeoutExportacaoMs);
+        return ResponseEntity.ok()
+                .contentType(tipo)
+                .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment().filename(nomeArquivo).build().toString())
+                .body(corpo);
+    }
 }
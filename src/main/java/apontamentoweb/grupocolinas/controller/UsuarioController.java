@@ -1,6 +1,9 @@
 package apontamentoweb.grupocolinas.controller;
 
+import apontamentoweb.grupocolinas.service.ClienteRegistry;
+import apontamentoweb.grupocolinas.service.Compartimento;
 import apontamentoweb.grupocolinas.service.FirestoreService;
+import apontamentoweb.grupocolinas.service.UserDirectoryService;
 import com.google.api.core.ApiFuture;
 import com.google.cloud.Timestamp;
 import com.google.cloud.firestore.*;
@@ -11,6 +14,7 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.*;
+import java.util.concurrent.RejectedExecutionException;
 
 @RestController
 @RequestMapping("/api/usuarios")
@@ -20,30 +24,74 @@ public class UsuarioController {
     @Autowired
     private FirestoreService firestoreService;
 
-    // GET - Listar todos os usuários
+    @Autowired
+    private UserDirectoryService userDirectoryService;
+
+    @Autowired
+    private ClienteRegistry clientes;
+
+    // GET - Listar todos os usuários (compartimento de consulta do cliente padrão).
+    // view=summary devolve só os campos de FuncionarioDTO (sem senhas nem foto); view=full, o documento inteiro
     @GetMapping
-    public ResponseEntity<List<Map<String, Object>>> listarUsuarios() {
+    public ResponseEntity<List<?>> listarUsuarios(@RequestParam(defaultValue = "full") String view) {
+        if (!visaoValida(view)) {
+            return ResponseEntity.badRequest().body(Collections.emptyList());
+        }
+        Compartimento consulta = clientes.resolver(ClienteRegistry.PADRAO).consulta();
+        try {
+            consulta.entrar();
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(Collections.emptyList());
+        }
         try {
-            return ResponseEntity.ok(firestoreService.listarUsuarios());
+            return ResponseEntity.ok("summary".equals(view)
+                    ? firestoreService.listarUsuariosResumo()
+                    : firestoreService.listarUsuarios());
         } catch (Exception e) {
             e.printStackTrace();
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body(Collections.emptyList());
+        } finally {
+            consulta.sair();
         }
     }
 
     // GET - Listar usuários por posto
     @GetMapping("/posto/{posto}")
-    public ResponseEntity<List<Map<String, Object>>> listarUsuariosPorPosto(@PathVariable String posto) {
+    public ResponseEntity<List<?>> listarUsuariosPorPosto(@PathVariable String posto,
+                                                          @RequestParam(defaultValue = "full") String view) {
+        if (!visaoValida(view)) {
+            return ResponseEntity.badRequest().body(Collections.emptyList());
+        }
+        Compartimento consulta = clientes.resolver(posto).consulta();
         try {
-            return ResponseEntity.ok(firestoreService.listarUsuariosPorPosto(posto));
+            consulta.entrar();
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(Collections.emptyList());
+        }
+        try {
+            return ResponseEntity.ok("summary".equals(view)
+                    ? firestoreService.listarUsuariosPorPostoResumo(posto)
+                    : firestoreService.listarUsuariosPorPosto(posto));
         } catch (Exception e) {
             e.printStackTrace();
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body(Collections.emptyList());
+        } finally {
+            consulta.sair();
         }
     }
 
+    private static boolean visaoValida(String view) {
+        return "summary".equals(view) || "full".equals(view);
+    }
+
+    // GET - Estatísticas do diretório de usuários em memória (hits/misses/expirados)
+    @GetMapping("/diretorio/estatisticas")
+    public ResponseEntity<Map<String, Object>> estatisticasDiretorio() {
+        return ResponseEntity.ok(userDirectoryService.estatisticas());
+    }
+
     // POST - Criar novo usuário
     @PostMapping
     public ResponseEntity<Map<String, Object>> criarUsuario(@RequestBody Map<String, Object> usuarioData) {
@@ -66,6 +114,7 @@ public class UsuarioController {
             usuarioData.put("ativo", "1");
 
             String userId = firestoreService.criarUsuario(usuarioData);
+            userDirectoryService.invalidar((String) usuarioData.get("idLogin"));
 
             return ResponseEntity.status(HttpStatus.CREATED)
                     .body(Map.of("sucesso", true, "mensagem", "Usuário criado com sucesso.", "id", userId));
@@ -84,6 +133,10 @@ public class UsuarioController {
             @RequestBody Map<String, Object> usuarioData) {
         try {
             boolean sucesso = firestoreService.atualizarUsuario(id, usuarioData);
+            userDirectoryService.invalidarPorId(id);
+            if (usuarioData.get("idLogin") instanceof String novoIdLogin) {
+                userDirectoryService.invalidar(novoIdLogin);
+            }
 
             if (sucesso) {
                 return ResponseEntity.ok(Map.of("sucesso", true, "mensagem", "Usuário atualizado com sucesso."));
@@ -104,6 +157,7 @@ public class UsuarioController {
     public ResponseEntity<Map<String, Object>> deletarUsuario(@PathVariable String id) {
         try {
             boolean sucesso = firestoreService.excluirUsuario(id);
+            userDirectoryService.invalidarPorId(id);
 
             if (sucesso) {
                 return ResponseEntity.ok(Map.of("sucesso", true, "mensagem", "Usuário removido com sucesso."));
@@ -1,13 +1,18 @@
 package apontamentoweb.grupocolinas.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+// Visão resumida do usuário (listagens com ?view=summary): sem senhas nem foto
 @Data
 @AllArgsConstructor
 @NoArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public class FuncionarioDTO {
+    private String id;
+    private String posto;
     private String idLogin;
     private String email;
     private String name;
@@ -0,0 +1,42 @@
+package apontamentoweb.grupocolinas.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+// Resultado do cálculo de jornada de um funcionário no mês; tempos em minutos
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class JornadaFuncionario {
+    private String idLogin;
+    private String usuario;
+    private String escala;
+    private String horarioEntrada;
+    private String horarioSaida;
+    private long minutosTrabalhados;
+    private long minutosEsperados;
+    private long minutosExtras;
+    private long minutosAtraso;
+    private long minutosSaidaAntecipada;
+    private long saldoMinutos;
+    private int diasTrabalhados;
+    private int diasIncompletos;
+    private Integer faltas; // null quando a escala não é semanal (ex: 12/36)
+    private List<Dia> dias;
+
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class Dia {
+        private String data;
+        private int batidas;
+        private int minutosTrabalhados;
+        private int minutosExtras;
+        private int minutosAtraso;
+        private int minutosSaidaAntecipada;
+        private boolean incompleto;
+    }
+}
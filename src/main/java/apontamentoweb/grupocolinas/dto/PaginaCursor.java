@@ -0,0 +1,15 @@
+package apontamentoweb.grupocolinas.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class PaginaCursor<T> {
+    private List<T> itens;
+    private String proximoCursor; // null quando não há mais páginas
+}
@@ -10,6 +10,8 @@ public class Ponto {
     private String usuario;
     private String horaPonto;
     private String foto;
+    private String fotoHash;
+    private String fotoMiniaturaHash;
     private String senhaPdv;
     private String status;
     private String aprovadoPor;
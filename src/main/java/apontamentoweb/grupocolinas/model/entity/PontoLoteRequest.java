@@ -0,0 +1,33 @@
+package apontamentoweb.grupocolinas.model.entity;
+
+import java.util.List;
+
+public class PontoLoteRequest {
+    private List<String> ids;
+    private String usuario;
+    private String justificativa;
+
+    public List<String> getIds() {
+        return ids;
+    }
+
+    public void setIds(List<String> ids) {
+        this.ids = ids;
+    }
+
+    public String getUsuario() {
+        return usuario;
+    }
+
+    public void setUsuario(String usuario) {
+        this.usuario = usuario;
+    }
+
+    public String getJustificativa() {
+        return justificativa;
+    }
+
+    public void setJustificativa(String justificativa) {
+        this.justificativa = justificativa;
+    }
+}
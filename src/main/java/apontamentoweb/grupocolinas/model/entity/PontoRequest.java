@@ -7,6 +7,33 @@ public class PontoRequest {
         private String horaPonto;
         private String foto;
     private String posto;
+    private String senhaPdv;
+    private String usuario;
+    private String chaveIdempotencia;
+
+    public String getSenhaPdv() {
+        return senhaPdv;
+    }
+
+    public void setSenhaPdv(String senhaPdv) {
+        this.senhaPdv = senhaPdv;
+    }
+
+    public String getUsuario() {
+        return usuario;
+    }
+
+    public void setUsuario(String usuario) {
+        this.usuario = usuario;
+    }
+
+    public String getChaveIdempotencia() {
+        return chaveIdempotencia;
+    }
+
+    public void setChaveIdempotencia(String chaveIdempotencia) {
+        this.chaveIdempotencia = chaveIdempotencia;
+    }
 
     public String getPosto() {
         return posto;
@@ -0,0 +1,486 @@
+package apontamentoweb.grupocolinas.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Formato colunar do arquivo de pontos (um arquivo por cliente e mês), somente leitura depois de gravado.
+ * <pre>
+ * "APCOL001" | grupos de linhas (cada coluna comprimida com Deflate) | rodapé | offset do rodapé (8) | "APCOL001"
+ * </pre>
+ * As linhas são ordenadas por idLogin e horaPonto e divididas em grupos de {@value #LINHAS_POR_GRUPO}.
+ * O rodapé guarda os dicionários (idLogin ordenado, usuário, status, aprovador) e, por grupo, o menor e o
+ * maior idLogin e horaPonto e a posição de cada coluna. Codificação das colunas:
+ * <ul>
+ *   <li>idLogin: índice no dicionário, em corridas (valor, repetições), já que as linhas vêm ordenadas;</li>
+ *   <li>horaPonto: diferença para a linha anterior em varint zigzag (ms);</li>
+ *   <li>dataAprovacao: diferença para a horaPonto da linha;</li>
+ *   <li>status, aprovadoPor, usuário: índice no dicionário (0 = nulo);</li>
+ *   <li>foto: SHA-256 do arquivo em FotoStorageService (32 bytes), sem o conteúdo;</li>
+ *   <li>pontoId e justificativa: texto UTF-8 com tamanho.</li>
+ * </ul>
+ * A consulta descarta grupos pelas estatísticas do rodapé e só descomprime as demais colunas dos grupos
+ * em que alguma linha passou pelos filtros de idLogin e horaPonto.
+ */
+final class ArquivoColunar {
+
+    static final int LINHAS_POR_GRUPO = 4096;
+
+    private static final byte[] MAGICO = "APCOL001".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSAO = 1;
+    private static final int COLUNAS = 9;
+    private static final int ID_LOGIN = 0, HORA = 1, APROVACAO = 2, STATUS = 3, APROVADOR = 4, USUARIO = 5,
+            PONTO_ID = 6, FOTO = 7, JUSTIFICATIVA = 8;
+
+    private ArquivoColunar() {
+    }
+
+    record Linha(String idLogin, long horaPontoMs, Long dataAprovacaoMs, String status, String aprovadoPor,
+                 String usuario, String pontoId, String fotoHash, String justificativa) {
+    }
+
+    interface Destino {
+        void linha(Linha linha) throws IOException;
+    }
+
+    // --- Escrita ---
+
+    /** Grava as linhas (em qualquer ordem) no arquivo. Retorna o número de grupos. */
+    static int escrever(OutputStream saida, List<Linha> linhas) throws IOException {
+        linhas.sort(Comparator.comparing(Linha::idLogin).thenComparingLong(Linha::horaPontoMs));
+
+        List<String> idLogins = new ArrayList<>(new TreeSet<>(linhas.stream().map(Linha::idLogin).toList()));
+        Map<String, Integer> indiceIdLogin = new HashMap<>();
+        for (int i = 0; i < idLogins.size(); i++) {
+            indiceIdLogin.put(idLogins.get(i), i);
+        }
+        Dicionario usuarios = new Dicionario();
+        Dicionario status = new Dicionario();
+        Dicionario aprovadores = new Dicionario();
+
+        Buffer rodape = new Buffer();
+        Buffer[] colunas = new Buffer[COLUNAS];
+        for (int c = 0; c < COLUNAS; c++) {
+            colunas[c] = new Buffer();
+        }
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        Buffer comprimido = new Buffer();
+        long posicao = MAGICO.length;
+        saida.write(MAGICO);
+
+        int grupos = (linhas.size() + LINHAS_POR_GRUPO - 1) / LINHAS_POR_GRUPO;
+        Buffer diretorio = new Buffer();
+        for (int g = 0; g < grupos; g++) {
+            List<Linha> grupo = linhas.subList(g * LINHAS_POR_GRUPO, Math.min((g + 1) * LINHAS_POR_GRUPO, linhas.size()));
+            for (Buffer coluna : colunas) {
+                coluna.limpar();
+            }
+
+            long horaMin = Long.MAX_VALUE, horaMax = Long.MIN_VALUE, horaAnterior = 0;
+            int corridaValor = -1, corridaTamanho = 0;
+            for (Linha linha : grupo) {
+                int id = indiceIdLogin.get(linha.idLogin());
+                if (id != corridaValor) {
+                    if (corridaTamanho > 0) {
+                        colunas[ID_LOGIN].varint(corridaValor).varint(corridaTamanho);
+                    }
+                    corridaValor = id;
+                    corridaTamanho = 0;
+                }
+                corridaTamanho++;
+
+                colunas[HORA].zigzag(linha.horaPontoMs() - horaAnterior);
+                horaAnterior = linha.horaPontoMs();
+                horaMin = Math.min(horaMin, linha.horaPontoMs());
+                horaMax = Math.max(horaMax, linha.horaPontoMs());
+
+                colunas[APROVACAO].varintLong(linha.dataAprovacaoMs() == null ? 0 : zigzag(linha.dataAprovacaoMs() - linha.horaPontoMs()) + 1);
+                colunas[STATUS].varint(status.indice(linha.status()));
+                colunas[APROVADOR].varint(aprovadores.indice(linha.aprovadoPor()));
+                colunas[USUARIO].varint(usuarios.indice(linha.usuario()));
+                colunas[PONTO_ID].texto(linha.pontoId());
+                colunas[FOTO].hash(linha.fotoHash());
+                colunas[JUSTIFICATIVA].texto(linha.justificativa());
+            }
+            colunas[ID_LOGIN].varint(corridaValor).varint(corridaTamanho);
+
+            diretorio.varint(grupo.size())
+                    .varint(indiceIdLogin.get(grupo.get(0).idLogin()))
+                    .varint(indiceIdLogin.get(grupo.get(grupo.size() - 1).idLogin()))
+                    .zigzag(horaMin).zigzag(horaMax);
+            for (Buffer coluna : colunas) {
+                comprimir(deflater, coluna, comprimido);
+                diretorio.varintLong(posicao).varint(comprimido.tamanho).varint(coluna.tamanho);
+                saida.write(comprimido.bytes, 0, comprimido.tamanho);
+                posicao += comprimido.tamanho;
+            }
+        }
+        deflater.end();
+
+        rodape.varint(VERSAO).varint(linhas.size());
+        for (List<String> dicionario : List.of(idLogins, usuarios.valores, status.valores, aprovadores.valores)) {
+            rodape.varint(dicionario.size());
+            for (String valor : dicionario) {
+                rodape.texto(valor);
+            }
+        }
+        rodape.varint(grupos).bytes(diretorio);
+        saida.write(rodape.bytes, 0, rodape.tamanho);
+        saida.write(ByteBuffer.allocate(8).putLong(posicao).array());
+        saida.write(MAGICO);
+        return grupos;
+    }
+
+    private static void comprimir(Deflater deflater, Buffer entrada, Buffer saida) {
+        deflater.reset();
+        deflater.setInput(entrada.bytes, 0, entrada.tamanho);
+        deflater.finish();
+        saida.limpar();
+        while (!deflater.finished()) {
+            saida.garantir(Math.max(64, entrada.tamanho / 4));
+            saida.tamanho += deflater.deflate(saida.bytes, saida.tamanho, saida.bytes.length - saida.tamanho);
+        }
+    }
+
+    // --- Leitura ---
+
+    static Leitor abrir(Path arquivo) throws IOException {
+        try (FileChannel canal = FileChannel.open(arquivo, StandardOpenOption.READ)) {
+            return new Leitor(canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size()));
+        }
+    }
+
+    /** Arquivo mapeado em memória, com o rodapé já lido. Seguro para consultas concorrentes. */
+    static final class Leitor {
+        private final MappedByteBuffer conteudo;
+        private final int linhas;
+        private final String[] idLogins;
+        private final String[] usuarios;
+        private final String[] status;
+        private final String[] aprovadores;
+        private final Grupo[] grupos;
+
+        private Leitor(MappedByteBuffer conteudo) throws IOException {
+            this.conteudo = conteudo;
+            int tamanho = conteudo.capacity();
+            if (tamanho < MAGICO.length * 2 + 8 || !magico(0) || !magico(tamanho - MAGICO.length)) {
+                throw new IOException("Arquivo colunar inválido");
+            }
+            int inicioRodape = (int) conteudo.getLong(tamanho - MAGICO.length - 8);
+            byte[] bytes = new byte[tamanho - MAGICO.length - 8 - inicioRodape];
+            conteudo.get(inicioRodape, bytes);
+            Cursor rodape = new Cursor(bytes);
+            if (rodape.varint() != VERSAO) {
+                throw new IOException("Versão do arquivo colunar não suportada");
+            }
+            this.linhas = rodape.varint();
+            this.idLogins = rodape.textos();
+            this.usuarios = rodape.textos();
+            this.status = rodape.textos();
+            this.aprovadores = rodape.textos();
+            this.grupos = new Grupo[rodape.varint()];
+            for (int g = 0; g < grupos.length; g++) {
+                Grupo grupo = new Grupo(rodape.varint(), rodape.varint(), rodape.varint(), rodape.zigzag(), rodape.zigzag());
+                for (int c = 0; c < COLUNAS; c++) {
+                    grupo.posicoes[c] = rodape.varintLong();
+                    grupo.comprimidos[c] = rodape.varint();
+                    grupo.originais[c] = rodape.varint();
+                }
+                grupos[g] = grupo;
+            }
+        }
+
+        int linhas() {
+            return linhas;
+        }
+
+        long bytes() {
+            return conteudo.capacity();
+        }
+
+        /**
+         * Linhas com horaPonto em [deMs, ateMs) e, se informado, do idLogin, em ordem de idLogin e horaPonto.
+         * Retorna quantos grupos foram descomprimidos.
+         */
+        int consultar(String idLogin, long deMs, long ateMs, Destino destino) throws IOException {
+            int alvo = -1;
+            if (idLogin != null) {
+                alvo = Arrays.binarySearch(idLogins, idLogin);
+                if (alvo < 0) {
+                    return 0;
+                }
+            }
+            int lidos = 0;
+            Inflater inflater = new Inflater();
+            try {
+                for (Grupo grupo : grupos) {
+                    // Predicados empurrados para as estatísticas do grupo
+                    if (alvo >= 0 && (alvo < grupo.idLoginMin || alvo > grupo.idLoginMax)) {
+                        continue;
+                    }
+                    if (grupo.horaMax < deMs || grupo.horaMin >= ateMs) {
+                        continue;
+                    }
+                    lidos++;
+
+                    int[] ids = new int[grupo.linhas];
+                    Cursor corridas = coluna(inflater, grupo, ID_LOGIN);
+                    for (int i = 0; i < grupo.linhas; ) {
+                        int valor = corridas.varint();
+                        for (int n = corridas.varint(); n > 0; n--) {
+                            ids[i++] = valor;
+                        }
+                    }
+                    long[] horas = new long[grupo.linhas];
+                    Cursor deltas = coluna(inflater, grupo, HORA);
+                    long hora = 0;
+                    BitSet selecionadas = new BitSet(grupo.linhas);
+                    for (int i = 0; i < grupo.linhas; i++) {
+                        hora += deltas.zigzag();
+                        horas[i] = hora;
+                        if ((alvo < 0 || ids[i] == alvo) && hora >= deMs && hora < ateMs) {
+                            selecionadas.set(i);
+                        }
+                    }
+                    if (selecionadas.isEmpty()) {
+                        continue;
+                    }
+
+                    // Só agora as demais colunas do grupo são descomprimidas
+                    Cursor aprovacao = coluna(inflater, grupo, APROVACAO);
+                    Cursor colunaStatus = coluna(inflater, grupo, STATUS);
+                    Cursor aprovador = coluna(inflater, grupo, APROVADOR);
+                    Cursor usuario = coluna(inflater, grupo, USUARIO);
+                    Cursor pontoId = coluna(inflater, grupo, PONTO_ID);
+                    Cursor foto = coluna(inflater, grupo, FOTO);
+                    Cursor justificativa = coluna(inflater, grupo, JUSTIFICATIVA);
+                    for (int i = 0; i < grupo.linhas; i++) {
+                        long diferencaAprovacao = aprovacao.varintLong();
+                        int indiceStatus = colunaStatus.varint();
+                        int indiceAprovador = aprovador.varint();
+                        int indiceUsuario = usuario.varint();
+                        String id = pontoId.texto();
+                        String hash = foto.hash();
+                        String texto = justificativa.texto();
+                        if (selecionadas.get(i)) {
+                            destino.linha(new Linha(idLogins[ids[i]], horas[i],
+                                    diferencaAprovacao == 0 ? null : horas[i] + dezigzag(diferencaAprovacao - 1),
+                                    valor(status, indiceStatus), valor(aprovadores, indiceAprovador), valor(usuarios, indiceUsuario),
+                                    id, hash, texto));
+                        }
+                    }
+                }
+            } finally {
+                inflater.end();
+            }
+            return lidos;
+        }
+
+        private Cursor coluna(Inflater inflater, Grupo grupo, int coluna) throws IOException {
+            byte[] original = new byte[grupo.originais[coluna]];
+            inflater.reset();
+            inflater.setInput(conteudo.slice((int) grupo.posicoes[coluna], grupo.comprimidos[coluna]));
+            try {
+                int lidos = 0;
+                while (lidos < original.length && !inflater.finished()) {
+                    lidos += inflater.inflate(original, lidos, original.length - lidos);
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Coluna corrompida no arquivo colunar", e);
+            }
+            return new Cursor(original);
+        }
+
+        private boolean magico(int posicao) {
+            for (int i = 0; i < MAGICO.length; i++) {
+                if (conteudo.get(posicao + i) != MAGICO[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static String valor(String[] dicionario, int indice) {
+            return indice == 0 ? null : dicionario[indice - 1];
+        }
+    }
+
+    private static final class Grupo {
+        final int linhas;
+        final int idLoginMin;
+        final int idLoginMax;
+        final long horaMin;
+        final long horaMax;
+        final long[] posicoes = new long[COLUNAS];
+        final int[] comprimidos = new int[COLUNAS];
+        final int[] originais = new int[COLUNAS];
+
+        Grupo(int linhas, int idLoginMin, int idLoginMax, long horaMin, long horaMax) {
+            this.linhas = linhas;
+            this.idLoginMin = idLoginMin;
+            this.idLoginMax = idLoginMax;
+            this.horaMin = horaMin;
+            this.horaMax = horaMax;
+        }
+    }
+
+    // Valores de texto repetidos viram índices (0 = nulo, i + 1 = valores[i])
+    private static final class Dicionario {
+        final List<String> valores = new ArrayList<>();
+        final Map<String, Integer> indices = new HashMap<>();
+
+        int indice(String valor) {
+            if (valor == null) {
+                return 0;
+            }
+            Integer indice = indices.get(valor);
+            if (indice == null) {
+                valores.add(valor);
+                indice = valores.size();
+                indices.put(valor, indice);
+            }
+            return indice;
+        }
+    }
+
+    private static long zigzag(long valor) {
+        return (valor << 1) ^ (valor >> 63);
+    }
+
+    private static long dezigzag(long valor) {
+        return (valor >>> 1) ^ -(valor & 1);
+    }
+
+    // Buffer de escrita com varints
+    private static final class Buffer {
+        byte[] bytes = new byte[1024];
+        int tamanho;
+
+        void limpar() {
+            tamanho = 0;
+        }
+
+        void garantir(int adicional) {
+            if (tamanho + adicional > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, tamanho + adicional));
+            }
+        }
+
+        Buffer varint(int valor) {
+            return varintLong(valor & 0xFFFFFFFFL);
+        }
+
+        Buffer varintLong(long valor) {
+            garantir(10);
+            while ((valor & ~0x7FL) != 0) {
+                bytes[tamanho++] = (byte) ((valor & 0x7F) | 0x80);
+                valor >>>= 7;
+            }
+            bytes[tamanho++] = (byte) valor;
+            return this;
+        }
+
+        Buffer zigzag(long valor) {
+            return varintLong(ArquivoColunar.zigzag(valor));
+        }
+
+        // Texto com tamanho + 1 (0 = nulo)
+        Buffer texto(String valor) {
+            if (valor == null) {
+                return varint(0);
+            }
+            byte[] utf8 = valor.getBytes(StandardCharsets.UTF_8);
+            varint(utf8.length + 1);
+            garantir(utf8.length);
+            System.arraycopy(utf8, 0, bytes, tamanho, utf8.length);
+            tamanho += utf8.length;
+            return this;
+        }
+
+        // SHA-256 em hex vira 32 bytes, precedidos de 1 (0 = sem foto)
+        Buffer hash(String hex) {
+            garantir(33);
+            if (hex == null || hex.length() != 64) {
+                bytes[tamanho++] = 0;
+                return this;
+            }
+            bytes[tamanho++] = 1;
+            System.arraycopy(HexFormat.of().parseHex(hex), 0, bytes, tamanho, 32);
+            tamanho += 32;
+            return this;
+        }
+
+        Buffer bytes(Buffer outro) {
+            garantir(outro.tamanho);
+            System.arraycopy(outro.bytes, 0, bytes, tamanho, outro.tamanho);
+            tamanho += outro.tamanho;
+            return this;
+        }
+    }
+
+    // Leitura sequencial de uma coluna descomprimida
+    private static final class Cursor {
+        private final byte[] bytes;
+        private int posicao;
+
+        Cursor(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        int varint() {
+            return (int) varintLong();
+        }
+
+        long varintLong() {
+            long valor = 0;
+            for (int deslocamento = 0; ; deslocamento += 7) {
+                byte b = bytes[posicao++];
+                valor |= (long) (b & 0x7F) << deslocamento;
+                if (b >= 0) {
+                    return valor;
+                }
+            }
+        }
+
+        long zigzag() {
+            return dezigzag(varintLong());
+        }
+
+        String texto() {
+            int tamanho = varint();
+            if (tamanho == 0) {
+                return null;
+            }
+            String valor = new String(bytes, posicao, tamanho - 1, StandardCharsets.UTF_8);
+            posicao += tamanho - 1;
+            return valor;
+        }
+
+        String[] textos() {
+            String[] valores = new String[varint()];
+            for (int i = 0; i < valores.length; i++) {
+                valores[i] = texto();
+            }
+            return valores;
+        }
+
+        String hash() {
+            if (bytes[posicao++] == 0) {
+                return null;
+            }
+            String hex = HexFormat.of().formatHex(bytes, posicao, posicao + 32);
+            posicao += 32;
+            return hex;
+        }
+    }
+}
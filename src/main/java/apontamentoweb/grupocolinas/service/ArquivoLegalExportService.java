@@ -0,0 +1,510 @@
+package apontamentoweb.grupocolinas.service;
+
+import com.google.api.core.ApiFuture;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.*;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.zone.ZoneRules;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Arquivos legais de ponto (Portaria MTP 671/2021) gerados direto de pontosEfetivados{sufixo}:
+ * <ul>
+ *   <li>AFD: largura fixa; cabeçalho (tipo 1) com CRC-16, uma marcação de REP-P (tipo 7) por ponto,
+ *       com o SHA-256 encadeado ao registro anterior, e trailer (tipo 9);</li>
+ *   <li>AEJ: campos separados por "|"; empregador (01), REP (02), vínculos (03), marcações (05),
+ *       desenvolvedor (08) e trailer (99).</li>
+ * </ul>
+ * Como na exportação da planilha, os pontos são lidos em páginas ordenadas por horaPonto e a página
+ * seguinte já é pedida enquanto a atual é escrita. Cada linha é montada num buffer de bytes reutilizado
+ * ({@link LinhaArquivo}) e os checksums são calculados registro a registro, então a memória não cresce
+ * com o período: vários meses e postos saem num ZIP, com o SHA-256 de cada arquivo em SHA256SUMS.
+ * <p>
+ * O NSR começa em 1 em cada arquivo e marcações recusadas entram no AEJ como desconsideradas (D).
+ * Efetivados antigos, sem idLogin/horaPonto, entram completados com o ponto original
+ * ({@link EfetivadoLegadoService}), na ordem de horaPonto. Só decisões sobre pontos viram marcação
+ * (faltas, abonos e banco de horas gravados na mesma coleção não), e um ponto decidido mais de uma
+ * vez sai uma vez só, com a última decisão: as cópias têm a mesma horaPonto, então ficam juntas na
+ * ordem de leitura ({@link UltimaDecisao}).
+ */
+@Service
+public class ArquivoLegalExportService {
+
+    public enum Tipo {AFD, AEJ}
+
+    private static final String[] CAMPOS_FUNCIONARIO = {"idLogin", "name", "cpf", "posto"};
+    private static final int TAMANHO_LINHA = 512;
+
+    private final Firestore firestore;
+    private final ClienteRegistry clientes;
+    private final MetricasService metricas;
+    private final EfetivadoLegadoService efetivadosLegados;
+    private final int tamanhoPagina;
+    private final RepP repP;
+
+    @Autowired
+    public ArquivoLegalExportService(Firestore firestore, ClienteRegistry clientes, MetricasService metricas,
+                                     EfetivadoLegadoService efetivadosLegados,
+                                     @Value("${apontamento.relatorios.exportacao.tamanho-pagina:500}") int tamanhoPagina,
+                                     @Value("${apontamento.arquivos-legais.rep-p.inpi:}") String inpi,
+                                     @Value("${apontamento.arquivos-legais.rep-p.modelo:apontamento-web}") String modelo,
+                                     @Value("${apontamento.arquivos-legais.rep-p.versao:1.0}") String versao,
+                                     @Value("${apontamento.arquivos-legais.desenvolvedor.cnpj:}") String cnpjDesenvolvedor,
+                                     @Value("${apontamento.arquivos-legais.desenvolvedor.razao-social:}") String razaoDesenvolvedor,
+                                     @Value("${apontamento.arquivos-legais.desenvolvedor.email:}") String emailDesenvolvedor) {
+        this.firestore = firestore;
+        this.clientes = clientes;
+        this.metricas = metricas;
+        this.efetivadosLegados = efetivadosLegados;
+        this.tamanhoPagina = tamanhoPagina;
+        this.repP = new RepP(inpi, modelo, versao, cnpjDesenvolvedor, razaoDesenvolvedor, emailDesenvolvedor);
+    }
+
+    // Identificação do REP-P (este programa) e do desenvolvedor, vinda da configuração
+    record RepP(String inpi, String modelo, String versao, String cnpjDesenvolvedor, String razaoDesenvolvedor,
+                String emailDesenvolvedor) {
+    }
+
+    record Empregador(String documento, String razaoSocial) {
+    }
+
+    record Funcionario(String idLogin, String nome, String cpf, String posto) {
+    }
+
+    public static String nomeArquivo(Tipo tipo, String cliente, YearMonth mes) {
+        return tipo + "_" + cliente + "_" + mes + ".txt";
+    }
+
+    /** Um arquivo (cliente e mês) escrito direto na saída. */
+    public void exportar(Tipo tipo, String cliente, YearMonth mes, OutputStream saida) throws IOException {
+        OutputStream buffer = new BufferedOutputStream(saida, 64 * 1024);
+        escrever(tipo, cliente, mes, carregarFuncionarios(), buffer);
+        buffer.flush();
+    }
+
+    /** Vários clientes e meses num ZIP, um arquivo por cliente e mês, com os SHA-256 em SHA256SUMS. */
+    public void exportarZip(Tipo tipo, List<String> clientesExportados, List<YearMonth> meses, OutputStream saida) throws IOException {
+        Map<String, Funcionario> funcionarios = carregarFuncionarios();
+        MessageDigest sha256 = sha256();
+        StringBuilder somas = new StringBuilder();
+        ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(saida, 64 * 1024));
+        for (String cliente : clientesExportados) {
+            for (YearMonth mes : meses) {
+                String nome = nomeArquivo(tipo, cliente, mes);
+                zip.putNextEntry(new ZipEntry(nome));
+                sha256.reset();
+                // O digest é alimentado pelos mesmos bytes que vão para o ZIP, sem reler o arquivo
+                DigestOutputStream comDigest = new DigestOutputStream(zip, sha256);
+                escrever(tipo, cliente, mes, funcionarios, comDigest);
+                comDigest.flush();
+                zip.closeEntry();
+                somas.append(HexFormat.of().formatHex(sha256.digest())).append("  ").append(nome).append('\n');
+                zip.flush();
+            }
+        }
+        zip.putNextEntry(new ZipEntry("SHA256SUMS"));
+        zip.write(somas.toString().getBytes(java.nio.charset.StandardCharsets.US_ASCII));
+        zip.closeEntry();
+        zip.finish();
+        zip.flush();
+    }
+
+    private void escrever(Tipo tipo, String cliente, YearMonth mes, Map<String, Funcionario> funcionarios, OutputStream saida) throws IOException {
+        Empregador empregador = buscarEmpregador(cliente);
+        long inicio = mes.atDay(1).atStartOfDay(PlanilhaService.ZONA).toEpochSecond();
+        long fim = mes.plusMonths(1).atDay(1).atStartOfDay(PlanilhaService.ZONA).toEpochSecond();
+        Relogio relogio = new Relogio(PlanilhaService.ZONA.getRules());
+
+        Marcacoes destino;
+        if (tipo == Tipo.AFD) {
+            destino = new Afd(saida, relogio, repP, empregador, inicio, fim - 1, funcionarios);
+        } else {
+            List<Funcionario> vinculos = new ArrayList<>();
+            for (Funcionario f : funcionarios.values()) {
+                if (clientes.resolver(f.posto()).getId().equals(clientes.resolver(cliente).getId())) {
+                    vinculos.add(f);
+                }
+            }
+            vinculos.sort(Comparator.comparing(Funcionario::idLogin));
+            destino = new Aej(saida, relogio, repP, empregador, inicio, fim - 1, vinculos);
+        }
+        percorrer(cliente, inicio, fim, destino);
+        destino.finalizar();
+    }
+
+    void percorrer(String cliente, long inicio, long fim, Marcacoes marcacoes) throws IOException {
+        String colecao = clientes.colecao("pontosEfetivados", cliente);
+        Query base = firestore.collection(colecao)
+                .select("pontoId", "idLogin", "horaPonto", "status", "dataAprovacao", "dataRecusa", "data")
+                .whereGreaterThanOrEqualTo("horaPonto", Timestamp.ofTimeSecondsAndNanos(inicio, 0))
+                .whereLessThan("horaPonto", Timestamp.ofTimeSecondsAndNanos(fim, 0))
+                .orderBy("horaPonto")
+                .limit(tamanhoPagina);
+
+        try {
+            // Efetivados antigos (sem idLogin/horaPonto) do mês, completados com o ponto original e já em
+            // ordem de horaPonto: intercalados com as páginas abaixo (só os do mês ficam em memória)
+            List<EfetivadoLegadoService.Legado> legados = efetivadosLegados.ler(cliente,
+                    YearMonth.from(Instant.ofEpochSecond(inicio).atZone(PlanilhaService.ZONA)), "arquivoLegal");
+            int proximoLegado = 0;
+            UltimaDecisao destino = new UltimaDecisao(marcacoes);
+
+            ApiFuture<QuerySnapshot> proxima = metricas.firestore("arquivoLegal", colecao, cliente, base.get());
+            while (proxima != null) {
+                List<QueryDocumentSnapshot> pagina = proxima.get().getDocuments();
+                // Já pede a página seguinte enquanto esta é escrita
+                proxima = pagina.size() == tamanhoPagina
+                        ? metricas.firestore("arquivoLegal", colecao, cliente, base.startAfter(pagina.get(pagina.size() - 1)).get())
+                        : null;
+
+                for (QueryDocumentSnapshot doc : pagina) {
+                    if (!EfetivadoLegadoService.completo(doc) || !EfetivadoLegadoService.marcacao(doc)) {
+                        continue;
+                    }
+                    long segundos = doc.getTimestamp("horaPonto").getSeconds();
+                    for (; proximoLegado < legados.size() && segundosLegado(legados.get(proximoLegado)) <= segundos; proximoLegado++) {
+                        marcar(destino, legados.get(proximoLegado));
+                    }
+                    destino.adicionar(doc.getString("pontoId"), doc.getString("idLogin"), segundos, doc.getString("status"),
+                            EfetivadoLegadoService.decididoEmMs(doc));
+                }
+            }
+            for (; proximoLegado < legados.size(); proximoLegado++) {
+                marcar(destino, legados.get(proximoLegado));
+            }
+            destino.escrever();
+        } catch (ExecutionException e) {
+            throw new IOException("Erro ao ler pontos efetivados", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Exportação interrompida");
+        }
+    }
+
+    private static long segundosLegado(EfetivadoLegadoService.Legado legado) {
+        return Math.floorDiv(legado.horaPontoMs(), 1000);
+    }
+
+    private static void marcar(UltimaDecisao destino, EfetivadoLegadoService.Legado legado) throws IOException {
+        DocumentSnapshot efetivado = legado.efetivado();
+        if (EfetivadoLegadoService.marcacao(efetivado)) {
+            destino.adicionar(legado.pontoId(), legado.idLogin(), segundosLegado(legado), efetivado.getString("status"),
+                    EfetivadoLegadoService.decididoEmMs(efetivado));
+        }
+    }
+
+    /**
+     * Junta os efetivados de um mesmo segundo de horaPonto e escreve só a última decisão de cada ponto
+     * quando o segundo muda. Só o segundo atual fica em memória.
+     */
+    static final class UltimaDecisao {
+        private final Marcacoes destino;
+        private final Map<String, Decisao> doSegundo = new LinkedHashMap<>();
+        private long segundo = Long.MIN_VALUE;
+
+        private record Decisao(String idLogin, boolean aprovada, long decididoEmMs) {
+        }
+
+        UltimaDecisao(Marcacoes destino) {
+            this.destino = destino;
+        }
+
+        void adicionar(String pontoId, String idLogin, long segundos, String status, long decididoEmMs) throws IOException {
+            if (segundos != segundo) {
+                escrever();
+                segundo = segundos;
+            }
+            Decisao atual = doSegundo.get(pontoId);
+            if (atual == null || decididoEmMs >= atual.decididoEmMs()) {
+                doSegundo.put(pontoId, new Decisao(idLogin, "Aprovado".equals(status), decididoEmMs));
+            }
+        }
+
+        void escrever() throws IOException {
+            for (Decisao decisao : doSegundo.values()) {
+                destino.marcacao(decisao.idLogin(), segundo, decisao.aprovada());
+            }
+            doSegundo.clear();
+        }
+    }
+
+    // CNPJ e razão social vêm do cadastro de postos (coleção postos, campo codigo = id do cliente)
+    private Empregador buscarEmpregador(String cliente) throws IOException {
+        try {
+            List<QueryDocumentSnapshot> postos = metricas.firestore("buscarPosto", "postos", cliente, firestore.collection("postos")
+                    .whereEqualTo("codigo", cliente)
+                    .select("cnpj", "razaoSocial", "nome")
+                    .limit(1)
+                    .get()).get().getDocuments();
+            if (postos.isEmpty()) {
+                System.err.println("Arquivo legal: posto " + cliente + " sem cadastro (CNPJ/razão social em branco)");
+                return new Empregador(null, null);
+            }
+            DocumentSnapshot posto = postos.get(0);
+            String razao = posto.getString("razaoSocial");
+            return new Empregador(posto.getString("cnpj"), razao != null && !razao.isEmpty() ? razao : posto.getString("nome"));
+        } catch (ExecutionException e) {
+            throw new IOException("Erro ao ler cadastro do posto", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Exportação interrompida");
+        }
+    }
+
+    // Projeção dos usuários (sem senhas e fotos): CPF e nome para os registros, lida uma vez por exportação
+    private Map<String, Funcionario> carregarFuncionarios() throws IOException {
+        try {
+            Map<String, Funcionario> funcionarios = new HashMap<>();
+            for (QueryDocumentSnapshot doc : metricas.firestore("listarUsuariosArquivoLegal", "users", "todos",
+                    firestore.collection("users").select(CAMPOS_FUNCIONARIO).get()).get().getDocuments()) {
+                Object idLogin = doc.get("idLogin");
+                Object cpf = doc.get("cpf");
+                if (idLogin != null) {
+                    funcionarios.putIfAbsent(idLogin.toString(), new Funcionario(idLogin.toString(), doc.getString("name"),
+                            cpf != null ? cpf.toString() : null, doc.getString("posto")));
+                }
+            }
+            return funcionarios;
+        } catch (ExecutionException e) {
+            throw new IOException("Erro ao ler usuários", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Exportação interrompida");
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Offset do fuso por instante; com fuso fixo (caso do Brasil desde 2019) não consulta as regras por registro
+    static final class Relogio {
+        private final ZoneRules regras;
+        private final int offsetFixo;
+
+        Relogio(ZoneRules regras) {
+            this.regras = regras;
+            this.offsetFixo = regras.isFixedOffset() ? regras.getOffset(Instant.EPOCH).getTotalSeconds() : Integer.MIN_VALUE;
+        }
+
+        int offset(long epochSegundos) {
+            return offsetFixo != Integer.MIN_VALUE ? offsetFixo : regras.getOffset(Instant.ofEpochSecond(epochSegundos)).getTotalSeconds();
+        }
+    }
+
+    interface Marcacoes {
+        void marcacao(String idLogin, long epochSegundos, boolean valida) throws IOException;
+
+        void finalizar() throws IOException;
+    }
+
+    /**
+     * AFD (leiaute 003): registros de largura fixa terminados em CR LF.
+     * Tipo 7 = marcação de REP-P: NSR, tipo, data/hora da marcação, CPF, data/hora da gravação,
+     * coletor (02 = navegador), on-line (0) e SHA-256 dos campos anteriores + hash do registro anterior.
+     */
+    static final class Afd implements Marcacoes {
+        private final OutputStream saida;
+        private final Relogio relogio;
+        private final Map<String, Funcionario> funcionarios;
+        private final LinhaArquivo linha = new LinhaArquivo(TAMANHO_LINHA);
+        private final MessageDigest sha256 = sha256();
+        private final byte[] hash = new byte[32];
+        private final byte[] hashAnterior = new byte[64];
+        private boolean primeiro = true;
+        private long nsr;
+
+        Afd(OutputStream saida, Relogio relogio, RepP repP, Empregador empregador, long inicio, long fim,
+            Map<String, Funcionario> funcionarios) throws IOException {
+            this.saida = saida;
+            this.relogio = relogio;
+            this.funcionarios = funcionarios;
+
+            String documento = empregador.documento();
+            boolean cpf = documento != null && documento.replaceAll("\\D", "").length() == 11;
+            long agora = System.currentTimeMillis() / 1000;
+            linha.limpar()
+                    .numero(0, 9)
+                    .caractere('1')
+                    .caractere(cpf ? '2' : '1')
+                    .digitos(documento, 14)
+                    .texto(null, 14)
+                    .texto(empregador.razaoSocial(), 150)
+                    .digitos(repP.inpi(), 17)
+                    .data(Math.floorDiv(inicio + relogio.offset(inicio), 86400))
+                    .data(Math.floorDiv(fim + relogio.offset(fim), 86400))
+                    .dataHora(agora, relogio.offset(agora))
+                    .literal("003")
+                    .caractere('1')
+                    .digitos(repP.cnpjDesenvolvedor(), 14)
+                    .texto(repP.modelo(), 30);
+            linha.crc16Hex(linha.crc16()).fimDeLinha().escrever(saida);
+        }
+
+        @Override
+        public void marcacao(String idLogin, long epochSegundos, boolean valida) throws IOException {
+            Funcionario funcionario = funcionarios.get(idLogin);
+            int offset = relogio.offset(epochSegundos);
+            linha.limpar()
+                    .numero(++nsr, 9)
+                    .caractere('7')
+                    .dataHora(epochSegundos, offset)
+                    .digitos(funcionario != null ? funcionario.cpf() : null, 12)
+                    .dataHora(epochSegundos, offset)
+                    .literal("02")
+                    .caractere('0');
+            linha.atualizar(sha256);
+            if (!primeiro) {
+                sha256.update(hashAnterior);
+            }
+            try {
+                sha256.digest(hash, 0, hash.length);
+            } catch (java.security.DigestException e) {
+                throw new IllegalStateException(e);
+            }
+            int inicioHash = linha.tamanho();
+            linha.hex(hash);
+            linha.copiar(inicioHash, hashAnterior);
+            primeiro = false;
+            linha.fimDeLinha().escrever(saida);
+        }
+
+        @Override
+        public void finalizar() throws IOException {
+            linha.limpar()
+                    .numero(999999999, 9)
+                    .numero(0, 9).numero(0, 9).numero(0, 9).numero(0, 9).numero(0, 9)
+                    .numero(nsr, 9)
+                    .caractere('9')
+                    .fimDeLinha()
+                    .escrever(saida);
+        }
+    }
+
+    /**
+     * AEJ: registros com campos separados por "|". As marcações de cada funcionário no dia alternam
+     * entrada (E) e saída (S) com o número do par; recusadas vão como desconsideradas (D).
+     * Pontos de idLogin sem vínculo no posto não entram (o AEJ exige o vínculo no registro 03).
+     */
+    static final class Aej implements Marcacoes {
+        private static final char SEP = '|';
+
+        private final OutputStream saida;
+        private final Relogio relogio;
+        private final RepP repP;
+        private final LinhaArquivo linha = new LinhaArquivo(TAMANHO_LINHA);
+        private final Map<String, Integer> idVinculo = new HashMap<>();
+        // idLogin -> {dia epoch, marcações válidas no dia}
+        private final Map<String, long[]> sequencia = new HashMap<>();
+        private final long[] quantidade = new long[9];
+        private long semVinculo;
+
+        Aej(OutputStream saida, Relogio relogio, RepP repP, Empregador empregador, long inicio, long fim,
+            List<Funcionario> vinculos) throws IOException {
+            this.saida = saida;
+            this.relogio = relogio;
+            this.repP = repP;
+
+            String documento = empregador.documento();
+            boolean cpf = documento != null && documento.replaceAll("\\D", "").length() == 11;
+            linha.limpar().literal("01").caractere(SEP)
+                    .caractere(cpf ? '2' : '1').caractere(SEP)
+                    .digitos(documento, cpf ? 11 : 14).caractere(SEP)
+                    .caractere(SEP)
+                    .caractere(SEP)
+                    .campo(empregador.razaoSocial(), SEP).caractere(SEP)
+                    .data(Math.floorDiv(inicio + relogio.offset(inicio), 86400)).caractere(SEP)
+                    .data(Math.floorDiv(fim + relogio.offset(fim), 86400)).caractere(SEP)
+                    .literal("001");
+            registro(1);
+
+            linha.limpar().literal("02").caractere(SEP)
+                    .caractere('1').caractere(SEP)
+                    .caractere('3').caractere(SEP)
+                    .digitos(repP.inpi(), 17);
+            registro(2);
+
+            int id = 0;
+            for (Funcionario f : vinculos) {
+                idVinculo.put(f.idLogin(), ++id);
+                linha.limpar().literal("03").caractere(SEP)
+                        .numero(id).caractere(SEP)
+                        .digitos(f.cpf(), 11).caractere(SEP)
+                        .campo(f.nome(), SEP);
+                registro(3);
+            }
+        }
+
+        @Override
+        public void marcacao(String idLogin, long epochSegundos, boolean valida) throws IOException {
+            Integer id = idVinculo.get(idLogin);
+            if (id == null) {
+                semVinculo++;
+                return;
+            }
+            int offset = relogio.offset(epochSegundos);
+            long dia = Math.floorDiv(epochSegundos + offset, 86400);
+            long[] seq = sequencia.computeIfAbsent(idLogin, k -> new long[2]);
+            if (seq[0] != dia) {
+                seq[0] = dia;
+                seq[1] = 0;
+            }
+
+            linha.limpar().literal("05").caractere(SEP)
+                    .numero(id).caractere(SEP)
+                    .dataHora(epochSegundos, offset).caractere(SEP)
+                    .caractere('1').caractere(SEP);
+            if (valida) {
+                long ordem = ++seq[1];
+                linha.caractere(ordem % 2 == 1 ? 'E' : 'S').caractere(SEP).numero((ordem + 1) / 2);
+            } else {
+                linha.caractere('D').caractere(SEP);
+            }
+            // fonte O = marcação original do REP; horário contratual e motivo em branco
+            linha.caractere(SEP).caractere('O').caractere(SEP).caractere(SEP);
+            registro(5);
+        }
+
+        @Override
+        public void finalizar() throws IOException {
+            linha.limpar().literal("08").caractere(SEP)
+                    .campo(repP.modelo(), SEP).caractere(SEP)
+                    .campo(repP.versao(), SEP).caractere(SEP)
+                    .caractere('1').caractere(SEP)
+                    .digitos(repP.cnpjDesenvolvedor(), 14).caractere(SEP)
+                    .campo(repP.razaoDesenvolvedor(), SEP).caractere(SEP)
+                    .campo(repP.emailDesenvolvedor(), SEP);
+            registro(8);
+
+            linha.limpar().literal("99");
+            for (int tipo = 1; tipo <= 8; tipo++) {
+                linha.caractere(SEP).numero(quantidade[tipo]);
+            }
+            linha.fimDeLinha().escrever(saida);
+            if (semVinculo > 0) {
+                System.err.println("AEJ: " + semVinculo + " marcações de funcionários sem vínculo no posto foram omitidas");
+            }
+        }
+
+        private void registro(int tipo) throws IOException {
+            quantidade[tipo]++;
+            linha.fimDeLinha().escrever(saida);
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package apontamentoweb.grupocolinas.service;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.zone.ZoneRules;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Cálculo de jornada de um funcionário no mês, sobre as batidas em epoch-segundos (ordenadas).
+ * <p>
+ * Cada batida pertence ao dia da jornada em que caiu: o dia começa 6h antes do horário de
+ * entrada da escala, então a saída de um noturno (19h-7h) conta no dia em que ele entrou.
+ * Batidas a menos de 5 minutos da anterior são descartadas (duplicadas), e as restantes são
+ * pareadas entrada/saída. Tolerância da CLT (art. 58 §1º): diferenças de até 5 min por marcação
+ * e 10 min no dia não geram atraso nem hora extra.
+ * <p>
+ * Não aloca por batida: os resultados por dia ficam em arrays de int indexados pelo dia do mês.
+ */
+public final class CalculoJornada {
+
+    private static final int DIA = 86_400;
+    private static final int ANTECEDENCIA_INICIO_DIA = 6 * 3600;
+    private static final int INTERVALO_DUPLICADA = 5 * 60;
+    private static final Pattern ESCALA_SEMANAL = Pattern.compile("^\\s*([1-7])\\s*[xX]\\s*([0-6])\\s*$");
+
+    private CalculoJornada() {
+    }
+
+    /** Horário contratual já convertido para segundos do dia. */
+    public static final class Escala {
+        final int entrada;          // segundos desde 00:00, ou -1 sem horário
+        final int duracao;          // da entrada à saída prevista, com o intervalo
+        final int carga;            // segundos esperados de trabalho por dia
+        final boolean[] diasSemana; // índice 1..7 (segunda..domingo); null quando a escala não é semanal (ex: 12/36)
+
+        Escala(int entrada, int duracao, int carga, boolean[] diasSemana) {
+            this.entrada = entrada;
+            this.duracao = duracao;
+            this.carga = carga;
+            this.diasSemana = diasSemana;
+        }
+
+        public boolean temHorario() {
+            return entrada >= 0;
+        }
+
+        public boolean semanal() {
+            return diasSemana != null;
+        }
+    }
+
+    /** Totais por dia do mês (índice 0 = dia 1) e do mês, em segundos. */
+    public static final class Resultado {
+        public final int[] trabalhado;
+        public final int[] atraso;
+        public final int[] extra;
+        public final int[] saidaAntecipada;
+        public final int[] batidas;
+        public final boolean[] incompleto;
+        public long totalTrabalhado;
+        public long totalEsperado;
+        public long totalAtraso;
+        public long totalExtra;
+        public long totalSaidaAntecipada;
+        public int diasTrabalhados;
+        public int diasIncompletos;
+        public int faltas; // -1 quando a escala não permite saber os dias esperados
+
+        Resultado(int dias) {
+            trabalhado = new int[dias];
+            atraso = new int[dias];
+            extra = new int[dias];
+            saidaAntecipada = new int[dias];
+            batidas = new int[dias];
+            incompleto = new boolean[dias];
+        }
+    }
+
+    /**
+     * Monta a escala a partir dos campos do usuário. horarioEntrada/horarioSaida no formato HH:mm
+     * (o input type=time do cadastro); escala "5x2", "6x1" etc. ou "12/36". Jornadas com mais de
+     * 6h descontam o intervalo mínimo informado.
+     */
+    public static Escala escala(String horarioEntrada, String horarioSaida, String escala, int intervaloMinutos) {
+        int entrada = segundosDoDia(horarioEntrada);
+        int saida = segundosDoDia(horarioSaida);
+        int duracao = 0;
+        int carga = 0;
+        if (entrada >= 0 && saida >= 0) {
+            duracao = Math.floorMod(saida - entrada, DIA);
+            carga = duracao;
+            if (carga > 6 * 3600) {
+                carga -= intervaloMinutos * 60;
+            }
+        } else {
+            entrada = -1;
+        }
+
+        boolean[] dias = null;
+        if (escala != null) {
+            Matcher m = ESCALA_SEMANAL.matcher(escala);
+            if (m.matches()) {
+                int trabalhados = Integer.parseInt(m.group(1));
+                dias = new boolean[8];
+                for (int d = 1; d <= trabalhados; d++) {
+                    dias[d] = true;
+                }
+            }
+        }
+        return new Escala(entrada, duracao, carga, dias);
+    }
+
+    /**
+     * Calcula o mês. {@code batidas[0..quantidade)} em epoch-segundos, ordenadas. {@code hoje} limita
+     * a contagem de faltas aos dias já encerrados.
+     */
+    public static Resultado calcular(long[] batidas, int quantidade, Escala escala, YearMonth mes, ZoneId zona,
+                                     int toleranciaMarcacao, int toleranciaDiaria, LocalDate hoje) {
+        int diasNoMes = mes.lengthOfMonth();
+        Resultado r = new Resultado(diasNoMes);
+        r.faltas = escala.semanal() ? 0 : -1;
+        ZoneRules regras = zona.getRules();
+        long inicioMesLocal = mes.atDay(1).toEpochDay() * DIA;
+        int deslocamento = escala.temHorario() ? escala.entrada - ANTECEDENCIA_INICIO_DIA : 0;
+
+        // Primeira e última batida de cada dia, para atraso e saída antecipada
+        long[] primeira = new long[diasNoMes];
+        long[] ultima = new long[diasNoMes];
+
+        int diaAtual = -1;
+        long ultimaAceita = -1;
+        long entradaAberta = -1;
+        for (int i = 0; i < quantidade; i++) {
+            long instante = batidas[i];
+            if (ultimaAceita >= 0 && instante - ultimaAceita < INTERVALO_DUPLICADA) {
+                continue;
+            }
+            long local = instante + regras.getOffset(Instant.ofEpochSecond(instante)).getTotalSeconds();
+            int dia = (int) Math.floorDiv(local - deslocamento - inicioMesLocal, DIA);
+            if (dia < 0 || dia >= diasNoMes) {
+                continue;
+            }
+            ultimaAceita = instante;
+
+            if (dia != diaAtual) {
+                if (diaAtual >= 0 && entradaAberta >= 0) {
+                    r.incompleto[diaAtual] = true;
+                }
+                diaAtual = dia;
+                entradaAberta = -1;
+                primeira[dia] = local;
+            }
+            ultima[dia] = local;
+            r.batidas[dia]++;
+            if (entradaAberta < 0) {
+                entradaAberta = instante;
+            } else {
+                r.trabalhado[dia] += (int) (instante - entradaAberta);
+                entradaAberta = -1;
+            }
+        }
+        if (diaAtual >= 0 && entradaAberta >= 0) {
+            r.incompleto[diaAtual] = true;
+        }
+
+        for (int d = 0; d < diasNoMes; d++) {
+            LocalDate data = mes.atDay(d + 1);
+            boolean esperado = escala.semanal() && escala.diasSemana[data.getDayOfWeek().getValue()];
+
+            if (r.batidas[d] == 0) {
+                if (esperado && data.isBefore(hoje)) {
+                    r.faltas++;
+                }
+                if (esperado) {
+                    r.totalEsperado += escala.carga;
+                }
+                continue;
+            }
+
+            r.diasTrabalhados++;
+            if (r.incompleto[d]) {
+                r.diasIncompletos++;
+            }
+            r.totalTrabalhado += r.trabalhado[d];
+            if (!escala.temHorario()) {
+                continue;
+            }
+            // Dia trabalhado fora da escala (folga) conta inteiro como extra
+            int carga = escala.semanal() && !esperado ? 0 : escala.carga;
+            r.totalEsperado += carga;
+
+            long inicioPrevisto = inicioMesLocal + (long) d * DIA + escala.entrada;
+            int atraso = (int) (primeira[d] - inicioPrevisto);
+            if (carga > 0 && atraso > toleranciaMarcacao) {
+                r.atraso[d] = atraso;
+            }
+            int antecipada = (int) (inicioPrevisto + escala.duracao - ultima[d]);
+            if (carga > 0 && !r.incompleto[d] && antecipada > toleranciaMarcacao && r.trabalhado[d] < carga - toleranciaDiaria) {
+                r.saidaAntecipada[d] = Math.min(antecipada, carga - r.trabalhado[d]);
+            }
+            int saldo = r.trabalhado[d] - carga;
+            if (saldo > toleranciaDiaria && !r.incompleto[d]) {
+                r.extra[d] = saldo;
+            }
+            r.totalAtraso += r.atraso[d];
+            r.totalSaidaAntecipada += r.saidaAntecipada[d];
+            r.totalExtra += r.extra[d];
+        }
+        return r;
+    }
+
+    // "HH:mm" ou "HH:mm:ss" -> segundos do dia; -1 se vazio ou inválido
+    static int segundosDoDia(String horario) {
+        if (horario == null || horario.length() < 4) {
+            return -1;
+        }
+        try {
+            String[] partes = horario.trim().split(":");
+            int h = Integer.parseInt(partes[0]);
+            int m = partes.length > 1 ? Integer.parseInt(partes[1]) : 0;
+            int s = partes.length > 2 ? Integer.parseInt(partes[2]) : 0;
+            if (h < 0 || h > 23 || m < 0 || m > 59 || s < 0 || s > 59) {
+                return -1;
+            }
+            return h * 3600 + m * 60 + s;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
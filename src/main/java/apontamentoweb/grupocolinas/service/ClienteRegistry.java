@@ -0,0 +1,149 @@
+package apontamentoweb.grupocolinas.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+
+/**
+ * Clientes (postos/tenants) carregados da configuração: sufixo das coleções e os compartimentos
+ * de execução de cada um. Substitui os switch de nome de coleção espalhados pelos serviços.
+ * <pre>
+ * apontamento.clientes.ids=default,colinas,colinas25
+ * apontamento.clientes.colinas.sufixo=CoLinas
+ * apontamento.clientes.padrao.ponto.threads=4            (padrão para todos os clientes)
+ * apontamento.clientes.colinas.ponto.threads=8           (sobrescreve para um cliente)
+ * </pre>
+ * Cliente não cadastrado (ou null) cai no cliente padrão "default", como antes.
+ * <p>
+ * Cada cliente tem dois compartimentos: "ponto" (registro de ponto) e "consulta" (relatórios e
+ * listagens administrativas). As consultas são recusadas enquanto a ocupação dos pontos, somada
+ * entre todos os clientes, estiver acima de apontamento.clientes.padrao.consulta.limiar-prioridade.
+ */
+@Service
+public class ClienteRegistry {
+
+    public static final String PADRAO = "default";
+
+    // Nomes base das coleções que não seguem o tipo (o de efetivados tem um erro de digitação histórico)
+    private static final Map<String, String> NOMES_BASE = Map.of("pontosEfetivados", "pontosFfetivados");
+
+    private final Map<String, Cliente> clientes;
+    private final Cliente padrao;
+
+    @Autowired
+    public ClienteRegistry(Environment env, MeterRegistry registry) {
+        List<String> ids = new ArrayList<>(Arrays.asList(env.getProperty("apontamento.clientes.ids", String[].class, new String[]{PADRAO})));
+        if (!ids.contains(PADRAO)) {
+            ids.add(0, PADRAO);
+        }
+
+        Map<String, Cliente> mapa = new LinkedHashMap<>();
+        for (String id : ids) {
+            id = id.trim();
+            mapa.put(id, new Cliente(id, env.getProperty("apontamento.clientes." + id + ".sufixo", ""), env, registry));
+        }
+        this.clientes = Collections.unmodifiableMap(mapa);
+        this.padrao = mapa.get(PADRAO);
+    }
+
+    @PreDestroy
+    public void encerrar() {
+        for (Cliente cliente : clientes.values()) {
+            cliente.ponto.encerrar();
+            cliente.consulta.encerrar();
+        }
+    }
+
+    /** Cliente cadastrado com esse id, ou o padrão. */
+    public Cliente resolver(String id) {
+        Cliente cliente = id != null ? clientes.get(id) : null;
+        return cliente != null ? cliente : padrao;
+    }
+
+    /** Nome da coleção de um tipo (pontos, pontosEfetivados, planilhaMensal, faltas...) para o cliente. */
+    public String colecao(String tipo, String cliente) {
+        return resolver(cliente).colecao(tipo);
+    }
+
+    public Collection<Cliente> todos() {
+        return clientes.values();
+    }
+
+    public boolean cadastrado(String id) {
+        return id != null && clientes.containsKey(id);
+    }
+
+    public Map<String, Object> estatisticas() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        for (Cliente cliente : clientes.values()) {
+            Map<String, Object> c = new LinkedHashMap<>();
+            c.put("sufixo", cliente.sufixo);
+            c.put("ponto", cliente.ponto.estatisticas());
+            c.put("consulta", cliente.consulta.estatisticas());
+            stats.put(cliente.id, c);
+        }
+        stats.put("pressaoPontos", pressaoPontos());
+        return stats;
+    }
+
+    // Ocupação somada dos compartimentos de ponto (0..1)
+    private double pressaoPontos() {
+        int emAndamento = 0;
+        int capacidade = 0;
+        for (Cliente cliente : clientes.values()) {
+            emAndamento += cliente.ponto.emAndamento();
+            capacidade += cliente.maxPontos;
+        }
+        return capacidade > 0 ? (double) emAndamento / capacidade : 0;
+    }
+
+    public final class Cliente {
+        private final String id;
+        private final String sufixo;
+        private final int maxPontos;
+        private final Compartimento ponto;
+        private final Compartimento consulta;
+
+        private Cliente(String id, String sufixo, Environment env, MeterRegistry registry) {
+            this.id = id;
+            this.sufixo = sufixo;
+            this.maxPontos = propriedade(env, id, "ponto.max-em-andamento", 300);
+            this.ponto = new Compartimento(id, "ponto",
+                    propriedade(env, id, "ponto.threads", 4),
+                    propriedade(env, id, "ponto.fila", 500),
+                    maxPontos, null, 1, registry);
+            double limiar = Double.parseDouble(env.getProperty("apontamento.clientes." + id + ".consulta.limiar-prioridade",
+                    env.getProperty("apontamento.clientes.padrao.consulta.limiar-prioridade", "0.8")));
+            this.consulta = new Compartimento(id, "consulta",
+                    propriedade(env, id, "consulta.threads", 2),
+                    propriedade(env, id, "consulta.fila", 20),
+                    propriedade(env, id, "consulta.max-em-andamento", 4),
+                    ClienteRegistry.this::pressaoPontos, limiar, registry);
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String colecao(String tipo) {
+            return NOMES_BASE.getOrDefault(tipo, tipo) + sufixo;
+        }
+
+        public Compartimento ponto() {
+            return ponto;
+        }
+
+        public Compartimento consulta() {
+            return consulta;
+        }
+    }
+
+    private static int propriedade(Environment env, String id, String chave, int padrao) {
+        Integer valor = env.getProperty("apontamento.clientes." + id + "." + chave, Integer.class);
+        return valor != null ? valor : env.getProperty("apontamento.clientes.padrao." + chave, Integer.class, padrao);
+    }
+}
@@ -0,0 +1,145 @@
+package apontamentoweb.grupocolinas.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Bulkhead de uma classe de trabalho (ponto ou consulta) de um cliente: executor próprio com
+ * fila limitada e um limite de requisições em andamento. Quando cheio, recusa na entrada com
+ * {@link RejectedExecutionException} (mapeada para 503 pelos controllers) em vez de enfileirar
+ * sem limite e atrasar os outros clientes.
+ * <p>
+ * Compartimentos de baixa prioridade (consultas/relatórios) também recusam quando a pressão dos
+ * pontos passa do limiar configurado, para que a troca de turno não dispute o cliente do
+ * Firestore com relatórios.
+ */
+public final class Compartimento {
+
+    private final String cliente;
+    private final String classe;
+    private final ThreadPoolExecutor executor;
+    private final Semaphore permissoes;
+    private final int maxEmAndamento;
+    private final DoubleSupplier pressaoPrioritaria;
+    private final double limiarPrioridade;
+
+    private final Counter rejeitadosConcorrencia;
+    private final Counter rejeitadosFila;
+    private final Counter rejeitadosPrioridade;
+
+    Compartimento(String cliente, String classe, int threads, int fila, int maxEmAndamento,
+                  DoubleSupplier pressaoPrioritaria, double limiarPrioridade, MeterRegistry registry) {
+        this.cliente = cliente;
+        this.classe = classe;
+        this.maxEmAndamento = maxEmAndamento;
+        this.permissoes = new Semaphore(maxEmAndamento);
+        this.pressaoPrioritaria = pressaoPrioritaria;
+        this.limiarPrioridade = limiarPrioridade;
+
+        this.rejeitadosConcorrencia = rejeicoes(registry, "concorrencia");
+        this.rejeitadosFila = rejeicoes(registry, "fila");
+        this.rejeitadosPrioridade = rejeicoes(registry, "prioridade");
+
+        AtomicInteger contador = new AtomicInteger();
+        String prefixo = classe + "-" + cliente + "-";
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(fila),
+                r -> {
+                    Thread t = new Thread(r, prefixo + contador.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                (r, e) -> {
+                    rejeitadosFila.increment();
+                    throw new RejectedExecutionException("Fila cheia: " + classe + " do cliente " + cliente);
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+
+        Gauge.builder("apontamento.cliente.em.andamento", this, Compartimento::emAndamento)
+                .description("Requisições em andamento no compartimento do cliente")
+                .tags("cliente", cliente, "classe", classe)
+                .register(registry);
+        new ExecutorServiceMetrics(executor, classe + "-" + cliente, List.of()).bindTo(registry);
+    }
+
+    private Counter rejeicoes(MeterRegistry registry, String motivo) {
+        return Counter.builder("apontamento.cliente.rejeicoes")
+                .description("Requisições recusadas pelo compartimento do cliente")
+                .tags("cliente", cliente, "classe", classe, "motivo", motivo)
+                .register(registry);
+    }
+
+    /**
+     * Reserva uma vaga; cada entrada bem-sucedida precisa de um {@link #sair()}.
+     *
+     * @throws RejectedExecutionException se o compartimento estiver cheio ou os pontos tiverem prioridade
+     */
+    public void entrar() {
+        if (pressaoPrioritaria != null && pressaoPrioritaria.getAsDouble() >= limiarPrioridade) {
+            rejeitadosPrioridade.increment();
+            throw new RejectedExecutionException("Prioridade para o registro de pontos: " + classe + " do cliente " + cliente + " recusada");
+        }
+        if (!permissoes.tryAcquire()) {
+            rejeitadosConcorrencia.increment();
+            throw new RejectedExecutionException("Limite de " + maxEmAndamento + " em andamento: " + classe + " do cliente " + cliente);
+        }
+    }
+
+    public void sair() {
+        permissoes.release();
+    }
+
+    /** Executor do compartimento (fila limitada; recusa com RejectedExecutionException). */
+    public Executor executor() {
+        return executor;
+    }
+
+    /** Entra, executa no executor do compartimento e sai ao terminar. */
+    public <T> CompletableFuture<T> executar(Callable<T> tarefa) {
+        entrar();
+        CompletableFuture<T> resultado = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    resultado.complete(tarefa.call());
+                } catch (Throwable e) {
+                    resultado.completeExceptionally(e);
+                } finally {
+                    sair();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            sair();
+            throw e;
+        }
+        return resultado;
+    }
+
+    public int emAndamento() {
+        return maxEmAndamento - permissoes.availablePermits();
+    }
+
+    void encerrar() {
+        executor.shutdown();
+    }
+
+    Map<String, Object> estatisticas() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("emAndamento", emAndamento());
+        stats.put("maxEmAndamento", maxEmAndamento);
+        stats.put("threadsAtivas", executor.getActiveCount());
+        stats.put("fila", executor.getQueue().size());
+        stats.put("rejeitadosConcorrencia", (long) rejeitadosConcorrencia.count());
+        stats.put("rejeitadosFila", (long) rejeitadosFila.count());
+        stats.put("rejeitadosPrioridade", (long) rejeitadosPrioridade.count());
+        return stats;
+    }
+}
@@ -0,0 +1,170 @@
+package apontamentoweb.grupocolinas.service;
+
+import com.google.api.core.ApiFuture;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.YearMonth;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Efetivados antigos de um mês. Até a gravação de idLogin/usuario/horaPonto no efetivado, o
+ * pontosEfetivados{sufixo} só tinha pontoId, status, os extras da aprovação e "data" (momento da
+ * aprovação/recusa): não dá para buscar esses registros pela horaPonto. Como em
+ * {@link PlanilhaService#reconstruir}, eles são lidos pela data da aprovação e completados com o
+ * ponto original (pontos ou histórico, via {@link PontoHistoricoService#buscar}).
+ * <p>
+ * A aprovação vem depois do ponto, então os efetivados antigos de pontos do mês estão entre o
+ * início do mês e o fim dele mais apontamento.efetivados.legado.atraso-aprovacao-dias; os que
+ * ficaram fora dessa janela (aprovação muito tardia) não entram. Efetivados cujo ponto original
+ * não existe mais também não: são contados em {@link #estatisticas()}.
+ * <p>
+ * pontosEfetivados{sufixo} não tem só marcações: cada decisão sobre um ponto grava um efetivado novo
+ * (um ponto aprovado e depois recusado aparece duas vezes) e a tela de validação grava ali faltas,
+ * abonos e banco de horas, sem pontoId. {@link #marcacao} e {@link #decididoEmMs} são a regra usada
+ * por quem exporta marcações: só Aprovado/Recusado com pontoId, e vale a última decisão do ponto.
+ */
+@Service
+public class EfetivadoLegadoService {
+
+    static final String[] CAMPOS = {
+            "pontoId", "idLogin", "usuario", "horaPonto", "status", "aprovadoPor", "dataAprovacao", "dataRecusa",
+            "justificativa", "data"
+    };
+    private static final FieldMask CAMPOS_ORIGINAL = FieldMask.of("idLogin", "usuario", "horaPonto", "fotoHash");
+
+    private final Firestore firestore;
+    private final ClienteRegistry clientes;
+    private final PontoHistoricoService pontoHistorico;
+    private final MetricasService metricas;
+    private final long atrasoMs;
+    private final int tamanhoPagina;
+
+    private final AtomicLong completados = new AtomicLong();
+    private final AtomicLong semOriginal = new AtomicLong();
+
+    @Autowired
+    public EfetivadoLegadoService(Firestore firestore, ClienteRegistry clientes, PontoHistoricoService pontoHistorico,
+                                  MetricasService metricas,
+                                  @Value("${apontamento.efetivados.legado.atraso-aprovacao-dias:62}") long atrasoDias,
+                                  @Value("${apontamento.relatorios.exportacao.tamanho-pagina:500}") int tamanhoPagina) {
+        this.firestore = firestore;
+        this.clientes = clientes;
+        this.pontoHistorico = pontoHistorico;
+        this.metricas = metricas;
+        this.atrasoMs = TimeUnit.DAYS.toMillis(atrasoDias);
+        this.tamanhoPagina = tamanhoPagina;
+    }
+
+    /** Efetivado antigo completado com o ponto original; horaPontoMs está sempre dentro do mês pedido. */
+    public record Legado(DocumentSnapshot efetivado, String pontoId, String idLogin, String usuario,
+                         long horaPontoMs, String fotoHash) {
+    }
+
+    /** Decisão sobre um ponto (Aprovado/Recusado com pontoId); faltas, abonos e banco de horas não são marcações. */
+    static boolean marcacao(DocumentSnapshot efetivado) {
+        String status = efetivado.getString("status");
+        return efetivado.getString("pontoId") != null && ("Aprovado".equals(status) || "Recusado".equals(status));
+    }
+
+    /**
+     * Momento da decisão: dataAprovacao, dataRecusa (recusa pela tela de validação) ou a data de gravação
+     * do efetivado; 0 sem nenhuma.
+     */
+    static long decididoEmMs(DocumentSnapshot efetivado) {
+        for (String campo : new String[]{"dataAprovacao", "dataRecusa", "data"}) {
+            Object valor = efetivado.get(campo);
+            if (valor instanceof Timestamp t) {
+                return t.toDate().getTime();
+            }
+            if (valor instanceof Date d) {
+                return d.getTime();
+            }
+        }
+        return 0;
+    }
+
+    /** Efetivado gravado já com idLogin e horaPonto (Timestamp): sai da consulta por horaPonto. */
+    static boolean completo(DocumentSnapshot efetivado) {
+        return efetivado.getString("idLogin") != null && efetivado.get("horaPonto") instanceof Timestamp;
+    }
+
+    /** Efetivados antigos de pontos com horaPonto no mês, em ordem de horaPonto. */
+    public List<Legado> ler(String cliente, YearMonth mes, String operacao) throws ExecutionException, InterruptedException {
+        long inicio = mes.atDay(1).atStartOfDay(PlanilhaService.ZONA).toInstant().toEpochMilli();
+        long fim = mes.plusMonths(1).atDay(1).atStartOfDay(PlanilhaService.ZONA).toInstant().toEpochMilli();
+        String colecao = clientes.colecao("pontosEfetivados", cliente);
+        Query base = firestore.collection(colecao)
+                .select(CAMPOS)
+                .whereGreaterThanOrEqualTo("data", new Date(inicio))
+                .whereLessThan("data", new Date(fim + atrasoMs))
+                .orderBy("data")
+                .limit(tamanhoPagina);
+
+        List<Legado> legados = new ArrayList<>();
+        ApiFuture<QuerySnapshot> proxima = metricas.firestore(operacao, colecao, cliente, base.get());
+        while (proxima != null) {
+            List<QueryDocumentSnapshot> pagina = proxima.get().getDocuments();
+            // Já pede a página seguinte enquanto os pontos originais desta são buscados
+            proxima = pagina.size() == tamanhoPagina
+                    ? metricas.firestore(operacao, colecao, cliente, base.startAfter(pagina.get(pagina.size() - 1)).get())
+                    : null;
+
+            List<QueryDocumentSnapshot> incompletos = new ArrayList<>();
+            Set<String> pontoIds = new HashSet<>();
+            for (QueryDocumentSnapshot doc : pagina) {
+                if (!completo(doc) && marcacao(doc)) {
+                    incompletos.add(doc);
+                    pontoIds.add(pontoId(doc));
+                }
+            }
+            if (incompletos.isEmpty()) {
+                continue;
+            }
+            Map<String, DocumentSnapshot> originais = pontoHistorico.buscar(cliente, pontoIds, CAMPOS_ORIGINAL);
+            for (QueryDocumentSnapshot doc : incompletos) {
+                String pontoId = pontoId(doc);
+                DocumentSnapshot original = originais.get(pontoId);
+                if (original == null) {
+                    semOriginal.incrementAndGet();
+                    continue;
+                }
+                String idLogin = doc.getString("idLogin") != null ? doc.getString("idLogin") : texto(original.get("idLogin"));
+                Long horaPontoMs = PlanilhaService.horaPontoEmMs(original.get("horaPonto"));
+                if (idLogin == null || horaPontoMs == null) {
+                    semOriginal.incrementAndGet();
+                    continue;
+                }
+                if (horaPontoMs >= inicio && horaPontoMs < fim) {
+                    String usuario = doc.get("usuario") != null ? texto(doc.get("usuario")) : texto(original.get("usuario"));
+                    legados.add(new Legado(doc, pontoId, idLogin, usuario, horaPontoMs, original.getString("fotoHash")));
+                    completados.incrementAndGet();
+                }
+            }
+        }
+        legados.sort(Comparator.comparingLong(Legado::horaPontoMs).thenComparing(Legado::pontoId));
+        return legados;
+    }
+
+    public Map<String, Object> estatisticas() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("atrasoAprovacaoDias", TimeUnit.MILLISECONDS.toDays(atrasoMs));
+        stats.put("completados", completados.get());
+        stats.put("semOriginal", semOriginal.get());
+        return stats;
+    }
+
+    private static String pontoId(DocumentSnapshot efetivado) {
+        return efetivado.getString("pontoId") != null ? efetivado.getString("pontoId") : efetivado.getId();
+    }
+
+    private static String texto(Object valor) {
+        return valor != null ? valor.toString() : null;
+    }
+}
@@ -0,0 +1,40 @@
+package apontamentoweb.grupocolinas.service;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Conversão dos ApiFutures do Firestore para CompletableFuture, para encadear
+ * etapas sem bloquear threads do Tomcat.
+ */
+public final class FirestoreFutures {
+
+    private FirestoreFutures() {
+    }
+
+    public static <T> CompletableFuture<T> paraCompletable(ApiFuture<T> apiFuture) {
+        CompletableFuture<T> resultado = new CompletableFuture<>() {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                apiFuture.cancel(mayInterruptIfRunning);
+                return super.cancel(mayInterruptIfRunning);
+            }
+        };
+        ApiFutures.addCallback(apiFuture, new ApiFutureCallback<T>() {
+            @Override
+            public void onFailure(Throwable t) {
+                resultado.completeExceptionally(t);
+            }
+
+            @Override
+            public void onSuccess(T valor) {
+                resultado.complete(valor);
+            }
+        }, MoreExecutors.directExecutor());
+        return resultado;
+    }
+}
@@ -1,57 +1,59 @@
 package apontamentoweb.grupocolinas.service;
 
+import apontamentoweb.grupocolinas.dto.FuncionarioDTO;
+import apontamentoweb.grupocolinas.dto.PaginaCursor;
 import com.google.api.core.ApiFuture;
 import com.google.cloud.firestore.*;
 import com.google.firebase.cloud.FirestoreClient;
 import com.google.firebase.FirebaseApp;
 import org.springframework.stereotype.Service;
 
-import java.text.SimpleDateFormat;
+import java.io.IOException;
+import java.time.YearMonth;
 import java.util.*;
 import java.util.concurrent.ExecutionException;
 
 @Service
 public class FirestoreService {
 
-    private final Firestore firestore;
+    // Cada ponto também atualiza a planilha mensal (até 2 escritas): 125 pontos x 4 escritas = 500
+    private static final int PONTOS_POR_LOTE = 125;
 
-    public FirestoreService(FirebaseApp firebaseApp) {
-        this.firestore = FirestoreClient.getFirestore(firebaseApp);
-    }
+    // Campos da visão resumida dos usuários (FuncionarioDTO): o Firestore não envia senhas nem foto
+    private static final String[] CAMPOS_RESUMO_USUARIO = {"idLogin", "name", "email", "posto", "role", "permissao"};
 
-    // --- Método auxiliar para obter coleção dinâmica ---
-    private String getColecao(String tipo, String cliente) {
-        String sufixo = "";
-        switch (cliente) {
-            case "colinas":
-                sufixo = "CoLinas";
-                break;
-            case "colinas25":
-                sufixo = "CoLinas25";
-                break;
-            default:
-                sufixo = "";
-        }
+    private static final FieldMask CAMPOS_EFETIVADO = FieldMask.of("idLogin", "usuario", "horaPonto", "dataAprovacao");
 
-        switch (tipo) {
-            case "pontos":
-                return "pontos" + sufixo;
-            case "faltas":
-                return "faltas" + sufixo;
-            case "abonos":
-                return "abonos" + sufixo;
-            case "pontosEfetivados":
-                return "pontosFfetivados" + sufixo;
-            default:
-                return tipo + sufixo;
-        }
+    private final Firestore firestore;
+    private final FotoStorageService fotoStorageService;
+    private final PlanilhaService planilhaService;
+    private final PlanilhaCacheService planilhaCache;
+    private final PontoHistoricoService pontoHistorico;
+    private final PontoArquivoService pontoArquivo;
+    private final PontoReplicaService pontoReplicaService;
+    private final MetricasService metricas;
+    private final ClienteRegistry clientes;
+
+    public FirestoreService(FirebaseApp firebaseApp, FotoStorageService fotoStorageService, PlanilhaService planilhaService,
+                            PlanilhaCacheService planilhaCache, PontoHistoricoService pontoHistorico,
+                            PontoArquivoService pontoArquivo, PontoReplicaService pontoReplicaService,
+                            MetricasService metricas, ClienteRegistry clientes) {
+        this.firestore = FirestoreClient.getFirestore(firebaseApp);
+        this.fotoStorageService = fotoStorageService;
+        this.planilhaService = planilhaService;
+        this.planilhaCache = planilhaCache;
+        this.pontoHistorico = pontoHistorico;
+        this.pontoArquivo = pontoArquivo;
+        this.pontoReplicaService = pontoReplicaService;
+        this.metricas = metricas;
+        this.clientes = clientes;
     }
 
     // --- Usuários (mantido igual, mas vamos adicionar campo 'posto') ---
 
     public List<Map<String, Object>> listarUsuarios() throws ExecutionException, InterruptedException {
         List<Map<String, Object>> usuarios = new ArrayList<>();
-        ApiFuture<QuerySnapshot> future = firestore.collection("users").get();
+        ApiFuture<QuerySnapshot> future = metricas.firestore("listarUsuarios", "users", "todos", firestore.collection("users").get());
 
         for (DocumentSnapshot doc : future.get().getDocuments()) {
             Map<String, Object> data = doc.getData();
@@ -61,9 +63,40 @@ public class FirestoreService {
         return usuarios;
     }
 
+    public List<FuncionarioDTO> listarUsuariosResumo() throws ExecutionException, InterruptedException {
+        return paraResumo(metricas.firestore("listarUsuariosResumo", "users", "todos",
+                firestore.collection("users").select(CAMPOS_RESUMO_USUARIO).get()).get());
+    }
+
+    public List<FuncionarioDTO> listarUsuariosPorPostoResumo(String posto) throws ExecutionException, InterruptedException {
+        return paraResumo(metricas.firestore("listarUsuariosPorPostoResumo", "users", posto, firestore.collection("users")
+                .whereEqualTo("posto", posto)
+                .select(CAMPOS_RESUMO_USUARIO)
+                .get()).get());
+    }
+
+    private static List<FuncionarioDTO> paraResumo(QuerySnapshot snapshot) {
+        List<FuncionarioDTO> usuarios = new ArrayList<>(snapshot.size());
+        for (DocumentSnapshot doc : snapshot.getDocuments()) {
+            // idLogin e permissao podem estar gravados como número ou texto
+            Object idLogin = doc.get("idLogin");
+            Object permissao = doc.get("permissao");
+            usuarios.add(new FuncionarioDTO(
+                    doc.getId(),
+                    doc.getString("posto"),
+                    idLogin != null ? idLogin.toString() : null,
+                    doc.getString("email"),
+                    doc.getString("name"),
+                    permissao != null ? permissao.toString() : null,
+                    doc.getString("role"),
+                    null));
+        }
+        return usuarios;
+    }
+
     public Map<String, Object> buscarUsuarioPorId(String id) throws ExecutionException, InterruptedException {
         DocumentReference docRef = firestore.collection("users").document(id);
-        DocumentSnapshot doc = docRef.get().get();
+        DocumentSnapshot doc = metricas.firestore("buscarUsuario", "users", "todos", docRef.get()).get();
 
         if (doc.exists()) {
             Map<String, Object> data = doc.getData();
@@ -79,16 +112,17 @@ public class FirestoreService {
             usuario.put("posto", "default");
         }
 
-        ApiFuture<DocumentReference> future = firestore.collection("users").add(usuario);
+        ApiFuture<DocumentReference> future = metricas.firestore("criarUsuario", "users", String.valueOf(usuario.get("posto")),
+                firestore.collection("users").add(usuario));
         return future.get().getId();
     }
 
     public boolean atualizarUsuario(String id, Map<String, Object> dadosAtualizados) throws ExecutionException, InterruptedException {
         DocumentReference docRef = firestore.collection("users").document(id);
-        DocumentSnapshot doc = docRef.get().get();
+        DocumentSnapshot doc = metricas.firestore("buscarUsuario", "users", "todos", docRef.get()).get();
 
         if (doc.exists()) {
-            docRef.update(dadosAtualizados).get();
+            metricas.firestore("atualizarUsuario", "users", "todos", docRef.update(dadosAtualizados)).get();
             return true;
         }
         return false;
@@ -96,10 +130,10 @@ public class FirestoreService {
 
     public boolean excluirUsuario(String id) throws ExecutionException, InterruptedException {
         DocumentReference docRef = firestore.collection("users").document(id);
-        DocumentSnapshot doc = docRef.get().get();
+        DocumentSnapshot doc = metricas.firestore("buscarUsuario", "users", "todos", docRef.get()).get();
 
         if (doc.exists()) {
-            docRef.delete().get();
+            metricas.firestore("excluirUsuario", "users", "todos", docRef.delete()).get();
             return true;
         }
         return false;
@@ -107,50 +141,235 @@ public class FirestoreService {
 
     // --- Métodos para pontos (agora dinâmicos) ---
 
-    public List<Map<String, Object>> listarPontosPendentes(String cliente) throws ExecutionException, InterruptedException {
-        String colecao = getColecao("pontos", cliente);
-        List<Map<String, Object>> pontos = new ArrayList<>();
-        ApiFuture<QuerySnapshot> future = firestore.collection(colecao).get();
+    // Filtro de status, ordenação e paginação feitos no Firestore: o custo depende do tamanho da página
+    public PaginaCursor<Map<String, Object>> listarPontosPendentes(String cliente, int tamanho, String cursor) throws ExecutionException, InterruptedException {
+        return listarPontosPendentes(cliente, tamanho, cursor, true);
+    }
 
-        for (DocumentSnapshot doc : future.get().getDocuments()) {
-            Map<String, Object> data = doc.getData();
-            if (data.get("status") == null) {
-                data.put("id", doc.getId());
-                pontos.add(data);
-            }
+    // miniatura=true: fotoUrl aponta para a miniatura quando existir; fotoOriginalUrl sempre aponta para a foto inteira
+    public PaginaCursor<Map<String, Object>> listarPontosPendentes(String cliente, int tamanho, String cursor, boolean miniatura) throws ExecutionException, InterruptedException {
+        return listarPontosPendentes(cliente, null, null, tamanho, cursor, miniatura);
+    }
+
+    // Atendida pela réplica em memória quando sincronizada; senão consulta o Firestore (posto/idLogin opcionais)
+    public PaginaCursor<Map<String, Object>> listarPontosPendentes(String cliente, String posto, String idLogin, int tamanho, String cursor, boolean miniatura) throws ExecutionException, InterruptedException {
+        if (pontoReplicaService.disponivel(cliente)) {
+            return pontoReplicaService.listar(cliente, posto, idLogin, tamanho, cursor, miniatura);
+        }
+
+        String colecao = clientes.colecao("pontos", cliente);
+        Query query = PontoCursor.aplicar(PontoCursor.pendentes(filtrar(firestore.collection(colecao), posto, idLogin)), cursor)
+                .limit(tamanho);
+
+        List<QueryDocumentSnapshot> documentos = metricas.firestore("listarPendentes", colecao, cliente, query.get()).get().getDocuments();
+        List<Map<String, Object>> pontos = new ArrayList<>(documentos.size());
+        for (DocumentSnapshot doc : documentos) {
+            pontos.add(pontoParaListagem(doc, cliente, miniatura));
+        }
+        return new PaginaCursor<>(pontos, PontoCursor.proximo(documentos, tamanho));
+    }
+
+    public long contarPontosPendentes(String cliente, String posto, String idLogin) throws ExecutionException, InterruptedException {
+        if (pontoReplicaService.disponivel(cliente)) {
+            return pontoReplicaService.contar(cliente, posto, idLogin);
+        }
+        String colecao = clientes.colecao("pontos", cliente);
+        Query query = PontoCursor.somentePendentes(filtrar(firestore.collection(colecao), posto, idLogin));
+        return metricas.firestore("contarPendentes", colecao, cliente, query.count().get()).get().getCount();
+    }
+
+    private static Query filtrar(Query query, String posto, String idLogin) {
+        if (posto != null) {
+            query = query.whereEqualTo("posto", posto);
+        }
+        if (idLogin != null) {
+            query = query.whereEqualTo("idLogin", idLogin);
+        }
+        return query;
+    }
+
+    // Item da listagem de pendentes: dados do ponto sem a foto em base64, com as URLs da foto
+    static Map<String, Object> pontoParaListagem(DocumentSnapshot doc, String cliente, boolean miniatura) {
+        Map<String, Object> data = doc.getData();
+        data.remove("foto");
+        data.put("id", doc.getId());
+        String fotoOriginalUrl = urlFoto(doc.getId(), (String) data.get("fotoHash"), cliente);
+        String miniaturaHash = (String) data.get("fotoMiniaturaHash");
+        data.put("fotoUrl", miniatura && miniaturaHash != null ? FotoStorageService.url(miniaturaHash) : fotoOriginalUrl);
+        data.put("fotoOriginalUrl", fotoOriginalUrl);
+        return data;
+    }
+
+    // Pontos antigos ainda têm a foto em base64 no documento: a URL passa pela migração sob demanda
+    private static String urlFoto(String pontoId, String fotoHash, String cliente) {
+        if (fotoHash != null) {
+            return FotoStorageService.url(fotoHash);
+        }
+        return "/api/pontos/" + pontoId + "/foto?cliente=" + cliente;
+    }
+
+    /**
+     * Retorna o hash da foto do ponto. Se a foto ainda estiver em base64 no documento,
+     * grava no armazenamento local e troca o campo "foto" por "fotoHash".
+     * Retorna null se o ponto não existir ou não tiver foto. Pontos já movidos para o histórico
+     * são buscados (e migrados) lá.
+     */
+    public String obterOuMigrarFotoPonto(String pontoId, String cliente) throws ExecutionException, InterruptedException, IOException {
+        DocumentSnapshot doc = pontoHistorico.buscar(cliente, pontoId, FieldMask.of("foto", "fotoHash"));
+        if (doc == null) {
+            return null;
+        }
+        DocumentReference pontoRef = doc.getReference();
+        String colecao = pontoRef.getParent().getId();
+
+        String fotoHash = doc.getString("fotoHash");
+        if (fotoHash != null) {
+            return fotoHash;
+        }
+
+        String foto = doc.getString("foto");
+        if (foto == null || foto.isEmpty()) {
+            return null;
         }
-        return pontos;
+
+        fotoHash = fotoStorageService.salvarBase64(foto);
+        metricas.firestore("migrarFotoPonto", colecao, cliente, pontoRef.update("fotoHash", fotoHash, "foto", FieldValue.delete())).get();
+        return fotoHash;
     }
 
     public void atualizarStatusPonto(String pontoId, String status, Map<String, Object> extras, String cliente) throws ExecutionException, InterruptedException {
-        String colecaoPontos = getColecao("pontos", cliente);
-        String colecaoEfetivados = getColecao("pontosEfetivados", cliente);
+        String colecaoPontos = clientes.colecao("pontos", cliente);
+        String colecaoEfetivados = clientes.colecao("pontosEfetivados", cliente);
+
+        // Dados do ponto usados no efetivado e na planilha mensal (sem trazer a foto); o ponto pode já estar no histórico
+        DocumentSnapshot ponto = pontoHistorico.buscar(cliente, pontoId, CAMPOS_EFETIVADO);
+
+        // Atualização do ponto, inserção do efetivado e planilha mensal num único commit atômico
+        WriteBatch batch = firestore.batch();
+        adicionarAtualizacaoStatus(batch, cliente, colecaoPontos, colecaoEfetivados, pontoId, ponto, status, extras);
+        try {
+            metricas.firestore("atualizarStatus", colecaoPontos, cliente, batch.commit()).get();
+            pontoHistorico.agendar(cliente, List.of(pontoId));
+            pontoArquivo.alterado(cliente, ponto);
+        } finally {
+            // Aprovação tardia de um ponto já processado num mês fechado: o cache do mês sai depois do commit
+            planilhaCache.invalidar(cliente, PlanilhaService.mesesAfetados(ponto, extras));
+        }
+    }
+
+    /**
+     * Atualiza o status de vários pontos de uma vez. Os pontos são conferidos numa única leitura
+     * (getAll) e gravados em WriteBatches de até {@value #PONTOS_POR_LOTE} pontos, enviados em paralelo.
+     * Retorna o resultado de cada id (na ordem recebida).
+     */
+    public Map<String, String> atualizarStatusPontosEmLote(Collection<String> pontoIds, String status, Map<String, Object> extras, String cliente) throws ExecutionException, InterruptedException {
+        String colecaoPontos = clientes.colecao("pontos", cliente);
+        String colecaoEfetivados = clientes.colecao("pontosEfetivados", cliente);
+
+        Map<String, String> resultado = new LinkedHashMap<>();
+        List<String> ids = new ArrayList<>(new LinkedHashSet<>(pontoIds));
+        if (ids.isEmpty()) {
+            return resultado;
+        }
+        MetricasService.Etapas etapas = metricas.iniciar("atualizarStatusLote", cliente);
+
+        // Confere quais pontos existem (em pontos ou no histórico) lendo só os campos necessários (sem trazer a foto)
+        Map<String, DocumentSnapshot> pontos = pontoHistorico.buscar(cliente, ids, CAMPOS_EFETIVADO);
+        etapas.marcar("leitura");
+
+        List<String> existentes = new ArrayList<>();
+        for (String id : ids) {
+            if (pontos.containsKey(id)) {
+                existentes.add(id);
+            } else {
+                resultado.put(id, "Ponto não encontrado");
+            }
+        }
+
+        Map<ApiFuture<List<WriteResult>>, List<String>> commits = new LinkedHashMap<>();
+        for (int inicio = 0; inicio < existentes.size(); inicio += PONTOS_POR_LOTE) {
+            List<String> lote = existentes.subList(inicio, Math.min(inicio + PONTOS_POR_LOTE, existentes.size()));
+            WriteBatch batch = firestore.batch();
+            for (String pontoId : lote) {
+                adicionarAtualizacaoStatus(batch, cliente, colecaoPontos, colecaoEfetivados, pontoId, pontos.get(pontoId), status, extras);
+            }
+            commits.put(metricas.firestore("atualizarStatusLote", colecaoPontos, cliente, batch.commit()), lote);
+        }
+        etapas.marcar("montagem");
+
+        boolean falhou = false;
+        for (Map.Entry<ApiFuture<List<WriteResult>>, List<String>> commit : commits.entrySet()) {
+            String mensagem;
+            try {
+                commit.getKey().get();
+                mensagem = null;
+            } catch (ExecutionException e) {
+                e.printStackTrace();
+                mensagem = "Erro ao atualizar ponto: " + e.getCause().getMessage();
+                falhou = true;
+            }
+            for (String pontoId : commit.getValue()) {
+                resultado.put(pontoId, mensagem);
+            }
+            if (mensagem == null) {
+                pontoHistorico.agendar(cliente, commit.getValue());
+                for (String pontoId : commit.getValue()) {
+                    pontoArquivo.alterado(cliente, pontos.get(pontoId));
+                }
+            }
+        }
+
+        etapas.marcar("commit");
+        etapas.finalizar(falhou ? "erro" : "sucesso");
+
+        Set<YearMonth> meses = new HashSet<>();
+        for (DocumentSnapshot ponto : pontos.values()) {
+            meses.addAll(PlanilhaService.mesesAfetados(ponto, extras));
+        }
+        planilhaCache.invalidar(cliente, meses);
+
+        // Mantém a ordem em que os ids foram enviados
+        Map<String, String> ordenado = new LinkedHashMap<>();
+        for (String id : ids) {
+            ordenado.put(id, resultado.get(id));
+        }
+        return ordenado;
+    }
 
-        DocumentReference pontoRef = firestore.collection(colecaoPontos).document(pontoId);
+    private void adicionarAtualizacaoStatus(WriteBatch batch, String cliente, String colecaoPontos, String colecaoEfetivados,
+                                            String pontoId, DocumentSnapshot ponto, String status, Map<String, Object> extras) {
         Map<String, Object> updateMap = new HashMap<>();
         updateMap.put("status", status);
         updateMap.putAll(extras);
-        pontoRef.update(updateMap).get();
+        // Ponto já movido para o histórico (reprocessamento) é atualizado lá
+        batch.update(ponto != null && ponto.exists() ? ponto.getReference() : firestore.collection(colecaoPontos).document(pontoId), updateMap);
 
         Map<String, Object> pontoEfetivado = new HashMap<>();
         pontoEfetivado.put("pontoId", pontoId);
         pontoEfetivado.put("status", status);
         pontoEfetivado.putAll(extras);
         pontoEfetivado.put("data", new Date());
-        firestore.collection(colecaoEfetivados).add(pontoEfetivado).get();
+        if (ponto != null && ponto.exists()) {
+            pontoEfetivado.put("idLogin", ponto.getString("idLogin"));
+            pontoEfetivado.put("usuario", ponto.get("usuario"));
+            pontoEfetivado.put("horaPonto", ponto.get("horaPonto"));
+        }
+        batch.set(firestore.collection(colecaoEfetivados).document(), pontoEfetivado);
+
+        planilhaService.adicionarAoBatch(batch, cliente, pontoId, ponto, status, extras);
     }
 
     public void registrarFaltaOuAbono(String collection, Map<String, Object> registro, String cliente) throws ExecutionException, InterruptedException {
-        String colecao = getColecao(collection, cliente);
-        firestore.collection(colecao).add(registro).get();
+        String colecao = clientes.colecao(collection, cliente);
+        metricas.firestore("registrarFaltaOuAbono", colecao, cliente, firestore.collection(colecao).add(registro)).get();
     }
 
     // --- Método para obter usuários por posto ---
     public List<Map<String, Object>> listarUsuariosPorPosto(String posto) throws ExecutionException, InterruptedException {
         List<Map<String, Object>> usuarios = new ArrayList<>();
-        ApiFuture<QuerySnapshot> future = firestore.collection("users")
+        ApiFuture<QuerySnapshot> future = metricas.firestore("listarUsuariosPorPosto", "users", posto, firestore.collection("users")
                 .whereEqualTo("posto", posto)
-                .get();
+                .get());
 
         for (DocumentSnapshot doc : future.get().getDocuments()) {
             Map<String, Object> data = doc.getData();
@@ -160,65 +379,8 @@ public class FirestoreService {
         return usuarios;
     }
 
-    // --- Método para obter planilha mensal organizada (agora dinâmico) ---
+    // --- Planilha mensal: leitura da planilha materializada (ver PlanilhaService; meses fechados em PlanilhaCacheService) ---
     public Map<String, Map<String, List<Map<String, Object>>>> obterPlanilhaMensalOrganizada(int ano, int mes, String cliente) throws ExecutionException, InterruptedException {
-        String colecaoEfetivados = getColecao("pontosEfetivados", cliente);
-        CollectionReference pontosRef = firestore.collection(colecaoEfetivados);
-
-        // Busca pontos do mês e ano informado
-        ApiFuture<QuerySnapshot> future = pontosRef
-                .whereGreaterThanOrEqualTo("dataAprovacao", getPrimeiroDiaMes(ano, mes))
-                .whereLessThan("dataAprovacao", getPrimeiroDiaMes(ano, mes + 1))
-                .get();
-
-        List<QueryDocumentSnapshot> documentos = future.get().getDocuments();
-
-        SimpleDateFormat sdfDia = new SimpleDateFormat("yyyy-MM-dd");
-
-        // Agrupa por idLogin -> data (yyyy-MM-dd) -> lista de pontos (ordenada por horaPonto)
-        Map<String, Map<String, List<Map<String, Object>>>> agrupado = new HashMap<>();
-
-        for (DocumentSnapshot doc : documentos) {
-            Map<String, Object> ponto = doc.getData();
-            if (ponto == null) continue;
-
-            String idLogin = ponto.get("idLogin") != null ? ponto.get("idLogin").toString() : "Desconhecido";
-
-            Date dataAprovacao = null;
-            Object objData = ponto.get("dataAprovacao");
-            if (objData instanceof Date) {
-                dataAprovacao = (Date) objData;
-            } else if (objData instanceof com.google.protobuf.Timestamp) {
-                com.google.protobuf.Timestamp ts = (com.google.protobuf.Timestamp) objData;
-                dataAprovacao = new Date(ts.getSeconds() * 1000);
-            }
-
-            if (dataAprovacao == null) continue;
-
-            String diaStr = sdfDia.format(dataAprovacao);
-
-            agrupado.putIfAbsent(idLogin, new HashMap<>());
-            Map<String, List<Map<String, Object>>> porDia = agrupado.get(idLogin);
-            porDia.putIfAbsent(diaStr, new ArrayList<>());
-            porDia.get(diaStr).add(ponto);
-        }
-
-        // Ordena cada lista diária pelo campo "horaPonto"
-        for (Map<String, List<Map<String, Object>>> porDia : agrupado.values()) {
-            for (List<Map<String, Object>> pontosDoDia : porDia.values()) {
-                pontosDoDia.sort(Comparator.comparing(p -> (String) p.getOrDefault("horaPonto", "00:00:00")));
-            }
-        }
-
-        return agrupado;
-    }
-
-    private Date getPrimeiroDiaMes(int ano, int mes) {
-        Calendar cal = Calendar.getInstance();
-        cal.clear();
-        cal.set(Calendar.YEAR, ano);
-        cal.set(Calendar.MONTH, mes - 1);
-        cal.set(Calendar.DAY_OF_MONTH, 1);
-        return cal.getTime();
+        return planilhaService.obterPlanilha(ano, mes, cliente);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,166 @@
+package apontamentoweb.grupocolinas.service;
+
+import com.google.api.core.ApiFuture;
+import com.google.cloud.firestore.*;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Coleta das fotos sem referência. As fotos são endereçadas pelo conteúdo: o mesmo arquivo pode
+ * servir a vários pontos (reenvio do PDV, upload repetido), então nenhum fluxo apaga uma foto na
+ * hora. Depois do processamento a foto original fica sem referência e é removida aqui.
+ * <p>
+ * Uma passada lê os fotoHash/fotoMiniaturaHash de pontos{sufixo} e depois de pontosHistorico{sufixo}
+ * de todos os clientes (nessa ordem: um ponto movido durante a leitura aparece em uma das duas) e
+ * só então remove os arquivos não referenciados e sem modificação há mais de
+ * apontamento.fotos.coleta.carencia-horas. A carência cobre pontos ainda no journal ou em
+ * processamento; o upload de um conteúdo já existente renova a data do arquivo. Qualquer erro de
+ * leitura cancela a passada sem remover nada.
+ */
+@Service
+public class FotoColetaService {
+
+    private static final int PAGINA = 500;
+    private static final Pattern HASH = Pattern.compile("[0-9a-f]{64}");
+
+    private final Firestore firestore;
+    private final ClienteRegistry clientes;
+    private final MetricasService metricas;
+    private final Path diretorio;
+    private final boolean habilitado;
+    private final long carenciaMs;
+    private final long intervaloHoras;
+
+    private final AtomicLong passadas = new AtomicLong();
+    private final AtomicLong removidas = new AtomicLong();
+    private final AtomicLong bytesRemovidos = new AtomicLong();
+    private final AtomicLong falhas = new AtomicLong();
+    private final ScheduledExecutorService agendador;
+
+    @Autowired
+    public FotoColetaService(Firestore firestore, ClienteRegistry clientes, MetricasService metricas,
+                             @Value("${apontamento.fotos.diretorio:fotos}") String diretorio,
+                             @Value("${apontamento.fotos.coleta.habilitado:true}") boolean habilitado,
+                             @Value("${apontamento.fotos.coleta.carencia-horas:72}") long carenciaHoras,
+                             @Value("${apontamento.fotos.coleta.intervalo-horas:24}") long intervaloHoras) {
+        this.firestore = firestore;
+        this.clientes = clientes;
+        this.metricas = metricas;
+        this.diretorio = Paths.get(diretorio);
+        this.habilitado = habilitado;
+        this.carenciaMs = TimeUnit.HOURS.toMillis(carenciaHoras);
+        this.intervaloHoras = intervaloHoras;
+        this.agendador = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "coleta-fotos");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PostConstruct
+    public void iniciar() {
+        if (habilitado) {
+            agendador.scheduleWithFixedDelay(this::coletar, 30, TimeUnit.HOURS.toMinutes(intervaloHoras), TimeUnit.MINUTES);
+        }
+    }
+
+    @PreDestroy
+    public void encerrar() {
+        agendador.shutdownNow();
+    }
+
+    private void coletar() {
+        passadas.incrementAndGet();
+        try {
+            // Limite antes da leitura: um arquivo mais novo pode ter sido referenciado depois dela
+            long limite = System.currentTimeMillis() - carenciaMs;
+            long[] referenciados = referenciados();
+            if (!Files.isDirectory(diretorio)) {
+                return;
+            }
+            try (Stream<Path> arquivos = Files.walk(diretorio)) {
+                for (Path arquivo : (Iterable<Path>) arquivos::iterator) {
+                    String nome = arquivo.getFileName().toString();
+                    if (!HASH.matcher(nome).matches() || arquivo.getParent().getFileName().toString().equals("tmp")
+                            || !Files.isRegularFile(arquivo)
+                            || Arrays.binarySearch(referenciados, prefixo(nome)) >= 0
+                            || Files.getLastModifiedTime(arquivo).toMillis() > limite) {
+                        continue;
+                    }
+                    long tamanho = Files.size(arquivo);
+                    if (Files.deleteIfExists(arquivo)) {
+                        removidas.incrementAndGet();
+                        bytesRemovidos.addAndGet(tamanho);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            falhas.incrementAndGet();
+            System.err.println("Coleta de fotos cancelada: " + e.getMessage());
+        }
+    }
+
+    // Prefixos de 64 bits dos hashes referenciados, ordenados (colisão de prefixo só mantém um arquivo)
+    private long[] referenciados() throws ExecutionException, InterruptedException {
+        long[] prefixos = new long[1024];
+        int total = 0;
+        for (String tipo : List.of("pontos", "pontosHistorico")) {
+            for (ClienteRegistry.Cliente cliente : clientes.todos()) {
+                String colecao = cliente.colecao(tipo);
+                Query base = firestore.collection(colecao)
+                        .select("fotoHash", "fotoMiniaturaHash")
+                        .orderBy(FieldPath.documentId())
+                        .limit(PAGINA);
+                ApiFuture<QuerySnapshot> proxima = metricas.firestore("coletarFotos", colecao, cliente.getId(), base.get());
+                while (proxima != null) {
+                    List<QueryDocumentSnapshot> pagina = proxima.get().getDocuments();
+                    proxima = pagina.size() == PAGINA
+                            ? metricas.firestore("coletarFotos", colecao, cliente.getId(), base.startAfter(pagina.get(pagina.size() - 1)).get())
+                            : null;
+                    for (QueryDocumentSnapshot doc : pagina) {
+                        for (String campo : new String[]{doc.getString("fotoHash"), doc.getString("fotoMiniaturaHash")}) {
+                            if (campo != null && HASH.matcher(campo).matches()) {
+                                if (total == prefixos.length) {
+                                    prefixos = Arrays.copyOf(prefixos, total * 2);
+                                }
+                                prefixos[total++] = prefixo(campo);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        long[] ordenados = Arrays.copyOf(prefixos, total);
+        Arrays.sort(ordenados);
+        return ordenados;
+    }
+
+    private static long prefixo(String hash) {
+        return Long.parseUnsignedLong(hash, 0, 16, 16);
+    }
+
+    public Map<String, Object> estatisticas() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("habilitado", habilitado);
+        stats.put("carenciaHoras", TimeUnit.MILLISECONDS.toHours(carenciaMs));
+        stats.put("passadas", passadas.get());
+        stats.put("removidas", removidas.get());
+        stats.put("bytesRemovidos", bytesRemovidos.get());
+        stats.put("falhas", falhas.get());
+        return stats;
+    }
+}
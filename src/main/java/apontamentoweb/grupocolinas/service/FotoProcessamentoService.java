@@ -0,0 +1,239 @@
+package apontamentoweb.grupocolinas.service;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.*;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reduz e recomprime as fotos dos pontos na entrada.
+ * <p>
+ * Os PDVs mandam o frame da câmera em resolução cheia, mas a tela de validação só mostra
+ * miniaturas. Cada foto é reduzida para no máximo {@code max-dimensao} px, regravada em JPEG
+ * e ganha uma miniatura. O trabalho roda num pool próprio e limitado; se a fila estiver cheia,
+ * a imagem não puder ser lida ou o processamento passar de {@code timeout-ms} (fila longa na troca
+ * de turno), o ponto segue com a foto original: a confirmação ao PDV não espera a fila. Uma foto
+ * que ainda estava na fila quando o prazo venceu nem é processada. A original sem referência
+ * é removida depois pela {@link FotoColetaService}.
+ * <p>
+ * As dimensões são lidas do cabeçalho antes de decodificar: acima de {@code max-megapixels} a foto
+ * é recusada (um arquivo pequeno pode declarar uma imagem enorme), e as demais são decodificadas já
+ * subamostradas para perto de {@code max-dimensao}, sem montar o frame cheio em memória.
+ */
+@Service
+public class FotoProcessamentoService {
+
+    private final FotoStorageService fotoStorageService;
+    private final ThreadPoolExecutor executor;
+    private final int maxDimensao;
+    private final int dimensaoMiniatura;
+    private final float qualidade;
+    private final float qualidadeMiniatura;
+    private final long timeoutMs;
+    private final long maxPixels;
+
+    private final AtomicLong processadas = new AtomicLong();
+    private final AtomicLong falhas = new AtomicLong();
+    private final AtomicLong rejeitadas = new AtomicLong();
+    private final AtomicLong expiradas = new AtomicLong();
+    private final AtomicLong bytesEntrada = new AtomicLong();
+    private final AtomicLong bytesSaida = new AtomicLong();
+
+    @Autowired
+    public FotoProcessamentoService(FotoStorageService fotoStorageService,
+                                    @Value("${apontamento.fotos.processamento.threads:2}") int threads,
+                                    @Value("${apontamento.fotos.processamento.fila:200}") int fila,
+                                    @Value("${apontamento.fotos.max-dimensao:1280}") int maxDimensao,
+                                    @Value("${apontamento.fotos.miniatura-dimensao:240}") int dimensaoMiniatura,
+                                    @Value("${apontamento.fotos.qualidade:0.8}") float qualidade,
+                                    @Value("${apontamento.fotos.miniatura-qualidade:0.7}") float qualidadeMiniatura,
+                                    @Value("${apontamento.fotos.processamento.timeout-ms:1500}") long timeoutMs,
+                                    @Value("${apontamento.fotos.max-megapixels:40}") int maxMegapixels) {
+        this.fotoStorageService = fotoStorageService;
+        this.maxDimensao = maxDimensao;
+        this.dimensaoMiniatura = dimensaoMiniatura;
+        this.qualidade = qualidade;
+        this.qualidadeMiniatura = qualidadeMiniatura;
+        this.timeoutMs = timeoutMs;
+        this.maxPixels = maxMegapixels * 1_000_000L;
+
+        AtomicInteger contador = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(fila),
+                r -> {
+                    Thread t = new Thread(r, "foto-" + contador.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    @PreDestroy
+    public void encerrar() {
+        executor.shutdown();
+    }
+
+    /**
+     * Processa a foto já gravada com o hash informado. O future completa com os hashes da
+     * foto reduzida e da miniatura, ou falha (RejectedExecutionException quando a fila está cheia,
+     * TimeoutException depois de {@code timeout-ms}).
+     */
+    public CompletableFuture<FotoProcessada> processar(String hashOriginal) {
+        CompletableFuture<FotoProcessada> resultado = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                if (resultado.isDone()) {
+                    // O ponto já foi confirmado com a foto original: não gasta o pool na fila da troca de turno
+                    expiradas.incrementAndGet();
+                    return;
+                }
+                try {
+                    resultado.complete(processarAgora(hashOriginal));
+                } catch (IOException | RuntimeException | OutOfMemoryError e) {
+                    falhas.incrementAndGet();
+                    resultado.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejeitadas.incrementAndGet();
+            return CompletableFuture.failedFuture(e);
+        }
+        return resultado.orTimeout(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    public Map<String, Object> estatisticas() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("fila", executor.getQueue().size());
+        stats.put("capacidadeFila", executor.getQueue().size() + executor.getQueue().remainingCapacity());
+        stats.put("emProcessamento", executor.getActiveCount());
+        stats.put("processadas", processadas.get());
+        stats.put("falhas", falhas.get());
+        stats.put("rejeitadas", rejeitadas.get());
+        stats.put("expiradas", expiradas.get());
+        stats.put("bytesEntrada", bytesEntrada.get());
+        stats.put("bytesSaida", bytesSaida.get());
+        return stats;
+    }
+
+    private FotoProcessada processarAgora(String hashOriginal) throws IOException {
+        long tamanhoOriginal = Files.size(fotoStorageService.caminho(hashOriginal));
+        BufferedImage original = decodificar(hashOriginal);
+
+        byte[] reduzida = comprimirJpeg(redimensionar(original, maxDimensao), qualidade);
+        byte[] miniatura = comprimirJpeg(redimensionar(original, dimensaoMiniatura), qualidadeMiniatura);
+
+        // Se a recompressão não ganhou nada (foto já pequena), fica a original
+        String hashFoto = reduzida.length < tamanhoOriginal
+                ? fotoStorageService.salvar(new ByteArrayInputStream(reduzida))
+                : hashOriginal;
+        String hashMiniatura = fotoStorageService.salvar(new ByteArrayInputStream(miniatura));
+        // A original não é apagada aqui: outro ponto pode ter o mesmo conteúdo (ver FotoColetaService)
+
+        processadas.incrementAndGet();
+        bytesEntrada.addAndGet(tamanhoOriginal);
+        bytesSaida.addAndGet(Math.min(reduzida.length, tamanhoOriginal) + miniatura.length);
+        return new FotoProcessada(hashFoto, hashMiniatura);
+    }
+
+    // Lê largura e altura do cabeçalho e decodifica pulando linhas/colunas até perto de maxDimensao
+    // (o fator é arredondado para baixo, então a imagem decodificada nunca fica menor que maxDimensao)
+    private BufferedImage decodificar(String hash) throws IOException {
+        try (ImageInputStream entrada = ImageIO.createImageInputStream(fotoStorageService.caminho(hash).toFile())) {
+            Iterator<ImageReader> readers = entrada != null ? ImageIO.getImageReaders(entrada) : null;
+            if (readers == null || !readers.hasNext()) {
+                throw new IOException("Formato de imagem não suportado");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(entrada, true, true);
+                int largura = reader.getWidth(0);
+                int altura = reader.getHeight(0);
+                if ((long) largura * altura > maxPixels) {
+                    throw new IOException("Imagem grande demais: " + largura + "x" + altura);
+                }
+                int fator = Math.max(1, Math.max(largura, altura) / maxDimensao);
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(fator, fator, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    // Redução em etapas de no máximo 1/2 com interpolação bilinear: qualidade próxima da bicúbica e bem mais barata
+    private BufferedImage redimensionar(BufferedImage imagem, int dimensaoMaxima) {
+        int largura = imagem.getWidth();
+        int altura = imagem.getHeight();
+        double escala = Math.min(1.0, (double) dimensaoMaxima / Math.max(largura, altura));
+        int larguraFinal = Math.max(1, (int) Math.round(largura * escala));
+        int alturaFinal = Math.max(1, (int) Math.round(altura * escala));
+
+        BufferedImage atual = imagem;
+        do {
+            int l = Math.max(larguraFinal, atual.getWidth() / 2);
+            int a = Math.max(alturaFinal, atual.getHeight() / 2);
+            if (atual != imagem && l == atual.getWidth() && a == atual.getHeight()) {
+                break;
+            }
+            // TYPE_INT_RGB: JPEG não tem canal alfa, fundo branco para PNGs transparentes
+            BufferedImage proxima = new BufferedImage(l, a, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = proxima.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, l, a);
+            g.drawImage(atual, 0, 0, l, a, null);
+            g.dispose();
+            atual = proxima;
+        } while (atual.getWidth() != larguraFinal || atual.getHeight() != alturaFinal);
+        return atual;
+    }
+
+    private byte[] comprimirJpeg(BufferedImage imagem, float qualidadeJpeg) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream saida = new ByteArrayOutputStream();
+        try (ImageOutputStream ios = ImageIO.createImageOutputStream(saida)) {
+            writer.setOutput(ios);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(qualidadeJpeg);
+            writer.write(null, new IIOImage(imagem, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return saida.toByteArray();
+    }
+
+    public static class FotoProcessada {
+        private final String fotoHash;
+        private final String miniaturaHash;
+
+        public FotoProcessada(String fotoHash, String miniaturaHash) {
+            this.fotoHash = fotoHash;
+            this.miniaturaHash = miniaturaHash;
+        }
+
+        public String getFotoHash() {
+            return fotoHash;
+        }
+
+        public String getMiniaturaHash() {
+            return miniaturaHash;
+        }
+    }
+}
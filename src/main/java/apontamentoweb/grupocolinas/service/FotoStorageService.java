@@ -0,0 +1,126 @@
+package apontamentoweb.grupocolinas.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.regex.Pattern;
+
+/**
+ * Armazenamento local das fotos dos pontos, endereçado pelo SHA-256 do conteúdo.
+ * <p>
+ * Layout: {diretorio}/ab/cd/abcd...(64 hex). O upload é gravado em streaming num
+ * arquivo temporário enquanto o hash é calculado e depois movido atomicamente para
+ * o caminho final; o mesmo conteúdo enviado duas vezes ocupa um único arquivo.
+ */
+@Service
+public class FotoStorageService {
+
+    private static final Pattern HASH_VALIDO = Pattern.compile("[0-9a-f]{64}");
+
+    private final Path diretorio;
+
+    public FotoStorageService(@Value("${apontamento.fotos.diretorio:fotos}") String diretorio) {
+        this.diretorio = Paths.get(diretorio);
+    }
+
+    public static String url(String hash) {
+        return "/api/fotos/" + hash;
+    }
+
+    /**
+     * Grava o conteúdo lido do stream e retorna o hash SHA-256 (hex) que o identifica.
+     */
+    public String salvar(InputStream conteudo) throws IOException {
+        Path temporario = Files.createTempFile(Files.createDirectories(diretorio.resolve("tmp")), "upload", ".tmp");
+        MessageDigest digest = novoDigest();
+        try (DigestInputStream entrada = new DigestInputStream(conteudo, digest);
+             OutputStream saida = Files.newOutputStream(temporario, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            entrada.transferTo(saida);
+        }
+
+        String hash = HexFormat.of().formatHex(digest.digest());
+        Path destino = caminho(hash);
+        try {
+            if (Files.exists(destino)) {
+                // Conteúdo já existente: renova a data para a coleta de fotos não remover na carência
+                Files.setLastModifiedTime(destino, FileTime.fromMillis(System.currentTimeMillis()));
+                return hash;
+            }
+            Files.createDirectories(destino.getParent());
+            try (FileChannel canal = FileChannel.open(temporario, StandardOpenOption.WRITE)) {
+                canal.force(true);
+            }
+            Files.move(temporario, destino, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException e) {
+            // Outro upload do mesmo conteúdo chegou primeiro
+        } finally {
+            Files.deleteIfExists(temporario);
+        }
+        return hash;
+    }
+
+    /**
+     * Grava uma foto enviada em base64 (com ou sem o prefixo "data:image/...;base64,").
+     */
+    public String salvarBase64(String base64) throws IOException {
+        int virgula = base64.startsWith("data:") ? base64.indexOf(',') : -1;
+        byte[] ascii = base64.substring(virgula + 1).getBytes(StandardCharsets.ISO_8859_1);
+        return salvar(Base64.getMimeDecoder().wrap(new ByteArrayInputStream(ascii)));
+    }
+
+    public boolean existe(String hash) {
+        return hashValido(hash) && Files.isRegularFile(caminho(hash));
+    }
+
+    public Path caminho(String hash) {
+        if (!hashValido(hash)) {
+            throw new IllegalArgumentException("Hash de foto inválido");
+        }
+        return diretorio.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(hash);
+    }
+
+    // Identifica o tipo da imagem pelos primeiros bytes (as fotos são gravadas sem extensão)
+    public String contentType(String hash) throws IOException {
+        ByteBuffer inicio = ByteBuffer.allocate(12);
+        try (FileChannel canal = FileChannel.open(caminho(hash), StandardOpenOption.READ)) {
+            canal.read(inicio, 0);
+        }
+        byte[] b = inicio.array();
+        if ((b[0] & 0xFF) == 0xFF && (b[1] & 0xFF) == 0xD8) {
+            return "image/jpeg";
+        }
+        if ((b[0] & 0xFF) == 0x89 && b[1] == 'P' && b[2] == 'N' && b[3] == 'G') {
+            return "image/png";
+        }
+        if (b[0] == 'R' && b[1] == 'I' && b[2] == 'F' && b[3] == 'F' && b[8] == 'W' && b[9] == 'E' && b[10] == 'B' && b[11] == 'P') {
+            return "image/webp";
+        }
+        return "application/octet-stream";
+    }
+
+    private static boolean hashValido(String hash) {
+        return hash != null && HASH_VALIDO.matcher(hash).matches();
+    }
+
+    private static MessageDigest novoDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
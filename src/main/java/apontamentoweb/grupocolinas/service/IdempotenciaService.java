@@ -0,0 +1,193 @@
+package apontamentoweb.grupocolinas.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Idempotência do registro de ponto: o PDV reenvia o ponto após um 504 e a primeira
+ * gravação muitas vezes já tinha chegado ao Firestore.
+ * <p>
+ * A chave vem do header Idempotency-Key (ou campo chaveIdempotencia), sempre combinada com o
+ * idLogin, e, na falta dela, é derivada de idLogin + horaPonto. O id do documento é derivado
+ * da chave, e a gravação usa create(), então um reenvio nunca cria um segundo documento. Para nem chegar ao
+ * Firestore, as chaves já gravadas ficam numa janela em memória: baldes de tempo, cada um
+ * com um conjunto de long (64 bits do hash da chave), e o balde mais antigo é descartado
+ * inteiro quando o tempo passa dele.
+ */
+@Service
+public class IdempotenciaService {
+
+    private static final HexFormat HEX = HexFormat.of();
+
+    private final long duracaoBaldeMs;
+    private final int maxPorBalde;
+    private final Balde[] baldes;
+
+    private final AtomicLong duplicados = new AtomicLong();
+    private final AtomicLong descartados = new AtomicLong();
+
+    @Autowired
+    public IdempotenciaService(@Value("${apontamento.ponto.idempotencia.ttl-segundos:900}") long ttlSegundos,
+                               @Value("${apontamento.ponto.idempotencia.baldes:15}") int quantidadeBaldes,
+                               @Value("${apontamento.ponto.idempotencia.max-por-balde:200000}") int maxPorBalde) {
+        this.duracaoBaldeMs = Math.max(1, ttlSegundos * 1000 / quantidadeBaldes);
+        this.maxPorBalde = maxPorBalde;
+        this.baldes = new Balde[quantidadeBaldes];
+        for (int i = 0; i < quantidadeBaldes; i++) {
+            baldes[i] = new Balde();
+        }
+    }
+
+    /**
+     * Chave de um ponto: doc id derivado e impressão de 64 bits usada na janela em memória.
+     */
+    public record Chave(String docId, long impressao) {
+    }
+
+    /**
+     * Chave do ponto na coleção, ou null quando não veio chave e não há horaPonto para derivar
+     * (sem horaPonto o servidor usa o horário atual, que muda a cada reenvio).
+     */
+    public Chave chave(String colecao, String informada, String idLogin, String horaPonto) {
+        String base;
+        if (informada != null && !informada.isBlank()) {
+            // A chave do PDV costuma ser um contador por estação: só identifica o ponto junto com o idLogin
+            String funcionario = idLogin != null ? idLogin : "";
+            base = "k:" + funcionario.length() + ":" + funcionario + "|" + informada.trim();
+        } else if (idLogin != null && horaPonto != null && !horaPonto.isEmpty()) {
+            base = "h:" + idLogin + "|" + horaPonto;
+        } else {
+            return null;
+        }
+
+        byte[] hash;
+        try {
+            hash = MessageDigest.getInstance("SHA-256").digest((colecao + "\n" + base).getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        return new Chave("idem_" + HEX.formatHex(hash, 0, 16), ByteBuffer.wrap(hash).getLong());
+    }
+
+    /** true se a chave foi gravada dentro da janela. */
+    public boolean contem(Chave chave) {
+        long epoca = System.currentTimeMillis() / duracaoBaldeMs;
+        for (Balde balde : baldes) {
+            if (balde.contem(chave.impressao, epoca - baldes.length)) {
+                duplicados.incrementAndGet();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Marca a chave como gravada (chamado só depois da confirmação da gravação). */
+    public void registrar(Chave chave) {
+        long epoca = System.currentTimeMillis() / duracaoBaldeMs;
+        if (!baldes[(int) (epoca % baldes.length)].adicionar(chave.impressao, epoca, maxPorBalde)) {
+            // Balde cheio: o reenvio ainda é deduplicado pelo create() no Firestore
+            descartados.incrementAndGet();
+        }
+    }
+
+    public Map<String, Object> estatisticas() {
+        long epoca = System.currentTimeMillis() / duracaoBaldeMs;
+        int chaves = 0;
+        for (Balde balde : baldes) {
+            chaves += balde.tamanho(epoca - baldes.length);
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("chaves", chaves);
+        stats.put("janelaSegundos", duracaoBaldeMs * baldes.length / 1000);
+        stats.put("duplicados", duplicados.get());
+        stats.put("descartados", descartados.get());
+        return stats;
+    }
+
+    // Conjunto de long com endereçamento aberto; 0 marca posição vazia
+    private static final class Balde {
+        private long epoca = Long.MIN_VALUE;
+        private long[] tabela = new long[1024];
+        private int tamanho;
+
+        synchronized boolean contem(long impressao, long epocaExpirada) {
+            if (epoca <= epocaExpirada || tamanho == 0) {
+                return false;
+            }
+            long valor = impressao == 0 ? 1 : impressao;
+            int mascara = tabela.length - 1;
+            for (int i = indice(valor, mascara); tabela[i] != 0; i = (i + 1) & mascara) {
+                if (tabela[i] == valor) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        synchronized boolean adicionar(long impressao, long epocaAtual, int maximo) {
+            if (epoca != epocaAtual) {
+                // O balde volta a ser usado depois de uma volta completa: descarta as chaves antigas
+                if (tabela.length > 1024) {
+                    tabela = new long[1024];
+                } else {
+                    Arrays.fill(tabela, 0);
+                }
+                tamanho = 0;
+                epoca = epocaAtual;
+            }
+            if (tamanho >= maximo) {
+                return false;
+            }
+            if ((tamanho + 1) * 2 > tabela.length) {
+                redimensionar();
+            }
+            long valor = impressao == 0 ? 1 : impressao;
+            int mascara = tabela.length - 1;
+            int i = indice(valor, mascara);
+            while (tabela[i] != 0) {
+                if (tabela[i] == valor) {
+                    return true;
+                }
+                i = (i + 1) & mascara;
+            }
+            tabela[i] = valor;
+            tamanho++;
+            return true;
+        }
+
+        synchronized int tamanho(long epocaExpirada) {
+            return epoca <= epocaExpirada ? 0 : tamanho;
+        }
+
+        private void redimensionar() {
+            long[] antiga = tabela;
+            tabela = new long[antiga.length * 2];
+            int mascara = tabela.length - 1;
+            for (long valor : antiga) {
+                if (valor != 0) {
+                    int i = indice(valor, mascara);
+                    while (tabela[i] != 0) {
+                        i = (i + 1) & mascara;
+                    }
+                    tabela[i] = valor;
+                }
+            }
+        }
+
+        private static int indice(long valor, int mascara) {
+            // A impressão já é um hash SHA-256; só mistura as duas metades
+            return (int) (valor ^ (valor >>> 32)) & mascara;
+        }
+    }
+}
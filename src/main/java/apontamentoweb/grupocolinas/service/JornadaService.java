@@ -0,0 +1,166 @@
+package apontamentoweb.grupocolinas.service;
+
+import apontamentoweb.grupocolinas.dto.JornadaFuncionario;
+import com.google.api.core.ApiFuture;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.QuerySnapshot;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+/**
+ * Horas trabalhadas, atrasos e horas extras do mês por funcionário, a partir da planilha
+ * materializada (só pontos aprovados) e da escala do cadastro (horarioEntrada/horarioSaida/escala).
+ * <p>
+ * As batidas de cada funcionário viram um long[] de epoch-segundos e o cálculo
+ * ({@link CalculoJornada}) roda em paralelo por funcionário num ForkJoinPool próprio.
+ */
+@Service
+public class JornadaService {
+
+    private final PlanilhaService planilhaService;
+    private final UserDirectoryService userDirectoryService;
+    private final ForkJoinPool pool;
+    private final int intervaloMinutos;
+    private final int toleranciaMarcacao;
+    private final int toleranciaDiaria;
+
+    @Autowired
+    public JornadaService(PlanilhaService planilhaService,
+                          UserDirectoryService userDirectoryService,
+                          @Value("${apontamento.jornada.paralelismo:0}") int paralelismo,
+                          @Value("${apontamento.jornada.intervalo-minutos:60}") int intervaloMinutos,
+                          @Value("${apontamento.jornada.tolerancia-marcacao-minutos:5}") int toleranciaMarcacaoMinutos,
+                          @Value("${apontamento.jornada.tolerancia-diaria-minutos:10}") int toleranciaDiariaMinutos) {
+        this.planilhaService = planilhaService;
+        this.userDirectoryService = userDirectoryService;
+        this.pool = new ForkJoinPool(paralelismo > 0 ? paralelismo : Runtime.getRuntime().availableProcessors());
+        this.intervaloMinutos = intervaloMinutos;
+        this.toleranciaMarcacao = toleranciaMarcacaoMinutos * 60;
+        this.toleranciaDiaria = toleranciaDiariaMinutos * 60;
+    }
+
+    @PreDestroy
+    public void encerrar() {
+        pool.shutdown();
+    }
+
+    public List<JornadaFuncionario> calcularMes(int ano, int mes, String cliente) throws ExecutionException, InterruptedException {
+        YearMonth anoMes = YearMonth.of(ano, mes);
+        YearMonth seguinte = anoMes.plusMonths(1);
+
+        // A planilha é organizada pelo dia da aprovação: pontos do fim do mês podem ter sido aprovados no mês seguinte
+        ApiFuture<QuerySnapshot> doMes = planilhaService.documentosDoMes(ano, mes, cliente);
+        ApiFuture<QuerySnapshot> doSeguinte = planilhaService.documentosDoMes(seguinte.getYear(), seguinte.getMonthValue(), cliente);
+
+        Map<String, Batidas> porFuncionario = new HashMap<>();
+        acumular(doMes.get().getDocuments(), porFuncionario);
+        acumular(doSeguinte.get().getDocuments(), porFuncionario);
+
+        // Escalas: todas as buscas disparadas de uma vez (o diretório responde do cache quando possível)
+        Map<String, CompletableFuture<List<UserDirectoryService.Usuario>>> usuarios = new HashMap<>();
+        for (String idLogin : porFuncionario.keySet()) {
+            usuarios.put(idLogin, userDirectoryService.buscarTodosAsync(idLogin));
+        }
+        for (Map.Entry<String, CompletableFuture<List<UserDirectoryService.Usuario>>> item : usuarios.entrySet()) {
+            porFuncionario.get(item.getKey()).usuario = escolherUsuario(item.getValue().join(), cliente);
+        }
+
+        LocalDate hoje = LocalDate.now(PlanilhaService.ZONA);
+        List<Batidas> funcionarios = new ArrayList<>(porFuncionario.values());
+        List<JornadaFuncionario> resultado = pool.submit(() -> funcionarios.parallelStream()
+                .map(f -> calcular(f, anoMes, hoje))
+                .collect(Collectors.toList())).get();
+
+        resultado.sort(Comparator.comparing(JornadaFuncionario::getIdLogin));
+        return resultado;
+    }
+
+    private void acumular(List<? extends DocumentSnapshot> documentos, Map<String, Batidas> porFuncionario) {
+        for (DocumentSnapshot doc : documentos) {
+            for (Map<String, Map<String, Object>> linhas : PlanilhaService.dias(doc).values()) {
+                for (Map<String, Object> linha : linhas.values()) {
+                    if (!"Aprovado".equals(linha.get("status")) || !(linha.get("horaPonto") instanceof String hora)) {
+                        continue;
+                    }
+                    String idLogin = String.valueOf(linha.get("idLogin"));
+                    Batidas batidas = porFuncionario.computeIfAbsent(idLogin, Batidas::new);
+                    try {
+                        batidas.adicionar(Instant.parse(hora).getEpochSecond());
+                    } catch (DateTimeParseException e) {
+                        continue;
+                    }
+                    if (batidas.nome == null && linha.get("usuario") != null) {
+                        batidas.nome = linha.get("usuario").toString();
+                    }
+                }
+            }
+        }
+    }
+
+    // idLogin não é único entre postos: prefere o cadastro do posto consultado
+    private UserDirectoryService.Usuario escolherUsuario(List<UserDirectoryService.Usuario> usuarios, String cliente) {
+        for (UserDirectoryService.Usuario usuario : usuarios) {
+            if (cliente.equalsIgnoreCase(String.valueOf(usuario.posto()))) {
+                return usuario;
+            }
+        }
+        return usuarios.isEmpty() ? null : usuarios.get(0);
+    }
+
+    private JornadaFuncionario calcular(Batidas f, YearMonth mes, LocalDate hoje) {
+        String entrada = f.usuario != null ? f.usuario.horarioEntrada() : null;
+        String saida = f.usuario != null ? f.usuario.horarioSaida() : null;
+        String escala = f.usuario != null ? f.usuario.escala() : null;
+
+        Arrays.sort(f.instantes, 0, f.quantidade);
+        CalculoJornada.Resultado r = CalculoJornada.calcular(f.instantes, f.quantidade,
+                CalculoJornada.escala(entrada, saida, escala, intervaloMinutos),
+                mes, PlanilhaService.ZONA, toleranciaMarcacao, toleranciaDiaria, hoje);
+
+        List<JornadaFuncionario.Dia> dias = new ArrayList<>();
+        for (int d = 0; d < r.batidas.length; d++) {
+            if (r.batidas[d] > 0) {
+                dias.add(new JornadaFuncionario.Dia(mes.atDay(d + 1).toString(), r.batidas[d],
+                        r.trabalhado[d] / 60, r.extra[d] / 60, r.atraso[d] / 60, r.saidaAntecipada[d] / 60, r.incompleto[d]));
+            }
+        }
+
+        String nome = f.usuario != null && f.usuario.nome() != null ? f.usuario.nome() : f.nome;
+        return new JornadaFuncionario(f.idLogin, nome, escala, entrada, saida,
+                r.totalTrabalhado / 60, r.totalEsperado / 60, r.totalExtra / 60, r.totalAtraso / 60,
+                r.totalSaidaAntecipada / 60, (r.totalTrabalhado - r.totalEsperado) / 60,
+                r.diasTrabalhados, r.diasIncompletos, r.faltas >= 0 ? r.faltas : null, dias);
+    }
+
+    // Batidas de um funcionário em epoch-segundos, num array que cresce sob demanda
+    private static final class Batidas {
+        final String idLogin;
+        long[] instantes = new long[64];
+        int quantidade;
+        String nome;
+        UserDirectoryService.Usuario usuario;
+
+        Batidas(String idLogin) {
+            this.idLogin = idLogin;
+        }
+
+        void adicionar(long instante) {
+            if (quantidade == instantes.length) {
+                instantes = Arrays.copyOf(instantes, quantidade * 2);
+            }
+            instantes[quantidade++] = instante;
+        }
+    }
+}
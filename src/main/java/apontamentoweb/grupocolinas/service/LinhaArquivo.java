@@ -0,0 +1,194 @@
+package apontamentoweb.grupocolinas.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * Buffer reutilizável de uma linha dos arquivos legais (AFD de largura fixa, AEJ separado por "|").
+ * Os campos são escritos direto em bytes ISO-8859-1, sem montar Strings por registro; números e
+ * datas são convertidos dígito a dígito. A mesma instância serve para todas as linhas do arquivo.
+ */
+final class LinhaArquivo {
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final int[] TABELA_CRC16 = new int[256];
+
+    static {
+        // CRC-16/KERMIT (polinômio 0x1021 refletido = 0x8408, valor inicial 0)
+        for (int i = 0; i < 256; i++) {
+            int crc = i;
+            for (int j = 0; j < 8; j++) {
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ 0x8408 : crc >>> 1;
+            }
+            TABELA_CRC16[i] = crc;
+        }
+    }
+
+    private final byte[] buf;
+    private int pos;
+
+    LinhaArquivo(int capacidade) {
+        this.buf = new byte[capacidade];
+    }
+
+    LinhaArquivo limpar() {
+        pos = 0;
+        return this;
+    }
+
+    int tamanho() {
+        return pos;
+    }
+
+    LinhaArquivo caractere(char c) {
+        buf[pos++] = (byte) c;
+        return this;
+    }
+
+    LinhaArquivo literal(String ascii) {
+        for (int i = 0; i < ascii.length(); i++) {
+            buf[pos++] = (byte) ascii.charAt(i);
+        }
+        return this;
+    }
+
+    /** Número com zeros à esquerda em exatamente {@code largura} dígitos. */
+    LinhaArquivo numero(long valor, int largura) {
+        for (int i = pos + largura - 1; i >= pos; i--) {
+            buf[i] = (byte) ('0' + valor % 10);
+            valor /= 10;
+        }
+        pos += largura;
+        return this;
+    }
+
+    /** Número sem preenchimento (campos do AEJ). */
+    LinhaArquivo numero(long valor) {
+        int digitos = 1;
+        for (long v = valor / 10; v > 0; v /= 10) {
+            digitos++;
+        }
+        return numero(valor, digitos);
+    }
+
+    /** Só os dígitos do texto (CPF/CNPJ formatados), alinhados à direita com zeros. */
+    LinhaArquivo digitos(CharSequence texto, int largura) {
+        int fim = pos + largura;
+        int i = fim - 1;
+        if (texto != null) {
+            for (int j = texto.length() - 1; j >= 0 && i >= pos; j--) {
+                char c = texto.charAt(j);
+                if (c >= '0' && c <= '9') {
+                    buf[i--] = (byte) c;
+                }
+            }
+        }
+        while (i >= pos) {
+            buf[i--] = '0';
+        }
+        pos = fim;
+        return this;
+    }
+
+    /** Texto alinhado à esquerda e completado com espaços (truncado se maior). */
+    LinhaArquivo texto(CharSequence texto, int largura) {
+        int fim = pos + largura;
+        if (texto != null) {
+            for (int j = 0; j < texto.length() && pos < fim; j++) {
+                buf[pos++] = latin1(texto.charAt(j));
+            }
+        }
+        while (pos < fim) {
+            buf[pos++] = ' ';
+        }
+        return this;
+    }
+
+    /** Texto livre de um campo delimitado: o separador e quebras de linha viram espaço (limitado a 150). */
+    LinhaArquivo campo(CharSequence texto, char separador) {
+        if (texto != null) {
+            for (int j = 0; j < texto.length() && j < 150; j++) {
+                char c = texto.charAt(j);
+                buf[pos++] = c == separador || c == '\r' || c == '\n' ? (byte) ' ' : latin1(c);
+            }
+        }
+        return this;
+    }
+
+    /** Data AAAA-MM-DD a partir do dia epoch. */
+    LinhaArquivo data(long diaEpoch) {
+        // Conversão de dia epoch para data civil (algoritmo de Howard Hinnant), sem LocalDate por registro
+        long z = diaEpoch + 719468;
+        long era = Math.floorDiv(z, 146097);
+        long doe = z - era * 146097;
+        long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        long mp = (5 * doy + 2) / 153;
+        long dia = doy - (153 * mp + 2) / 5 + 1;
+        long mes = mp < 10 ? mp + 3 : mp - 9;
+        long ano = yoe + era * 400 + (mes <= 2 ? 1 : 0);
+        return numero(ano, 4).caractere('-').numero(mes, 2).caractere('-').numero(dia, 2);
+    }
+
+    /** Data e hora AAAA-MM-DDThh:mm:00-0300 (24 caracteres), com os segundos zerados como no leiaute. */
+    LinhaArquivo dataHora(long epochSegundos, int offsetSegundos) {
+        long local = epochSegundos + offsetSegundos;
+        long segundosDoDia = Math.floorMod(local, 86400);
+        data(Math.floorDiv(local, 86400)).caractere('T')
+                .numero(segundosDoDia / 3600, 2).caractere(':')
+                .numero(segundosDoDia / 60 % 60, 2).caractere(':').literal("00");
+        int offset = Math.abs(offsetSegundos);
+        return caractere(offsetSegundos < 0 ? '-' : '+').numero(offset / 3600, 2).numero(offset / 60 % 60, 2);
+    }
+
+    LinhaArquivo hex(byte[] bytes) {
+        for (byte b : bytes) {
+            buf[pos++] = HEX[(b >> 4) & 0xF];
+            buf[pos++] = HEX[b & 0xF];
+        }
+        return this;
+    }
+
+    /** CRC-16 em 4 dígitos hexadecimais maiúsculos. */
+    LinhaArquivo crc16Hex(int crc) {
+        for (int deslocamento = 12; deslocamento >= 0; deslocamento -= 4) {
+            buf[pos++] = (byte) Character.toUpperCase((char) HEX[(crc >> deslocamento) & 0xF]);
+        }
+        return this;
+    }
+
+    /** CRC-16/KERMIT dos bytes escritos até agora. */
+    int crc16() {
+        int crc = 0;
+        for (int i = 0; i < pos; i++) {
+            crc = (crc >>> 8) ^ TABELA_CRC16[(crc ^ buf[i]) & 0xFF];
+        }
+        return crc;
+    }
+
+    /** Copia bytes já escritos (ex: o hash do registro, encadeado no próximo). */
+    void copiar(int inicio, byte[] destino) {
+        System.arraycopy(buf, inicio, destino, 0, destino.length);
+    }
+
+    /** Alimenta o digest com os bytes escritos até agora. */
+    void atualizar(MessageDigest digest) {
+        digest.update(buf, 0, pos);
+    }
+
+    LinhaArquivo fimDeLinha() {
+        buf[pos++] = '\r';
+        buf[pos++] = '\n';
+        return this;
+    }
+
+    void escrever(OutputStream saida) throws IOException {
+        saida.write(buf, 0, pos);
+    }
+
+    private static byte latin1(char c) {
+        return c <= 0xFF ? (byte) c : (byte) '?';
+    }
+}
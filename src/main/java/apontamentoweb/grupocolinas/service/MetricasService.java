@@ -0,0 +1,186 @@
+package apontamentoweb.grupocolinas.service;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.common.util.concurrent.MoreExecutors;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Métricas (Micrometer, expostas em /actuator/prometheus) das chamadas ao Firestore e das
+ * etapas das requisições.
+ * <ul>
+ *   <li>{@value #FIRESTORE}: cada leitura/escrita, com tags operacao, colecao, cliente e resultado;</li>
+ *   <li>{@value #ETAPA}: duração de cada etapa de uma requisição (ex: ponto -> usuario, foto, gravacao);</li>
+ *   <li>{@value #REQUISICAO}: duração total das requisições medidas por etapas;</li>
+ *   <li>{@value #ALERTA}: ocorrências que pedem intervenção (ex: registro do journal descartado), com tag tipo.</li>
+ * </ul>
+ * A tag cliente vem de parâmetros da requisição: valores fora do {@link ClienteRegistry}
+ * viram "outro", para não criar uma série por valor digitado.
+ * <p>
+ * Os Timers ficam num cache próprio, então medir custa um System.nanoTime e uma consulta a um
+ * ConcurrentHashMap. Chamadas e requisições acima do limite configurado são registradas no
+ * log de lentidão com o detalhamento das etapas.
+ */
+@Service
+public class MetricasService {
+
+    public static final String FIRESTORE = "apontamento.firestore";
+    public static final String ETAPA = "apontamento.requisicao.etapa";
+    public static final String REQUISICAO = "apontamento.requisicao";
+    public static final String ALERTA = "apontamento.alerta";
+
+    private final MeterRegistry registry;
+    private final long requisicaoLentaNanos;
+    private final long firestoreLentoNanos;
+    private final ClienteRegistry clientes;
+    private final Map<Chave, Timer> timers = new ConcurrentHashMap<>();
+
+    @Autowired
+    public MetricasService(MeterRegistry registry,
+                           ClienteRegistry clientes,
+                           @Value("${apontamento.metricas.requisicao-lenta-ms:2000}") long requisicaoLentaMs,
+                           @Value("${apontamento.metricas.firestore-lento-ms:1000}") long firestoreLentoMs) {
+        this.registry = registry;
+        this.clientes = clientes;
+        this.requisicaoLentaNanos = TimeUnit.MILLISECONDS.toNanos(requisicaoLentaMs);
+        this.firestoreLentoNanos = TimeUnit.MILLISECONDS.toNanos(firestoreLentoMs);
+    }
+
+    /**
+     * Mede uma chamada assíncrona ao Firestore: o tempo vai do momento desta chamada (logo após
+     * o envio) até o future completar. Retorna o próprio future.
+     */
+    public <T> ApiFuture<T> firestore(String operacao, String colecao, String cliente, ApiFuture<T> futuro) {
+        long inicio = System.nanoTime();
+        ApiFutures.addCallback(futuro, new ApiFutureCallback<T>() {
+            @Override
+            public void onSuccess(T resultado) {
+                registrarFirestore(operacao, colecao, cliente, "sucesso", System.nanoTime() - inicio);
+            }
+
+            @Override
+            public void onFailure(Throwable erro) {
+                registrarFirestore(operacao, colecao, cliente, "erro", System.nanoTime() - inicio);
+            }
+        }, MoreExecutors.directExecutor());
+        return futuro;
+    }
+
+    private void registrarFirestore(String operacao, String colecao, String cliente, String resultado, long nanos) {
+        timer(FIRESTORE, operacao, colecao, tagCliente(cliente), resultado).record(nanos, TimeUnit.NANOSECONDS);
+        if (nanos >= firestoreLentoNanos) {
+            System.err.println("Firestore lento: " + operacao + " colecao=" + colecao + " cliente=" + cliente
+                    + " resultado=" + resultado + " " + TimeUnit.NANOSECONDS.toMillis(nanos) + "ms");
+        }
+    }
+
+    /** Conta uma ocorrência que pede intervenção e a registra no log de erros. */
+    public void alerta(String tipo, String detalhe) {
+        Counter.builder(ALERTA)
+                .description("Ocorrências que pedem intervenção")
+                .tags("tipo", tipo)
+                .register(registry)
+                .increment();
+        System.err.println("ALERTA " + tipo + ": " + detalhe);
+    }
+
+    /** Inicia a medição por etapas de uma requisição. */
+    public Etapas iniciar(String requisicao, String cliente) {
+        return new Etapas(requisicao, tagCliente(cliente != null ? cliente : "default"));
+    }
+
+    private String tagCliente(String cliente) {
+        return cliente == null || "todos".equals(cliente) || clientes.cadastrado(cliente) ? String.valueOf(cliente) : "outro";
+    }
+
+    private Timer timer(String nome, String a, String b, String c, String d) {
+        Chave chave = new Chave(nome, a, b, c, d);
+        Timer timer = timers.get(chave);
+        if (timer == null) {
+            timer = timers.computeIfAbsent(chave, this::criarTimer);
+        }
+        return timer;
+    }
+
+    private Timer criarTimer(Chave chave) {
+        Timer.Builder builder = Timer.builder(chave.nome);
+        switch (chave.nome) {
+            case FIRESTORE:
+                builder.description("Chamadas ao Firestore")
+                        .tags("operacao", chave.a, "colecao", chave.b, "cliente", chave.c, "resultado", chave.d);
+                break;
+            case ETAPA:
+                builder.description("Etapas das requisições")
+                        .tags("requisicao", chave.a, "etapa", chave.b, "cliente", chave.c);
+                break;
+            default:
+                builder.description("Duração total das requisições medidas por etapas")
+                        .tags("requisicao", chave.a, "cliente", chave.b, "resultado", chave.c);
+        }
+        return builder.register(registry);
+    }
+
+    private record Chave(String nome, String a, String b, String c, String d) {
+    }
+
+    /**
+     * Etapas de uma requisição. Cada {@link #marcar(String)} fecha a etapa corrente (tempo desde
+     * a marcação anterior); {@link #finalizar(String)} registra o total e, se passou do limite,
+     * escreve o detalhamento no log de lentidão. As etapas são sequenciais, ainda que cada uma
+     * possa rodar numa thread diferente do pipeline assíncrono.
+     */
+    public final class Etapas {
+        private static final int MAX_ETAPAS = 8;
+
+        private final String requisicao;
+        private final String cliente;
+        private final long inicio = System.nanoTime();
+        private final String[] nomes = new String[MAX_ETAPAS];
+        private final long[] duracoes = new long[MAX_ETAPAS];
+        private int quantidade;
+        private long ultimaMarca = inicio;
+
+        private Etapas(String requisicao, String cliente) {
+            this.requisicao = requisicao;
+            this.cliente = cliente;
+        }
+
+        public void marcar(String etapa) {
+            long agora = System.nanoTime();
+            long duracao = agora - ultimaMarca;
+            ultimaMarca = agora;
+            timer(ETAPA, requisicao, etapa, cliente, null).record(duracao, TimeUnit.NANOSECONDS);
+            if (quantidade < MAX_ETAPAS) {
+                nomes[quantidade] = etapa;
+                duracoes[quantidade++] = duracao;
+            }
+        }
+
+        public void finalizar(String resultado) {
+            long total = System.nanoTime() - inicio;
+            timer(REQUISICAO, requisicao, cliente, resultado, null).record(total, TimeUnit.NANOSECONDS);
+            if (total >= requisicaoLentaNanos) {
+                StringBuilder log = new StringBuilder("Requisição lenta: ").append(requisicao)
+                        .append(" cliente=").append(cliente)
+                        .append(" resultado=").append(resultado)
+                        .append(" total=").append(TimeUnit.NANOSECONDS.toMillis(total)).append("ms [");
+                for (int i = 0; i < quantidade; i++) {
+                    log.append(nomes[i]).append('=').append(TimeUnit.NANOSECONDS.toMillis(duracoes[i])).append("ms, ");
+                }
+                // Tempo depois da última etapa concluída: onde a requisição parou (timeout, erro) ou a resposta
+                log.append("restante=").append(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - ultimaMarca)).append("ms");
+                System.err.println(log.append(']'));
+            }
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package apontamentoweb.grupocolinas.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.AbstractResource;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.time.Duration;
+import java.time.YearMonth;
+import java.time.ZonedDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Cache em disco da planilha mensal de meses fechados (anteriores ao mês corrente).
+ * <p>
+ * Um mês fechado só muda se uma aprovação/recusa tardia mexer nele (reprocessamento de um ponto
+ * aprovado em outro mês) ou se a planilha for reconstruída. Então a resposta JSON do mês é gravada
+ * uma vez em {diretorio}/{cliente}/yyyy-MM.json.gz e servida com o arquivo mapeado em memória
+ * (mmap): sem consulta ao Firestore e sem serializar de novo, e o gzip vai direto para quem
+ * aceita Content-Encoding gzip.
+ * <p>
+ * A invalidação é feita depois do commit que alterou o mês; uma leitura do Firestore que
+ * começou antes dela não grava o resultado (contador de gerações): ela é servida uma vez e
+ * descartada. A publicação (arquivo no lugar e entrada em memória) e a invalidação do mesmo mês
+ * rodam dentro de {@code mapeados.compute}, então uma não se intercala com a outra. O cache é
+ * local a cada instância. Na virada do mês o mês anterior de cada cliente é gerado em segundo plano.
+ */
+@Service
+public class PlanilhaCacheService {
+
+    private final PlanilhaService planilhaService;
+    private final ClienteRegistry clientes;
+    private final ObjectMapper objectMapper;
+    private final Path diretorio;
+    private final boolean habilitado;
+
+    private final Map<String, ArquivoMapeado> mapeados = new ConcurrentHashMap<>();
+    // Incrementado a cada invalidação de mês fechado: uma leitura em andamento não grava dados antigos
+    private final AtomicLong geracao = new AtomicLong();
+    private final AtomicLong acertos = new AtomicLong();
+    private final AtomicLong faltas = new AtomicLong();
+    private final AtomicLong invalidacoes = new AtomicLong();
+    private final ScheduledExecutorService agendador;
+
+    @Autowired
+    public PlanilhaCacheService(PlanilhaService planilhaService, ClienteRegistry clientes, ObjectMapper objectMapper,
+                                @Value("${apontamento.relatorios.cache.diretorio:cache-planilhas}") String diretorio,
+                                @Value("${apontamento.relatorios.cache.habilitado:true}") boolean habilitado) {
+        this.planilhaService = planilhaService;
+        this.clientes = clientes;
+        this.objectMapper = objectMapper;
+        this.diretorio = Paths.get(diretorio);
+        this.habilitado = habilitado;
+        this.agendador = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "planilha-cache");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PostConstruct
+    public void iniciar() {
+        if (habilitado) {
+            // Gera o mês anterior se ainda não estiver em disco (ex: primeira subida) e agenda a próxima virada
+            agendador.schedule(this::aquecerMesAnterior, 1, TimeUnit.MINUTES);
+            agendarVirada();
+        }
+    }
+
+    @PreDestroy
+    public void encerrar() {
+        agendador.shutdownNow();
+    }
+
+    public static boolean fechado(YearMonth mes) {
+        return mes.isBefore(YearMonth.now(PlanilhaService.ZONA));
+    }
+
+    /**
+     * Planilha do mês em JSON gzip, mapeada do disco; gera o arquivo se ainda não existir.
+     * Retorna null para o mês corrente (ou futuro) e com o cache desabilitado: a planilha
+     * deve ser lida do Firestore.
+     */
+    public ArquivoMapeado obter(int ano, int mes, String cliente) throws IOException, ExecutionException, InterruptedException {
+        YearMonth anoMes = YearMonth.of(ano, mes);
+        if (!habilitado || !fechado(anoMes)) {
+            return null;
+        }
+        String id = clientes.resolver(cliente).getId();
+        String chave = chave(id, anoMes);
+        ArquivoMapeado arquivo = mapeados.get(chave);
+        if (arquivo != null) {
+            acertos.incrementAndGet();
+            return arquivo;
+        }
+        // Lida antes do disco: se o mês for invalidado daqui até a publicação, nada é publicado
+        long geracaoInicial = geracao.get();
+        Path caminho = caminho(id, anoMes);
+        try {
+            arquivo = mapear(caminho);
+        } catch (NoSuchFileException e) {
+            faltas.incrementAndGet();
+            return gerar(chave, id, anoMes, caminho, geracaoInicial);
+        }
+        ArquivoMapeado lido = arquivo;
+        mapeados.compute(chave, (k, atual) -> geracao.get() == geracaoInicial ? lido : atual);
+        return arquivo;
+    }
+
+    /** Descarta os meses fechados alterados; chamado depois do commit da alteração. */
+    public void invalidar(String cliente, Collection<YearMonth> meses) {
+        String id = clientes.resolver(cliente).getId();
+        for (YearMonth mes : meses) {
+            if (!fechado(mes)) {
+                continue;
+            }
+            invalidacoes.incrementAndGet();
+            mapeados.compute(chave(id, mes), (k, atual) -> {
+                geracao.incrementAndGet();
+                try {
+                    Files.deleteIfExists(caminho(id, mes));
+                } catch (IOException e) {
+                    System.err.println("Cache da planilha: falha ao remover " + id + " " + mes + ": " + e.getMessage());
+                }
+                return null;
+            });
+        }
+    }
+
+    public Map<String, Object> estatisticas() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("habilitado", habilitado);
+        stats.put("mapeados", mapeados.size());
+        stats.put("bytesMapeados", mapeados.values().stream().mapToLong(ArquivoMapeado::contentLength).sum());
+        stats.put("acertos", acertos.get());
+        stats.put("faltas", faltas.get());
+        stats.put("invalidacoes", invalidacoes.get());
+        return stats;
+    }
+
+    private ArquivoMapeado gerar(String chave, String cliente, YearMonth mes, Path caminho, long geracaoInicial)
+            throws IOException, ExecutionException, InterruptedException {
+        Map<String, Map<String, List<Map<String, Object>>>> planilha =
+                planilhaService.obterPlanilha(mes.getYear(), mes.getMonthValue(), cliente);
+
+        Path pasta = Files.createDirectories(caminho.getParent());
+        Path temporario = Files.createTempFile(pasta, mes.toString(), ".tmp");
+        try {
+            try (OutputStream saida = new GZIPOutputStream(Files.newOutputStream(temporario, StandardOpenOption.TRUNCATE_EXISTING), 64 * 1024)) {
+                objectMapper.writeValue(saida, planilha);
+            }
+            // Mapeado antes de publicar: se o mês foi alterado durante a leitura, serve desta vez sem guardar
+            ArquivoMapeado arquivo = mapear(temporario);
+            mapeados.compute(chave, (k, atual) -> {
+                if (geracao.get() != geracaoInicial) {
+                    return atual;
+                }
+                try {
+                    Files.move(temporario, caminho, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (IOException e) {
+                    System.err.println("Cache da planilha: falha ao gravar " + cliente + " " + mes + ": " + e.getMessage());
+                    return atual;
+                }
+                return arquivo;
+            });
+            return arquivo;
+        } finally {
+            Files.deleteIfExists(temporario);
+        }
+    }
+
+    private static ArquivoMapeado mapear(Path caminho) throws IOException {
+        try (FileChannel canal = FileChannel.open(caminho, StandardOpenOption.READ)) {
+            // O mapeamento continua válido depois de fechar o canal (e de o arquivo ser removido)
+            return new ArquivoMapeado(caminho.getFileName().toString(), canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size()));
+        }
+    }
+
+    // --- Aquecimento na virada do mês ---
+
+    private void agendarVirada() {
+        ZonedDateTime agora = ZonedDateTime.now(PlanilhaService.ZONA);
+        // Alguns minutos depois da meia-noite, para aprovações em andamento na virada terminarem
+        ZonedDateTime virada = YearMonth.from(agora).plusMonths(1).atDay(1).atStartOfDay(PlanilhaService.ZONA).plusMinutes(5);
+        agendador.schedule(() -> {
+            aquecerMesAnterior();
+            agendarVirada();
+        }, Duration.between(agora, virada).toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private void aquecerMesAnterior() {
+        YearMonth anterior = YearMonth.now(PlanilhaService.ZONA).minusMonths(1);
+        for (ClienteRegistry.Cliente cliente : clientes.todos()) {
+            if (Files.isRegularFile(caminho(cliente.getId(), anterior))) {
+                continue;
+            }
+            try {
+                // Roda no compartimento de consulta do cliente: não compete com o registro de pontos
+                cliente.consulta().executar(() -> obter(anterior.getYear(), anterior.getMonthValue(), cliente.getId()))
+                        .whenComplete((arquivo, erro) -> {
+                            if (erro != null) {
+                                System.err.println("Cache da planilha: falha ao gerar " + cliente.getId() + " " + anterior + ": " + erro.getMessage());
+                            }
+                        });
+            } catch (RejectedExecutionException e) {
+                // Compartimento ocupado: tenta de novo mais tarde
+                agendador.schedule(this::aquecerMesAnterior, 5, TimeUnit.MINUTES);
+                return;
+            }
+        }
+    }
+
+    private Path caminho(String cliente, YearMonth mes) {
+        return diretorio.resolve(cliente).resolve(mes + ".json.gz");
+    }
+
+    private static String chave(String cliente, YearMonth mes) {
+        return cliente + "/" + mes;
+    }
+
+    /** JSON gzip da planilha de um mês fechado, servido direto do arquivo mapeado. */
+    public static final class ArquivoMapeado extends AbstractResource {
+        private final String nome;
+        private final MappedByteBuffer conteudo;
+
+        private ArquivoMapeado(String nome, MappedByteBuffer conteudo) {
+            this.nome = nome;
+            this.conteudo = conteudo;
+        }
+
+        @Override
+        public String getDescription() {
+            return "planilha em cache " + nome;
+        }
+
+        @Override
+        public boolean exists() {
+            return true;
+        }
+
+        @Override
+        public long contentLength() {
+            return conteudo.capacity();
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            // Cada leitura tem a própria posição sobre o mesmo mapeamento
+            ByteBuffer leitura = conteudo.duplicate();
+            return new InputStream() {
+                @Override
+                public int read() {
+                    return leitura.hasRemaining() ? leitura.get() & 0xFF : -1;
+                }
+
+                @Override
+                public int read(byte[] destino, int inicio, int tamanho) {
+                    if (!leitura.hasRemaining()) {
+                        return -1;
+                    }
+                    int lidos = Math.min(tamanho, leitura.remaining());
+                    leitura.get(destino, inicio, lidos);
+                    return lidos;
+                }
+
+                @Override
+                public int available() {
+                    return leitura.remaining();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,425 @@
+package apontamentoweb.grupocolinas.service;
+
+import com.google.api.core.ApiFuture;
+import com.google.cloud.firestore.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Exportação da planilha mensal em CSV ou XLSX, lida página a página de pontosEfetivados{sufixo}
+ * em ordem de dataAprovacao e escrita direto na resposta. Só uma página (e a próxima, já
+ * pedida ao Firestore) fica em memória; a primeira linha sai assim que a primeira página chega.
+ * <p>
+ * A planilha consolidada (todos os clientes) lê o mês de cada cliente ao mesmo tempo, cada um no
+ * seu compartimento de consulta, e intercala as páginas (k-way merge por dataAprovacao, empate na
+ * ordem dos clientes) direto na saída: o tempo total fica perto do cliente mais lento, a primeira
+ * linha sai assim que cada cliente entregou a primeira página e cada cliente só adianta
+ * {@code paginas-adiantadas} páginas à frente da escrita. A ordem é a mesma da planilha de um
+ * cliente: o Firestore não ordena por idLogin uma consulta com intervalo em dataAprovacao, e
+ * ordenar por idLogin exigiria o mês inteiro de cada cliente em memória.
+ */
+@Service
+public class PlanilhaExportService {
+
+    private static final String[] CABECALHO = {
+            "Data", "ID Login", "Usuário", "Hora do Ponto", "Status", "Aprovado Por", "Data Aprovação", "Justificativa", "Ponto"
+    };
+    private static final String[] CABECALHO_CONSOLIDADO = {
+            "Posto", "Data", "ID Login", "Usuário", "Hora do Ponto", "Status", "Aprovado Por", "Data Aprovação", "Justificativa", "Ponto"
+    };
+    // Coluna "Data Aprovação" da planilha consolidada (yyyy-MM-dd HH:mm:ss, ordena como texto)
+    private static final int COLUNA_APROVACAO_CONSOLIDADA = 7;
+    private static final String[] CAMPOS = {
+            "pontoId", "idLogin", "usuario", "horaPonto", "status", "aprovadoPor", "dataAprovacao", "justificativa"
+    };
+    private static final FieldMask CAMPOS_PONTO = FieldMask.of("idLogin", "usuario", "horaPonto");
+    private static final DateTimeFormatter DIA = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+    private static final DateTimeFormatter DATA_HORA = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private final Firestore firestore;
+    private final ClienteRegistry clientes;
+    private final PontoHistoricoService pontoHistorico;
+    private final int tamanhoPagina;
+    private final int paginasAdiantadas;
+
+    @Autowired
+    public PlanilhaExportService(Firestore firestore,
+                                 ClienteRegistry clientes,
+                                 PontoHistoricoService pontoHistorico,
+                                 @Value("${apontamento.relatorios.exportacao.tamanho-pagina:500}") int tamanhoPagina,
+                                 @Value("${apontamento.relatorios.consolidada.paginas-adiantadas:2}") int paginasAdiantadas) {
+        this.firestore = firestore;
+        this.clientes = clientes;
+        this.pontoHistorico = pontoHistorico;
+        this.tamanhoPagina = tamanhoPagina;
+        this.paginasAdiantadas = Math.max(1, paginasAdiantadas);
+    }
+
+    public void exportarCsv(int ano, int mes, String cliente, OutputStream saida) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(saida, StandardCharsets.UTF_8), 16 * 1024);
+        // BOM para o Excel abrir o UTF-8 com acentos corretos; ';' é o separador do Excel em pt-BR
+        writer.write('\uFEFF');
+        escreverCsv(writer, CABECALHO);
+        percorrer(ano, mes, cliente, new Linhas() {
+            @Override
+            public void linha(Object[] celulas) throws IOException {
+                escreverCsv(writer, celulas);
+            }
+
+            @Override
+            public void fimDePagina() throws IOException {
+                writer.flush();
+            }
+        });
+        writer.flush();
+    }
+
+    public void exportarXlsx(int ano, int mes, String cliente, OutputStream saida) throws IOException {
+        XlsxStreamWriter xlsx = new XlsxStreamWriter(saida, String.format("%04d-%02d", ano, mes));
+        xlsx.escreverLinha((Object[]) CABECALHO);
+        percorrer(ano, mes, cliente, new Linhas() {
+            @Override
+            public void linha(Object[] celulas) throws IOException {
+                xlsx.escreverLinha(celulas);
+            }
+
+            @Override
+            public void fimDePagina() throws IOException {
+                xlsx.flush();
+            }
+        });
+        xlsx.close();
+    }
+
+    /**
+     * Dispara a leitura do mês em todos os clientes, cada uma no compartimento de consulta do
+     * cliente. Se algum compartimento recusar, as leituras já disparadas são canceladas e a
+     * RejectedExecutionException sobe (503 para o chamador). Quem recebe o Consolidado precisa
+     * escrevê-lo ou chamar {@link Consolidado#cancelar()}: a leitura de cada cliente espera a
+     * escrita para seguir adiante.
+     */
+    public Consolidado consolidar(int ano, int mes) {
+        List<Fonte> fontes = new ArrayList<>();
+        AtomicBoolean cancelada = new AtomicBoolean();
+        try {
+            for (ClienteRegistry.Cliente cliente : clientes.todos()) {
+                Fonte fonte = new Fonte(paginasAdiantadas, cancelada);
+                fonte.leitura = cliente.consulta().executar(() -> {
+                    ler(ano, mes, cliente.getId(), fonte);
+                    return null;
+                });
+                fontes.add(fonte);
+            }
+        } catch (RejectedExecutionException e) {
+            cancelada.set(true);
+            throw e;
+        }
+        return new Consolidado(ano, mes, fontes, cancelada);
+    }
+
+    /** Leituras em andamento da planilha consolidada; a escrita intercala as páginas conforme chegam. */
+    public final class Consolidado {
+        private final int ano;
+        private final int mes;
+        private final List<Fonte> fontes;
+        private final AtomicBoolean cancelada;
+
+        private Consolidado(int ano, int mes, List<Fonte> fontes, AtomicBoolean cancelada) {
+            this.ano = ano;
+            this.mes = mes;
+            this.fontes = fontes;
+            this.cancelada = cancelada;
+        }
+
+        public void exportarCsv(OutputStream saida) throws IOException {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(saida, StandardCharsets.UTF_8), 16 * 1024);
+            writer.write('\uFEFF');
+            escreverCsv(writer, CABECALHO_CONSOLIDADO);
+            intercalar(new Linhas() {
+                @Override
+                public void linha(Object[] celulas) throws IOException {
+                    escreverCsv(writer, celulas);
+                }
+
+                @Override
+                public void fimDePagina() throws IOException {
+                    writer.flush();
+                }
+            });
+            writer.flush();
+        }
+
+        public void exportarXlsx(OutputStream saida) throws IOException {
+            XlsxStreamWriter xlsx = new XlsxStreamWriter(saida, String.format("%04d-%02d", ano, mes));
+            xlsx.escreverLinha((Object[]) CABECALHO_CONSOLIDADO);
+            intercalar(new Linhas() {
+                @Override
+                public void linha(Object[] celulas) throws IOException {
+                    xlsx.escreverLinha(celulas);
+                }
+
+                @Override
+                public void fimDePagina() throws IOException {
+                    xlsx.flush();
+                }
+            });
+            xlsx.close();
+        }
+
+        /** Interrompe as leituras que ainda não terminaram (ex: erro em outro cliente, resposta abandonada). */
+        public void cancelar() {
+            cancelada.set(true);
+        }
+
+        // destino.fimDePagina() é chamado antes de esperar a próxima página de um cliente: o que já
+        // foi intercalado sai para o cliente HTTP em vez de ficar no buffer
+        private void intercalar(Linhas destino) throws IOException {
+            try {
+                // Heap com a linha atual de cada cliente; empate fica na ordem dos clientes
+                PriorityQueue<Integer> heap = new PriorityQueue<>(Math.max(1, fontes.size()), (a, b) -> {
+                    int comparacao = fontes.get(a).atual().compareTo(fontes.get(b).atual());
+                    return comparacao != 0 ? comparacao : Integer.compare(a, b);
+                });
+                for (int i = 0; i < fontes.size(); i++) {
+                    if (fontes.get(i).avancar(destino)) {
+                        heap.add(i);
+                    }
+                }
+                while (!heap.isEmpty()) {
+                    int i = heap.poll();
+                    destino.linha(fontes.get(i).linha());
+                    if (fontes.get(i).avancar(destino)) {
+                        heap.add(i);
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                cancelar();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Páginas de um cliente, da leitura (no compartimento do cliente) para a escrita. A fila é
+     * limitada: a leitura espera a escrita quando está {@code paginasAdiantadas} páginas à frente.
+     */
+    private static final class Fonte {
+        private static final List<Object[]> FIM = new ArrayList<>();
+
+        private final BlockingQueue<List<Object[]>> paginas;
+        private final AtomicBoolean cancelada;
+        private CompletableFuture<Void> leitura;
+        private List<Object[]> pagina = Collections.emptyList();
+        private int posicao;
+
+        private Fonte(int paginasAdiantadas, AtomicBoolean cancelada) {
+            this.paginas = new ArrayBlockingQueue<>(paginasAdiantadas + 1);
+            this.cancelada = cancelada;
+        }
+
+        // Lado da leitura: espera vaga na fila, desistindo se a exportação for cancelada
+        void publicar(List<Object[]> proxima) throws IOException {
+            try {
+                while (!paginas.offer(proxima, 1, TimeUnit.SECONDS)) {
+                    if (cancelada.get()) {
+                        throw new InterruptedIOException("Planilha consolidada cancelada");
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Planilha consolidada interrompida");
+            }
+        }
+
+        String atual() {
+            return (String) pagina.get(posicao)[COLUNA_APROVACAO_CONSOLIDADA];
+        }
+
+        // Lado da escrita: a linha atual, liberada da página
+        Object[] linha() {
+            Object[] linha = pagina.get(posicao);
+            pagina.set(posicao, null);
+            return linha;
+        }
+
+        /** Passa para a próxima linha, esperando a próxima página se preciso; false no fim do cliente. */
+        boolean avancar(Linhas destino) throws IOException {
+            if (pagina == FIM) {
+                return false;
+            }
+            if (++posicao < pagina.size()) {
+                return true;
+            }
+            List<Object[]> proxima = paginas.poll();
+            if (proxima == null) {
+                destino.fimDePagina();
+                proxima = esperar();
+            }
+            pagina = proxima;
+            posicao = 0;
+            return pagina != FIM;
+        }
+
+        private List<Object[]> esperar() throws IOException {
+            try {
+                while (true) {
+                    List<Object[]> proxima = paginas.poll(1, TimeUnit.SECONDS);
+                    if (proxima != null) {
+                        return proxima;
+                    }
+                    if (leitura.isCompletedExceptionally()) {
+                        try {
+                            leitura.join();
+                        } catch (CompletionException | CancellationException e) {
+                            throw new IOException("Erro ao ler pontos efetivados", e.getCause() != null ? e.getCause() : e);
+                        }
+                    }
+                    if (cancelada.get()) {
+                        throw new InterruptedIOException("Planilha consolidada cancelada");
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Exportação interrompida");
+            }
+        }
+    }
+
+    // Mês de um cliente com a coluna Posto, publicado página a página (roda no executor do cliente)
+    private void ler(int ano, int mes, String cliente, Fonte fonte) throws IOException {
+        percorrer(ano, mes, cliente, new Linhas() {
+            private List<Object[]> pagina = new ArrayList<>(tamanhoPagina);
+
+            @Override
+            public void linha(Object[] celulas) {
+                Object[] comPosto = new Object[celulas.length + 1];
+                comPosto[0] = cliente;
+                System.arraycopy(celulas, 0, comPosto, 1, celulas.length);
+                pagina.add(comPosto);
+            }
+
+            @Override
+            public void fimDePagina() throws IOException {
+                if (fonte.cancelada.get()) {
+                    throw new InterruptedIOException("Planilha consolidada cancelada");
+                }
+                if (!pagina.isEmpty()) {
+                    fonte.publicar(pagina);
+                    pagina = new ArrayList<>(tamanhoPagina);
+                }
+            }
+        });
+        fonte.publicar(Fonte.FIM);
+    }
+
+    private interface Linhas {
+        void linha(Object[] celulas) throws IOException;
+
+        void fimDePagina() throws IOException;
+    }
+
+    private void percorrer(int ano, int mes, String cliente, Linhas destino) throws IOException {
+        YearMonth anoMes = YearMonth.of(ano, mes);
+        Query base = firestore.collection(clientes.colecao("pontosEfetivados", cliente))
+                .select(CAMPOS)
+                .whereGreaterThanOrEqualTo("dataAprovacao", Date.from(anoMes.atDay(1).atStartOfDay(PlanilhaService.ZONA).toInstant()))
+                .whereLessThan("dataAprovacao", Date.from(anoMes.plusMonths(1).atDay(1).atStartOfDay(PlanilhaService.ZONA).toInstant()))
+                .orderBy("dataAprovacao")
+                .limit(tamanhoPagina);
+
+        try {
+            ApiFuture<QuerySnapshot> proxima = base.get();
+            while (proxima != null) {
+                List<QueryDocumentSnapshot> pagina = proxima.get().getDocuments();
+                // Já pede a página seguinte enquanto esta é escrita
+                proxima = pagina.size() == tamanhoPagina
+                        ? base.startAfter(pagina.get(pagina.size() - 1)).get()
+                        : null;
+
+                Map<String, DocumentSnapshot> originais = buscarPontosSemDados(cliente, pagina);
+                for (DocumentSnapshot doc : pagina) {
+                    destino.linha(montarLinha(doc, originais));
+                }
+                destino.fimDePagina();
+            }
+        } catch (ExecutionException e) {
+            throw new IOException("Erro ao ler pontos efetivados", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Exportação interrompida");
+        }
+    }
+
+    // Efetivados antigos não guardavam idLogin/horaPonto: busca no ponto original (em pontos ou no histórico), só para a página atual
+    private Map<String, DocumentSnapshot> buscarPontosSemDados(String cliente, List<QueryDocumentSnapshot> pagina) throws ExecutionException, InterruptedException {
+        List<String> ids = new ArrayList<>();
+        for (DocumentSnapshot doc : pagina) {
+            if (doc.getString("idLogin") == null && doc.getString("pontoId") != null) {
+                ids.add(doc.getString("pontoId"));
+            }
+        }
+        if (ids.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        return pontoHistorico.buscar(cliente, ids, CAMPOS_PONTO);
+    }
+
+    private Object[] montarLinha(DocumentSnapshot doc, Map<String, DocumentSnapshot> originais) {
+        String pontoId = doc.getString("pontoId") != null ? doc.getString("pontoId") : doc.getId();
+        DocumentSnapshot fonte = doc.getString("idLogin") == null && originais.containsKey(pontoId) ? originais.get(pontoId) : doc;
+        Date dataAprovacao = doc.getDate("dataAprovacao");
+        LocalDate dia = dataAprovacao.toInstant().atZone(PlanilhaService.ZONA).toLocalDate();
+
+        return new Object[]{
+                DIA.format(dia),
+                fonte.getString("idLogin"),
+                texto(fonte.get("usuario")),
+                PlanilhaService.horaPontoComoTexto(fonte.get("horaPonto")),
+                doc.getString("status"),
+                texto(doc.get("aprovadoPor")),
+                DATA_HORA.format(dataAprovacao.toInstant().atZone(PlanilhaService.ZONA)),
+                texto(doc.get("justificativa")),
+                pontoId
+        };
+    }
+
+    private static String texto(Object valor) {
+        return valor != null ? valor.toString() : null;
+    }
+
+    private static void escreverCsv(Writer writer, Object[] celulas) throws IOException {
+        for (int i = 0; i < celulas.length; i++) {
+            if (i > 0) {
+                writer.write(';');
+            }
+            Object celula = celulas[i];
+            if (celula == null) {
+                continue;
+            }
+            String valor = celula.toString();
+            boolean precisaAspas = false;
+            for (int j = 0; j < valor.length() && !precisaAspas; j++) {
+                char c = valor.charAt(j);
+                precisaAspas = c == ';' || c == '"' || c == '\n' || c == '\r';
+            }
+            if (precisaAspas) {
+                writer.write('"');
+                writer.write(valor.replace("\"", "\"\""));
+                writer.write('"');
+            } else {
+                writer.write(valor);
+            }
+        }
+        writer.write("\r\n");
+    }
+}
@@ -0,0 +1,346 @@
+package apontamentoweb.grupocolinas.service;
+
+import com.google.api.core.ApiFuture;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Planilha mensal materializada: um documento por funcionário e mês na coleção
+ * planilhaMensal{sufixo}, com id "yyyy-MM_idLogin" e o mapa dias -> pontoId -> linha.
+ * <p>
+ * É atualizada no mesmo WriteBatch da aprovação/recusa (set com merge, idempotente),
+ * então a leitura da planilha do mês é uma única consulta pelos documentos do mês.
+ * Como a planilha original, o mês e o dia vêm da dataAprovacao e cada dia é ordenado
+ * por horaPonto. Aprovações gravadas direto no Firestore (ValidarPontos.js) não passam pela API
+ * e chegam à planilha pela {@link PlanilhaSincronizacaoService}.
+ */
+@Service
+public class PlanilhaService {
+
+    public static final ZoneId ZONA = ZoneId.systemDefault();
+    private static final DateTimeFormatter DIA = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+    private static final int MAX_ESCRITAS_POR_LOTE = 500;
+
+    private final Firestore firestore;
+    private final MetricasService metricas;
+    private final ClienteRegistry clientes;
+    private final PontoHistoricoService pontoHistorico;
+
+    @Autowired
+    public PlanilhaService(Firestore firestore, MetricasService metricas, ClienteRegistry clientes, PontoHistoricoService pontoHistorico) {
+        this.firestore = firestore;
+        this.metricas = metricas;
+        this.clientes = clientes;
+        this.pontoHistorico = pontoHistorico;
+    }
+
+    // --- Atualização incremental ---
+
+    /**
+     * Acrescenta ao batch a atualização da planilha para um ponto aprovado/recusado.
+     * {@code ponto} é o documento do ponto (pode vir só com idLogin/usuario/horaPonto/dataAprovacao).
+     */
+    public void adicionarAoBatch(WriteBatch batch, String cliente, String pontoId, DocumentSnapshot ponto,
+                                 String status, Map<String, Object> extras) {
+        String idLogin = ponto != null && ponto.getString("idLogin") != null ? ponto.getString("idLogin") : "Desconhecido";
+        Date dataAprovacao = extras.get("dataAprovacao") instanceof Date d ? d : new Date();
+        LocalDate dia = dataAprovacao.toInstant().atZone(ZONA).toLocalDate();
+
+        CollectionReference colecao = firestore.collection(clientes.colecao("planilhaMensal", cliente));
+
+        // Se o ponto já tinha sido processado em outro dia, remove a linha antiga
+        Date aprovacaoAnterior = ponto != null ? ponto.getDate("dataAprovacao") : null;
+        if (aprovacaoAnterior != null) {
+            LocalDate diaAnterior = aprovacaoAnterior.toInstant().atZone(ZONA).toLocalDate();
+            if (!diaAnterior.equals(dia)) {
+                Map<String, Object> remocao = Map.of("dias", Map.of(DIA.format(diaAnterior), Map.of(pontoId, FieldValue.delete())));
+                batch.set(colecao.document(idDocumento(YearMonth.from(diaAnterior), idLogin)), remocao, SetOptions.merge());
+            }
+        }
+
+        Map<String, Object> linha = new HashMap<>();
+        linha.put("pontoId", pontoId);
+        linha.put("idLogin", idLogin);
+        linha.put("status", status);
+        if (ponto != null) {
+            linha.put("usuario", ponto.get("usuario"));
+            linha.put("horaPonto", horaPontoComoTexto(ponto.get("horaPonto")));
+        }
+        linha.putAll(extras);
+
+        YearMonth mes = YearMonth.from(dia);
+        Map<String, Object> atualizacao = new HashMap<>();
+        atualizacao.put("ano", mes.getYear());
+        atualizacao.put("mes", mes.getMonthValue());
+        atualizacao.put("idLogin", idLogin);
+        atualizacao.put("dias", Map.of(DIA.format(dia), Map.of(pontoId, linha)));
+        batch.set(colecao.document(idDocumento(mes, idLogin)), atualizacao, SetOptions.merge());
+    }
+
+    /**
+     * Acrescenta ao batch a linha de um efetivado gravado fora da API (aprovação feita direto no
+     * Firestore pelo ValidarPontos.js), que já traz idLogin/usuario/horaPonto. Retorna o mês alterado.
+     * Uma linha do mesmo ponto em outro dia não é removida: o efetivado não diz onde ela estava.
+     */
+    public YearMonth adicionarEfetivadoAoBatch(WriteBatch batch, String cliente, DocumentSnapshot efetivado) {
+        String pontoId = efetivado.getString("pontoId") != null ? efetivado.getString("pontoId") : efetivado.getId();
+        String idLogin = efetivado.get("idLogin") != null ? efetivado.get("idLogin").toString() : "Desconhecido";
+        LocalDate dia = efetivado.getDate("dataAprovacao").toInstant().atZone(ZONA).toLocalDate();
+
+        Map<String, Object> linha = new HashMap<>();
+        for (String campo : new String[]{"status", "usuario", "dataAprovacao", "aprovadoPor", "justificativa"}) {
+            linha.put(campo, efetivado.get(campo));
+        }
+        linha.put("pontoId", pontoId);
+        linha.put("idLogin", idLogin);
+        linha.put("horaPonto", horaPontoComoTexto(efetivado.get("horaPonto")));
+
+        YearMonth mes = YearMonth.from(dia);
+        Map<String, Object> atualizacao = new HashMap<>();
+        atualizacao.put("ano", mes.getYear());
+        atualizacao.put("mes", mes.getMonthValue());
+        atualizacao.put("idLogin", idLogin);
+        atualizacao.put("dias", Map.of(DIA.format(dia), Map.of(pontoId, linha)));
+        batch.set(firestore.collection(clientes.colecao("planilhaMensal", cliente)).document(idDocumento(mes, idLogin)),
+                atualizacao, SetOptions.merge());
+        return mes;
+    }
+
+    /**
+     * true se a planilha do mês já tem a linha do efetivado no dia da aprovação. {@code documentos}
+     * são os documentos do mês por id ({@link #documentosDoMes}).
+     */
+    static boolean presente(Map<String, DocumentSnapshot> documentos, DocumentSnapshot efetivado) {
+        String pontoId = efetivado.getString("pontoId") != null ? efetivado.getString("pontoId") : efetivado.getId();
+        String idLogin = efetivado.get("idLogin") != null ? efetivado.get("idLogin").toString() : "Desconhecido";
+        LocalDate dia = efetivado.getDate("dataAprovacao").toInstant().atZone(ZONA).toLocalDate();
+        DocumentSnapshot doc = documentos.get(idDocumento(YearMonth.from(dia), idLogin));
+        return doc != null && dias(doc).getOrDefault(DIA.format(dia), Collections.emptyMap()).containsKey(pontoId);
+    }
+
+    /**
+     * Meses da planilha alterados por {@link #adicionarAoBatch}: o da nova aprovação e, se o ponto
+     * já tinha sido processado, o da aprovação anterior (de onde a linha antiga sai).
+     */
+    public static Set<YearMonth> mesesAfetados(DocumentSnapshot ponto, Map<String, Object> extras) {
+        Set<YearMonth> meses = new HashSet<>(2);
+        Date dataAprovacao = extras.get("dataAprovacao") instanceof Date d ? d : new Date();
+        meses.add(YearMonth.from(dataAprovacao.toInstant().atZone(ZONA)));
+        Date aprovacaoAnterior = ponto != null ? ponto.getDate("dataAprovacao") : null;
+        if (aprovacaoAnterior != null) {
+            meses.add(YearMonth.from(aprovacaoAnterior.toInstant().atZone(ZONA)));
+        }
+        return meses;
+    }
+
+    // --- Leitura ---
+
+    // Documentos da planilha do mês (um por funcionário)
+    public ApiFuture<QuerySnapshot> documentosDoMes(int ano, int mes, String cliente) {
+        String colecao = clientes.colecao("planilhaMensal", cliente);
+        return metricas.firestore("planilhaDoMes", colecao, cliente, firestore.collection(colecao)
+                .whereEqualTo("ano", ano)
+                .whereEqualTo("mes", mes)
+                .get());
+    }
+
+    public Map<String, Map<String, List<Map<String, Object>>>> obterPlanilha(int ano, int mes, String cliente) throws ExecutionException, InterruptedException {
+        List<QueryDocumentSnapshot> documentos = documentosDoMes(ano, mes, cliente).get().getDocuments();
+        List<Map<String, Object>> dados = new ArrayList<>(documentos.size());
+        for (DocumentSnapshot doc : documentos) {
+            dados.add(doc.getData());
+        }
+        return organizar(dados);
+    }
+
+    // idLogin -> dia -> linhas ordenadas por horaPonto, a partir dos dados dos documentos da planilha
+    static Map<String, Map<String, List<Map<String, Object>>>> organizar(List<Map<String, Object>> documentos) {
+        Map<String, Map<String, List<Map<String, Object>>>> planilha = new HashMap<>();
+        for (Map<String, Object> doc : documentos) {
+            String idLogin = (String) doc.get("idLogin");
+            Map<String, List<Map<String, Object>>> porDia = planilha.computeIfAbsent(idLogin, k -> new TreeMap<>());
+            for (Map.Entry<String, Map<String, Map<String, Object>>> dia : dias(doc.get("dias")).entrySet()) {
+                List<Map<String, Object>> linhas = new ArrayList<>(dia.getValue().values());
+                linhas.sort(Comparator.comparing(l -> (String) l.getOrDefault("horaPonto", "00:00:00"),
+                        Comparator.nullsFirst(Comparator.naturalOrder())));
+                porDia.computeIfAbsent(dia.getKey(), k -> new ArrayList<>()).addAll(linhas);
+            }
+        }
+        return planilha;
+    }
+
+    // --- Reconstrução a partir de pontosEfetivados ---
+
+    /**
+     * Regenera a planilha do mês a partir de pontosEfetivados{sufixo}. As consultas são feitas
+     * por dia, todas disparadas de uma vez, e os lotes de escrita são enviados em paralelo.
+     * Retorna o número de funcionários gravados.
+     */
+    public int reconstruir(int ano, int mes, String cliente) throws ExecutionException, InterruptedException {
+        YearMonth anoMes = YearMonth.of(ano, mes);
+        CollectionReference efetivados = firestore.collection(clientes.colecao("pontosEfetivados", cliente));
+        CollectionReference colecaoPlanilha = firestore.collection(clientes.colecao("planilhaMensal", cliente));
+
+        List<ApiFuture<QuerySnapshot>> consultas = new ArrayList<>();
+        for (int d = 1; d <= anoMes.lengthOfMonth(); d++) {
+            LocalDate dia = anoMes.atDay(d);
+            consultas.add(efetivados
+                    .whereGreaterThanOrEqualTo("dataAprovacao", Date.from(dia.atStartOfDay(ZONA).toInstant()))
+                    .whereLessThan("dataAprovacao", Date.from(dia.plusDays(1).atStartOfDay(ZONA).toInstant()))
+                    .get());
+        }
+
+        // Último efetivado de cada ponto (um ponto pode ter sido aprovado e depois recusado)
+        Map<String, DocumentSnapshot> ultimoPorPonto = new HashMap<>();
+        for (ApiFuture<QuerySnapshot> consulta : consultas) {
+            for (DocumentSnapshot doc : consulta.get().getDocuments()) {
+                String pontoId = doc.getString("pontoId") != null ? doc.getString("pontoId") : doc.getId();
+                DocumentSnapshot atual = ultimoPorPonto.get(pontoId);
+                if (atual == null || doc.getDate("dataAprovacao").after(atual.getDate("dataAprovacao"))) {
+                    ultimoPorPonto.put(pontoId, doc);
+                }
+            }
+        }
+
+        // Efetivados antigos não guardavam idLogin/horaPonto: busca no ponto original
+        Map<String, DocumentSnapshot> pontosOriginais = buscarPontosSemDados(cliente, ultimoPorPonto);
+
+        Map<String, Map<String, Object>> documentos = new HashMap<>();
+        for (Map.Entry<String, DocumentSnapshot> item : ultimoPorPonto.entrySet()) {
+            String pontoId = item.getKey();
+            DocumentSnapshot efetivado = item.getValue();
+            DocumentSnapshot original = pontosOriginais.get(pontoId);
+
+            Map<String, Object> linha = new HashMap<>(efetivado.getData());
+            linha.put("pontoId", pontoId);
+            if (linha.get("idLogin") == null && original != null) {
+                linha.put("idLogin", original.getString("idLogin"));
+                linha.put("usuario", original.get("usuario"));
+                linha.put("horaPonto", original.get("horaPonto"));
+            }
+            String idLogin = linha.get("idLogin") != null ? linha.get("idLogin").toString() : "Desconhecido";
+            linha.put("idLogin", idLogin);
+            linha.put("horaPonto", horaPontoComoTexto(linha.get("horaPonto")));
+
+            String dia = DIA.format(efetivado.getDate("dataAprovacao").toInstant().atZone(ZONA).toLocalDate());
+            Map<String, Object> doc = documentos.computeIfAbsent(idDocumento(anoMes, idLogin), k -> {
+                Map<String, Object> novo = new HashMap<>();
+                novo.put("ano", ano);
+                novo.put("mes", mes);
+                novo.put("idLogin", idLogin);
+                novo.put("dias", new HashMap<String, Map<String, Object>>());
+                return novo;
+            });
+            @SuppressWarnings("unchecked")
+            Map<String, Map<String, Object>> dias = (Map<String, Map<String, Object>>) doc.get("dias");
+            dias.computeIfAbsent(dia, k -> new HashMap<>()).put(pontoId, linha);
+        }
+
+        // Documentos do mês que não existem mais na reconstrução são apagados
+        List<DocumentReference> remover = new ArrayList<>();
+        for (DocumentSnapshot existente : colecaoPlanilha.whereEqualTo("ano", ano).whereEqualTo("mes", mes).get().get().getDocuments()) {
+            if (!documentos.containsKey(existente.getId())) {
+                remover.add(existente.getReference());
+            }
+        }
+
+        List<ApiFuture<List<WriteResult>>> commits = new ArrayList<>();
+        WriteBatch batch = firestore.batch();
+        int escritas = 0;
+        for (Map.Entry<String, Map<String, Object>> doc : documentos.entrySet()) {
+            batch.set(colecaoPlanilha.document(doc.getKey()), doc.getValue());
+            if (++escritas == MAX_ESCRITAS_POR_LOTE) {
+                commits.add(batch.commit());
+                batch = firestore.batch();
+                escritas = 0;
+            }
+        }
+        for (DocumentReference ref : remover) {
+            batch.delete(ref);
+            if (++escritas == MAX_ESCRITAS_POR_LOTE) {
+                commits.add(batch.commit());
+                batch = firestore.batch();
+                escritas = 0;
+            }
+        }
+        if (escritas > 0) {
+            commits.add(batch.commit());
+        }
+        for (ApiFuture<List<WriteResult>> commit : commits) {
+            commit.get();
+        }
+        return documentos.size();
+    }
+
+    // O ponto original pode estar em pontos ou, se já processado há algum tempo, no histórico
+    private Map<String, DocumentSnapshot> buscarPontosSemDados(String cliente, Map<String, DocumentSnapshot> efetivados) throws ExecutionException, InterruptedException {
+        List<String> ids = new ArrayList<>();
+        for (Map.Entry<String, DocumentSnapshot> item : efetivados.entrySet()) {
+            if (item.getValue().getString("idLogin") == null) {
+                ids.add(item.getKey());
+            }
+        }
+        if (ids.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        return pontoHistorico.buscar(cliente, ids, FieldMask.of("idLogin", "usuario", "horaPonto"));
+    }
+
+    static Map<String, Map<String, Map<String, Object>>> dias(DocumentSnapshot doc) {
+        return dias(doc.get("dias"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Map<String, Map<String, Object>>> dias(Object dias) {
+        return dias instanceof Map ? (Map<String, Map<String, Map<String, Object>>>) dias : Collections.emptyMap();
+    }
+
+    private static String idDocumento(YearMonth mes, String idLogin) {
+        return mes + "_" + idLogin.replace('/', '_');
+    }
+
+    // Linhas guardam horaPonto como texto ISO para ordenar sem conversão na leitura
+    static String horaPontoComoTexto(Object horaPonto) {
+        if (horaPonto instanceof Timestamp ts) {
+            return ts.toDate().toInstant().toString();
+        }
+        if (horaPonto instanceof Date d) {
+            return d.toInstant().toString();
+        }
+        return horaPonto != null ? horaPonto.toString() : null;
+    }
+
+    // Instante do horaPonto em ms: Timestamp, Date ou texto ISO dos registros antigos (sem fuso = fuso local)
+    static Long horaPontoEmMs(Object horaPonto) {
+        if (horaPonto instanceof Timestamp ts) {
+            return ts.toDate().getTime();
+        }
+        if (horaPonto instanceof Date d) {
+            return d.getTime();
+        }
+        if (horaPonto instanceof String texto && !texto.isBlank()) {
+            try {
+                return OffsetDateTime.parse(texto.trim()).toInstant().toEpochMilli();
+            } catch (DateTimeParseException e) {
+                try {
+                    return LocalDateTime.parse(texto.trim()).atZone(ZONA).toInstant().toEpochMilli();
+                } catch (DateTimeParseException e2) {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,221 @@
+package apontamentoweb.grupocolinas.service;
+
+import com.google.api.core.ApiFuture;
+import com.google.cloud.firestore.*;
+import com.google.cloud.firestore.EventListener;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.YearMonth;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Leva para a planilha mensal as aprovações gravadas direto no Firestore.
+ * <p>
+ * O ValidarPontos.js aprova pelo SDK do navegador: grava o efetivado em pontosEfetivados{sufixo},
+ * mas não passa pela API, então a planilha materializada ({@link PlanilhaService}) não recebe a
+ * linha. Um snapshot listener por cliente acompanha os efetivados com dataAprovacao desde o
+ * início do mês anterior e acrescenta à planilha (set com merge, idempotente) os que não vieram
+ * da API; os da API têm o campo "data" e já atualizaram a planilha no mesmo batch. Os meses
+ * alterados são invalidados no {@link PlanilhaCacheService}.
+ * <p>
+ * O primeiro snapshot de cada listener traz a janela inteira: só as linhas que faltam na planilha
+ * são gravadas. Se o listener cai, é reaberto com backoff; na virada do mês a janela avança.
+ * Cada instância roda o seu listener, e as escritas repetidas são idempotentes.
+ */
+@Service
+public class PlanilhaSincronizacaoService {
+
+    private static final String[] CAMPOS = {
+            "pontoId", "idLogin", "usuario", "horaPonto", "status", "dataAprovacao", "aprovadoPor", "justificativa", "data"
+    };
+    private static final int MAX_ESCRITAS_POR_LOTE = 500;
+
+    private final Firestore firestore;
+    private final ClienteRegistry clientes;
+    private final PlanilhaService planilhaService;
+    private final PlanilhaCacheService planilhaCache;
+    private final MetricasService metricas;
+    private final boolean habilitada;
+    private final ScheduledExecutorService executor;
+    private final Map<String, Sincronizacao> sincronizacoes = new ConcurrentHashMap<>();
+
+    @Autowired
+    public PlanilhaSincronizacaoService(Firestore firestore, ClienteRegistry clientes, PlanilhaService planilhaService,
+                                        PlanilhaCacheService planilhaCache, MetricasService metricas,
+                                        @Value("${apontamento.planilha.sincronizacao.habilitada:true}") boolean habilitada) {
+        this.firestore = firestore;
+        this.clientes = clientes;
+        this.planilhaService = planilhaService;
+        this.planilhaCache = planilhaCache;
+        this.metricas = metricas;
+        this.habilitada = habilitada;
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "sincronizacao-planilha");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PostConstruct
+    public void iniciar() {
+        if (!habilitada) {
+            return;
+        }
+        for (ClienteRegistry.Cliente cliente : clientes.todos()) {
+            Sincronizacao sincronizacao = new Sincronizacao(cliente.getId());
+            sincronizacoes.put(cliente.getId(), sincronizacao);
+            sincronizacao.conectar();
+        }
+        executor.scheduleAtFixedRate(this::avancarJanela, 1, 1, TimeUnit.HOURS);
+    }
+
+    @PreDestroy
+    public void encerrar() {
+        for (Sincronizacao sincronizacao : sincronizacoes.values()) {
+            sincronizacao.desconectar();
+        }
+        executor.shutdownNow();
+    }
+
+    // Na virada do mês a janela passa a começar no novo mês anterior
+    private void avancarJanela() {
+        YearMonth inicio = inicioJanela();
+        for (Sincronizacao sincronizacao : sincronizacoes.values()) {
+            if (!inicio.equals(sincronizacao.inicio)) {
+                sincronizacao.desconectar();
+                sincronizacao.conectar();
+            }
+        }
+    }
+
+    private static YearMonth inicioJanela() {
+        return YearMonth.now(PlanilhaService.ZONA).minusMonths(1);
+    }
+
+    // Gravado fora da API: a API sempre grava "data" no efetivado
+    static boolean externo(DocumentSnapshot efetivado) {
+        return efetivado.get("data") == null && efetivado.getDate("dataAprovacao") != null;
+    }
+
+    /**
+     * Acrescenta à planilha os efetivados externos. Com {@code completo} (primeiro snapshot), lê a
+     * planilha dos meses da janela e pula as linhas que já estão lá.
+     */
+    void aplicar(String cliente, YearMonth inicio, List<? extends DocumentSnapshot> efetivados, boolean completo)
+            throws ExecutionException, InterruptedException {
+        List<DocumentSnapshot> externos = new ArrayList<>();
+        for (DocumentSnapshot efetivado : efetivados) {
+            if (externo(efetivado)) {
+                externos.add(efetivado);
+            }
+        }
+        if (externos.isEmpty()) {
+            return;
+        }
+        if (completo) {
+            Map<String, DocumentSnapshot> planilha = new HashMap<>();
+            for (YearMonth mes = inicio; !mes.isAfter(YearMonth.now(PlanilhaService.ZONA)); mes = mes.plusMonths(1)) {
+                for (DocumentSnapshot doc : planilhaService.documentosDoMes(mes.getYear(), mes.getMonthValue(), cliente).get().getDocuments()) {
+                    planilha.put(doc.getId(), doc);
+                }
+            }
+            externos.removeIf(efetivado -> PlanilhaService.presente(planilha, efetivado));
+        }
+
+        String colecao = clientes.colecao("planilhaMensal", cliente);
+        Set<YearMonth> meses = new HashSet<>();
+        List<ApiFuture<List<WriteResult>>> commits = new ArrayList<>();
+        WriteBatch batch = firestore.batch();
+        int escritas = 0;
+        for (DocumentSnapshot efetivado : externos) {
+            meses.add(planilhaService.adicionarEfetivadoAoBatch(batch, cliente, efetivado));
+            if (++escritas == MAX_ESCRITAS_POR_LOTE) {
+                commits.add(metricas.firestore("sincronizarPlanilha", colecao, cliente, batch.commit()));
+                batch = firestore.batch();
+                escritas = 0;
+            }
+        }
+        if (escritas > 0) {
+            commits.add(metricas.firestore("sincronizarPlanilha", colecao, cliente, batch.commit()));
+        }
+        for (ApiFuture<List<WriteResult>> commit : commits) {
+            commit.get();
+        }
+        planilhaCache.invalidar(cliente, meses);
+    }
+
+    private final class Sincronizacao implements EventListener<QuerySnapshot> {
+        final String cliente;
+        final String colecao;
+        volatile YearMonth inicio;
+
+        private ListenerRegistration registro;
+        private boolean aguardandoPrimeiro;
+        private long backoffMs = 1000;
+
+        Sincronizacao(String cliente) {
+            this.cliente = cliente;
+            this.colecao = clientes.colecao("pontosEfetivados", cliente);
+        }
+
+        synchronized void conectar() {
+            aguardandoPrimeiro = true;
+            inicio = inicioJanela();
+            registro = firestore.collection(colecao)
+                    .select(CAMPOS)
+                    .whereGreaterThanOrEqualTo("dataAprovacao", Date.from(inicio.atDay(1).atStartOfDay(PlanilhaService.ZONA).toInstant()))
+                    .addSnapshotListener(executor, this);
+        }
+
+        synchronized void desconectar() {
+            if (registro != null) {
+                registro.remove();
+                registro = null;
+            }
+        }
+
+        // Sempre na thread do executor (único)
+        @Override
+        public void onEvent(QuerySnapshot snapshot, FirestoreException erro) {
+            if (erro != null) {
+                reconectar("perdeu o listener", erro);
+                return;
+            }
+            if (snapshot == null) {
+                return;
+            }
+            try {
+                if (aguardandoPrimeiro) {
+                    aplicar(cliente, inicio, snapshot.getDocuments(), true);
+                    aguardandoPrimeiro = false;
+                    backoffMs = 1000;
+                } else {
+                    List<DocumentSnapshot> novos = new ArrayList<>();
+                    for (DocumentChange mudanca : snapshot.getDocumentChanges()) {
+                        if (mudanca.getType() == DocumentChange.Type.ADDED) {
+                            novos.add(mudanca.getDocument());
+                        }
+                    }
+                    aplicar(cliente, inicio, novos, false);
+                }
+            } catch (ExecutionException | RuntimeException e) {
+                // O primeiro snapshot do novo listener confere a janela inteira de novo
+                reconectar("falhou ao gravar a planilha", e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void reconectar(String motivo, Exception e) {
+            System.err.println("Sincronização da planilha de " + colecao + " " + motivo + ", reabrindo em " + backoffMs + "ms: " + e.getMessage());
+            desconectar();
+            executor.schedule(this::conectar, backoffMs, TimeUnit.MILLISECONDS);
+            backoffMs = Math.min(backoffMs * 2, 60_000);
+        }
+    }
+}
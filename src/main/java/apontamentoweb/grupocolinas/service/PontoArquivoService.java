@@ -0,0 +1,356 @@
+package apontamentoweb.grupocolinas.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.api.core.ApiFuture;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.*;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.*;
+import java.nio.file.*;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Arquivo colunar do histórico de pontos: os pontosEfetivados{sufixo} de cada cliente e mês (pela
+ * horaPonto) compactados em {diretorio}/{cliente}/yyyy-MM.pcol no formato de {@link ArquivoColunar},
+ * com a foto referenciada pelo hash do FotoStorageService. Efetivados antigos, sem idLogin/horaPonto,
+ * entram completados com o ponto original ({@link EfetivadoLegadoService}). Como na planilha, cada
+ * ponto entra uma vez, com a última decisão, e faltas/abonos/banco de horas não entram.
+ * <p>
+ * Meses com mais de apontamento.arquivo.idade-meses são compactados automaticamente (verificação
+ * diária); meses anteriores são compactados sob demanda. As consultas de auditoria (por funcionário
+ * e período, inclusive de vários anos) leem só os arquivos mapeados em memória, sem o Firestore.
+ * Uma alteração tardia de um ponto de mês já compactado agenda a recompactação do mês. Os dados
+ * continuam no Firestore: a remoção de lá fica para depois de o arquivo ser validado.
+ */
+@Service
+public class PontoArquivoService {
+
+    private static final String[] CAMPOS = EfetivadoLegadoService.CAMPOS;
+    private static final FieldMask CAMPOS_FOTO = FieldMask.of("fotoHash");
+
+    private final Firestore firestore;
+    private final ClienteRegistry clientes;
+    private final PontoHistoricoService pontoHistorico;
+    private final EfetivadoLegadoService efetivadosLegados;
+    private final MetricasService metricas;
+    private final ObjectMapper objectMapper;
+    private final Path diretorio;
+    private final int idadeMeses;
+    private final int tamanhoPagina;
+    private final boolean habilitado;
+
+    private final Map<Path, ArquivoColunar.Leitor> leitores = new ConcurrentHashMap<>();
+    private final Set<String> pendentes = ConcurrentHashMap.newKeySet();
+    private final AtomicLong compactados = new AtomicLong();
+    private final AtomicLong consultas = new AtomicLong();
+    private final AtomicLong gruposLidos = new AtomicLong();
+    private final ScheduledExecutorService agendador;
+
+    @Autowired
+    public PontoArquivoService(Firestore firestore, ClienteRegistry clientes, PontoHistoricoService pontoHistorico,
+                               EfetivadoLegadoService efetivadosLegados, MetricasService metricas, ObjectMapper objectMapper,
+                               @Value("${apontamento.arquivo.diretorio:arquivo-pontos}") String diretorio,
+                               @Value("${apontamento.arquivo.idade-meses:12}") int idadeMeses,
+                               @Value("${apontamento.arquivo.habilitado:true}") boolean habilitado,
+                               @Value("${apontamento.relatorios.exportacao.tamanho-pagina:500}") int tamanhoPagina) {
+        this.firestore = firestore;
+        this.clientes = clientes;
+        this.pontoHistorico = pontoHistorico;
+        this.efetivadosLegados = efetivadosLegados;
+        this.metricas = metricas;
+        this.objectMapper = objectMapper;
+        this.diretorio = Paths.get(diretorio);
+        this.idadeMeses = idadeMeses;
+        this.habilitado = habilitado;
+        this.tamanhoPagina = tamanhoPagina;
+        this.agendador = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "arquivo-pontos");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PostConstruct
+    public void iniciar() {
+        if (habilitado) {
+            // Compacta o mês que passou da idade mínima, se ainda não estiver em disco
+            agendador.scheduleWithFixedDelay(this::compactarVencidos, 2, 24 * 60, TimeUnit.MINUTES);
+        }
+    }
+
+    @PreDestroy
+    public void encerrar() {
+        agendador.shutdownNow();
+    }
+
+    /** Agenda a compactação dos meses de todos os clientes no intervalo (inclusive), em segundo plano. */
+    public Map<String, Object> agendarCompactacao(String cliente, YearMonth de, YearMonth ate) {
+        List<String> alvos = new ArrayList<>();
+        if ("todos".equals(cliente)) {
+            clientes.todos().forEach(c -> alvos.add(c.getId()));
+        } else {
+            alvos.add(clientes.resolver(cliente).getId());
+        }
+        for (String id : alvos) {
+            for (YearMonth mes = de; !mes.isAfter(ate); mes = mes.plusMonths(1)) {
+                agendar(id, mes);
+            }
+        }
+        return estatisticas();
+    }
+
+    /**
+     * Ponto alterado depois de compactado (aprovação/recusa tardia): recompacta o mês da horaPonto.
+     * Chamado depois do commit da alteração.
+     */
+    public void alterado(String cliente, DocumentSnapshot ponto) {
+        Long horaPontoMs = ponto != null ? PlanilhaService.horaPontoEmMs(ponto.get("horaPonto")) : null;
+        if (horaPontoMs == null) {
+            return;
+        }
+        String id = clientes.resolver(cliente).getId();
+        YearMonth mes = YearMonth.from(Instant.ofEpochMilli(horaPontoMs).atZone(PlanilhaService.ZONA));
+        if (Files.isRegularFile(caminho(id, mes))) {
+            agendar(id, mes);
+        }
+    }
+
+    private void agendar(String cliente, YearMonth mes) {
+        if (!PlanilhaCacheService.fechado(mes) || !pendentes.add(cliente + "/" + mes)) {
+            return;
+        }
+        agendador.execute(() -> {
+            try {
+                compactar(cliente, mes);
+            } catch (Exception e) {
+                System.err.println("Arquivo de pontos: falha ao compactar " + cliente + " " + mes + ": " + e.getMessage());
+            } finally {
+                pendentes.remove(cliente + "/" + mes);
+            }
+        });
+    }
+
+    private void compactarVencidos() {
+        YearMonth mes = YearMonth.now(PlanilhaService.ZONA).minusMonths(idadeMeses);
+        for (ClienteRegistry.Cliente cliente : clientes.todos()) {
+            if (!Files.isRegularFile(caminho(cliente.getId(), mes))) {
+                agendar(cliente.getId(), mes);
+            }
+        }
+    }
+
+    /** Lê o mês do Firestore e grava o arquivo (substituindo o anterior). Retorna o número de pontos. */
+    public int compactar(String cliente, YearMonth mes) throws IOException {
+        long inicio = mes.atDay(1).atStartOfDay(PlanilhaService.ZONA).toEpochSecond();
+        long fim = mes.plusMonths(1).atDay(1).atStartOfDay(PlanilhaService.ZONA).toEpochSecond();
+        String colecao = clientes.colecao("pontosEfetivados", cliente);
+        Query base = firestore.collection(colecao)
+                .select(CAMPOS)
+                .whereGreaterThanOrEqualTo("horaPonto", Timestamp.ofTimeSecondsAndNanos(inicio, 0))
+                .whereLessThan("horaPonto", Timestamp.ofTimeSecondsAndNanos(fim, 0))
+                .orderBy("horaPonto")
+                .limit(tamanhoPagina);
+
+        // Só decisões sobre pontos (faltas, abonos e banco de horas ficam de fora) e, de cada ponto, só a
+        // última: toda aprovação/recusa grava um efetivado novo
+        Map<String, Decidida> ultimas = new HashMap<>();
+        try {
+            ApiFuture<QuerySnapshot> proxima = metricas.firestore("compactarArquivo", colecao, cliente, base.get());
+            while (proxima != null) {
+                List<QueryDocumentSnapshot> pagina = proxima.get().getDocuments();
+                // Já pede a página seguinte enquanto os hashes das fotos desta são buscados
+                proxima = pagina.size() == tamanhoPagina
+                        ? metricas.firestore("compactarArquivo", colecao, cliente, base.startAfter(pagina.get(pagina.size() - 1)).get())
+                        : null;
+
+                List<String> pontoIds = new ArrayList<>();
+                for (QueryDocumentSnapshot doc : pagina) {
+                    if (doc.getString("pontoId") != null) {
+                        pontoIds.add(doc.getString("pontoId"));
+                    }
+                }
+                Map<String, DocumentSnapshot> fotos = pontoIds.isEmpty() ? Map.of() : pontoHistorico.buscar(cliente, pontoIds, CAMPOS_FOTO);
+
+                for (QueryDocumentSnapshot doc : pagina) {
+                    if (!EfetivadoLegadoService.completo(doc)) {
+                        // Sem idLogin: vem com os efetivados antigos abaixo
+                        continue;
+                    }
+                    if (!EfetivadoLegadoService.marcacao(doc)) {
+                        continue;
+                    }
+                    Timestamp horaPonto = doc.getTimestamp("horaPonto");
+                    String idLogin = doc.getString("idLogin");
+                    String pontoId = doc.getString("pontoId");
+                    DocumentSnapshot foto = fotos.get(pontoId);
+                    Date dataAprovacao = doc.getDate("dataAprovacao");
+                    manterUltima(ultimas, doc, new ArquivoColunar.Linha(idLogin, horaPonto.toDate().getTime(),
+                            dataAprovacao != null ? dataAprovacao.getTime() : null,
+                            doc.getString("status"), texto(doc.get("aprovadoPor")), texto(doc.get("usuario")),
+                            pontoId, foto != null ? foto.getString("fotoHash") : null, texto(doc.get("justificativa"))));
+                }
+            }
+
+            // Efetivados antigos (sem idLogin/horaPonto) completados com o ponto original
+            for (EfetivadoLegadoService.Legado legado : efetivadosLegados.ler(cliente, mes, "compactarArquivo")) {
+                DocumentSnapshot doc = legado.efetivado();
+                if (!EfetivadoLegadoService.marcacao(doc)) {
+                    continue;
+                }
+                Date dataAprovacao = doc.getDate("dataAprovacao") != null ? doc.getDate("dataAprovacao") : doc.getDate("data");
+                manterUltima(ultimas, doc, new ArquivoColunar.Linha(legado.idLogin(), legado.horaPontoMs(),
+                        dataAprovacao != null ? dataAprovacao.getTime() : null,
+                        doc.getString("status"), texto(doc.get("aprovadoPor")), legado.usuario(),
+                        legado.pontoId(), legado.fotoHash(), texto(doc.get("justificativa"))));
+            }
+        } catch (ExecutionException e) {
+            throw new IOException("Erro ao ler pontos efetivados", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Compactação interrompida");
+        }
+        List<ArquivoColunar.Linha> linhas = new ArrayList<>(ultimas.size());
+        for (Decidida decidida : ultimas.values()) {
+            linhas.add(decidida.linha());
+        }
+
+        Path destino = caminho(cliente, mes);
+        Path pasta = Files.createDirectories(destino.getParent());
+        Path temporario = Files.createTempFile(pasta, mes.toString(), ".tmp");
+        try {
+            try (OutputStream saida = new BufferedOutputStream(Files.newOutputStream(temporario, StandardOpenOption.TRUNCATE_EXISTING), 64 * 1024)) {
+                ArquivoColunar.escrever(saida, linhas);
+            }
+            Files.move(temporario, destino, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporario);
+        }
+        leitores.put(destino, ArquivoColunar.abrir(destino));
+        compactados.incrementAndGet();
+        return linhas.size();
+    }
+
+    private record Decidida(ArquivoColunar.Linha linha, long decididoEmMs) {
+    }
+
+    // Fica a decisão mais recente do ponto (empate: a lida por último)
+    private static void manterUltima(Map<String, Decidida> ultimas, DocumentSnapshot efetivado, ArquivoColunar.Linha linha) {
+        long decididoEmMs = EfetivadoLegadoService.decididoEmMs(efetivado);
+        Decidida atual = ultimas.get(linha.pontoId());
+        if (atual == null || decididoEmMs >= atual.decididoEmMs()) {
+            ultimas.put(linha.pontoId(), new Decidida(linha, decididoEmMs));
+        }
+    }
+
+    /**
+     * Pontos arquivados com horaPonto entre {@code de} e {@code ate} (inclusive), opcionalmente de um
+     * idLogin, em JSON: os meses do período ainda sem arquivo e os pontos, mês a mês, em ordem de
+     * idLogin e horaPonto. Só lê os arquivos dos meses do período.
+     */
+    public void consultar(String cliente, LocalDate de, LocalDate ate, String idLogin, OutputStream saida) throws IOException {
+        consultas.incrementAndGet();
+        List<String> alvos = new ArrayList<>();
+        if ("todos".equals(cliente)) {
+            clientes.todos().forEach(c -> alvos.add(c.getId()));
+        } else {
+            alvos.add(clientes.resolver(cliente).getId());
+        }
+        long deMs = de.atStartOfDay(PlanilhaService.ZONA).toInstant().toEpochMilli();
+        long ateMs = ate.plusDays(1).atStartOfDay(PlanilhaService.ZONA).toInstant().toEpochMilli();
+
+        // Poda por arquivo: só os meses que cruzam o período
+        List<String> semArquivo = new ArrayList<>();
+        Map<String, List<Path>> arquivos = new LinkedHashMap<>();
+        for (String id : alvos) {
+            List<Path> doCliente = new ArrayList<>();
+            for (YearMonth mes = YearMonth.from(de); !mes.isAfter(YearMonth.from(ate)); mes = mes.plusMonths(1)) {
+                Path caminho = caminho(id, mes);
+                if (Files.isRegularFile(caminho)) {
+                    doCliente.add(caminho);
+                } else {
+                    semArquivo.add(id + "/" + mes);
+                }
+            }
+            arquivos.put(id, doCliente);
+        }
+
+        JsonGenerator json = objectMapper.getFactory().createGenerator(saida);
+        json.writeStartObject();
+        json.writeArrayFieldStart("mesesSemArquivo");
+        for (String mes : semArquivo) {
+            json.writeString(mes);
+        }
+        json.writeEndArray();
+        json.writeArrayFieldStart("pontos");
+        for (Map.Entry<String, List<Path>> item : arquivos.entrySet()) {
+            String id = item.getKey();
+            for (Path caminho : item.getValue()) {
+                gruposLidos.addAndGet(leitor(caminho).consultar(idLogin, deMs, ateMs, linha -> escrever(json, id, linha)));
+                json.flush();
+            }
+        }
+        json.writeEndArray();
+        json.writeEndObject();
+        json.flush();
+    }
+
+    private static void escrever(JsonGenerator json, String cliente, ArquivoColunar.Linha linha) throws IOException {
+        json.writeStartObject();
+        json.writeStringField("cliente", cliente);
+        json.writeStringField("pontoId", linha.pontoId());
+        json.writeStringField("idLogin", linha.idLogin());
+        json.writeStringField("usuario", linha.usuario());
+        json.writeStringField("horaPonto", Instant.ofEpochMilli(linha.horaPontoMs()).toString());
+        json.writeStringField("status", linha.status());
+        json.writeStringField("aprovadoPor", linha.aprovadoPor());
+        json.writeStringField("dataAprovacao", linha.dataAprovacaoMs() != null ? Instant.ofEpochMilli(linha.dataAprovacaoMs()).toString() : null);
+        json.writeStringField("justificativa", linha.justificativa());
+        // Ponto antigo com a foto ainda em base64: a URL passa pela migração sob demanda
+        json.writeStringField("fotoUrl", linha.fotoHash() != null ? FotoStorageService.url(linha.fotoHash())
+                : "/api/pontos/" + linha.pontoId() + "/foto?cliente=" + cliente);
+        json.writeEndObject();
+    }
+
+    private ArquivoColunar.Leitor leitor(Path caminho) throws IOException {
+        ArquivoColunar.Leitor leitor = leitores.get(caminho);
+        if (leitor == null) {
+            leitor = ArquivoColunar.abrir(caminho);
+            leitores.put(caminho, leitor);
+        }
+        return leitor;
+    }
+
+    public Map<String, Object> estatisticas() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("habilitado", habilitado);
+        stats.put("idadeMeses", idadeMeses);
+        stats.put("compactacoesPendentes", pendentes.size());
+        stats.put("compactados", compactados.get());
+        stats.put("arquivosAbertos", leitores.size());
+        stats.put("pontosAbertos", leitores.values().stream().mapToLong(ArquivoColunar.Leitor::linhas).sum());
+        stats.put("bytesAbertos", leitores.values().stream().mapToLong(ArquivoColunar.Leitor::bytes).sum());
+        stats.put("consultas", consultas.get());
+        stats.put("gruposLidos", gruposLidos.get());
+        stats.put("efetivadosLegados", efetivadosLegados.estatisticas());
+        return stats;
+    }
+
+    private Path caminho(String cliente, YearMonth mes) {
+        return diretorio.resolve(cliente).resolve(mes + ".pcol");
+    }
+
+    private static String texto(Object valor) {
+        return valor != null ? valor.toString() : null;
+    }
+}
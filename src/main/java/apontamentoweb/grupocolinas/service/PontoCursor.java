@@ -0,0 +1,164 @@
+package apontamentoweb.grupocolinas.service;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldPath;
+import com.google.cloud.firestore.Query;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Cursor opaco para paginar os pontos pendentes ordenados por (horaPonto, id do documento).
+ * O token é o base64 de "segundos:nanos:idDocumento" do último item da página. Registros antigos
+ * têm horaPonto em texto, que o Firestore ordena depois dos Timestamps: para eles o token é
+ * "t:base64(texto):idDocumento" (e "n::idDocumento" para horaPonto nulo, que vem antes de todos).
+ */
+public final class PontoCursor {
+
+    private PontoCursor() {
+    }
+
+    // Campos trazidos nas listagens: a foto fica de fora e é buscada sob demanda pela URL
+    public static final String[] CAMPOS_LISTAGEM = {
+            "idLogin", "usuario", "horaPonto", "posto", "status", "senhaPdv", "fotoHash", "fotoMiniaturaHash",
+            "aprovadoPor", "dataAprovacao", "justificativa", "createdAt"
+    };
+
+    // Status de um ponto ainda não validado: a ingestão grava "Pendente", mas o Login.js grava null
+    public static final List<Object> STATUS_PENDENTE = Collections.unmodifiableList(Arrays.asList(null, "Pendente"));
+
+    public static Query somentePendentes(Query query) {
+        return query.whereIn("status", STATUS_PENDENTE);
+    }
+
+    // Consulta base dos pendentes: filtro e ordenação feitos no Firestore (exige índice composto status + horaPonto)
+    public static Query pendentes(Query colecao) {
+        return somentePendentes(colecao.select(CAMPOS_LISTAGEM))
+                .orderBy("horaPonto")
+                .orderBy(FieldPath.documentId());
+    }
+
+    public static Query aplicar(Query query, String cursor) {
+        Posicao posicao = decodificar(cursor);
+        if (posicao == null) {
+            return query;
+        }
+        Object horaPonto = switch (posicao.tipo) {
+            case Posicao.NULO -> null;
+            case Posicao.TEXTO -> posicao.texto;
+            default -> Timestamp.ofTimeSecondsAndNanos(posicao.segundos, posicao.nanos);
+        };
+        return query.startAfter(horaPonto, posicao.id);
+    }
+
+    // Posição codificada no cursor, ou null se o cursor estiver vazio
+    public static Posicao decodificar(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+        try {
+            String[] partes = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(":", 3);
+            if ("t".equals(partes[0])) {
+                return Posicao.texto(new String(Base64.getUrlDecoder().decode(partes[1]), StandardCharsets.UTF_8), partes[2]);
+            }
+            if ("n".equals(partes[0])) {
+                return Posicao.nulo(partes[2]);
+            }
+            return new Posicao(Long.parseLong(partes[0]), Integer.parseInt(partes[1]), partes[2]);
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Cursor inválido");
+        }
+    }
+
+    public static String codificar(Posicao posicao) {
+        String valor = switch (posicao.tipo) {
+            case Posicao.NULO -> "n::" + posicao.id;
+            case Posicao.TEXTO -> "t:" + Base64.getUrlEncoder().withoutPadding()
+                    .encodeToString(posicao.texto.getBytes(StandardCharsets.UTF_8)) + ":" + posicao.id;
+            default -> posicao.segundos + ":" + posicao.nanos + ":" + posicao.id;
+        };
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(valor.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Retorna o cursor da próxima página, ou null se a página veio incompleta (acabaram os documentos)
+    public static String proximo(List<? extends DocumentSnapshot> pagina, int tamanho) {
+        if (pagina.size() < tamanho || pagina.isEmpty()) {
+            return null;
+        }
+        return codificar(posicao(pagina.get(pagina.size() - 1)));
+    }
+
+    // Posição do documento na ordem do Firestore: horaPonto nulo, depois Timestamp, depois texto (registros antigos)
+    public static Posicao posicao(DocumentSnapshot doc) {
+        Object horaPonto = doc.get("horaPonto");
+        if (horaPonto instanceof Timestamp ts) {
+            return new Posicao(ts.getSeconds(), ts.getNanos(), doc.getId());
+        }
+        if (horaPonto instanceof String texto) {
+            return Posicao.texto(texto, doc.getId());
+        }
+        return Posicao.nulo(doc.getId());
+    }
+
+    /** Posição de um ponto na ordem (horaPonto, id do documento). */
+    public static final class Posicao implements Comparable<Posicao> {
+        // Ordem dos tipos no Firestore
+        static final int NULO = 0, TIMESTAMP = 1, TEXTO = 2;
+
+        final int tipo;
+        final long segundos;
+        final int nanos;
+        final String texto;
+        final String id;
+
+        public Posicao(long segundos, int nanos, String id) {
+            this(TIMESTAMP, segundos, nanos, null, id);
+        }
+
+        private Posicao(int tipo, long segundos, int nanos, String texto, String id) {
+            this.tipo = tipo;
+            this.segundos = segundos;
+            this.nanos = nanos;
+            this.texto = texto;
+            this.id = id;
+        }
+
+        static Posicao texto(String texto, String id) {
+            return new Posicao(TEXTO, 0, 0, texto, id);
+        }
+
+        static Posicao nulo(String id) {
+            return new Posicao(NULO, 0, 0, null, id);
+        }
+
+        @Override
+        public int compareTo(Posicao outra) {
+            int c = Integer.compare(tipo, outra.tipo);
+            if (c == 0 && tipo == TIMESTAMP) {
+                c = Long.compare(segundos, outra.segundos);
+                if (c == 0) {
+                    c = Integer.compare(nanos, outra.nanos);
+                }
+            } else if (c == 0 && tipo == TEXTO) {
+                c = texto.compareTo(outra.texto);
+            }
+            return c != 0 ? c : id.compareTo(outra.id);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Posicao p && tipo == p.tipo && segundos == p.segundos && nanos == p.nanos
+                    && Objects.equals(texto, p.texto) && id.equals(p.id);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(tipo, segundos, nanos, texto, id);
+        }
+    }
+}
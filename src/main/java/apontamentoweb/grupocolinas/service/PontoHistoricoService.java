@@ -0,0 +1,394 @@
+package apontamentoweb.grupocolinas.service;
+
+import com.google.api.core.ApiFuture;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.*;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Separação quente/fria dos pontos: os processados (Aprovado/Recusado) saem de pontos{sufixo} para
+ * pontosHistorico{sufixo}, com o mesmo id de documento, e as coleções de pontos ficam só com os
+ * pendentes e os recém-processados.
+ * <ul>
+ *   <li>Movimentação contínua: cada aprovação/recusa agenda o ponto, que é movido depois de
+ *       apontamento.historico.atraso-minutos (maior que a janela de idempotência, para um reenvio
+ *       do PDV ainda esbarrar no create() do documento). Os pontos vencidos saem em WriteBatches de
+ *       {@code lote} pontos (set no histórico + delete com precondição de updateTime).</li>
+ *   <li>Migração: percorre os processados de cada cliente em ordem de id, clientes em paralelo, com
+ *       checkpoint (último id e contadores) em migracoes/pontosHistorico_{cliente}. Uma migração
+ *       interrompida continua do checkpoint na próxima inicialização. A mesma varredura roda
+ *       periodicamente para os pontos que a fila em memória perdeu (reinício, fila cheia).</li>
+ * </ul>
+ * Como o id não muda, pontoId em pontosEfetivados e na planilha continua válido; quem busca um
+ * ponto pelo id usa {@link #buscar} (pontos e, se não achar, o histórico).
+ */
+@Service
+public class PontoHistoricoService {
+
+    private static final List<String> PROCESSADOS = List.of("Aprovado", "Recusado");
+    private static final String COLECAO_MIGRACOES = "migracoes";
+    // Limite de documentos por getAll e por WriteBatch (2 escritas por ponto)
+    private static final int MAX_LEITURA = 500;
+
+    private final Firestore firestore;
+    private final ClienteRegistry clientes;
+    private final MetricasService metricas;
+    private final boolean habilitado;
+    private final long atrasoMs;
+    private final int maxFila;
+    private final int lote;
+    private final int pagina;
+
+    private final ConcurrentLinkedQueue<Agendado> fila = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger tamanhoFila = new AtomicInteger();
+    private final AtomicLong movidos = new AtomicLong();
+    private final AtomicLong descartados = new AtomicLong();
+    private final AtomicLong falhas = new AtomicLong();
+    private final Map<String, Migracao> migracoes = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService agendador;
+    private final ExecutorService executorMigracao;
+
+    @Autowired
+    public PontoHistoricoService(Firestore firestore, ClienteRegistry clientes, MetricasService metricas,
+                                 @Value("${apontamento.historico.habilitado:true}") boolean habilitado,
+                                 @Value("${apontamento.historico.atraso-minutos:20}") long atrasoMinutos,
+                                 @Value("${apontamento.historico.intervalo-segundos:10}") long intervaloSegundos,
+                                 @Value("${apontamento.historico.max-fila:100000}") int maxFila,
+                                 @Value("${apontamento.historico.lote:250}") int lote,
+                                 @Value("${apontamento.historico.migracao.pagina:500}") int pagina,
+                                 @Value("${apontamento.historico.migracao.paralelismo:4}") int paralelismo,
+                                 @Value("${apontamento.historico.varredura-horas:24}") long varreduraHoras) {
+        this.firestore = firestore;
+        this.clientes = clientes;
+        this.metricas = metricas;
+        this.habilitado = habilitado;
+        this.atrasoMs = TimeUnit.MINUTES.toMillis(atrasoMinutos);
+        this.maxFila = maxFila;
+        this.lote = Math.min(lote, MAX_LEITURA / 2);
+        this.pagina = Math.min(pagina, MAX_LEITURA);
+        this.agendador = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "historico-pontos");
+            t.setDaemon(true);
+            return t;
+        });
+        AtomicInteger contador = new AtomicInteger();
+        this.executorMigracao = Executors.newFixedThreadPool(paralelismo, r -> {
+            Thread t = new Thread(r, "historico-migracao-" + contador.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        if (habilitado) {
+            agendador.scheduleWithFixedDelay(this::drenar, intervaloSegundos, intervaloSegundos, TimeUnit.SECONDS);
+            if (varreduraHoras > 0) {
+                agendador.scheduleWithFixedDelay(() -> migrar(false), varreduraHoras, varreduraHoras, TimeUnit.HOURS);
+            }
+        }
+    }
+
+    @PostConstruct
+    public void retomar() {
+        if (!habilitado) {
+            return;
+        }
+        // Migrações interrompidas (reinício no meio) continuam do último checkpoint
+        for (ClienteRegistry.Cliente cliente : clientes.todos()) {
+            FirestoreFutures.paraCompletable(firestore.collection(COLECAO_MIGRACOES).document(idMigracao(cliente.getId())).get())
+                    .whenComplete((checkpoint, erro) -> {
+                        if (erro != null) {
+                            System.err.println("Histórico de pontos: falha ao ler checkpoint de " + cliente.getId() + ": " + erro.getMessage());
+                        } else if (checkpoint.exists() && "executando".equals(checkpoint.getString("estado"))) {
+                            iniciarMigracao(cliente.getId(), checkpoint);
+                        }
+                    });
+        }
+    }
+
+    @PreDestroy
+    public void encerrar() {
+        agendador.shutdownNow();
+        executorMigracao.shutdownNow();
+    }
+
+    /** Agenda a movimentação para o histórico dos pontos processados (chamado depois do commit do status). */
+    public void agendar(String cliente, Collection<String> pontoIds) {
+        if (!habilitado) {
+            return;
+        }
+        long vencimento = System.currentTimeMillis() + atrasoMs;
+        String id = clientes.resolver(cliente).getId();
+        for (String pontoId : pontoIds) {
+            if (tamanhoFila.incrementAndGet() > maxFila) {
+                // Fila cheia: o ponto fica para a varredura periódica
+                tamanhoFila.decrementAndGet();
+                descartados.incrementAndGet();
+                continue;
+            }
+            fila.add(new Agendado(id, pontoId, vencimento));
+        }
+    }
+
+    /**
+     * Pontos pelo id, em pontos{sufixo} e, para os que não estiverem lá, em pontosHistorico{sufixo}.
+     * Ids não encontrados ficam fora do resultado.
+     */
+    public Map<String, DocumentSnapshot> buscar(String cliente, Collection<String> pontoIds, FieldMask campos) throws ExecutionException, InterruptedException {
+        Map<String, DocumentSnapshot> resultado = new HashMap<>();
+        List<String> faltando = buscarEm(clientes.colecao("pontos", cliente), cliente, pontoIds, campos, resultado);
+        if (!faltando.isEmpty()) {
+            buscarEm(clientes.colecao("pontosHistorico", cliente), cliente, faltando, campos, resultado);
+        }
+        return resultado;
+    }
+
+    public DocumentSnapshot buscar(String cliente, String pontoId, FieldMask campos) throws ExecutionException, InterruptedException {
+        return buscar(cliente, List.of(pontoId), campos).get(pontoId);
+    }
+
+    private List<String> buscarEm(String colecao, String cliente, Collection<String> pontoIds, FieldMask campos,
+                                  Map<String, DocumentSnapshot> resultado) throws ExecutionException, InterruptedException {
+        List<String> ids = new ArrayList<>(pontoIds);
+        List<ApiFuture<List<DocumentSnapshot>>> leituras = new ArrayList<>();
+        for (int inicio = 0; inicio < ids.size(); inicio += MAX_LEITURA) {
+            DocumentReference[] refs = ids.subList(inicio, Math.min(inicio + MAX_LEITURA, ids.size())).stream()
+                    .map(id -> firestore.collection(colecao).document(id))
+                    .toArray(DocumentReference[]::new);
+            leituras.add(metricas.firestore("buscarPontos", colecao, cliente, firestore.getAll(refs, campos)));
+        }
+        List<String> faltando = new ArrayList<>();
+        for (ApiFuture<List<DocumentSnapshot>> leitura : leituras) {
+            for (DocumentSnapshot doc : leitura.get()) {
+                if (doc.exists()) {
+                    resultado.put(doc.getId(), doc);
+                } else {
+                    faltando.add(doc.getId());
+                }
+            }
+        }
+        return faltando;
+    }
+
+    // --- Movimentação contínua ---
+
+    private void drenar() {
+        try {
+            long agora = System.currentTimeMillis();
+            Map<String, List<String>> vencidos = new LinkedHashMap<>();
+            Agendado proximo;
+            // A fila está em ordem de vencimento (o atraso é o mesmo para todos)
+            while ((proximo = fila.peek()) != null && proximo.vencimento <= agora) {
+                fila.poll();
+                tamanhoFila.decrementAndGet();
+                vencidos.computeIfAbsent(proximo.cliente, c -> new ArrayList<>()).add(proximo.pontoId);
+            }
+            for (Map.Entry<String, List<String>> item : vencidos.entrySet()) {
+                String cliente = item.getKey();
+                String colecao = clientes.colecao("pontos", cliente);
+                List<String> ids = new ArrayList<>(new LinkedHashSet<>(item.getValue()));
+                Map<String, DocumentSnapshot> encontrados = new HashMap<>();
+                buscarEm(colecao, cliente, ids, null, encontrados);
+                List<DocumentSnapshot> processados = new ArrayList<>();
+                for (DocumentSnapshot doc : encontrados.values()) {
+                    if (PROCESSADOS.contains(doc.getString("status"))) {
+                        processados.add(doc);
+                    }
+                }
+                mover(cliente, processados);
+            }
+        } catch (Exception e) {
+            // Os pontos que falharem ficam para a varredura periódica
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Move os pontos em WriteBatches de {@code lote} pontos, todos enviados de uma vez. Cada delete
+     * tem precondição de updateTime: se o ponto mudou depois da leitura, o lote falha inteiro e os
+     * pontos ficam para a próxima passada. Retorna quantos foram movidos.
+     */
+    private int mover(String cliente, List<DocumentSnapshot> pontos) throws InterruptedException {
+        CollectionReference historico = firestore.collection(clientes.colecao("pontosHistorico", cliente));
+        String colecao = clientes.colecao("pontos", cliente);
+        Date agora = new Date();
+
+        Map<ApiFuture<List<WriteResult>>, Integer> commits = new LinkedHashMap<>();
+        for (int inicio = 0; inicio < pontos.size(); inicio += lote) {
+            List<DocumentSnapshot> parte = pontos.subList(inicio, Math.min(inicio + lote, pontos.size()));
+            WriteBatch batch = firestore.batch();
+            for (DocumentSnapshot ponto : parte) {
+                Map<String, Object> dados = new HashMap<>(ponto.getData());
+                dados.put("movidoEm", agora);
+                batch.set(historico.document(ponto.getId()), dados);
+                batch.delete(ponto.getReference(), Precondition.updatedAt(ponto.getUpdateTime()));
+            }
+            commits.put(metricas.firestore("moverHistorico", colecao, cliente, batch.commit()), parte.size());
+        }
+
+        int total = 0;
+        for (Map.Entry<ApiFuture<List<WriteResult>>, Integer> commit : commits.entrySet()) {
+            try {
+                commit.getKey().get();
+                total += commit.getValue();
+            } catch (ExecutionException e) {
+                falhas.incrementAndGet();
+                System.err.println("Histórico de pontos: lote de " + commit.getValue() + " pontos de " + cliente
+                        + " não movido: " + e.getCause().getMessage());
+            }
+        }
+        movidos.addAndGet(total);
+        return total;
+    }
+
+    // --- Migração / varredura ---
+
+    /**
+     * Inicia a migração dos processados de todos os clientes (os que já estão migrando são ignorados).
+     * {@code retomar}: continua do checkpoint salvo; senão recomeça do início (varredura).
+     */
+    public Map<String, Object> migrar(boolean retomar) {
+        for (ClienteRegistry.Cliente cliente : clientes.todos()) {
+            if (!retomar) {
+                iniciarMigracao(cliente.getId(), null);
+                continue;
+            }
+            try {
+                iniciarMigracao(cliente.getId(), metricas.firestore("lerCheckpoint", COLECAO_MIGRACOES, cliente.getId(),
+                        firestore.collection(COLECAO_MIGRACOES).document(idMigracao(cliente.getId())).get()).get());
+            } catch (ExecutionException e) {
+                e.printStackTrace();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return estatisticas();
+    }
+
+    private void iniciarMigracao(String cliente, DocumentSnapshot checkpoint) {
+        Migracao migracao = new Migracao();
+        if (checkpoint != null && checkpoint.exists() && !"concluida".equals(checkpoint.getString("estado"))) {
+            migracao.ultimoId = checkpoint.getString("ultimoId");
+            Long jaMovidos = checkpoint.getLong("movidos");
+            migracao.movidos.set(jaMovidos != null ? jaMovidos : 0);
+        }
+        Migracao atual = migracoes.get(cliente);
+        if (atual != null && "executando".equals(atual.estado)) {
+            return;
+        }
+        migracoes.put(cliente, migracao);
+        try {
+            executorMigracao.execute(() -> executarMigracao(cliente, migracao));
+        } catch (RejectedExecutionException e) {
+            migracao.estado = "erro";
+        }
+    }
+
+    private void executarMigracao(String cliente, Migracao migracao) {
+        String colecao = clientes.colecao("pontos", cliente);
+        Query base = firestore.collection(colecao)
+                .whereIn("status", PROCESSADOS)
+                .orderBy(FieldPath.documentId())
+                .limit(pagina);
+        DocumentReference checkpoint = firestore.collection(COLECAO_MIGRACOES).document(idMigracao(cliente));
+        try {
+            salvarCheckpoint(checkpoint, migracao);
+            ApiFuture<QuerySnapshot> proxima = consultar(base, migracao.ultimoId, colecao, cliente);
+            while (proxima != null) {
+                List<QueryDocumentSnapshot> documentos = proxima.get().getDocuments();
+                if (documentos.isEmpty()) {
+                    break;
+                }
+                String ultimoId = documentos.get(documentos.size() - 1).getId();
+                // Já pede a página seguinte enquanto os lotes desta são gravados
+                proxima = documentos.size() == pagina ? consultar(base, ultimoId, colecao, cliente) : null;
+
+                long limite = System.currentTimeMillis() - atrasoMs;
+                List<DocumentSnapshot> vencidos = new ArrayList<>(documentos.size());
+                for (QueryDocumentSnapshot doc : documentos) {
+                    Date dataAprovacao = doc.getDate("dataAprovacao");
+                    // Recém-processados ficam para a movimentação contínua (janela de idempotência)
+                    if (dataAprovacao == null || dataAprovacao.getTime() <= limite) {
+                        vencidos.add(doc);
+                    } else {
+                        migracao.ignorados.incrementAndGet();
+                    }
+                }
+                int movidosNaPagina = mover(cliente, vencidos);
+                migracao.movidos.addAndGet(movidosNaPagina);
+                migracao.ignorados.addAndGet(vencidos.size() - movidosNaPagina);
+                migracao.ultimoId = ultimoId;
+                salvarCheckpoint(checkpoint, migracao);
+            }
+            migracao.estado = "concluida";
+        } catch (InterruptedException e) {
+            // Encerramento da aplicação: o checkpoint continua "executando" e a migração é retomada
+            Thread.currentThread().interrupt();
+            return;
+        } catch (Exception e) {
+            e.printStackTrace();
+            migracao.estado = "erro";
+        }
+        try {
+            salvarCheckpoint(checkpoint, migracao);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private ApiFuture<QuerySnapshot> consultar(Query base, String depoisDe, String colecao, String cliente) {
+        Query query = depoisDe != null ? base.startAfter(depoisDe) : base;
+        return metricas.firestore("migrarHistorico", colecao, cliente, query.get());
+    }
+
+    private void salvarCheckpoint(DocumentReference checkpoint, Migracao migracao) throws ExecutionException, InterruptedException {
+        Map<String, Object> dados = new HashMap<>();
+        dados.put("estado", migracao.estado);
+        dados.put("ultimoId", migracao.ultimoId);
+        dados.put("movidos", migracao.movidos.get());
+        dados.put("atualizadoEm", Timestamp.now());
+        checkpoint.set(dados).get();
+    }
+
+    public Map<String, Object> estatisticas() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("habilitado", habilitado);
+        stats.put("atrasoMinutos", TimeUnit.MILLISECONDS.toMinutes(atrasoMs));
+        stats.put("fila", tamanhoFila.get());
+        stats.put("movidos", movidos.get());
+        stats.put("descartados", descartados.get());
+        stats.put("lotesComFalha", falhas.get());
+        Map<String, Object> porCliente = new LinkedHashMap<>();
+        for (Map.Entry<String, Migracao> item : migracoes.entrySet()) {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("estado", item.getValue().estado);
+            m.put("ultimoId", item.getValue().ultimoId);
+            m.put("movidos", item.getValue().movidos.get());
+            m.put("ignorados", item.getValue().ignorados.get());
+            porCliente.put(item.getKey(), m);
+        }
+        stats.put("migracoes", porCliente);
+        return stats;
+    }
+
+    private static String idMigracao(String cliente) {
+        return "pontosHistorico_" + cliente;
+    }
+
+    private record Agendado(String cliente, String pontoId, long vencimento) {
+    }
+
+    private static final class Migracao {
+        private volatile String estado = "executando";
+        private volatile String ultimoId;
+        private final AtomicLong movidos = new AtomicLong();
+        private final AtomicLong ignorados = new AtomicLong();
+    }
+}
@@ -0,0 +1,337 @@
+package apontamentoweb.grupocolinas.service;
+
+import com.google.api.gax.rpc.AlreadyExistsException;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.FieldValue;
+import com.google.cloud.firestore.Firestore;
+import apontamentoweb.grupocolinas.model.entity.PontoRequest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.*;
+
+/**
+ * Pipeline assíncrono de registro de ponto (POST /api/login).
+ * <p>
+ * As etapas (busca do usuário e gravação no Firestore) são encadeadas sobre os
+ * ApiFutures no executor do compartimento "ponto" do cliente (ver {@link ClienteRegistry}),
+ * cada uma com seu próprio timeout, e o número de pontos em andamento é limitado por
+ * cliente. Com o journal local habilitado a gravação é confirmada pelo disco e não
+ * depende do Firestore. Reenvios do mesmo ponto são respondidos sem nova gravação
+ * (ver {@link IdempotenciaService}).
+ */
+@Service
+public class PontoIngestaoService {
+
+    private final Firestore firestore;
+    private final UserDirectoryService userDirectoryService;
+    private final PontoJournalService pontoJournalService;
+    private final FotoStorageService fotoStorageService;
+    private final FotoProcessamentoService fotoProcessamentoService;
+    private final MetricasService metricas;
+    private final ClienteRegistry clientes;
+    private final IdempotenciaService idempotencia;
+    private final UltimosPontosService ultimosPontos;
+    private final long timeoutUsuarioMs;
+    private final long timeoutGravacaoMs;
+
+    @Autowired
+    public PontoIngestaoService(Firestore firestore,
+                                UserDirectoryService userDirectoryService,
+                                PontoJournalService pontoJournalService,
+                                FotoStorageService fotoStorageService,
+                                FotoProcessamentoService fotoProcessamentoService,
+                                MetricasService metricas,
+                                ClienteRegistry clientes,
+                                IdempotenciaService idempotencia,
+                                UltimosPontosService ultimosPontos,
+                                @Value("${apontamento.ponto.timeout-usuario-ms:5000}") long timeoutUsuarioMs,
+                                @Value("${apontamento.ponto.timeout-gravacao-ms:5000}") long timeoutGravacaoMs) {
+        this.firestore = firestore;
+        this.userDirectoryService = userDirectoryService;
+        this.pontoJournalService = pontoJournalService;
+        this.fotoStorageService = fotoStorageService;
+        this.fotoProcessamentoService = fotoProcessamentoService;
+        this.metricas = metricas;
+        this.clientes = clientes;
+        this.idempotencia = idempotencia;
+        this.ultimosPontos = ultimosPontos;
+        this.timeoutUsuarioMs = timeoutUsuarioMs;
+        this.timeoutGravacaoMs = timeoutGravacaoMs;
+    }
+
+    // Converte o horaPonto ISO (UTC) enviado pelo PDV; se ausente ou inválido usa o horário atual
+    public static Timestamp converterHoraPonto(String horaPontoString) {
+        if (horaPontoString != null && !horaPontoString.isEmpty()) {
+            try {
+                SimpleDateFormat isoFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+                isoFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+                Date date = isoFormat.parse(horaPontoString);
+                return Timestamp.of(date);
+            } catch (ParseException e) {
+                return Timestamp.now();
+            }
+        }
+        return Timestamp.now();
+    }
+
+    public CompletableFuture<ResponseEntity<Map<String, Object>>> registrar(Map<String, Object> pontoData) {
+        return registrar(pontoData, null);
+    }
+
+    /**
+     * Registra o ponto com a foto vinda de um stream (upload multipart); os bytes vão direto
+     * para o armazenamento local sem serem carregados inteiros na memória.
+     */
+    public CompletableFuture<ResponseEntity<Map<String, Object>>> registrar(PontoRequest request, InputStreamSource foto) {
+        Map<String, Object> pontoData = new HashMap<>();
+        pontoData.put("idLogin", request.getIdLogin());
+        pontoData.put("senhaPdv", request.getSenhaPdv() != null ? request.getSenhaPdv() : request.getSenha());
+        pontoData.put("posto", request.getPosto());
+        pontoData.put("horaPonto", request.getHoraPonto());
+        pontoData.put("usuario", request.getUsuario());
+        pontoData.put("chaveIdempotencia", request.getChaveIdempotencia());
+        return registrar(pontoData, foto);
+    }
+
+    private CompletableFuture<ResponseEntity<Map<String, Object>>> registrar(Map<String, Object> pontoData, InputStreamSource foto) {
+        MetricasService.Etapas etapas = metricas.iniciar("ponto", (String) pontoData.get("posto"));
+        Compartimento compartimento = clientes.resolver((String) pontoData.get("posto")).ponto();
+        try {
+            compartimento.entrar();
+        } catch (RejectedExecutionException e) {
+            etapas.finalizar("503");
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .body(Map.of("sucesso", false, "mensagem", "Servidor ocupado. Tente novamente.")));
+        }
+
+        CompletableFuture<ResponseEntity<Map<String, Object>>> resultado;
+        try {
+            resultado = executarPipeline(pontoData, foto, compartimento.executor(), etapas);
+        } catch (RuntimeException e) {
+            resultado = CompletableFuture.failedFuture(e);
+        }
+
+        return resultado
+                .exceptionally(this::tratarErro)
+                .whenComplete((r, e) -> {
+                    compartimento.sair();
+                    etapas.finalizar(r != null ? Integer.toString(r.getStatusCode().value()) : "erro");
+                });
+    }
+
+    // Etapas medidas: usuario, horaPonto, foto (gravação local), fotoProcessamento, gravacao
+    private CompletableFuture<ResponseEntity<Map<String, Object>>> executarPipeline(Map<String, Object> pontoData, InputStreamSource foto,
+                                                                                  Executor executor, MetricasService.Etapas etapas) {
+        String idLogin = (String) pontoData.get("idLogin");
+        String senhaPdv = (String) pontoData.get("senhaPdv");
+        String postoInformado = (String) pontoData.get("posto"); // Novo: pega o posto do payload
+
+        // Se posto não veio no payload, usa "default"
+        String posto = (postoInformado == null || postoInformado.isEmpty()) ? "default" : postoInformado;
+
+        // Etapa 1: buscar usuário por idLogin (diretório em memória, Firestore só em caso de miss)
+        return userDirectoryService.buscarAsync(idLogin)
+                .orTimeout(timeoutUsuarioMs, TimeUnit.MILLISECONDS)
+                .thenComposeAsync(usuario -> {
+                    etapas.marcar("usuario");
+                    ResponseEntity<Map<String, Object>> recusa = validarUsuario(usuario, senhaPdv, posto);
+                    if (recusa != null) {
+                        return CompletableFuture.completedFuture(recusa);
+                    }
+
+                    // Reenvio de um ponto já gravado: confirma de novo sem foto nem gravação
+                    String colecao = clientes.colecao("pontos", posto);
+                    IdempotenciaService.Chave chave = idempotencia.chave(colecao,
+                            (String) pontoData.get("chaveIdempotencia"), idLogin, (String) pontoData.get("horaPonto"));
+                    if (chave != null && idempotencia.contem(chave)) {
+                        return CompletableFuture.completedFuture(ResponseEntity.ok(Map.<String, Object>of(
+                                "sucesso", true,
+                                "duplicado", true,
+                                "pontoId", chave.docId(),
+                                "mensagem", "Ponto já registrado no posto " + posto + ". Aguarde validação."
+                        )));
+                    }
+
+                    Timestamp horaPonto = converterHoraPonto((String) pontoData.get("horaPonto"));
+                    etapas.marcar("horaPonto");
+                    String docId = chave != null ? chave.docId() : firestore.collection(colecao).document().getId();
+
+                    // Toque duplo: outro ponto do funcionário a menos do intervalo mínimo é confirmado com o ponto original
+                    if (ultimosPontos.isHabilitado()) {
+                        UltimosPontosService.Anterior anterior = ultimosPontos.verificarERegistrar(colecao, idLogin, horaPonto.toDate().getTime(), docId);
+                        if (anterior != null) {
+                            return CompletableFuture.completedFuture(ResponseEntity.ok(Map.<String, Object>of(
+                                    "sucesso", true,
+                                    "duplicado", true,
+                                    "pontoId", anterior.pontoId(),
+                                    "horaPontoOriginal", Instant.ofEpochMilli(anterior.horaPontoMs()).toString(),
+                                    "mensagem", "Ponto já registrado há "
+                                            + Math.abs(horaPonto.toDate().getTime() - anterior.horaPontoMs()) / 1000
+                                            + "s no posto " + posto + ". Aguarde validação."
+                            )));
+                        }
+                    }
+
+                    // Etapa 2: reduzir a foto (pool próprio); etapa 3: gravar o ponto (journal local ou coleção do posto)
+                    Map<String, Object> ponto;
+                    try {
+                        ponto = montarPonto(pontoData, foto, idLogin, senhaPdv, posto, horaPonto, etapas);
+                    } catch (RuntimeException e) {
+                        liberarReserva(colecao, idLogin, docId);
+                        throw e;
+                    }
+                    return processarFoto(ponto)
+                            .thenCompose(p -> {
+                                etapas.marcar("fotoProcessamento");
+                                return gravar(colecao, posto, p, docId, chave)
+                                        .orTimeout(timeoutGravacaoMs, TimeUnit.MILLISECONDS);
+                            })
+                            .thenApply(id -> {
+                                etapas.marcar("gravacao");
+                                return ResponseEntity.ok(Map.<String, Object>of(
+                                        "sucesso", true,
+                                        "pontoId", id,
+                                        "mensagem", "Ponto registrado com sucesso no posto " + posto + ". Aguarde validação."
+                                ));
+                            });
+                }, executor);
+    }
+
+    // Falha ou fila cheia no processamento não recusa o ponto: ele segue com a foto original
+    private CompletableFuture<Map<String, Object>> processarFoto(Map<String, Object> ponto) {
+        String fotoHash = (String) ponto.get("fotoHash");
+        if (fotoHash == null) {
+            return CompletableFuture.completedFuture(ponto);
+        }
+        return fotoProcessamentoService.processar(fotoHash)
+                .thenApply(processada -> {
+                    ponto.put("fotoHash", processada.getFotoHash());
+                    ponto.put("fotoMiniaturaHash", processada.getMiniaturaHash());
+                    return ponto;
+                })
+                .exceptionally(e -> {
+                    System.err.println("Foto do ponto mantida sem processamento: " + e.getMessage());
+                    return ponto;
+                });
+    }
+
+    // Com o journal habilitado o ponto é confirmado assim que estiver em disco; o drenador envia ao Firestore depois.
+    // A gravação usa create() com o id já definido; com chave de idempotência, documento existente é o mesmo ponto.
+    private CompletableFuture<String> gravar(String colecao, String posto, Map<String, Object> ponto, String docId,
+                                             IdempotenciaService.Chave chave) {
+        CompletableFuture<String> gravacao;
+        if (pontoJournalService.isHabilitado()) {
+            gravacao = pontoJournalService.registrar(colecao, docId, ponto);
+        } else {
+            gravacao = FirestoreFutures.paraCompletable(metricas.firestore("registrarPonto", colecao, posto,
+                            firestore.collection(colecao).document(docId).create(ponto)))
+                    .handle((r, e) -> {
+                        Throwable causa = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                        if (causa != null && !(chave != null && causa instanceof AlreadyExistsException)) {
+                            throw new CompletionException(causa);
+                        }
+                        return docId;
+                    });
+        }
+
+        // Marca a chave quando a gravação confirmar, mesmo que o PDV já tenha recebido 504, e libera a reserva
+        // do toque duplo se falhar; o timeout é aplicado na cópia para não completar o future da gravação em si
+        gravacao.whenComplete((id, e) -> {
+            if (e == null) {
+                if (chave != null) {
+                    idempotencia.registrar(chave);
+                }
+            } else {
+                liberarReserva(colecao, (String) ponto.get("idLogin"), docId);
+            }
+        });
+        return gravacao.copy();
+    }
+
+    private void liberarReserva(String colecao, String idLogin, String docId) {
+        if (ultimosPontos.isHabilitado()) {
+            ultimosPontos.remover(colecao, idLogin, docId);
+        }
+    }
+
+    private ResponseEntity<Map<String, Object>> validarUsuario(UserDirectoryService.Usuario usuario, String senhaPdv, String posto) {
+        if (usuario == null) {
+            return ResponseEntity.badRequest()
+                    .body(Map.of("sucesso", false, "mensagem", "Usuário não encontrado"));
+        }
+
+        String userSenhaPdv = usuario.senhaPdv();
+        if (senhaPdv == null || !senhaPdv.equals(userSenhaPdv)) {
+            return ResponseEntity.badRequest()
+                    .body(Map.of("sucesso", false, "mensagem", "Senha PDV incorreta"));
+        }
+
+        // Verificar se o posto do usuário no cadastro bate com o enviado (opcional)
+        String userPosto = usuario.posto();
+        if (userPosto != null && !userPosto.equals(posto)) {
+            System.out.println("Aviso: Posto do usuário (" + userPosto + ") diferente do posto enviado (" + posto + ")");
+        }
+        return null;
+    }
+
+    private Map<String, Object> montarPonto(Map<String, Object> pontoData, InputStreamSource fotoStream, String idLogin, String senhaPdv, String posto,
+                                            Timestamp horaPonto, MetricasService.Etapas etapas) {
+        Map<String, Object> ponto = new HashMap<>();
+        ponto.put("idLogin", idLogin);
+        ponto.put("senhaPdv", senhaPdv);
+        ponto.put("horaPonto", horaPonto);
+        // A foto vai para o armazenamento local; o documento guarda só o hash
+        Object foto = pontoData.get("foto");
+        try {
+            if (fotoStream != null) {
+                try (InputStream conteudo = fotoStream.getInputStream()) {
+                    ponto.put("fotoHash", fotoStorageService.salvar(conteudo));
+                }
+            } else if (foto instanceof String base64 && !base64.isEmpty()) {
+                ponto.put("fotoHash", fotoStorageService.salvarBase64(base64));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        etapas.marcar("foto");
+        ponto.put("usuario", pontoData.get("usuario"));
+        ponto.put("posto", posto); // Salva o posto no documento também
+        ponto.put("status", "Pendente"); // Status inicial
+        ponto.put("createdAt", FieldValue.serverTimestamp());
+        return ponto;
+    }
+
+    private ResponseEntity<Map<String, Object>> tratarErro(Throwable erro) {
+        Throwable causa = erro;
+        while ((causa instanceof CompletionException || causa instanceof ExecutionException) && causa.getCause() != null) {
+            causa = causa.getCause();
+        }
+        causa.printStackTrace();
+
+        if (causa instanceof TimeoutException) {
+            return ResponseEntity.status(504)
+                    .body(Map.of("sucesso", false, "mensagem", "Timeout ao acessar Firestore. Tente novamente."));
+        }
+        if (causa instanceof RejectedExecutionException) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .body(Map.of("sucesso", false, "mensagem", "Servidor ocupado. Tente novamente."));
+        }
+        return ResponseEntity.internalServerError()
+                .body(Map.of("sucesso", false, "mensagem", "Erro ao registrar ponto: " + causa.getMessage()));
+    }
+}
@@ -0,0 +1,544 @@
+package apontamentoweb.grupocolinas.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.api.gax.rpc.AlreadyExistsException;
+import com.google.api.gax.rpc.ApiException;
+import com.google.api.gax.rpc.StatusCode;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.FieldValue;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.WriteBatch;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Journal local (write-ahead) dos pontos recebidos.
+ * <p>
+ * O ponto é confirmado ao PDV assim que está gravado em disco: uma thread de escrita
+ * agrupa os pontos que chegaram juntos e faz um único fsync por grupo (group commit).
+ * Um drenador em segundo plano envia os registros para as coleções pontos* em
+ * WriteBatches e grava um marcador com a posição já drenada. Na reinicialização o
+ * journal é relido a partir do marcador. O id do documento vem do próprio registro
+ * e a gravação usa create(), então um registro reenviado nunca duplica o ponto.
+ * <p>
+ * Formato de cada registro: [int tamanho][int crc32][payload JSON].
+ * <p>
+ * Falhas de rede/disponibilidade (UNAVAILABLE, DEADLINE_EXCEEDED etc.) seguram a drenagem com backoff.
+ * Um registro que nunca vai passar (CRC que não confere, JSON ilegível ou erro permanente do
+ * Firestore, como INVALID_ARGUMENT) é copiado para pontos.journal.descartados com um alerta e a
+ * drenagem segue depois dele, em vez de travar o journal inteiro. Na reinicialização só o final
+ * incompleto do arquivo é descartado; um registro corrompido no meio fica para a drenagem.
+ */
+@Service
+public class PontoJournalService {
+
+    private static final int CABECALHO = 8;
+    private static final int MAX_LOTE_FIRESTORE = 500;
+    // Erros que uma nova tentativa não resolve: o registro vai para o arquivo de descartados
+    private static final Set<StatusCode.Code> PERMANENTES = EnumSet.of(StatusCode.Code.INVALID_ARGUMENT,
+            StatusCode.Code.FAILED_PRECONDITION, StatusCode.Code.OUT_OF_RANGE, StatusCode.Code.NOT_FOUND,
+            StatusCode.Code.UNIMPLEMENTED);
+
+    private final Firestore firestore;
+    private final ObjectMapper objectMapper;
+    private final MetricasService metricas;
+    private final boolean habilitado;
+    private final Path arquivoJournal;
+    private final Path arquivoMarcador;
+    private final Path arquivoDescartados;
+    private final long tamanhoCompactacao;
+
+    private final BlockingQueue<Pendente> fila = new LinkedBlockingQueue<>();
+    private final Object lockArquivo = new Object();
+
+    private FileChannel canal;
+    private Thread escritor;
+    private ScheduledExecutorService drenador;
+    private volatile boolean ativo = false;
+
+    // Posição até onde o arquivo está gravado e sincronizado em disco
+    private volatile long posicaoGravada = 0;
+    // Posição até onde os registros já foram enviados ao Firestore
+    private volatile long posicaoDrenada = 0;
+    private volatile long falhasConsecutivas = 0;
+    private volatile long proximaTentativa = 0;
+    private volatile String ultimoErro;
+    private final AtomicLong descartados = new AtomicLong();
+
+    @Autowired
+    public PontoJournalService(Firestore firestore,
+                               ObjectMapper objectMapper,
+                               MetricasService metricas,
+                               @Value("${apontamento.journal.habilitado:true}") boolean habilitado,
+                               @Value("${apontamento.journal.diretorio:journal}") String diretorio,
+                               @Value("${apontamento.journal.tamanho-compactacao-mb:64}") long tamanhoCompactacaoMb) {
+        this.firestore = firestore;
+        this.objectMapper = objectMapper;
+        this.metricas = metricas;
+        this.habilitado = habilitado;
+        this.arquivoJournal = Paths.get(diretorio, "pontos.journal");
+        this.arquivoMarcador = Paths.get(diretorio, "pontos.journal.marcador");
+        this.arquivoDescartados = Paths.get(diretorio, "pontos.journal.descartados");
+        this.tamanhoCompactacao = tamanhoCompactacaoMb * 1024 * 1024;
+    }
+
+    public boolean isHabilitado() {
+        return habilitado && ativo;
+    }
+
+    @PostConstruct
+    public void iniciar() throws IOException {
+        if (!habilitado) {
+            return;
+        }
+        Files.createDirectories(arquivoJournal.getParent());
+        canal = FileChannel.open(arquivoJournal, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        // Replay: descarta um final de arquivo incompleto (queda no meio de uma escrita)
+        posicaoDrenada = lerMarcador();
+        posicaoGravada = ultimaPosicaoValida(posicaoDrenada);
+        if (posicaoGravada < canal.size()) {
+            System.err.println("Journal de pontos: descartando " + (canal.size() - posicaoGravada) + " bytes incompletos");
+            canal.truncate(posicaoGravada);
+        }
+        canal.position(posicaoGravada);
+
+        ativo = true;
+        escritor = new Thread(this::loopEscrita, "ponto-journal-escritor");
+        escritor.setDaemon(true);
+        escritor.start();
+
+        drenador = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ponto-journal-drenador");
+            t.setDaemon(true);
+            return t;
+        });
+        drenador.scheduleWithFixedDelay(this::drenar, 0, 200, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void encerrar() throws IOException, InterruptedException {
+        if (!ativo) {
+            return;
+        }
+        // Sem interrupt: interromper uma thread dentro de FileChannel.write fecha o canal
+        ativo = false;
+        escritor.join(5000);
+        drenador.shutdown();
+        drenador.awaitTermination(10, TimeUnit.SECONDS);
+        canal.close();
+    }
+
+    /**
+     * Grava o ponto no journal. O future completa quando o registro está sincronizado em disco.
+     */
+    public CompletableFuture<String> registrar(String colecao, String docId, Map<String, Object> ponto) {
+        if (!ativo) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Journal de pontos desabilitado"));
+        }
+        Map<String, Object> registro = new LinkedHashMap<>();
+        registro.put("colecao", colecao);
+        registro.put("docId", docId);
+        registro.put("ponto", serializarPonto(ponto));
+
+        byte[] payload;
+        try {
+            payload = objectMapper.writeValueAsBytes(registro);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        Pendente pendente = new Pendente(payload, docId);
+        fila.add(pendente);
+        return pendente.confirmacao;
+    }
+
+    public Map<String, Object> estatisticas() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("habilitado", isHabilitado());
+        stats.put("posicaoGravada", posicaoGravada);
+        stats.put("posicaoDrenada", posicaoDrenada);
+        stats.put("bytesPendentes", posicaoGravada - posicaoDrenada);
+        stats.put("filaEscrita", fila.size());
+        stats.put("falhasConsecutivas", falhasConsecutivas);
+        stats.put("ultimoErro", ultimoErro);
+        stats.put("descartados", descartados.get());
+        return stats;
+    }
+
+    // --- Escrita com group commit ---
+
+    private void loopEscrita() {
+        List<Pendente> grupo = new ArrayList<>();
+        while (ativo || !fila.isEmpty()) {
+            try {
+                Pendente primeiro = fila.poll(100, TimeUnit.MILLISECONDS);
+                if (primeiro == null) {
+                    continue;
+                }
+                grupo.add(primeiro);
+                fila.drainTo(grupo, 1023);
+                gravarGrupo(grupo);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } finally {
+                grupo.clear();
+            }
+        }
+    }
+
+    private void gravarGrupo(List<Pendente> grupo) {
+        int total = 0;
+        for (Pendente p : grupo) {
+            total += CABECALHO + p.payload.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(total);
+        for (Pendente p : grupo) {
+            CRC32 crc = new CRC32();
+            crc.update(p.payload);
+            buffer.putInt(p.payload.length);
+            buffer.putInt((int) crc.getValue());
+            buffer.put(p.payload);
+        }
+        buffer.flip();
+
+        try {
+            synchronized (lockArquivo) {
+                while (buffer.hasRemaining()) {
+                    canal.write(buffer);
+                }
+                canal.force(false);
+                posicaoGravada = canal.position();
+            }
+            for (Pendente p : grupo) {
+                p.confirmacao.complete(p.docId);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            // Volta o arquivo para a última posição consistente
+            try {
+                synchronized (lockArquivo) {
+                    canal.truncate(posicaoGravada);
+                    canal.position(posicaoGravada);
+                }
+            } catch (IOException ignored) {
+            }
+            for (Pendente p : grupo) {
+                p.confirmacao.completeExceptionally(e);
+            }
+        }
+    }
+
+    // --- Drenagem para o Firestore ---
+
+    private void drenar() {
+        if (System.currentTimeMillis() < proximaTentativa) {
+            return;
+        }
+        try {
+            while (posicaoDrenada < posicaoGravada) {
+                List<Registro> lote = lerLote(posicaoDrenada, posicaoGravada, MAX_LOTE_FIRESTORE);
+                if (lote.isEmpty()) {
+                    break;
+                }
+                List<Registro> validos = new ArrayList<>(lote.size());
+                for (Registro r : lote) {
+                    if (r.motivo != null) {
+                        descartar(r, r.motivo);
+                    } else {
+                        validos.add(r);
+                    }
+                }
+                if (!validos.isEmpty()) {
+                    for (Map.Entry<Registro, String> recusado : enviarLote(validos).entrySet()) {
+                        descartar(recusado.getKey(), recusado.getValue());
+                    }
+                }
+                // Os descartados já estão no outro arquivo antes de o marcador passar por eles
+                posicaoDrenada = lote.get(lote.size() - 1).fim;
+                gravarMarcador(posicaoDrenada);
+            }
+            falhasConsecutivas = 0;
+            compactarSePossivel();
+        } catch (Exception e) {
+            falhasConsecutivas++;
+            ultimoErro = e.getMessage();
+            // Backoff exponencial até 30s enquanto o Firestore estiver indisponível
+            long espera = Math.min(30_000, 500L << Math.min(falhasConsecutivas, 6));
+            proximaTentativa = System.currentTimeMillis() + espera;
+            System.err.println("Journal de pontos: falha ao drenar (" + e.getMessage() + "), nova tentativa em " + espera + "ms");
+        }
+    }
+
+    // Retorna os registros recusados com erro permanente (e o motivo); erro transitório sobe para o backoff
+    private Map<Registro, String> enviarLote(List<Registro> lote) throws ExecutionException, InterruptedException {
+        WriteBatch batch = firestore.batch();
+        // Reenvios com a mesma chave de idempotência podem gerar dois registros com o mesmo docId
+        Set<String> documentos = new HashSet<>();
+        for (Registro r : lote) {
+            if (documentos.add(r.colecao + "/" + r.docId)) {
+                batch.create(firestore.collection(r.colecao).document(r.docId), r.ponto);
+            }
+        }
+        try {
+            // O lote pode misturar coleções; a métrica usa a do primeiro ponto
+            metricas.firestore("drenarJournal", lote.get(0).colecao, "todos", batch.commit()).get();
+            return Map.of();
+        } catch (ExecutionException e) {
+            if (!(e.getCause() instanceof AlreadyExistsException) && !permanente(e.getCause())) {
+                throw e;
+            }
+            // Parte do lote já tinha sido enviada antes de uma queda, ou há um registro que o Firestore
+            // recusa: reenvia um a um ignorando os existentes e separando os recusados
+            Map<Registro, String> recusados = new LinkedHashMap<>();
+            for (Registro r : lote) {
+                try {
+                    metricas.firestore("drenarJournalUnitario", r.colecao, "todos",
+                            firestore.collection(r.colecao).document(r.docId).create(r.ponto)).get();
+                } catch (ExecutionException ex) {
+                    if (permanente(ex.getCause())) {
+                        recusados.put(r, ex.getCause().getMessage());
+                    } else if (!(ex.getCause() instanceof AlreadyExistsException)) {
+                        throw ex;
+                    }
+                }
+            }
+            return recusados;
+        }
+    }
+
+    static boolean permanente(Throwable erro) {
+        return erro instanceof ApiException api && !(erro instanceof AlreadyExistsException)
+                && PERMANENTES.contains(api.getStatusCode().getCode());
+    }
+
+    // Uma linha JSON por registro (posição, motivo e bytes originais em base64), sincronizada antes de seguir
+    private void descartar(Registro registro, String motivo) throws IOException {
+        Map<String, Object> linha = new LinkedHashMap<>();
+        linha.put("posicao", registro.inicio);
+        linha.put("motivo", motivo);
+        linha.put("docId", registro.docId);
+        linha.put("payload", Base64.getEncoder().encodeToString(registro.payload));
+        byte[] bytes = (objectMapper.writeValueAsString(linha) + "\n").getBytes(StandardCharsets.UTF_8);
+        try (FileChannel ch = FileChannel.open(arquivoDescartados, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                ch.write(buffer);
+            }
+            ch.force(true);
+        }
+        descartados.incrementAndGet();
+        metricas.alerta("journalDescartado", "registro do journal de pontos na posição " + registro.inicio
+                + " movido para " + arquivoDescartados + ": " + motivo);
+    }
+
+    private void compactarSePossivel() throws IOException {
+        if (posicaoGravada < tamanhoCompactacao || posicaoDrenada < posicaoGravada) {
+            return;
+        }
+        synchronized (lockArquivo) {
+            // Confere de novo dentro do lock: nenhum registro novo chegou desde a drenagem
+            if (posicaoDrenada != canal.position()) {
+                return;
+            }
+            canal.truncate(0);
+            canal.position(0);
+            canal.force(true);
+            posicaoGravada = 0;
+            posicaoDrenada = 0;
+            gravarMarcador(0);
+        }
+    }
+
+    // --- Leitura do arquivo ---
+
+    private List<Registro> lerLote(long inicio, long fim, int max) throws IOException {
+        List<Registro> lote = new ArrayList<>();
+        long posicao = inicio;
+        ByteBuffer cabecalho = ByteBuffer.allocate(CABECALHO);
+        while (posicao < fim && lote.size() < max) {
+            int tamanho = -1;
+            int crcEsperado = 0;
+            if (posicao + CABECALHO <= fim) {
+                cabecalho.clear();
+                lerCompleto(cabecalho, posicao);
+                cabecalho.flip();
+                tamanho = cabecalho.getInt();
+                crcEsperado = cabecalho.getInt();
+            }
+            if (tamanho <= 0 || posicao + CABECALHO + tamanho > fim) {
+                // Cabeçalho ilegível: sem como achar o próximo registro, o resto do trecho vai junto
+                ByteBuffer resto = ByteBuffer.allocate((int) (fim - posicao));
+                lerCompleto(resto, posicao);
+                lote.add(Registro.veneno(resto.array(), posicao, fim, "cabeçalho inválido (tamanho " + tamanho + ")"));
+                break;
+            }
+
+            ByteBuffer payload = ByteBuffer.allocate(tamanho);
+            lerCompleto(payload, posicao + CABECALHO);
+            CRC32 crc = new CRC32();
+            crc.update(payload.array());
+            long inicioRegistro = posicao;
+            posicao += CABECALHO + tamanho;
+            if ((int) crc.getValue() != crcEsperado) {
+                lote.add(Registro.veneno(payload.array(), inicioRegistro, posicao, "CRC não confere"));
+                continue;
+            }
+            try {
+                lote.add(desserializar(payload.array(), inicioRegistro, posicao));
+            } catch (IOException | RuntimeException e) {
+                lote.add(Registro.veneno(payload.array(), inicioRegistro, posicao, "registro ilegível: " + e.getMessage()));
+            }
+        }
+        return lote;
+    }
+
+    private long ultimaPosicaoValida(long inicio) throws IOException {
+        long tamanhoArquivo = canal.size();
+        long posicao = inicio;
+        ByteBuffer cabecalho = ByteBuffer.allocate(CABECALHO);
+        while (posicao + CABECALHO <= tamanhoArquivo) {
+            cabecalho.clear();
+            lerCompleto(cabecalho, posicao);
+            cabecalho.flip();
+            int tamanho = cabecalho.getInt();
+            int crcEsperado = cabecalho.getInt();
+            if (tamanho <= 0 || posicao + CABECALHO + tamanho > tamanhoArquivo) {
+                break;
+            }
+            ByteBuffer payload = ByteBuffer.allocate(tamanho);
+            lerCompleto(payload, posicao + CABECALHO);
+            CRC32 crc = new CRC32();
+            crc.update(payload.array());
+            if ((int) crc.getValue() != crcEsperado && posicao + CABECALHO + tamanho == tamanhoArquivo) {
+                // Último registro com CRC errado: escrita interrompida. No meio do arquivo, fica para a drenagem
+                break;
+            }
+            posicao += CABECALHO + tamanho;
+        }
+        return posicao;
+    }
+
+    private void lerCompleto(ByteBuffer buffer, long posicao) throws IOException {
+        while (buffer.hasRemaining()) {
+            int lidos = canal.read(buffer, posicao + buffer.position());
+            if (lidos < 0) {
+                throw new IOException("Fim inesperado do journal de pontos");
+            }
+        }
+    }
+
+    // --- Marcador de drenagem ---
+
+    private long lerMarcador() throws IOException {
+        if (!Files.exists(arquivoMarcador)) {
+            return 0;
+        }
+        String conteudo = Files.readString(arquivoMarcador, StandardCharsets.UTF_8).trim();
+        long posicao = conteudo.isEmpty() ? 0 : Long.parseLong(conteudo);
+        return Math.min(posicao, canal.size());
+    }
+
+    private void gravarMarcador(long posicao) throws IOException {
+        Path temporario = arquivoMarcador.resolveSibling(arquivoMarcador.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(temporario, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ch.write(ByteBuffer.wrap(Long.toString(posicao).getBytes(StandardCharsets.UTF_8)));
+            ch.force(true);
+        }
+        Files.move(temporario, arquivoMarcador, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // --- Serialização ---
+
+    // Timestamp e serverTimestamp não passam por JSON: horaPonto vai como segundos/nanos e createdAt é recriado na drenagem
+    private Map<String, Object> serializarPonto(Map<String, Object> ponto) {
+        Map<String, Object> copia = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> campo : ponto.entrySet()) {
+            Object valor = campo.getValue();
+            if (valor instanceof Timestamp ts) {
+                copia.put(campo.getKey(), Map.of("_ts", true, "segundos", ts.getSeconds(), "nanos", ts.getNanos()));
+            } else if (!(valor instanceof FieldValue)) {
+                copia.put(campo.getKey(), valor);
+            }
+        }
+        return copia;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Registro desserializar(byte[] payload, long inicio, long fim) throws IOException {
+        Map<String, Object> registro = objectMapper.readValue(payload, new TypeReference<>() {
+        });
+        Map<String, Object> ponto = new HashMap<>();
+        for (Map.Entry<String, Object> campo : ((Map<String, Object>) registro.get("ponto")).entrySet()) {
+            Object valor = campo.getValue();
+            if (valor instanceof Map<?, ?> m && Boolean.TRUE.equals(m.get("_ts"))) {
+                valor = Timestamp.ofTimeSecondsAndNanos(((Number) m.get("segundos")).longValue(), ((Number) m.get("nanos")).intValue());
+            }
+            ponto.put(campo.getKey(), valor);
+        }
+        ponto.put("createdAt", FieldValue.serverTimestamp());
+        String colecao = (String) registro.get("colecao");
+        String docId = (String) registro.get("docId");
+        if (colecao == null || docId == null) {
+            throw new IOException("sem colecao/docId");
+        }
+        return new Registro(colecao, docId, ponto, payload, inicio, fim, null);
+    }
+
+    private static class Pendente {
+        private final byte[] payload;
+        private final String docId;
+        private final CompletableFuture<String> confirmacao = new CompletableFuture<>();
+
+        private Pendente(byte[] payload, String docId) {
+            this.payload = payload;
+            this.docId = docId;
+        }
+    }
+
+    private static class Registro {
+        private final String colecao;
+        private final String docId;
+        private final Map<String, Object> ponto;
+        private final byte[] payload;
+        private final long inicio;
+        private final long fim;
+        // Preenchido quando o registro não pode ser enviado (vai direto para os descartados)
+        private final String motivo;
+
+        private Registro(String colecao, String docId, Map<String, Object> ponto, byte[] payload, long inicio, long fim, String motivo) {
+            this.colecao = colecao;
+            this.docId = docId;
+            this.ponto = ponto;
+            this.payload = payload;
+            this.inicio = inicio;
+            this.fim = fim;
+            this.motivo = motivo;
+        }
+
+        private static Registro veneno(byte[] payload, long inicio, long fim, String motivo) {
+            return new Registro(null, null, null, payload, inicio, fim, motivo);
+        }
+    }
+}
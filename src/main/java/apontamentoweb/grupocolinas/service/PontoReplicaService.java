@@ -0,0 +1,412 @@
+package apontamentoweb.grupocolinas.service;
+
+import apontamentoweb.grupocolinas.dto.PaginaCursor;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.*;
+import com.google.cloud.firestore.EventListener;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Réplica em memória dos pontos pendentes de cada coleção pontos*, mantida por um snapshot
+ * listener do Firestore (status "Pendente" ou null, ver {@link PontoCursor#STATUS_PENDENTE}).
+ * <p>
+ * Os pendentes são poucos e muito lidos (listagem, contagem, filtro por posto e usuário), então
+ * as leituras são atendidas daqui com índices ordenados por (horaPonto, id): um geral, um por
+ * posto e um por idLogin, em estruturas concorrentes (leituras sem lock, escrita só na thread
+ * do listener). O cursor é o mesmo da consulta no Firestore ({@link PontoCursor}).
+ * <p>
+ * Ressincronização: se o listener cai, a réplica é marcada como não sincronizada (as leituras
+ * voltam para o Firestore) e um novo listener é aberto com backoff; o primeiro snapshot dele
+ * reconstrói os índices do zero e só então a réplica volta a atender. Quem observa a réplica
+ * (o feed SSE) recebe o estado completo nesse momento.
+ */
+@Service
+public class PontoReplicaService {
+
+    public interface Observador {
+        // Estado completo, a cada (re)sincronização do listener
+        void sincronizado(Collection<Map<String, Object>> pontos);
+
+        // tipo: added, modified ou removed (no removed, ponto traz só o id)
+        void mudou(String tipo, Map<String, Object> ponto);
+    }
+
+    private final Firestore firestore;
+    private final ClienteRegistry clientes;
+    private final boolean habilitada;
+    private final List<String> clientesIniciais;
+    private final ScheduledExecutorService executor;
+    private final Map<String, Replica> replicas = new ConcurrentHashMap<>();
+
+    @Autowired
+    public PontoReplicaService(Firestore firestore,
+                               ClienteRegistry clientes,
+                               @Value("${apontamento.replica.habilitada:true}") boolean habilitada,
+                               @Value("${apontamento.replica.clientes:}") List<String> clientesIniciais) {
+        this.firestore = firestore;
+        this.clientes = clientes;
+        this.habilitada = habilitada;
+        this.clientesIniciais = clientesIniciais;
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "replica-pontos");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PostConstruct
+    public void iniciar() {
+        if (habilitada) {
+            for (String cliente : clientesIniciais) {
+                if (!cliente.isBlank()) {
+                    replica(cliente.trim());
+                }
+            }
+        }
+    }
+
+    @PreDestroy
+    public void encerrar() {
+        for (Replica replica : replicas.values()) {
+            replica.desconectar();
+        }
+        executor.shutdownNow();
+    }
+
+    /** true quando a réplica do cliente está sincronizada e pode atender leituras. Abre o listener se preciso. */
+    public boolean disponivel(String cliente) {
+        return habilitada && replica(cliente).sincronizada;
+    }
+
+    /** Página de pendentes, mesma ordem e cursor da consulta no Firestore. posto/idLogin opcionais. */
+    public PaginaCursor<Map<String, Object>> listar(String cliente, String posto, String idLogin, int tamanho, String cursor, boolean miniatura) {
+        Indices indices = replica(cliente).indices;
+        NavigableSet<PontoCursor.Posicao> ordem = indices.ordem(posto, idLogin);
+        PontoCursor.Posicao inicio = PontoCursor.decodificar(cursor);
+        Iterator<PontoCursor.Posicao> it = (inicio != null ? ordem.tailSet(inicio, false) : ordem).iterator();
+
+        List<Map<String, Object>> pontos = new ArrayList<>(Math.min(tamanho, 256));
+        PontoCursor.Posicao ultima = null;
+        while (it.hasNext() && pontos.size() < tamanho) {
+            PontoCursor.Posicao posicao = it.next();
+            Entrada entrada = indices.porId.get(posicao.id);
+            if (entrada == null || !entrada.posicao.equals(posicao)) {
+                continue; // removido/alterado enquanto a página era montada
+            }
+            pontos.add(copia(entrada.ponto, miniatura));
+            ultima = posicao;
+        }
+        String proximo = pontos.size() == tamanho && it.hasNext() ? PontoCursor.codificar(ultima) : null;
+        return new PaginaCursor<>(pontos, proximo);
+    }
+
+    // Paginação por deslocamento (page/size); percorre o índice em memória
+    public List<Map<String, Object>> intervalo(String cliente, int inicio, int quantidade) {
+        Indices indices = replica(cliente).indices;
+        List<Map<String, Object>> pontos = new ArrayList<>(Math.min(quantidade, 256));
+        int posicao = 0;
+        for (PontoCursor.Posicao p : indices.porHora) {
+            if (pontos.size() == quantidade) {
+                break;
+            }
+            Entrada entrada = indices.porId.get(p.id);
+            if (entrada != null && posicao++ >= inicio) {
+                pontos.add(entrada.ponto);
+            }
+        }
+        return pontos;
+    }
+
+    public int contar(String cliente, String posto, String idLogin) {
+        return replica(cliente).indices.ordem(posto, idLogin).size();
+    }
+
+    /**
+     * Registra um observador da coleção do cliente; retorna a ação que cancela o registro.
+     * O estado de partida vem de {@link #estadoAtual}.
+     */
+    public Runnable observar(String cliente, Observador observador) {
+        Replica replica = replica(cliente);
+        replica.observadores.add(observador);
+        return () -> replica.observadores.remove(observador);
+    }
+
+    /**
+     * Entrega o estado atual ao destino pela thread do listener (ordenado em relação aos deltas
+     * entregues aos observadores). Não faz nada se a réplica não estiver sincronizada: nesse caso
+     * os observadores recebem o estado completo quando ela sincronizar.
+     */
+    public void estadoAtual(String cliente, Consumer<Collection<Map<String, Object>>> destino) {
+        Replica replica = replica(cliente);
+        executor.execute(() -> {
+            if (replica.sincronizada) {
+                destino.accept(replica.indices.todos());
+            }
+        });
+    }
+
+    public Map<String, Object> saude() {
+        Map<String, Object> saude = new LinkedHashMap<>();
+        boolean ok = true;
+        Map<String, Object> porColecao = new LinkedHashMap<>();
+        long agora = System.currentTimeMillis();
+        for (Replica replica : replicas.values()) {
+            Map<String, Object> r = new LinkedHashMap<>();
+            r.put("sincronizada", replica.sincronizada);
+            r.put("documentos", replica.indices.porId.size());
+            r.put("postos", replica.indices.porPosto.size());
+            r.put("usuarios", replica.indices.porIdLogin.size());
+            r.put("ultimaLeitura", replica.ultimaLeitura != null ? replica.ultimaLeitura.toDate().toInstant().toString() : null);
+            // Atraso entre o readTime do snapshot no Firestore e a aplicação na réplica
+            r.put("lagMs", replica.ultimoLagMs);
+            r.put("lagMaximoMs", replica.lagMaximoMs);
+            r.put("msDesdeUltimoSnapshot", replica.ultimoSnapshotEm > 0 ? agora - replica.ultimoSnapshotEm : null);
+            r.put("snapshots", replica.snapshots.get());
+            r.put("ressincronizacoes", replica.ressincronizacoes.get());
+            r.put("falhas", replica.falhas.get());
+            r.put("observadores", replica.observadores.size());
+            porColecao.put(replica.colecao, r);
+            ok &= replica.sincronizada;
+        }
+        saude.put("status", !habilitada ? "DESABILITADA" : ok ? "UP" : "DEGRADADA");
+        saude.put("colecoes", porColecao);
+        return saude;
+    }
+
+    private Replica replica(String cliente) {
+        String colecao = clientes.colecao("pontos", cliente);
+        return replicas.computeIfAbsent(colecao, c -> {
+            Replica nova = new Replica(c, cliente);
+            if (habilitada) {
+                nova.conectar();
+            }
+            return nova;
+        });
+    }
+
+    private static Map<String, Object> copia(Map<String, Object> ponto, boolean miniatura) {
+        Map<String, Object> copia = new HashMap<>(ponto);
+        if (!miniatura) {
+            copia.put("fotoUrl", copia.get("fotoOriginalUrl"));
+        }
+        return copia;
+    }
+
+    private static final class Entrada {
+        final PontoCursor.Posicao posicao;
+        final String posto;
+        final String idLogin;
+        final Map<String, Object> ponto;
+
+        Entrada(PontoCursor.Posicao posicao, String posto, String idLogin, Map<String, Object> ponto) {
+            this.posicao = posicao;
+            this.posto = posto;
+            this.idLogin = idLogin;
+            this.ponto = ponto;
+        }
+    }
+
+    // Índices de uma geração da réplica; trocados inteiros na ressincronização
+    private static final class Indices {
+        final Map<String, Entrada> porId = new ConcurrentHashMap<>();
+        final ConcurrentSkipListSet<PontoCursor.Posicao> porHora = new ConcurrentSkipListSet<>();
+        final Map<String, ConcurrentSkipListSet<PontoCursor.Posicao>> porPosto = new ConcurrentHashMap<>();
+        final Map<String, ConcurrentSkipListSet<PontoCursor.Posicao>> porIdLogin = new ConcurrentHashMap<>();
+
+        NavigableSet<PontoCursor.Posicao> ordem(String posto, String idLogin) {
+            if (posto == null && idLogin == null) {
+                return porHora;
+            }
+            NavigableSet<PontoCursor.Posicao> doUsuario = idLogin != null ? porIdLogin.get(idLogin) : null;
+            NavigableSet<PontoCursor.Posicao> doPosto = posto != null ? porPosto.get(posto) : null;
+            if (posto == null || idLogin == null) {
+                NavigableSet<PontoCursor.Posicao> indice = posto == null ? doUsuario : doPosto;
+                return indice != null ? indice : Collections.emptyNavigableSet();
+            }
+            if (doUsuario == null || doPosto == null) {
+                return Collections.emptyNavigableSet();
+            }
+            // Posto e usuário: percorre o menor dos dois índices filtrando pelo outro
+            NavigableSet<PontoCursor.Posicao> resultado = new TreeSet<>();
+            for (PontoCursor.Posicao p : doUsuario.size() <= doPosto.size() ? doUsuario : doPosto) {
+                Entrada e = porId.get(p.id);
+                if (e != null && posto.equals(e.posto) && idLogin.equals(e.idLogin)) {
+                    resultado.add(p);
+                }
+            }
+            return resultado;
+        }
+
+        void inserir(Entrada entrada) {
+            Entrada anterior = porId.put(entrada.posicao.id, entrada);
+            if (anterior != null) {
+                retirar(anterior);
+            }
+            porHora.add(entrada.posicao);
+            if (entrada.posto != null) {
+                porPosto.computeIfAbsent(entrada.posto, k -> new ConcurrentSkipListSet<>()).add(entrada.posicao);
+            }
+            if (entrada.idLogin != null) {
+                porIdLogin.computeIfAbsent(entrada.idLogin, k -> new ConcurrentSkipListSet<>()).add(entrada.posicao);
+            }
+        }
+
+        void remover(String id) {
+            Entrada anterior = porId.remove(id);
+            if (anterior != null) {
+                retirar(anterior);
+            }
+        }
+
+        private void retirar(Entrada entrada) {
+            porHora.remove(entrada.posicao);
+            retirar(porPosto, entrada.posto, entrada.posicao);
+            retirar(porIdLogin, entrada.idLogin, entrada.posicao);
+        }
+
+        private static void retirar(Map<String, ConcurrentSkipListSet<PontoCursor.Posicao>> indice, String chave, PontoCursor.Posicao posicao) {
+            if (chave == null) {
+                return;
+            }
+            ConcurrentSkipListSet<PontoCursor.Posicao> conjunto = indice.get(chave);
+            if (conjunto != null) {
+                conjunto.remove(posicao);
+                if (conjunto.isEmpty()) {
+                    indice.remove(chave, conjunto);
+                }
+            }
+        }
+
+        List<Map<String, Object>> todos() {
+            List<Map<String, Object>> todos = new ArrayList<>(porId.size());
+            for (PontoCursor.Posicao p : porHora) {
+                Entrada e = porId.get(p.id);
+                if (e != null) {
+                    todos.add(e.ponto);
+                }
+            }
+            return todos;
+        }
+    }
+
+    private final class Replica implements EventListener<QuerySnapshot> {
+        final String colecao;
+        final String cliente;
+        final Set<Observador> observadores = new CopyOnWriteArraySet<>();
+        volatile Indices indices = new Indices();
+        volatile boolean sincronizada;
+        volatile Timestamp ultimaLeitura;
+        volatile long ultimoLagMs;
+        volatile long lagMaximoMs;
+        volatile long ultimoSnapshotEm;
+        final AtomicLong snapshots = new AtomicLong();
+        final AtomicLong ressincronizacoes = new AtomicLong();
+        final AtomicLong falhas = new AtomicLong();
+
+        private ListenerRegistration registro;
+        private boolean aguardandoPrimeiro;
+        private long backoffMs = 1000;
+
+        Replica(String colecao, String cliente) {
+            this.colecao = colecao;
+            this.cliente = cliente;
+        }
+
+        synchronized void conectar() {
+            aguardandoPrimeiro = true;
+            registro = PontoCursor.somentePendentes(firestore.collection(colecao))
+                    .addSnapshotListener(executor, this);
+        }
+
+        synchronized void desconectar() {
+            sincronizada = false;
+            if (registro != null) {
+                registro.remove();
+                registro = null;
+            }
+        }
+
+        // Sempre na thread do executor (único), então não concorre com outra aplicação de snapshot
+        @Override
+        public void onEvent(QuerySnapshot snapshot, FirestoreException erro) {
+            if (erro != null) {
+                falhas.incrementAndGet();
+                System.err.println("Réplica de " + colecao + " perdeu o listener, ressincronizando em " + backoffMs + "ms: " + erro.getMessage());
+                desconectar();
+                executor.schedule(this::conectar, backoffMs, TimeUnit.MILLISECONDS);
+                backoffMs = Math.min(backoffMs * 2, 60_000);
+                return;
+            }
+            if (snapshot == null) {
+                return;
+            }
+            snapshots.incrementAndGet();
+
+            if (aguardandoPrimeiro) {
+                // Snapshot completo: nova geração dos índices, trocada de uma vez
+                Indices novos = new Indices();
+                for (DocumentSnapshot doc : snapshot.getDocuments()) {
+                    novos.inserir(entrada(doc));
+                }
+                indices = novos;
+                aguardandoPrimeiro = false;
+                sincronizada = true;
+                backoffMs = 1000;
+                ressincronizacoes.incrementAndGet();
+                List<Map<String, Object>> todos = novos.todos();
+                for (Observador observador : observadores) {
+                    notificar(() -> observador.sincronizado(todos));
+                }
+            } else {
+                Indices atuais = indices;
+                for (DocumentChange mudanca : snapshot.getDocumentChanges()) {
+                    QueryDocumentSnapshot doc = mudanca.getDocument();
+                    Map<String, Object> ponto;
+                    String tipo;
+                    if (mudanca.getType() == DocumentChange.Type.REMOVED) {
+                        atuais.remover(doc.getId());
+                        ponto = Map.of("id", doc.getId());
+                        tipo = "removed";
+                    } else {
+                        Entrada entrada = entrada(doc);
+                        atuais.inserir(entrada);
+                        ponto = entrada.ponto;
+                        tipo = mudanca.getType() == DocumentChange.Type.ADDED ? "added" : "modified";
+                    }
+                    for (Observador observador : observadores) {
+                        notificar(() -> observador.mudou(tipo, ponto));
+                    }
+                }
+            }
+
+            ultimaLeitura = snapshot.getReadTime();
+            ultimoSnapshotEm = System.currentTimeMillis();
+            ultimoLagMs = Math.max(0, ultimoSnapshotEm - ultimaLeitura.toDate().getTime());
+            lagMaximoMs = Math.max(lagMaximoMs, ultimoLagMs);
+        }
+
+        private Entrada entrada(DocumentSnapshot doc) {
+            // Registros antigos com horaPonto em texto vão para o fim, como no orderBy do Firestore
+            PontoCursor.Posicao posicao = PontoCursor.posicao(doc);
+            Map<String, Object> ponto = Collections.unmodifiableMap(FirestoreService.pontoParaListagem(doc, cliente, true));
+            return new Entrada(posicao, doc.getString("posto"), doc.getString("idLogin"), ponto);
+        }
+
+        private void notificar(Runnable acao) {
+            try {
+                acao.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
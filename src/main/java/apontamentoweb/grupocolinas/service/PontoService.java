@@ -1,7 +1,12 @@
 package apontamentoweb.grupocolinas.service;
 
+import apontamentoweb.grupocolinas.dto.PaginaCursor;
 import apontamentoweb.grupocolinas.model.entity.Ponto;
+import com.google.api.core.ApiFuture;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.AggregateQuerySnapshot;
 import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.Query;
 import com.google.cloud.firestore.QueryDocumentSnapshot;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
@@ -11,6 +16,7 @@ import org.springframework.stereotype.Service;
 
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
 import java.util.stream.Collectors;
 
@@ -20,24 +26,58 @@ public class PontoService {
     @Autowired
     private Firestore firestore;
 
-    // Método para obter o nome da coleção baseado no cliente
-    private String getColecaoPorCliente(String cliente) {
-        switch (cliente) {
-            case "colinas":
-                return "pontosCoLinas";
-            case "colinas25":
-                return "pontosCoLinas25";
-            default:
-                return "pontos";
+    @Autowired
+    private PontoReplicaService pontoReplicaService;
+
+    @Autowired
+    private MetricasService metricas;
+
+    @Autowired
+    private ClienteRegistry clientes;
+
+    @Autowired
+    private PontoHistoricoService pontoHistorico;
+
+    // Paginação por cursor: filtro, ordenação e limite executados no Firestore
+    public PaginaCursor<Ponto> listPontosPendentes(int tamanho, String cursor, String cliente) throws ExecutionException, InterruptedException {
+        if (pontoReplicaService.disponivel(cliente)) {
+            PaginaCursor<Map<String, Object>> pagina = pontoReplicaService.listar(cliente, null, null, tamanho, cursor, true);
+            return new PaginaCursor<>(pagina.getItens().stream().map(this::mapaToPonto).collect(Collectors.toList()), pagina.getProximoCursor());
         }
+
+        String colecao = clientes.colecao("pontos", cliente);
+
+        List<QueryDocumentSnapshot> documents = metricas.firestore("listarPendentes", colecao, cliente,
+                        PontoCursor.aplicar(PontoCursor.pendentes(firestore.collection(colecao)), cursor)
+                                .limit(tamanho)
+                                .get())
+                .get()
+                .getDocuments();
+
+        List<Ponto> pontos = documents.stream()
+                .map(this::documentToPonto)
+                .collect(Collectors.toList());
+
+        return new PaginaCursor<>(pontos, PontoCursor.proximo(documents, tamanho));
     }
 
+    // Paginação por número de página: offset/limit e total (count) calculados no Firestore
     public Page<Ponto> listPontosPaginados(int pagina, int tamanho, String cliente) throws ExecutionException, InterruptedException {
-        String colecao = getColecaoPorCliente(cliente);
+        if (pontoReplicaService.disponivel(cliente)) {
+            List<Ponto> pontos = pontoReplicaService.intervalo(cliente, pagina * tamanho, tamanho).stream()
+                    .map(this::mapaToPonto)
+                    .collect(Collectors.toList());
+            return new PageImpl<>(pontos, PageRequest.of(pagina, tamanho), pontoReplicaService.contar(cliente, null, null));
+        }
 
-        List<QueryDocumentSnapshot> documents = firestore.collection(colecao)
-                .whereEqualTo("status", "Pendente")
-                .get()
+        String colecao = clientes.colecao("pontos", cliente);
+        Query pendentes = PontoCursor.pendentes(firestore.collection(colecao));
+
+        ApiFuture<AggregateQuerySnapshot> total = metricas.firestore("contarPendentes", colecao, cliente, pendentes.count().get());
+        List<QueryDocumentSnapshot> documents = metricas.firestore("listarPendentesPaginado", colecao, cliente, pendentes
+                        .offset(pagina * tamanho)
+                        .limit(tamanho)
+                        .get())
                 .get()
                 .getDocuments();
 
@@ -45,45 +85,71 @@ public class PontoService {
                 .map(this::documentToPonto)
                 .collect(Collectors.toList());
 
-        int start = pagina * tamanho;
-        int end = Math.min(start + tamanho, pontos.size());
-
         return new PageImpl<>(
-                pontos.subList(start, end),
+                pontos,
                 PageRequest.of(pagina, tamanho),
-                pontos.size()
+                total.get().getCount()
         );
     }
 
     public void aprovarPonto(String pontoId, String aprovadoPor, String cliente) throws ExecutionException, InterruptedException {
-        String colecao = getColecaoPorCliente(cliente);
-        firestore.collection(colecao).document(pontoId).update(
+        String colecao = clientes.colecao("pontos", cliente);
+        metricas.firestore("aprovarPonto", colecao, cliente, firestore.collection(colecao).document(pontoId).update(
                 "status", "Aprovado",
                 "aprovadoPor", aprovadoPor,
                 "dataAprovacao", new Date()
-        );
+        ));
+        pontoHistorico.agendar(cliente, List.of(pontoId));
     }
 
     public void recusarPonto(String pontoId, String aprovadoPor, String cliente) throws ExecutionException, InterruptedException {
-        String colecao = getColecaoPorCliente(cliente);
-        firestore.collection(colecao).document(pontoId).update(
+        String colecao = clientes.colecao("pontos", cliente);
+        metricas.firestore("recusarPonto", colecao, cliente, firestore.collection(colecao).document(pontoId).update(
                 "status", "Recusado",
                 "aprovadoPor", aprovadoPor,
                 "dataAprovacao", new Date()
-        );
+        ));
+        pontoHistorico.agendar(cliente, List.of(pontoId));
     }
 
-    private Ponto documentToPonto(QueryDocumentSnapshot document) {
+    Ponto documentToPonto(QueryDocumentSnapshot document) {
         Ponto ponto = new Ponto();
         ponto.setId(document.getId());
         ponto.setIdLogin(document.getString("idLogin"));
         ponto.setUsuario(document.getString("usuario"));
-        ponto.setHoraPonto(document.getString("horaPonto"));
+        ponto.setHoraPonto(horaPontoComoTexto(document.get("horaPonto")));
         ponto.setFoto(document.getString("foto"));
+        ponto.setFotoHash(document.getString("fotoHash"));
+        ponto.setFotoMiniaturaHash(document.getString("fotoMiniaturaHash"));
         ponto.setSenhaPdv(document.getString("senhaPdv"));
         ponto.setStatus(document.getString("status"));
         ponto.setAprovadoPor(document.getString("aprovadoPor"));
         ponto.setDataAprovacao(document.getDate("dataAprovacao"));
         return ponto;
     }
+
+    // Item da réplica de pendentes (mesmos campos do documento, sem a foto em base64)
+    private Ponto mapaToPonto(Map<String, Object> dados) {
+        Ponto ponto = new Ponto();
+        ponto.setId((String) dados.get("id"));
+        ponto.setIdLogin((String) dados.get("idLogin"));
+        ponto.setUsuario(dados.get("usuario") != null ? dados.get("usuario").toString() : null);
+        ponto.setHoraPonto(horaPontoComoTexto(dados.get("horaPonto")));
+        ponto.setFotoHash((String) dados.get("fotoHash"));
+        ponto.setFotoMiniaturaHash((String) dados.get("fotoMiniaturaHash"));
+        ponto.setSenhaPdv((String) dados.get("senhaPdv"));
+        ponto.setStatus((String) dados.get("status"));
+        ponto.setAprovadoPor((String) dados.get("aprovadoPor"));
+        Object dataAprovacao = dados.get("dataAprovacao");
+        ponto.setDataAprovacao(dataAprovacao instanceof Timestamp ts ? ts.toDate() : dataAprovacao instanceof Date d ? d : null);
+        return ponto;
+    }
+
+    // horaPonto é gravado como Timestamp pelo /api/login; registros antigos podem ter String
+    private String horaPontoComoTexto(Object horaPonto) {
+        if (horaPonto instanceof Timestamp ts) {
+            return ts.toDate().toInstant().toString();
+        }
+        return horaPonto != null ? horaPonto.toString() : null;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,261 @@
+package apontamentoweb.grupocolinas.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Feed em tempo real dos pontos pendentes via Server-Sent Events.
+ * <p>
+ * Os deltas vêm da réplica dos pendentes ({@link PontoReplicaService}), que mantém o único
+ * snapshot listener do Firestore por coleção; cada delta (added/modified/removed) é
+ * serializado uma vez e distribuído a todos os inscritos. Cada inscrito tem uma fila limitada,
+ * esvaziada por um pool compartilhado; se a fila enche (cliente lento ou conexão presa), o
+ * inscrito é desconectado e o EventSource do navegador reconecta recebendo um snapshot novo.
+ * <p>
+ * Eventos: "snapshot" (lista completa, na inscrição e após reconexão do listener),
+ * "added"/"modified"/"removed" (um ponto) e comentários de keep-alive.
+ */
+@Service
+public class PontoStreamService {
+
+    private final PontoReplicaService pontoReplicaService;
+    private final ClienteRegistry clientes;
+    private final ObjectMapper objectMapper;
+    private final int capacidadeFila;
+    private final long timeoutMs;
+    private final ThreadPoolExecutor envio;
+    private final ScheduledExecutorService agendador;
+
+    private final Map<String, Canal> canais = new ConcurrentHashMap<>();
+
+    private final AtomicLong eventos = new AtomicLong();
+    private final AtomicLong desconectadosLentos = new AtomicLong();
+
+    @Autowired
+    public PontoStreamService(PontoReplicaService pontoReplicaService,
+                              ClienteRegistry clientes,
+                              ObjectMapper objectMapper,
+                              @Value("${apontamento.stream.fila-por-cliente:256}") int capacidadeFila,
+                              @Value("${apontamento.stream.threads:4}") int threads,
+                              @Value("${apontamento.stream.timeout-ms:1800000}") long timeoutMs,
+                              @Value("${apontamento.stream.keepalive-segundos:20}") int keepaliveSegundos) {
+        this.pontoReplicaService = pontoReplicaService;
+        this.clientes = clientes;
+        this.objectMapper = objectMapper;
+        this.capacidadeFila = capacidadeFila;
+        this.timeoutMs = timeoutMs;
+        AtomicInteger contador = new AtomicInteger();
+        this.envio = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                r -> {
+                    Thread t = new Thread(r, "sse-" + contador.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        this.envio.allowCoreThreadTimeOut(true);
+        this.agendador = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "sse-agendador");
+            t.setDaemon(true);
+            return t;
+        });
+        agendador.scheduleAtFixedRate(this::keepalive, keepaliveSegundos, keepaliveSegundos, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void encerrar() {
+        agendador.shutdownNow();
+        for (Canal canal : canais.values()) {
+            canal.fechar();
+        }
+        envio.shutdown();
+    }
+
+    public SseEmitter inscrever(String cliente) {
+        String colecao = clientes.colecao("pontos", cliente);
+        SseEmitter emitter = new SseEmitter(timeoutMs);
+        Inscrito inscrito = new Inscrito(emitter, capacidadeFila);
+
+        Canal canal;
+        synchronized (canais) {
+            canal = canais.computeIfAbsent(colecao, c -> new Canal(c, cliente));
+            canal.adicionar(inscrito);
+        }
+
+        Runnable remover = () -> remover(canal, inscrito);
+        emitter.onCompletion(remover);
+        emitter.onTimeout(remover);
+        emitter.onError(e -> remover.run());
+        return emitter;
+    }
+
+    public Map<String, Object> estatisticas() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        Map<String, Object> porColecao = new LinkedHashMap<>();
+        for (Canal canal : canais.values()) {
+            Map<String, Object> c = new LinkedHashMap<>();
+            c.put("inscritos", canal.inscritos.size());
+            porColecao.put(canal.colecao, c);
+        }
+        stats.put("colecoes", porColecao);
+        stats.put("eventos", eventos.get());
+        stats.put("desconectadosLentos", desconectadosLentos.get());
+        stats.put("filaEnvio", envio.getQueue().size());
+        return stats;
+    }
+
+    private void remover(Canal canal, Inscrito inscrito) {
+        inscrito.encerrado.set(true);
+        synchronized (canais) {
+            canal.inscritos.remove(inscrito);
+            if (canal.inscritos.isEmpty()) {
+                canal.fechar();
+                canais.remove(canal.colecao, canal);
+            }
+        }
+    }
+
+    private void keepalive() {
+        for (Canal canal : canais.values()) {
+            for (Inscrito inscrito : canal.inscritos) {
+                entregar(canal, inscrito, Evento.KEEPALIVE);
+            }
+        }
+    }
+
+    private void entregar(Canal canal, Inscrito inscrito, Evento evento) {
+        if (inscrito.encerrado.get()) {
+            return;
+        }
+        if (!inscrito.fila.offer(evento)) {
+            // Cliente não acompanha o ritmo: desconecta em vez de acumular memória.
+            // A remoção roda fora da thread do listener, que está segurando o lock do canal.
+            if (inscrito.encerrado.compareAndSet(false, true)) {
+                desconectadosLentos.incrementAndGet();
+                agendador.execute(() -> {
+                    remover(canal, inscrito);
+                    inscrito.emitter.complete();
+                });
+            }
+            return;
+        }
+        if (inscrito.agendado.compareAndSet(false, true)) {
+            envio.execute(() -> esvaziar(canal, inscrito));
+        }
+    }
+
+    // Envia tudo o que estiver na fila do inscrito; no máximo uma execução por inscrito ao mesmo tempo
+    private void esvaziar(Canal canal, Inscrito inscrito) {
+        try {
+            Evento evento;
+            while ((evento = inscrito.fila.poll()) != null) {
+                if (inscrito.encerrado.get()) {
+                    return;
+                }
+                if (evento == Evento.KEEPALIVE) {
+                    inscrito.emitter.send(SseEmitter.event().comment("keepalive"));
+                } else {
+                    inscrito.emitter.send(SseEmitter.event().id(Long.toString(evento.id)).name(evento.tipo).data(evento.json));
+                }
+            }
+        } catch (IOException | IllegalStateException e) {
+            // Conexão fechada pelo navegador
+            remover(canal, inscrito);
+            inscrito.emitter.completeWithError(e);
+        } finally {
+            inscrito.agendado.set(false);
+            if (!inscrito.fila.isEmpty() && !inscrito.encerrado.get() && inscrito.agendado.compareAndSet(false, true)) {
+                envio.execute(() -> esvaziar(canal, inscrito));
+            }
+        }
+    }
+
+    private String json(Object valor) {
+        try {
+            return objectMapper.writeValueAsString(valor);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class Evento {
+        static final Evento KEEPALIVE = new Evento(0, null, null);
+
+        final long id;
+        final String tipo;
+        final String json;
+
+        Evento(long id, String tipo, String json) {
+            this.id = id;
+            this.tipo = tipo;
+            this.json = json;
+        }
+    }
+
+    private static final class Inscrito {
+        final SseEmitter emitter;
+        final ArrayBlockingQueue<Evento> fila;
+        final AtomicBoolean agendado = new AtomicBoolean();
+        final AtomicBoolean encerrado = new AtomicBoolean();
+
+        Inscrito(SseEmitter emitter, int capacidade) {
+            this.emitter = emitter;
+            this.fila = new ArrayBlockingQueue<>(capacidade);
+        }
+    }
+
+    // Inscritos de uma coleção; recebe os deltas da réplica e serializa cada um uma única vez
+    private final class Canal implements PontoReplicaService.Observador {
+        final String colecao;
+        final String cliente;
+        final Set<Inscrito> inscritos = new CopyOnWriteArraySet<>();
+        final Runnable cancelar;
+        long sequencia;
+
+        Canal(String colecao, String cliente) {
+            this.colecao = colecao;
+            this.cliente = cliente;
+            this.cancelar = pontoReplicaService.observar(cliente, this);
+        }
+
+        void fechar() {
+            cancelar.run();
+        }
+
+        void adicionar(Inscrito inscrito) {
+            inscritos.add(inscrito);
+            pontoReplicaService.estadoAtual(cliente, pontos -> entregar(this, inscrito, snapshot(pontos)));
+        }
+
+        @Override
+        public void sincronizado(Collection<Map<String, Object>> pontos) {
+            Evento snapshot = snapshot(pontos);
+            for (Inscrito inscrito : inscritos) {
+                entregar(this, inscrito, snapshot);
+            }
+        }
+
+        @Override
+        public void mudou(String tipo, Map<String, Object> ponto) {
+            Evento evento = new Evento(++sequencia, tipo, json(ponto));
+            eventos.incrementAndGet();
+            for (Inscrito inscrito : inscritos) {
+                entregar(this, inscrito, evento);
+            }
+        }
+
+        private Evento snapshot(Collection<Map<String, Object>> pontos) {
+            return new Evento(sequencia, "snapshot", json(pontos));
+        }
+    }
+}
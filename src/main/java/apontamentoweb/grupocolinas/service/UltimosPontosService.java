@@ -0,0 +1,247 @@
+package apontamentoweb.grupocolinas.service;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Últimos pontos de cada funcionário, para suprimir o toque duplo no PDV: um ponto a menos
+ * de apontamento.ponto.intervalo-minimo-segundos de outro do mesmo idLogin é respondido
+ * com o ponto original, sem foto nem gravação.
+ * <p>
+ * A tabela é de endereçamento aberto com chave long (hash de 64 bits da coleção do cliente e do
+ * idLogin: o idLogin não é único entre postos) e cada posição guarda um anel com os últimos N pontos
+ * (horaPonto e id do documento) em arrays paralelos, sem objeto por ponto. O anel cobre
+ * pontos que chegam fora de ordem (PDV reenviando pontos guardados offline). Na
+ * inicialização é aquecida com os pontos recentes das coleções pontos* de cada cliente.
+ */
+@Service
+public class UltimosPontosService {
+
+    private static final int CAPACIDADE_INICIAL = 1024;
+
+    private final Firestore firestore;
+    private final ClienteRegistry clientes;
+    private final MetricasService metricas;
+    private final long intervaloMinimoMs;
+    private final int porFuncionario;
+    private final long aquecimentoMs;
+
+    // Posição i: chaves[i]; anel em horarios/pontoIds[i * porFuncionario ...], próximo índice em cursores[i]
+    private boolean[] ocupadas;
+    private long[] chaves;
+    private int[] cursores;
+    private long[] horarios;
+    private String[] pontoIds;
+    private int tamanho;
+
+    private final AtomicLong suprimidos = new AtomicLong();
+    private final AtomicLong aquecidos = new AtomicLong();
+
+    @Autowired
+    public UltimosPontosService(Firestore firestore, ClienteRegistry clientes, MetricasService metricas,
+                                @Value("${apontamento.ponto.intervalo-minimo-segundos:60}") long intervaloMinimoSegundos,
+                                @Value("${apontamento.ponto.ultimos.por-funcionario:4}") int porFuncionario,
+                                @Value("${apontamento.ponto.ultimos.aquecimento-minutos:30}") long aquecimentoMinutos) {
+        this.firestore = firestore;
+        this.clientes = clientes;
+        this.metricas = metricas;
+        this.intervaloMinimoMs = TimeUnit.SECONDS.toMillis(intervaloMinimoSegundos);
+        this.porFuncionario = Math.max(1, porFuncionario);
+        this.aquecimentoMs = Math.max(intervaloMinimoMs, TimeUnit.MINUTES.toMillis(aquecimentoMinutos));
+        alocar(CAPACIDADE_INICIAL);
+    }
+
+    public boolean isHabilitado() {
+        return intervaloMinimoMs > 0;
+    }
+
+    /** Ponto anterior do funcionário dentro do intervalo mínimo. */
+    public record Anterior(String pontoId, long horaPontoMs) {
+    }
+
+    @PostConstruct
+    public void aquecer() {
+        if (!isHabilitado()) {
+            return;
+        }
+        Timestamp desde = Timestamp.ofTimeMicroseconds(TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis() - aquecimentoMs));
+        for (ClienteRegistry.Cliente cliente : clientes.todos()) {
+            String colecao = cliente.colecao("pontos");
+            FirestoreFutures.paraCompletable(metricas.firestore("aquecerUltimosPontos", colecao, cliente.getId(),
+                            firestore.collection(colecao)
+                                    .whereGreaterThanOrEqualTo("horaPonto", desde)
+                                    .select("idLogin", "horaPonto")
+                                    .get()))
+                    .whenComplete((snapshot, erro) -> {
+                        if (erro != null) {
+                            System.err.println("Últimos pontos: falha ao aquecer " + colecao + ": " + erro.getMessage());
+                            return;
+                        }
+                        for (QueryDocumentSnapshot doc : snapshot.getDocuments()) {
+                            Timestamp horaPonto = doc.getTimestamp("horaPonto");
+                            String idLogin = doc.getString("idLogin");
+                            if (horaPonto != null && idLogin != null) {
+                                adicionar(colecao, idLogin, horaPonto.toDate().getTime(), doc.getId());
+                                aquecidos.incrementAndGet();
+                            }
+                        }
+                    });
+        }
+    }
+
+    /**
+     * Se o funcionário tem um ponto a menos do intervalo mínimo deste, retorna esse ponto;
+     * senão reserva este ponto no anel (para um segundo toque simultâneo já ser suprimido)
+     * e retorna null. O reenvio do mesmo ponto (mesmo id, vindo da chave de idempotência)
+     * não é suprimido: segue para a gravação, que é idempotente.
+     */
+    public synchronized Anterior verificarERegistrar(String colecao, String idLogin, long horaPontoMs, String pontoId) {
+        int posicao = posicao(chave(colecao, idLogin), true);
+        int base = posicao * porFuncionario;
+        int maisProximo = -1;
+        long menorDiferenca = intervaloMinimoMs;
+        for (int k = 0; k < porFuncionario; k++) {
+            if (pontoIds[base + k] != null) {
+                long diferenca = Math.abs(horaPontoMs - horarios[base + k]);
+                if (diferenca < menorDiferenca) {
+                    menorDiferenca = diferenca;
+                    maisProximo = base + k;
+                }
+            }
+        }
+        if (maisProximo >= 0 && pontoId.equals(pontoIds[maisProximo])) {
+            return null;
+        }
+        if (maisProximo >= 0) {
+            suprimidos.incrementAndGet();
+            return new Anterior(pontoIds[maisProximo], horarios[maisProximo]);
+        }
+        gravarNoAnel(posicao, horaPontoMs, pontoId);
+        return null;
+    }
+
+    /** Desfaz a reserva de um ponto cuja gravação falhou, para o novo toque do funcionário ser aceito. */
+    public synchronized void remover(String colecao, String idLogin, String pontoId) {
+        int posicao = posicao(chave(colecao, idLogin), false);
+        if (posicao < 0) {
+            return;
+        }
+        int base = posicao * porFuncionario;
+        for (int k = 0; k < porFuncionario; k++) {
+            if (pontoId.equals(pontoIds[base + k])) {
+                pontoIds[base + k] = null;
+            }
+        }
+    }
+
+    public synchronized Map<String, Object> estatisticas() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("habilitado", isHabilitado());
+        stats.put("intervaloMinimoSegundos", TimeUnit.MILLISECONDS.toSeconds(intervaloMinimoMs));
+        stats.put("funcionarios", tamanho);
+        stats.put("suprimidos", suprimidos.get());
+        stats.put("aquecidos", aquecidos.get());
+        return stats;
+    }
+
+    private synchronized void adicionar(String colecao, String idLogin, long horaPontoMs, String pontoId) {
+        int posicao = posicao(chave(colecao, idLogin), true);
+        int base = posicao * porFuncionario;
+        for (int k = 0; k < porFuncionario; k++) {
+            if (pontoId.equals(pontoIds[base + k])) {
+                return;
+            }
+        }
+        gravarNoAnel(posicao, horaPontoMs, pontoId);
+    }
+
+    private void gravarNoAnel(int posicao, long horaPontoMs, String pontoId) {
+        int indice = posicao * porFuncionario + cursores[posicao];
+        horarios[indice] = horaPontoMs;
+        pontoIds[indice] = pontoId;
+        cursores[posicao] = (cursores[posicao] + 1) % porFuncionario;
+    }
+
+    // FNV-1a de 64 bits sobre colecao + '|' + idLogin (texto exato: "0123" e "123" são funcionários diferentes)
+    static long chave(String colecao, String idLogin) {
+        long hash = 0xcbf29ce484222325L;
+        hash = misturar(hash, colecao);
+        hash = (hash ^ '|') * 0x100000001b3L;
+        hash = misturar(hash, idLogin);
+        // Finalização do MurmurHash3: espalha os bits antes do mascaramento da tabela
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static long misturar(long hash, String texto) {
+        for (int i = 0; i < texto.length(); i++) {
+            hash = (hash ^ texto.charAt(i)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private int posicao(long chave, boolean criar) {
+        int mascara = chaves.length - 1;
+        int i = espalhar(chave) & mascara;
+        while (ocupadas[i]) {
+            if (chaves[i] == chave) {
+                return i;
+            }
+            i = (i + 1) & mascara;
+        }
+        if (!criar) {
+            return -1;
+        }
+        if ((tamanho + 1) * 2 > chaves.length) {
+            redimensionar();
+            return posicao(chave, true);
+        }
+        ocupadas[i] = true;
+        chaves[i] = chave;
+        tamanho++;
+        return i;
+    }
+
+    private static int espalhar(long chave) {
+        long h = chave * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private void alocar(int capacidade) {
+        ocupadas = new boolean[capacidade];
+        chaves = new long[capacidade];
+        cursores = new int[capacidade];
+        horarios = new long[capacidade * porFuncionario];
+        pontoIds = new String[capacidade * porFuncionario];
+        tamanho = 0;
+    }
+
+    private void redimensionar() {
+        boolean[] ocupadasAntigas = ocupadas;
+        long[] chavesAntigas = chaves;
+        int[] cursoresAntigos = cursores;
+        long[] horariosAntigos = horarios;
+        String[] pontoIdsAntigos = pontoIds;
+        alocar(chavesAntigas.length * 2);
+        for (int antiga = 0; antiga < chavesAntigas.length; antiga++) {
+            if (ocupadasAntigas[antiga]) {
+                int nova = posicao(chavesAntigas[antiga], true);
+                cursores[nova] = cursoresAntigos[antiga];
+                System.arraycopy(horariosAntigos, antiga * porFuncionario, horarios, nova * porFuncionario, porFuncionario);
+                System.arraycopy(pontoIdsAntigos, antiga * porFuncionario, pontoIds, nova * porFuncionario, porFuncionario);
+            }
+        }
+    }
+}
@@ -0,0 +1,368 @@
+package apontamentoweb.grupocolinas.service;
+
+import com.google.api.core.ApiFuture;
+import com.google.cloud.firestore.*;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Diretório em memória dos usuários (idLogin -> campos do cadastro usados no registro de ponto e na
+ * jornada). Foto, senha e o resto do documento não ficam em memória: quem precisa deles usa
+ * {@link #buscarDocumento(String)}, que vai ao Firestore.
+ * <p>
+ * Mantido atualizado por um snapshot listener na coleção "users" e invalidado
+ * diretamente pelo UsuarioController. Limitado a um número máximo de idLogins
+ * (LRU); quando o listener cai, as entradas passam a expirar pelo TTL. Uma entrada tem sempre
+ * todos os documentos do idLogin: o listener só altera entradas já carregadas, e um idLogin fora
+ * do cache (nunca lido ou removido pelo LRU) é carregado inteiro na próxima busca.
+ */
+@Service
+public class UserDirectoryService {
+
+    private static final String COLECAO_USUARIOS = "users";
+    private static final String[] CAMPOS = {
+            "idLogin", "name", "senhaPdv", "posto", "ativo", "horarioEntrada", "horarioSaida", "escala"
+    };
+
+    private final Firestore firestore;
+    private final MetricasService metricas;
+    private final int maxEntradas;
+    private final long ttlMillis;
+
+    // idLogin -> usuários (pode haver mais de um usuário com o mesmo login em postos diferentes)
+    private final LinkedHashMap<String, Entrada> porIdLogin;
+    // id do documento -> idLogin, para invalidar por id e tratar troca de idLogin
+    private final Map<String, String> idLoginPorDocumento = new HashMap<>();
+    // Muda a cada alteração vinda do listener ou invalidação; uma busca só publica se nada mudou desde
+    // que começou, senão poderia gravar por cima de uma versão mais nova o que leu antes dela
+    private long geracao = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong expirados = new AtomicLong();
+    private final AtomicLong evicoes = new AtomicLong();
+    private final AtomicLong invalidacoes = new AtomicLong();
+
+    private volatile ListenerRegistration listener;
+    private volatile boolean listenerAtivo = false;
+    private volatile long ultimaTentativaListener = 0;
+
+    @Autowired
+    public UserDirectoryService(Firestore firestore,
+                                MetricasService metricas,
+                                @Value("${apontamento.usuarios.cache.max-entradas:5000}") int maxEntradas,
+                                @Value("${apontamento.usuarios.cache.ttl-segundos:300}") long ttlSegundos) {
+        this.firestore = firestore;
+        this.metricas = metricas;
+        this.maxEntradas = maxEntradas;
+        this.ttlMillis = TimeUnit.SECONDS.toMillis(ttlSegundos);
+        this.porIdLogin = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entrada> eldest) {
+                if (size() > UserDirectoryService.this.maxEntradas) {
+                    for (Usuario usuario : eldest.getValue().usuarios) {
+                        idLoginPorDocumento.remove(usuario.id());
+                    }
+                    evicoes.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    @PostConstruct
+    public void iniciar() {
+        registrarListener();
+    }
+
+    @PreDestroy
+    public void encerrar() {
+        ListenerRegistration atual = listener;
+        if (atual != null) {
+            atual.remove();
+        }
+        listenerAtivo = false;
+    }
+
+    /** Campos do cadastro mantidos em memória. */
+    public record Usuario(String id, String idLogin, String nome, String senhaPdv, String posto, boolean ativo,
+                          String horarioEntrada, String horarioSaida, String escala) {
+
+        static Usuario de(DocumentSnapshot doc) {
+            return new Usuario(doc.getId(), texto(doc.get("idLogin")), texto(doc.get("name")), texto(doc.get("senhaPdv")),
+                    texto(doc.get("posto")), "1".equals(texto(doc.get("ativo"))), texto(doc.get("horarioEntrada")),
+                    texto(doc.get("horarioSaida")), texto(doc.get("escala")));
+        }
+
+        private static String texto(Object valor) {
+            return valor != null ? valor.toString() : null;
+        }
+    }
+
+    /**
+     * Retorna o primeiro usuário com o idLogin informado, ou null se não existir.
+     */
+    public Usuario buscar(String idLogin) throws ExecutionException, InterruptedException, TimeoutException {
+        List<Usuario> usuarios = buscarTodos(idLogin);
+        return usuarios.isEmpty() ? null : usuarios.get(0);
+    }
+
+    /**
+     * Retorna todos os usuários com o idLogin informado (lista vazia se não existir).
+     */
+    public List<Usuario> buscarTodos(String idLogin) throws ExecutionException, InterruptedException, TimeoutException {
+        return buscarTodosAsync(idLogin).get(5, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Documento completo (com senha e foto) do primeiro usuário com o idLogin, direto do Firestore.
+     */
+    public DocumentSnapshot buscarDocumento(String idLogin) throws ExecutionException, InterruptedException, TimeoutException {
+        if (idLogin == null) {
+            return null;
+        }
+        List<QueryDocumentSnapshot> documentos = metricas.firestore("buscarDocumentoUsuario", COLECAO_USUARIOS, "todos",
+                firestore.collection(COLECAO_USUARIOS)
+                        .whereEqualTo("idLogin", idLogin)
+                        .limit(1)
+                        .get()).get(5, TimeUnit.SECONDS).getDocuments();
+        return documentos.isEmpty() ? null : documentos.get(0);
+    }
+
+    /**
+     * Versão assíncrona de {@link #buscar(String)}: em caso de hit o future já vem completo,
+     * em caso de miss completa quando a consulta ao Firestore retornar.
+     */
+    public CompletableFuture<Usuario> buscarAsync(String idLogin) {
+        return buscarTodosAsync(idLogin).thenApply(usuarios -> usuarios.isEmpty() ? null : usuarios.get(0));
+    }
+
+    public CompletableFuture<List<Usuario>> buscarTodosAsync(String idLogin) {
+        if (idLogin == null) {
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        }
+
+        long geracaoInicial;
+        synchronized (this) {
+            geracaoInicial = geracao;
+            Entrada entrada = porIdLogin.get(idLogin);
+            if (entrada != null) {
+                if (listenerAtivo || System.currentTimeMillis() - entrada.carregadoEm < ttlMillis) {
+                    hits.incrementAndGet();
+                    return CompletableFuture.completedFuture(entrada.usuarios);
+                }
+                expirados.incrementAndGet();
+            } else {
+                misses.incrementAndGet();
+            }
+        }
+
+        if (!listenerAtivo) {
+            tentarReconectarListener();
+        }
+
+        ApiFuture<QuerySnapshot> consulta = metricas.firestore("buscarUsuarioPorIdLogin", COLECAO_USUARIOS, "todos",
+                firestore.collection(COLECAO_USUARIOS)
+                        .select(CAMPOS)
+                        .whereEqualTo("idLogin", idLogin)
+                        .get());
+
+        return FirestoreFutures.paraCompletable(consulta).thenApply(snapshot -> {
+            List<Usuario> usuarios = new ArrayList<>(snapshot.size());
+            for (DocumentSnapshot doc : snapshot.getDocuments()) {
+                usuarios.add(Usuario.de(doc));
+            }
+            if (!usuarios.isEmpty()) {
+                synchronized (this) {
+                    if (geracao == geracaoInicial) {
+                        substituir(idLogin, usuarios);
+                    }
+                }
+            }
+            return Collections.unmodifiableList(usuarios);
+        });
+    }
+
+    // --- Invalidação (chamada pelo UsuarioController) ---
+
+    public synchronized void invalidar(String idLogin) {
+        if (idLogin == null) {
+            return;
+        }
+        geracao++;
+        Entrada removida = porIdLogin.remove(idLogin);
+        if (removida != null) {
+            for (Usuario usuario : removida.usuarios) {
+                idLoginPorDocumento.remove(usuario.id());
+            }
+        }
+        invalidacoes.incrementAndGet();
+    }
+
+    public synchronized void invalidarPorId(String idDocumento) {
+        geracao++;
+        String idLogin = idLoginPorDocumento.get(idDocumento);
+        if (idLogin != null) {
+            invalidar(idLogin);
+        }
+    }
+
+    public Map<String, Object> estatisticas() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (this) {
+            stats.put("entradas", porIdLogin.size());
+        }
+        stats.put("maxEntradas", maxEntradas);
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("expirados", expirados.get());
+        stats.put("evicoes", evicoes.get());
+        stats.put("invalidacoes", invalidacoes.get());
+        stats.put("listenerAtivo", listenerAtivo);
+        return stats;
+    }
+
+    // --- Snapshot listener ---
+
+    private void registrarListener() {
+        ultimaTentativaListener = System.currentTimeMillis();
+        try {
+            boolean[] primeiro = {true};
+            listener = firestore.collection(COLECAO_USUARIOS).select(CAMPOS).addSnapshotListener((snapshot, erro) -> {
+                if (erro != null) {
+                    System.err.println("Listener de usuários interrompido: " + erro.getMessage());
+                    listenerAtivo = false;
+                    return;
+                }
+                if (snapshot != null) {
+                    if (primeiro[0]) {
+                        // O primeiro snapshot traz a coleção inteira: cada idLogin chega com todos os documentos
+                        carregarTudo(snapshot.getDocuments());
+                        primeiro[0] = false;
+                    } else {
+                        aplicarMudancas(snapshot.getDocumentChanges());
+                    }
+                    listenerAtivo = true;
+                }
+            });
+        } catch (Exception e) {
+            e.printStackTrace();
+            listenerAtivo = false;
+        }
+    }
+
+    private void tentarReconectarListener() {
+        if (System.currentTimeMillis() - ultimaTentativaListener < TimeUnit.SECONDS.toMillis(30)) {
+            return;
+        }
+        synchronized (this) {
+            if (listenerAtivo || System.currentTimeMillis() - ultimaTentativaListener < TimeUnit.SECONDS.toMillis(30)) {
+                return;
+            }
+            ListenerRegistration antigo = listener;
+            if (antigo != null) {
+                antigo.remove();
+            }
+            registrarListener();
+        }
+    }
+
+    // Troca o cache pela coleção agrupada por idLogin (entradas de antes podem ter ficado velhas com o
+    // listener fora); com mais idLogins que o limite, o LRU fica com os últimos grupos
+    synchronized void carregarTudo(List<? extends DocumentSnapshot> documentos) {
+        geracao++;
+        porIdLogin.clear();
+        idLoginPorDocumento.clear();
+        Map<String, List<Usuario>> grupos = new LinkedHashMap<>();
+        for (DocumentSnapshot doc : documentos) {
+            String idLogin = Usuario.texto(doc.get("idLogin"));
+            if (idLogin != null) {
+                grupos.computeIfAbsent(idLogin, k -> new ArrayList<>()).add(Usuario.de(doc));
+            }
+        }
+        for (Map.Entry<String, List<Usuario>> grupo : grupos.entrySet()) {
+            substituir(grupo.getKey(), grupo.getValue());
+        }
+    }
+
+    synchronized void aplicarMudancas(List<DocumentChange> mudancas) {
+        geracao++;
+        for (DocumentChange mudanca : mudancas) {
+            QueryDocumentSnapshot doc = mudanca.getDocument();
+            String idAnterior = idLoginPorDocumento.get(doc.getId());
+
+            // Remove o documento da entrada anterior (remoção ou troca de idLogin)
+            if (idAnterior != null) {
+                removerDocumento(idAnterior, doc.getId());
+            }
+
+            if (mudanca.getType() == DocumentChange.Type.REMOVED) {
+                continue;
+            }
+
+            String idLogin = Usuario.texto(doc.get("idLogin"));
+            if (idLogin == null) {
+                continue;
+            }
+
+            // idLogin fora do cache: a entrada teria só este documento; a próxima busca carrega todos.
+            // Sem entrada porque este era o único documento dela, a entrada volta completa
+            Entrada entrada = porIdLogin.get(idLogin);
+            if (entrada == null && !idLogin.equals(idAnterior)) {
+                continue;
+            }
+            List<Usuario> usuarios = entrada != null ? new ArrayList<>(entrada.usuarios) : new ArrayList<>();
+            usuarios.add(Usuario.de(doc));
+            substituir(idLogin, usuarios);
+        }
+    }
+
+    private void removerDocumento(String idLogin, String idDocumento) {
+        idLoginPorDocumento.remove(idDocumento);
+        Entrada entrada = porIdLogin.get(idLogin);
+        if (entrada == null) {
+            return;
+        }
+        List<Usuario> restantes = new ArrayList<>(entrada.usuarios);
+        restantes.removeIf(u -> u.id().equals(idDocumento));
+        if (restantes.isEmpty()) {
+            porIdLogin.remove(idLogin);
+        } else {
+            porIdLogin.put(idLogin, new Entrada(restantes));
+        }
+    }
+
+    private void substituir(String idLogin, List<Usuario> usuarios) {
+        Entrada anterior = porIdLogin.get(idLogin);
+        if (anterior != null) {
+            for (Usuario usuario : anterior.usuarios) {
+                idLoginPorDocumento.remove(usuario.id());
+            }
+        }
+        for (Usuario usuario : usuarios) {
+            idLoginPorDocumento.put(usuario.id(), idLogin);
+        }
+        porIdLogin.put(idLogin, new Entrada(usuarios));
+    }
+
+    private static class Entrada {
+        private final List<Usuario> usuarios;
+        private final long carregadoEm;
+
+        private Entrada(List<Usuario> usuarios) {
+            this.usuarios = Collections.unmodifiableList(usuarios);
+            this.carregadoEm = System.currentTimeMillis();
+        }
+    }
+}
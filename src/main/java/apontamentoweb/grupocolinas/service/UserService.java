@@ -3,13 +3,14 @@ package apontamentoweb.grupocolinas.service;
 
 
 import apontamentoweb.grupocolinas.model.entity.User;
+import com.google.cloud.firestore.DocumentSnapshot;
 import com.google.cloud.firestore.Firestore;
-import com.google.cloud.firestore.QueryDocumentSnapshot;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
 
 @Service
@@ -18,9 +19,14 @@ public class UserService {
     @Autowired
     private Firestore firestore;
 
+    @Autowired
+    private UserDirectoryService userDirectoryService;
+
+    @Autowired
+    private MetricasService metricas;
+
     public List<User> listAllUsers() throws ExecutionException, InterruptedException {
-        return firestore.collection("users")
-                .get()
+        return metricas.firestore("listarUsuarios", "users", "todos", firestore.collection("users").get())
                 .get()
                 .getDocuments()
                 .stream()
@@ -28,19 +34,12 @@ public class UserService {
                 .collect(Collectors.toList());
     }
 
-    public User getUserByIdLogin(String idLogin) throws ExecutionException, InterruptedException {
-        return firestore.collection("users")
-                .whereEqualTo("idLogin", idLogin)
-                .get()
-                .get()
-                .getDocuments()
-                .stream()
-                .findFirst()
-                .map(this::documentToUser)
-                .orElse(null);
+    public User getUserByIdLogin(String idLogin) throws ExecutionException, InterruptedException, TimeoutException {
+        DocumentSnapshot document = userDirectoryService.buscarDocumento(idLogin);
+        return document != null ? documentToUser(document) : null;
     }
 
-    private User documentToUser(QueryDocumentSnapshot document) {
+    User documentToUser(DocumentSnapshot document) {
         User user = new User();
         user.setUid(document.getId());
         user.setIdLogin(document.getString("idLogin"));
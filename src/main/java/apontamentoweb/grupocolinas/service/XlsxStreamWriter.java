@@ -0,0 +1,119 @@
+package apontamentoweb.grupocolinas.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Escritor mínimo de XLSX em streaming: uma única planilha, células de texto inline
+ * (sem sharedStrings), cada linha vai direto para o zip. A memória usada não depende
+ * do número de linhas.
+ */
+public class XlsxStreamWriter implements AutoCloseable {
+
+    private final ZipOutputStream zip;
+    private final Writer xml;
+    private int linha = 0;
+
+    public XlsxStreamWriter(OutputStream saida, String nomePlanilha) throws IOException {
+        this.zip = new ZipOutputStream(saida, StandardCharsets.UTF_8);
+        this.xml = new OutputStreamWriter(zip, StandardCharsets.UTF_8);
+
+        escreverEntrada("[Content_Types].xml",
+                "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>"
+                        + "<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">"
+                        + "<Default Extension=\"rels\" ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/>"
+                        + "<Default Extension=\"xml\" ContentType=\"application/xml\"/>"
+                        + "<Override PartName=\"/xl/workbook.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.sheet.main+xml\"/>"
+                        + "<Override PartName=\"/xl/worksheets/sheet1.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.worksheet+xml\"/>"
+                        + "</Types>");
+        escreverEntrada("_rels/.rels",
+                "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>"
+                        + "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">"
+                        + "<Relationship Id=\"rId1\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/officeDocument\" Target=\"xl/workbook.xml\"/>"
+                        + "</Relationships>");
+        escreverEntrada("xl/workbook.xml",
+                "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>"
+                        + "<workbook xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\" "
+                        + "xmlns:r=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships\">"
+                        + "<sheets><sheet name=\"" + escapar(nomePlanilha) + "\" sheetId=\"1\" r:id=\"rId1\"/></sheets>"
+                        + "</workbook>");
+        escreverEntrada("xl/_rels/workbook.xml.rels",
+                "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>"
+                        + "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">"
+                        + "<Relationship Id=\"rId1\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/worksheet\" Target=\"worksheets/sheet1.xml\"/>"
+                        + "</Relationships>");
+
+        zip.putNextEntry(new ZipEntry("xl/worksheets/sheet1.xml"));
+        xml.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>"
+                + "<worksheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\"><sheetData>");
+    }
+
+    public void escreverLinha(Object... celulas) throws IOException {
+        linha++;
+        xml.write("<row r=\"");
+        xml.write(Integer.toString(linha));
+        xml.write("\">");
+        for (Object celula : celulas) {
+            if (celula == null) {
+                xml.write("<c/>");
+            } else if (celula instanceof Number numero) {
+                xml.write("<c><v>");
+                xml.write(numero.toString());
+                xml.write("</v></c>");
+            } else {
+                xml.write("<c t=\"inlineStr\"><is><t>");
+                xml.write(escapar(celula.toString()));
+                xml.write("</t></is></c>");
+            }
+        }
+        xml.write("</row>");
+    }
+
+    public void flush() throws IOException {
+        xml.flush();
+        zip.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        xml.write("</sheetData></worksheet>");
+        xml.flush();
+        zip.closeEntry();
+        zip.finish();
+        zip.flush();
+    }
+
+    private void escreverEntrada(String nome, String conteudo) throws IOException {
+        zip.putNextEntry(new ZipEntry(nome));
+        zip.write(conteudo.getBytes(StandardCharsets.UTF_8));
+        zip.closeEntry();
+    }
+
+    private static String escapar(String texto) {
+        StringBuilder sb = null;
+        for (int i = 0; i < texto.length(); i++) {
+            char c = texto.charAt(i);
+            String troca = switch (c) {
+                case '&' -> "&amp;";
+                case '<' -> "&lt;";
+                case '>' -> "&gt;";
+                case '"' -> "&quot;";
+                default -> (c < 0x20 && c != '\t' && c != '\n' && c != '\r') ? "" : null;
+            };
+            if (troca != null) {
+                if (sb == null) {
+                    sb = new StringBuilder(texto.length() + 16).append(texto, 0, i);
+                }
+                sb.append(troca);
+            } else if (sb != null) {
+                sb.append(c);
+            }
+        }
+        return sb == null ? texto : sb.toString();
+    }
+}
@@ -0,0 +1,113 @@
+package apontamentoweb.grupocolinas.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ArquivoColunarTests {
+
+	private static final long INICIO = 1_704_067_200_000L; // 2024-01-01T00:00:00Z
+	private static final long HORA = 3_600_000L;
+
+	@TempDir
+	Path pasta;
+
+	@Test
+	void idaEVoltaPreservaTodasAsLinhas() throws IOException {
+		Random aleatorio = new Random(42);
+		List<ArquivoColunar.Linha> linhas = new ArrayList<>();
+		for (int i = 0; i < 3 * ArquivoColunar.LINHAS_POR_GRUPO + 17; i++) {
+			String idLogin = "f" + aleatorio.nextInt(200);
+			long hora = INICIO + aleatorio.nextInt(31 * 24) * HORA + aleatorio.nextInt(3_600_000);
+			linhas.add(new ArquivoColunar.Linha(idLogin, hora,
+					i % 5 == 0 ? null : hora + aleatorio.nextInt(10 * 24) * HORA,
+					i % 7 == 0 ? null : (i % 3 == 0 ? "Recusado" : "Aprovado"),
+					i % 4 == 0 ? null : "gestor" + aleatorio.nextInt(5),
+					i % 11 == 0 ? null : "Funcionário " + idLogin,
+					"ponto" + i,
+					i % 2 == 0 ? null : hash(aleatorio),
+					i % 9 == 0 ? "Esqueceu o crachá — ação" : null));
+		}
+		List<ArquivoColunar.Linha> esperadas = new ArrayList<>(linhas);
+		esperadas.sort(Comparator.comparing(ArquivoColunar.Linha::idLogin).thenComparingLong(ArquivoColunar.Linha::horaPontoMs));
+
+		ArquivoColunar.Leitor leitor = gravar(linhas);
+		assertEquals(esperadas.size(), leitor.linhas());
+
+		List<ArquivoColunar.Linha> lidas = new ArrayList<>();
+		int grupos = leitor.consultar(null, Long.MIN_VALUE, Long.MAX_VALUE, lidas::add);
+		assertEquals(4, grupos);
+		assertEquals(esperadas, lidas);
+	}
+
+	@Test
+	void filtroDeIdLoginEPeriodoSoDescomprimeOsGruposQueCruzam() throws IOException {
+		// 3 grupos cheios, um funcionário por grupo (as linhas são ordenadas por idLogin)
+		List<ArquivoColunar.Linha> linhas = new ArrayList<>();
+		for (String idLogin : List.of("a", "b", "c")) {
+			for (int i = 0; i < ArquivoColunar.LINHAS_POR_GRUPO; i++) {
+				linhas.add(linha(idLogin, INICIO + i * HORA / 4, idLogin + i));
+			}
+		}
+		ArquivoColunar.Leitor leitor = gravar(linhas);
+
+		List<ArquivoColunar.Linha> lidas = new ArrayList<>();
+		int grupos = leitor.consultar("b", INICIO + 10 * HORA, INICIO + 11 * HORA, lidas::add);
+		assertEquals(1, grupos);
+		assertEquals(List.of("b40", "b41", "b42", "b43"), lidas.stream().map(ArquivoColunar.Linha::pontoId).toList());
+
+		// Período fora das estatísticas de todos os grupos: nada é descomprimido
+		assertEquals(0, leitor.consultar(null, INICIO - 10 * HORA, INICIO, l -> fail()));
+		// idLogin fora do dicionário
+		assertEquals(0, leitor.consultar("z", Long.MIN_VALUE, Long.MAX_VALUE, l -> fail()));
+	}
+
+	@Test
+	void periodoEFechadoNoInicioEAbertoNoFim() throws IOException {
+		ArquivoColunar.Leitor leitor = gravar(new ArrayList<>(List.of(
+				linha("a", INICIO, "p1"), linha("a", INICIO + HORA, "p2"), linha("a", INICIO + 2 * HORA, "p3"))));
+
+		List<String> lidas = new ArrayList<>();
+		leitor.consultar("a", INICIO + HORA, INICIO + 2 * HORA, l -> lidas.add(l.pontoId()));
+		assertEquals(List.of("p2"), lidas);
+	}
+
+	@Test
+	void arquivoVazio() throws IOException {
+		ArquivoColunar.Leitor leitor = gravar(new ArrayList<>());
+		assertEquals(0, leitor.linhas());
+		assertEquals(0, leitor.consultar(null, Long.MIN_VALUE, Long.MAX_VALUE, l -> fail()));
+	}
+
+	@Test
+	void arquivoInvalidoERecusado() throws IOException {
+		Path arquivo = pasta.resolve("invalido.pcol");
+		Files.write(arquivo, new byte[64]);
+		assertThrows(IOException.class, () -> ArquivoColunar.abrir(arquivo));
+	}
+
+	private ArquivoColunar.Leitor gravar(List<ArquivoColunar.Linha> linhas) throws IOException {
+		Path arquivo = Files.createTempFile(pasta, "mes", ".pcol");
+		try (OutputStream saida = Files.newOutputStream(arquivo)) {
+			ArquivoColunar.escrever(saida, linhas);
+		}
+		return ArquivoColunar.abrir(arquivo);
+	}
+
+	private static ArquivoColunar.Linha linha(String idLogin, long hora, String pontoId) {
+		return new ArquivoColunar.Linha(idLogin, hora, hora + HORA, "Aprovado", "gestor", "Nome " + idLogin, pontoId, null, null);
+	}
+
+	private static String hash(Random aleatorio) {
+		byte[] bytes = new byte[32];
+		aleatorio.nextBytes(bytes);
+		return HexFormat.of().formatHex(bytes);
+	}
+}
@@ -0,0 +1,130 @@
+package apontamentoweb.grupocolinas.service;
+
+import com.google.api.core.ApiFutures;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.*;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class ArquivoLegalExportServiceTests {
+
+	private static final long INICIO = LocalDateTime.of(2024, 5, 1, 0, 0).atZone(PlanilhaService.ZONA).toEpochSecond();
+	private static final long FIM = LocalDateTime.of(2024, 6, 1, 0, 0).atZone(PlanilhaService.ZONA).toEpochSecond();
+
+	private final Firestore firestore = mock(Firestore.class);
+	private final MetricasService metricas = mock(MetricasService.class);
+	private final EfetivadoLegadoService legados = mock(EfetivadoLegadoService.class);
+	private final Query consulta = mock(Query.class);
+	private ClienteRegistry clientes;
+	private ArquivoLegalExportService export;
+
+	@BeforeEach
+	void criar() throws Exception {
+		clientes = new ClienteRegistry(new MockEnvironment(), new SimpleMeterRegistry());
+		CollectionReference colecao = mock(CollectionReference.class);
+		when(firestore.collection("pontosFfetivados")).thenReturn(colecao);
+		when(colecao.select(any(String[].class))).thenReturn(consulta);
+		when(consulta.whereGreaterThanOrEqualTo(anyString(), any())).thenReturn(consulta);
+		when(consulta.whereLessThan(anyString(), any())).thenReturn(consulta);
+		when(consulta.orderBy(anyString())).thenReturn(consulta);
+		when(consulta.limit(anyInt())).thenReturn(consulta);
+		when(metricas.firestore(anyString(), anyString(), anyString(), any())).thenAnswer(chamada -> chamada.getArgument(3));
+		when(legados.ler(anyString(), any(), anyString())).thenReturn(List.of());
+		export = new ArquivoLegalExportService(firestore, clientes, metricas, legados, 100, "", "apontamento-web", "1.0", "", "", "");
+	}
+
+	@AfterEach
+	void encerrar() {
+		clientes.encerrar();
+	}
+
+	@Test
+	void pontoDecididoDuasVezesSaiUmaVezComAUltimaDecisao() throws Exception {
+		pagina(efetivado("p1", "123", 8, "Aprovado", 10),
+				efetivado("p1", "123", 8, "Recusado", 20),
+				efetivado("p2", "456", 8, "Aprovado", 15));
+
+		List<String> marcacoes = percorrer();
+
+		assertEquals(List.of("123@08:00:false", "456@08:00:true"), marcacoes);
+	}
+
+	@Test
+	void faltaAbonoEBancoDeHorasNaoViramMarcacao() throws Exception {
+		pagina(efetivado(null, "123", 0, "Falta", 10),
+				efetivado("p1", "123", 8, "Aprovado", 10),
+				efetivado(null, "123", 12, "Abonado", 10),
+				efetivado(null, "123", 17, "Banco de Horas", 10),
+				efetivado("p2", "123", 17, "Pendente", 10));
+
+		assertEquals(List.of("123@08:00:true"), percorrer());
+	}
+
+	@Test
+	void legadoSegueAMesmaRegra() throws Exception {
+		pagina(efetivado("p1", "123", 8, "Aprovado", 10));
+		// Efetivados antigos só têm pontoId, status e data; horaPonto vem do ponto original
+		List<EfetivadoLegadoService.Legado> antigos = List.of(legado("p1", 8, "Recusado"), legado(null, 9, "Falta"));
+		when(legados.ler(anyString(), any(), anyString())).thenReturn(antigos);
+
+		assertEquals(List.of("123@08:00:false"), percorrer());
+	}
+
+	private List<String> percorrer() throws Exception {
+		List<String> marcacoes = new ArrayList<>();
+		export.percorrer("default", INICIO, FIM, new ArquivoLegalExportService.Marcacoes() {
+			@Override
+			public void marcacao(String idLogin, long epochSegundos, boolean valida) {
+				marcacoes.add(idLogin + "@" + Instant.ofEpochSecond(epochSegundos).atZone(PlanilhaService.ZONA).toLocalTime() + ":" + valida);
+			}
+
+			@Override
+			public void finalizar() {
+			}
+		});
+		return marcacoes;
+	}
+
+	private void pagina(QueryDocumentSnapshot... docs) {
+		QuerySnapshot snapshot = mock(QuerySnapshot.class);
+		when(snapshot.getDocuments()).thenReturn(List.of(docs));
+		when(consulta.get()).thenReturn(ApiFutures.immediateFuture(snapshot));
+	}
+
+	private static EfetivadoLegadoService.Legado legado(String pontoId, int hora, String status) {
+		QueryDocumentSnapshot efetivado = mock(QueryDocumentSnapshot.class);
+		when(efetivado.getString("pontoId")).thenReturn(pontoId);
+		when(efetivado.getString("status")).thenReturn(status);
+		when(efetivado.get("data")).thenReturn(Date.from(LocalDateTime.of(2024, 5, 10, 19, 0).atZone(PlanilhaService.ZONA).toInstant()));
+		long horaPontoMs = LocalDateTime.of(2024, 5, 10, hora, 0).atZone(PlanilhaService.ZONA).toInstant().toEpochMilli();
+		return new EfetivadoLegadoService.Legado(efetivado, pontoId, "123", "Fulano", horaPontoMs, null);
+	}
+
+	private static QueryDocumentSnapshot efetivado(String pontoId, String idLogin, int hora, String status, int minutoDecisao) {
+		Timestamp horaPonto = Timestamp.ofTimeSecondsAndNanos(
+				LocalDateTime.of(2024, 5, 10, hora, 0).atZone(PlanilhaService.ZONA).toEpochSecond(), 0);
+		Timestamp decisao = Timestamp.ofTimeSecondsAndNanos(
+				LocalDateTime.of(2024, 5, 10, 18, minutoDecisao).atZone(PlanilhaService.ZONA).toEpochSecond(), 0);
+		QueryDocumentSnapshot doc = mock(QueryDocumentSnapshot.class);
+		when(doc.getString("pontoId")).thenReturn(pontoId);
+		when(doc.getString("idLogin")).thenReturn(idLogin);
+		when(doc.getString("status")).thenReturn(status);
+		when(doc.get("horaPonto")).thenReturn(horaPonto);
+		when(doc.getTimestamp("horaPonto")).thenReturn(horaPonto);
+		when(doc.get("Recusado".equals(status) ? "dataRecusa" : "dataAprovacao")).thenReturn(decisao);
+		return doc;
+	}
+}
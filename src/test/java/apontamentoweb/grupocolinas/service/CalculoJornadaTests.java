@@ -0,0 +1,124 @@
+package apontamentoweb.grupocolinas.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.params.provider.Arguments.arguments;
+
+class CalculoJornadaTests {
+
+	private static final ZoneId ZONA = ZoneId.of("America/Sao_Paulo");
+	private static final int TOLERANCIA_MARCACAO = 5 * 60;
+	private static final int TOLERANCIA_DIARIA = 10 * 60;
+	private static final int HORA = 3600;
+	private static final int MINUTO = 60;
+
+	private static final CalculoJornada.Escala COMERCIAL = CalculoJornada.escala("08:00", "17:00", "5x2", 60);
+	private static final CalculoJornada.Escala NOTURNO = CalculoJornada.escala("19:00", "07:00", "12/36", 60);
+
+	// Maio/2024: dia 6 é segunda-feira, dia 11 é sábado (folga na 5x2)
+	static Stream<Arguments> casos() {
+		return Stream.of(
+				// nome, escala, mês, batidas, dia, trabalhado, atraso, extra, batidas aceitas, incompleto
+				arguments("noturno atravessa a meia-noite e o fim do mês", NOTURNO, YearMonth.of(2024, 1),
+						new String[]{"2024-01-31T19:00", "2024-02-01T07:00"}, 31, 12 * HORA, 0, HORA, 2, false),
+				arguments("noturno atravessa a meia-noite no meio do mês", NOTURNO, YearMonth.of(2024, 5),
+						new String[]{"2024-05-14T19:00", "2024-05-15T01:00", "2024-05-15T02:00", "2024-05-15T07:00"},
+						14, 11 * HORA, 0, 0, 4, false),
+				arguments("toque duplo a menos de 5 min é descartado", COMERCIAL, YearMonth.of(2024, 5),
+						new String[]{"2024-05-06T08:00", "2024-05-06T08:03", "2024-05-06T12:00", "2024-05-06T13:00", "2024-05-06T17:00"},
+						6, 8 * HORA, 0, 0, 4, false),
+				arguments("batida exatamente 5 min depois não é duplicada", COMERCIAL, YearMonth.of(2024, 5),
+						new String[]{"2024-05-06T08:00", "2024-05-06T08:05", "2024-05-06T17:00"},
+						6, 5 * MINUTO, 0, 0, 3, true),
+				arguments("saída ausente deixa o dia incompleto", COMERCIAL, YearMonth.of(2024, 5),
+						new String[]{"2024-05-06T08:00"}, 6, 0, 0, 0, 1, true),
+				arguments("saída ausente não contamina o dia seguinte", COMERCIAL, YearMonth.of(2024, 5),
+						new String[]{"2024-05-06T08:00", "2024-05-07T08:00", "2024-05-07T12:00", "2024-05-07T13:00", "2024-05-07T17:00"},
+						7, 8 * HORA, 0, 0, 4, false),
+				arguments("atraso de 5 min fica na tolerância", COMERCIAL, YearMonth.of(2024, 5),
+						new String[]{"2024-05-06T08:05", "2024-05-06T12:00", "2024-05-06T13:00", "2024-05-06T17:00"},
+						6, 7 * HORA + 55 * MINUTO, 0, 0, 4, false),
+				arguments("atraso de 6 min conta inteiro", COMERCIAL, YearMonth.of(2024, 5),
+						new String[]{"2024-05-06T08:06", "2024-05-06T12:00", "2024-05-06T13:00", "2024-05-06T17:00"},
+						6, 7 * HORA + 54 * MINUTO, 6 * MINUTO, 0, 4, false),
+				arguments("10 min a mais no dia ficam na tolerância", COMERCIAL, YearMonth.of(2024, 5),
+						new String[]{"2024-05-06T08:00", "2024-05-06T12:00", "2024-05-06T13:00", "2024-05-06T17:10"},
+						6, 8 * HORA + 10 * MINUTO, 0, 0, 4, false),
+				arguments("11 min a mais no dia viram extra", COMERCIAL, YearMonth.of(2024, 5),
+						new String[]{"2024-05-06T08:00", "2024-05-06T12:00", "2024-05-06T13:00", "2024-05-06T17:11"},
+						6, 8 * HORA + 11 * MINUTO, 0, 11 * MINUTO, 4, false),
+				arguments("trabalho na folga conta inteiro como extra", COMERCIAL, YearMonth.of(2024, 5),
+						new String[]{"2024-05-11T09:00", "2024-05-11T13:00"}, 11, 4 * HORA, 0, 4 * HORA, 2, false)
+		);
+	}
+
+	@ParameterizedTest(name = "{0}")
+	@MethodSource("casos")
+	void calculaODia(String nome, CalculoJornada.Escala escala, YearMonth mes, String[] horarios, int dia,
+					 int trabalhado, int atraso, int extra, int aceitas, boolean incompleto) {
+		CalculoJornada.Resultado r = calcular(escala, mes, mes.atDay(1), horarios);
+		int i = dia - 1;
+		assertEquals(trabalhado, r.trabalhado[i], "trabalhado");
+		assertEquals(atraso, r.atraso[i], "atraso");
+		assertEquals(extra, r.extra[i], "extra");
+		assertEquals(aceitas, r.batidas[i], "batidas");
+		assertEquals(incompleto, r.incompleto[i], "incompleto");
+		assertEquals(Arrays.stream(r.trabalhado).sum(), r.totalTrabalhado);
+		assertEquals(Arrays.stream(r.extra).sum(), r.totalExtra);
+	}
+
+	@Test
+	void noturnoDoUltimoDiaNaoEntraNoMesSeguinte() {
+		CalculoJornada.Resultado r = calcular(NOTURNO, YearMonth.of(2024, 2), LocalDate.of(2024, 2, 1),
+				"2024-01-31T19:00", "2024-02-01T07:00");
+		assertEquals(0, r.diasTrabalhados);
+		assertEquals(0, r.totalTrabalhado);
+	}
+
+	@Test
+	void saidaAusenteNaoGeraExtraNemSaidaAntecipada() {
+		CalculoJornada.Resultado r = calcular(COMERCIAL, YearMonth.of(2024, 5), LocalDate.of(2024, 5, 1),
+				"2024-05-06T08:00", "2024-05-06T12:00", "2024-05-06T13:00");
+		assertTrue(r.incompleto[5]);
+		assertEquals(1, r.diasIncompletos);
+		assertEquals(0, r.extra[5]);
+		assertEquals(0, r.saidaAntecipada[5]);
+	}
+
+	@Test
+	void folgaNaoEntraNaCargaEsperada() {
+		CalculoJornada.Resultado r = calcular(COMERCIAL, YearMonth.of(2024, 5), LocalDate.of(2024, 5, 1),
+				"2024-05-11T09:00", "2024-05-11T13:00");
+		assertEquals(1, r.diasTrabalhados);
+		assertEquals(0, r.totalAtraso);
+		// Só os 23 dias úteis de maio/2024; o sábado trabalhado não soma carga
+		assertEquals(23L * 8 * HORA, r.totalEsperado);
+	}
+
+	@Test
+	void faltasSoContamDiasJaEncerrados() {
+		// Hoje = quarta 8/5: segunda 6 e terça 7 sem batidas são faltas; dias 1 a 3 (qua a sex) também
+		CalculoJornada.Resultado r = calcular(COMERCIAL, YearMonth.of(2024, 5), LocalDate.of(2024, 5, 8));
+		assertEquals(5, r.faltas);
+	}
+
+	private static CalculoJornada.Resultado calcular(CalculoJornada.Escala escala, YearMonth mes, LocalDate hoje, String... horarios) {
+		long[] batidas = new long[horarios.length];
+		for (int i = 0; i < horarios.length; i++) {
+			batidas[i] = LocalDateTime.parse(horarios[i]).atZone(ZONA).toEpochSecond();
+		}
+		Arrays.sort(batidas);
+		return CalculoJornada.calcular(batidas, batidas.length, escala, mes, ZONA, TOLERANCIA_MARCACAO, TOLERANCIA_DIARIA, hoje);
+	}
+}
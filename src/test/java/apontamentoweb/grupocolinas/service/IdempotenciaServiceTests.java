@@ -0,0 +1,50 @@
+package apontamentoweb.grupocolinas.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IdempotenciaServiceTests {
+
+	private final IdempotenciaService idempotencia = new IdempotenciaService(900, 15, 200_000);
+
+	@Test
+	void mesmaChaveDoMesmoFuncionarioGeraMesmoDocumento() {
+		IdempotenciaService.Chave primeira = idempotencia.chave("pontos", "42", "123", "2024-05-01T08:00:00");
+		IdempotenciaService.Chave reenvio = idempotencia.chave("pontos", " 42 ", "123", "2024-05-01T08:00:01");
+		assertEquals(primeira, reenvio);
+	}
+
+	@Test
+	void mesmaChaveDoPdvParaFuncionariosDiferentesNaoColide() {
+		IdempotenciaService.Chave primeiro = idempotencia.chave("pontos", "42", "123", null);
+		IdempotenciaService.Chave segundo = idempotencia.chave("pontos", "42", "456", null);
+		assertNotEquals(primeiro.docId(), segundo.docId());
+		assertNotEquals(primeiro.impressao(), segundo.impressao());
+
+		idempotencia.registrar(primeiro);
+		assertTrue(idempotencia.contem(primeiro));
+		assertFalse(idempotencia.contem(segundo));
+	}
+
+	@Test
+	void separadorNoIdLoginNaoColide() {
+		IdempotenciaService.Chave a = idempotencia.chave("pontos", "b|c", "a", null);
+		IdempotenciaService.Chave b = idempotencia.chave("pontos", "c", "a|b", null);
+		assertNotEquals(a.docId(), b.docId());
+	}
+
+	@Test
+	void mesmaChaveEmOutroClienteNaoColide() {
+		assertNotEquals(idempotencia.chave("pontos", "42", "123", null).docId(),
+				idempotencia.chave("pontos_colinas25", "42", "123", null).docId());
+	}
+
+	@Test
+	void semChaveDerivaDeIdLoginEHoraPonto() {
+		IdempotenciaService.Chave chave = idempotencia.chave("pontos", null, "123", "2024-05-01T08:00:00");
+		assertEquals(chave, idempotencia.chave("pontos", "  ", "123", "2024-05-01T08:00:00"));
+		assertNotEquals(chave, idempotencia.chave("pontos", null, "456", "2024-05-01T08:00:00"));
+		assertNull(idempotencia.chave("pontos", null, "123", null));
+	}
+}
@@ -0,0 +1,110 @@
+package apontamentoweb.grupocolinas.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.YearMonth;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class PlanilhaCacheServiceTests {
+
+	private static final YearMonth FECHADO = YearMonth.now(PlanilhaService.ZONA).minusMonths(2);
+
+	@TempDir
+	Path diretorio;
+
+	private final PlanilhaService planilhaService = mock(PlanilhaService.class);
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private ClienteRegistry clientes;
+	private PlanilhaCacheService cache;
+
+	@BeforeEach
+	void criar() {
+		clientes = new ClienteRegistry(new MockEnvironment(), new SimpleMeterRegistry());
+		cache = new PlanilhaCacheService(planilhaService, clientes, objectMapper, diretorio.toString(), true);
+	}
+
+	@AfterEach
+	void encerrar() {
+		clientes.encerrar();
+	}
+
+	@Test
+	void mesFechadoEGeradoUmaVezEPublicado() throws Exception {
+		when(planilhaService.obterPlanilha(anyInt(), anyInt(), eq("default"))).thenReturn(planilha("v1"));
+
+		PlanilhaCacheService.ArquivoMapeado primeiro = cache.obter(FECHADO.getYear(), FECHADO.getMonthValue(), "default");
+		PlanilhaCacheService.ArquivoMapeado segundo = cache.obter(FECHADO.getYear(), FECHADO.getMonthValue(), "default");
+
+		assertSame(primeiro, segundo);
+		assertEquals(planilha("v1"), ler(segundo));
+		assertTrue(Files.isRegularFile(diretorio.resolve("default").resolve(FECHADO + ".json.gz")));
+		verify(planilhaService, times(1)).obterPlanilha(anyInt(), anyInt(), eq("default"));
+	}
+
+	@Test
+	void invalidacaoDuranteALeituraServeOResultadoSemPublicar() throws Exception {
+		when(planilhaService.obterPlanilha(anyInt(), anyInt(), eq("default")))
+				.thenAnswer(chamada -> {
+					// Aprovação tardia commitada enquanto a planilha era lida
+					cache.invalidar("default", List.of(FECHADO));
+					return planilha("antiga");
+				})
+				.thenReturn(planilha("nova"));
+
+		PlanilhaCacheService.ArquivoMapeado lido = cache.obter(FECHADO.getYear(), FECHADO.getMonthValue(), "default");
+
+		assertNotNull(lido, "o resultado já gerado é servido, sem nova leitura do Firestore");
+		assertEquals(planilha("antiga"), ler(lido));
+		assertFalse(Files.exists(diretorio.resolve("default").resolve(FECHADO + ".json.gz")));
+		assertEquals(0, ((Number) cache.estatisticas().get("mapeados")).intValue());
+
+		assertEquals(planilha("nova"), ler(cache.obter(FECHADO.getYear(), FECHADO.getMonthValue(), "default")));
+		verify(planilhaService, times(2)).obterPlanilha(anyInt(), anyInt(), eq("default"));
+	}
+
+	@Test
+	void invalidacaoDescartaArquivoEMapeamento() throws Exception {
+		when(planilhaService.obterPlanilha(anyInt(), anyInt(), eq("default")))
+				.thenReturn(planilha("v1"))
+				.thenReturn(planilha("v2"));
+
+		cache.obter(FECHADO.getYear(), FECHADO.getMonthValue(), "default");
+		cache.invalidar("default", List.of(FECHADO));
+
+		assertFalse(Files.exists(diretorio.resolve("default").resolve(FECHADO + ".json.gz")));
+		assertEquals(planilha("v2"), ler(cache.obter(FECHADO.getYear(), FECHADO.getMonthValue(), "default")));
+	}
+
+	@Test
+	void mesCorrenteNaoUsaCache() throws Exception {
+		YearMonth atual = YearMonth.now(PlanilhaService.ZONA);
+		assertNull(cache.obter(atual.getYear(), atual.getMonthValue(), "default"));
+		verifyNoInteractions(planilhaService);
+	}
+
+	private static Map<String, Map<String, List<Map<String, Object>>>> planilha(String versao) {
+		return Map.of("123", Map.of("01", List.of(Map.of("versao", versao))));
+	}
+
+	private Object ler(PlanilhaCacheService.ArquivoMapeado arquivo) throws Exception {
+		try (InputStream entrada = new GZIPInputStream(arquivo.getInputStream())) {
+			return objectMapper.readValue(entrada, Map.class);
+		}
+	}
+}
@@ -0,0 +1,150 @@
+package apontamentoweb.grupocolinas.service;
+
+import com.google.api.core.ApiFutures;
+import com.google.api.core.SettableApiFuture;
+import com.google.cloud.firestore.*;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class PlanilhaExportServiceTests {
+
+	private final Firestore firestore = mock(Firestore.class);
+	private ClienteRegistry clientes;
+
+	@BeforeEach
+	void criar() {
+		MockEnvironment env = new MockEnvironment()
+				.withProperty("apontamento.clientes.ids", "default,colinas")
+				.withProperty("apontamento.clientes.colinas.sufixo", "CoLinas");
+		clientes = new ClienteRegistry(env, new SimpleMeterRegistry());
+	}
+
+	@AfterEach
+	void encerrar() {
+		clientes.encerrar();
+	}
+
+	@Test
+	void consolidadaIntercalaOsPostosPelaAprovacao() throws Exception {
+		colecao("pontosFfetivados", paginas(2, efetivado("a1", 1), efetivado("a3", 3), efetivado("a5", 5)));
+		colecao("pontosFfetivadosCoLinas", paginas(2, efetivado("b2", 2), efetivado("b4", 4), efetivado("b4b", 4)));
+		PlanilhaExportService export = new PlanilhaExportService(firestore, clientes, null, 2, 1);
+
+		ByteArrayOutputStream saida = new ByteArrayOutputStream();
+		export.consolidar(2024, 5).exportarCsv(saida);
+
+		List<String> pontos = new ArrayList<>();
+		List<String> linhas = new ArrayList<>(List.of(saida.toString(StandardCharsets.UTF_8).split("\r\n")));
+		linhas.remove(0);
+		for (String linha : linhas) {
+			String[] colunas = linha.split(";", -1);
+			pontos.add(colunas[0] + ":" + colunas[9]);
+		}
+		// Empate na aprovação mantém a ordem do posto
+		assertEquals(List.of("default:a1", "colinas:b2", "default:a3", "colinas:b4", "colinas:b4b", "default:a5"), pontos);
+	}
+
+	@Test
+	void leituraDoPostoEsperaAEscritaQuandoAdiantaPaginasDemais() throws Exception {
+		QueryDocumentSnapshot[] docs = new QueryDocumentSnapshot[10];
+		for (int i = 0; i < docs.length; i++) {
+			docs[i] = efetivado("a" + i, i);
+		}
+		AtomicInteger paginasLidas = new AtomicInteger();
+		colecao("pontosFfetivados", paginas(1, docs), paginasLidas);
+		colecao("pontosFfetivadosCoLinas", paginas(1));
+		PlanilhaExportService export = new PlanilhaExportService(firestore, clientes, null, 1, 2);
+
+		PlanilhaExportService.Consolidado consolidado = export.consolidar(2024, 5);
+		Thread.sleep(500);
+		// Fila de 3 páginas, mais a que está sendo publicada e a próxima já pedida
+		assertTrue(paginasLidas.get() <= 5, "lidas: " + paginasLidas.get());
+
+		ByteArrayOutputStream saida = new ByteArrayOutputStream();
+		consolidado.exportarCsv(saida);
+		assertEquals(11, saida.toString(StandardCharsets.UTF_8).split("\r\n").length);
+	}
+
+	@Test
+	void erroEmUmPostoInterrompeAExportacao() {
+		colecao("pontosFfetivados", paginas(2, efetivado("a1", 1)));
+		CollectionReference quebrada = mock(CollectionReference.class);
+		Query base = consulta(quebrada);
+		when(base.get()).thenReturn(ApiFutures.immediateFailedFuture(new IllegalStateException("indisponível")));
+		when(firestore.collection("pontosFfetivadosCoLinas")).thenReturn(quebrada);
+		PlanilhaExportService export = new PlanilhaExportService(firestore, clientes, null, 2, 1);
+
+		PlanilhaExportService.Consolidado consolidado = export.consolidar(2024, 5);
+		assertThrows(IOException.class, () -> consolidado.exportarCsv(new ByteArrayOutputStream()));
+	}
+
+	// Páginas de tamanho fixo; a última vazia quando o total é múltiplo do tamanho (como no Firestore)
+	private static List<List<QueryDocumentSnapshot>> paginas(int tamanho, QueryDocumentSnapshot... docs) {
+		List<List<QueryDocumentSnapshot>> paginas = new ArrayList<>();
+		for (int i = 0; i <= docs.length; i += tamanho) {
+			paginas.add(Arrays.asList(docs).subList(i, Math.min(docs.length, i + tamanho)));
+		}
+		return paginas;
+	}
+
+	private void colecao(String nome, List<List<QueryDocumentSnapshot>> paginas) {
+		colecao(nome, paginas, new AtomicInteger());
+	}
+
+	private void colecao(String nome, List<List<QueryDocumentSnapshot>> paginas, AtomicInteger lidas) {
+		CollectionReference colecao = mock(CollectionReference.class);
+		Query base = consulta(colecao);
+		Query seguinte = mock(Query.class);
+		Iterator<List<QueryDocumentSnapshot>> restantes = paginas.iterator();
+		when(base.get()).thenAnswer(chamada -> pagina(restantes.next(), lidas));
+		when(base.startAfter(any(DocumentSnapshot.class))).thenReturn(seguinte);
+		when(seguinte.get()).thenAnswer(chamada -> pagina(restantes.next(), lidas));
+		when(firestore.collection(nome)).thenReturn(colecao);
+	}
+
+	private static Query consulta(CollectionReference colecao) {
+		Query base = mock(Query.class);
+		when(colecao.select(any(String[].class))).thenReturn(base);
+		when(base.whereGreaterThanOrEqualTo(anyString(), any())).thenReturn(base);
+		when(base.whereLessThan(anyString(), any())).thenReturn(base);
+		when(base.orderBy(anyString())).thenReturn(base);
+		when(base.limit(anyInt())).thenReturn(base);
+		return base;
+	}
+
+	private static SettableApiFuture<QuerySnapshot> pagina(List<QueryDocumentSnapshot> docs, AtomicInteger lidas) {
+		lidas.incrementAndGet();
+		QuerySnapshot snapshot = mock(QuerySnapshot.class);
+		when(snapshot.getDocuments()).thenReturn(docs);
+		SettableApiFuture<QuerySnapshot> futuro = SettableApiFuture.create();
+		futuro.set(snapshot);
+		return futuro;
+	}
+
+	private static QueryDocumentSnapshot efetivado(String pontoId, int minuto) {
+		Date aprovacao = Date.from(LocalDateTime.of(2024, 5, 10, 8, minuto).atZone(PlanilhaService.ZONA).toInstant());
+		QueryDocumentSnapshot doc = mock(QueryDocumentSnapshot.class);
+		when(doc.getId()).thenReturn(pontoId);
+		when(doc.getString("pontoId")).thenReturn(pontoId);
+		when(doc.getString("idLogin")).thenReturn("123");
+		when(doc.get("usuario")).thenReturn("Fulano");
+		when(doc.get("horaPonto")).thenReturn("2024-05-10T07:00:00");
+		when(doc.getString("status")).thenReturn("aprovado");
+		when(doc.getDate("dataAprovacao")).thenReturn(aprovacao);
+		return doc;
+	}
+}
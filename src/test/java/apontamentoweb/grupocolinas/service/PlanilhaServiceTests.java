@@ -0,0 +1,36 @@
+package apontamentoweb.grupocolinas.service;
+
+import com.google.cloud.Timestamp;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PlanilhaServiceTests {
+
+	private static final long INSTANTE = 1_704_110_400_123L; // 2024-01-01T12:00:00.123Z
+
+	@Test
+	void horaPontoEmMsAceitaTimestampDateETextoIso() {
+		assertEquals(INSTANTE, PlanilhaService.horaPontoEmMs(Timestamp.ofTimeMicroseconds(INSTANTE * 1000)));
+		assertEquals(INSTANTE, PlanilhaService.horaPontoEmMs(new Date(INSTANTE)));
+		assertEquals(INSTANTE, PlanilhaService.horaPontoEmMs("2024-01-01T12:00:00.123Z"));
+		assertEquals(INSTANTE, PlanilhaService.horaPontoEmMs("2024-01-01T09:00:00.123-03:00"));
+	}
+
+	@Test
+	void horaPontoEmMsSemFusoUsaOFusoLocal() {
+		long esperado = LocalDateTime.parse("2024-01-01T12:00:00").atZone(PlanilhaService.ZONA).toInstant().toEpochMilli();
+		assertEquals(esperado, PlanilhaService.horaPontoEmMs("2024-01-01T12:00:00"));
+	}
+
+	@Test
+	void horaPontoEmMsInvalidoRetornaNull() {
+		assertNull(PlanilhaService.horaPontoEmMs(null));
+		assertNull(PlanilhaService.horaPontoEmMs(""));
+		assertNull(PlanilhaService.horaPontoEmMs("ontem"));
+		assertNull(PlanilhaService.horaPontoEmMs(42L));
+	}
+}
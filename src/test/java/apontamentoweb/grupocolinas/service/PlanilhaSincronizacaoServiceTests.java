@@ -0,0 +1,121 @@
+package apontamentoweb.grupocolinas.service;
+
+import com.google.api.core.ApiFutures;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.*;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class PlanilhaSincronizacaoServiceTests {
+
+	private static final YearMonth MES = YearMonth.now(PlanilhaService.ZONA).minusMonths(1);
+
+	private final Firestore firestore = mock(Firestore.class);
+	private final MetricasService metricas = mock(MetricasService.class);
+	private final PlanilhaCacheService planilhaCache = mock(PlanilhaCacheService.class);
+	private final CollectionReference planilha = mock(CollectionReference.class);
+	private final WriteBatch batch = mock(WriteBatch.class);
+	private ClienteRegistry clientes;
+	private PlanilhaSincronizacaoService sincronizacao;
+
+	@BeforeEach
+	void criar() {
+		clientes = new ClienteRegistry(new MockEnvironment(), new SimpleMeterRegistry());
+		when(metricas.firestore(anyString(), anyString(), anyString(), any())).thenAnswer(chamada -> chamada.getArgument(3));
+		when(firestore.collection("planilhaMensal")).thenReturn(planilha);
+		when(planilha.document(anyString())).thenAnswer(chamada -> {
+			DocumentReference ref = mock(DocumentReference.class);
+			when(ref.getId()).thenReturn(chamada.getArgument(0));
+			return ref;
+		});
+		when(firestore.batch()).thenReturn(batch);
+		when(batch.commit()).thenReturn(ApiFutures.immediateFuture(List.of()));
+		PlanilhaService planilhaService = new PlanilhaService(firestore, metricas, clientes, null);
+		sincronizacao = new PlanilhaSincronizacaoService(firestore, clientes, planilhaService, planilhaCache, metricas, false);
+	}
+
+	@AfterEach
+	void encerrar() {
+		clientes.encerrar();
+	}
+
+	@Test
+	void aprovacaoDoValidarPontosEntraNaPlanilhaEInvalidaOCache() throws Exception {
+		QueryDocumentSnapshot externo = efetivado("p1", "123", false);
+		QueryDocumentSnapshot daApi = efetivado("p2", "123", true);
+
+		sincronizacao.aplicar("default", MES, List.of(externo, daApi), false);
+
+		ArgumentCaptor<DocumentReference> documento = ArgumentCaptor.forClass(DocumentReference.class);
+		@SuppressWarnings("unchecked")
+		ArgumentCaptor<Map<String, Object>> dados = ArgumentCaptor.forClass(Map.class);
+		verify(batch, times(1)).set(documento.capture(), dados.capture(), any(SetOptions.class));
+		assertEquals(MES + "_123", documento.getValue().getId());
+		Map<?, ?> dia = (Map<?, ?>) ((Map<?, ?>) dados.getValue().get("dias")).get(MES.atDay(10).toString());
+		Map<?, ?> linha = (Map<?, ?>) dia.get("p1");
+		assertEquals("Aprovado", linha.get("status"));
+		assertEquals("Fulano", linha.get("usuario"));
+		verify(planilhaCache).invalidar("default", Set.of(MES));
+	}
+
+	@Test
+	void primeiroSnapshotSoGravaAsLinhasQueFaltam() throws Exception {
+		QueryDocumentSnapshot existente = mock(QueryDocumentSnapshot.class);
+		when(existente.getId()).thenReturn(MES + "_123");
+		when(existente.get("dias")).thenReturn(Map.of(MES.atDay(10).toString(), Map.of("p1", Map.of("status", "Aprovado"))));
+		Query doMes = mock(Query.class);
+		QuerySnapshot snapshot = mock(QuerySnapshot.class);
+		List<QueryDocumentSnapshot> documentos = List.of(existente);
+		when(snapshot.getDocuments()).thenReturn(documentos);
+		when(planilha.whereEqualTo(anyString(), any())).thenReturn(doMes);
+		when(doMes.whereEqualTo(anyString(), any())).thenReturn(doMes);
+		when(doMes.get()).thenReturn(ApiFutures.immediateFuture(snapshot));
+
+		sincronizacao.aplicar("default", MES, List.of(efetivado("p1", "123", false), efetivado("p3", "123", false)), true);
+
+		ArgumentCaptor<DocumentReference> documento = ArgumentCaptor.forClass(DocumentReference.class);
+		@SuppressWarnings("unchecked")
+		ArgumentCaptor<Map<String, Object>> dados = ArgumentCaptor.forClass(Map.class);
+		verify(batch, times(1)).set(documento.capture(), dados.capture(), any(SetOptions.class));
+		Map<?, ?> dia = (Map<?, ?>) ((Map<?, ?>) dados.getValue().get("dias")).get(MES.atDay(10).toString());
+		assertEquals(Set.of("p3"), dia.keySet());
+	}
+
+	@Test
+	void semEfetivadosExternosNaoEscreve() throws Exception {
+		sincronizacao.aplicar("default", MES, List.of(efetivado("p2", "123", true)), true);
+
+		verifyNoInteractions(batch, planilhaCache);
+	}
+
+	private static QueryDocumentSnapshot efetivado(String pontoId, String idLogin, boolean daApi) {
+		Date aprovacao = Date.from(MES.atDay(10).atTime(18, 0).atZone(PlanilhaService.ZONA).toInstant());
+		QueryDocumentSnapshot doc = mock(QueryDocumentSnapshot.class);
+		when(doc.getId()).thenReturn("e-" + pontoId);
+		when(doc.getString("pontoId")).thenReturn(pontoId);
+		when(doc.get("idLogin")).thenReturn(idLogin);
+		when(doc.get("usuario")).thenReturn("Fulano");
+		when(doc.get("status")).thenReturn("Aprovado");
+		when(doc.get("horaPonto")).thenReturn(Timestamp.of(Date.from(LocalDateTime.of(MES.getYear(), MES.getMonth(), 10, 8, 0)
+				.atZone(PlanilhaService.ZONA).toInstant())));
+		when(doc.get("dataAprovacao")).thenReturn(Timestamp.of(aprovacao));
+		when(doc.getDate("dataAprovacao")).thenReturn(aprovacao);
+		when(doc.get("data")).thenReturn(daApi ? aprovacao : null);
+		return doc;
+	}
+}
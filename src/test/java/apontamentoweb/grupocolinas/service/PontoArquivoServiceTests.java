@@ -0,0 +1,99 @@
+package apontamentoweb.grupocolinas.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.api.core.ApiFutures;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.*;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class PontoArquivoServiceTests {
+
+	private static final YearMonth MES = YearMonth.of(2024, 5);
+
+	@TempDir
+	Path diretorio;
+
+	private final Firestore firestore = mock(Firestore.class);
+	private final MetricasService metricas = mock(MetricasService.class);
+	private final PontoHistoricoService pontoHistorico = mock(PontoHistoricoService.class);
+	private final EfetivadoLegadoService legados = mock(EfetivadoLegadoService.class);
+	private final Query consulta = mock(Query.class);
+	private ClienteRegistry clientes;
+	private PontoArquivoService arquivo;
+
+	@BeforeEach
+	void criar() throws Exception {
+		clientes = new ClienteRegistry(new MockEnvironment(), new SimpleMeterRegistry());
+		CollectionReference colecao = mock(CollectionReference.class);
+		when(firestore.collection("pontosFfetivados")).thenReturn(colecao);
+		when(colecao.select(any(String[].class))).thenReturn(consulta);
+		when(consulta.whereGreaterThanOrEqualTo(anyString(), any())).thenReturn(consulta);
+		when(consulta.whereLessThan(anyString(), any())).thenReturn(consulta);
+		when(consulta.orderBy(anyString())).thenReturn(consulta);
+		when(consulta.limit(anyInt())).thenReturn(consulta);
+		when(metricas.firestore(anyString(), anyString(), anyString(), any())).thenAnswer(chamada -> chamada.getArgument(3));
+		when(pontoHistorico.buscar(anyString(), anyCollection(), any())).thenReturn(Map.of());
+		when(legados.ler(anyString(), any(), anyString())).thenReturn(List.of());
+		arquivo = new PontoArquivoService(firestore, clientes, pontoHistorico, legados, metricas, new ObjectMapper(),
+				diretorio.toString(), 12, false, 100);
+	}
+
+	@AfterEach
+	void encerrar() {
+		arquivo.encerrar();
+		clientes.encerrar();
+	}
+
+	@Test
+	void compactacaoGuardaSoAUltimaDecisaoDeCadaPonto() throws Exception {
+		pagina(efetivado("p1", 8, "Aprovado", 10),
+				efetivado("p1", 8, "Recusado", 20),
+				efetivado(null, 9, "Falta", 10),
+				efetivado("p2", 12, "Aprovado", 15));
+
+		assertEquals(2, arquivo.compactar("default", MES));
+
+		List<ArquivoColunar.Linha> linhas = new ArrayList<>();
+		ArquivoColunar.abrir(diretorio.resolve("default").resolve(MES + ".pcol"))
+				.consultar(null, Long.MIN_VALUE, Long.MAX_VALUE, linhas::add);
+		assertEquals(List.of("p1:Recusado", "p2:Aprovado"), linhas.stream().map(l -> l.pontoId() + ":" + l.status()).toList());
+	}
+
+	private void pagina(QueryDocumentSnapshot... docs) {
+		QuerySnapshot snapshot = mock(QuerySnapshot.class);
+		when(snapshot.getDocuments()).thenReturn(List.of(docs));
+		when(consulta.get()).thenReturn(ApiFutures.immediateFuture(snapshot));
+	}
+
+	private static QueryDocumentSnapshot efetivado(String pontoId, int hora, String status, int minutoDecisao) {
+		Timestamp horaPonto = Timestamp.ofTimeSecondsAndNanos(
+				LocalDateTime.of(2024, 5, 10, hora, 0).atZone(PlanilhaService.ZONA).toEpochSecond(), 0);
+		Timestamp decisao = Timestamp.ofTimeSecondsAndNanos(
+				LocalDateTime.of(2024, 5, 10, 18, minutoDecisao).atZone(PlanilhaService.ZONA).toEpochSecond(), 0);
+		QueryDocumentSnapshot doc = mock(QueryDocumentSnapshot.class);
+		when(doc.getId()).thenReturn("e-" + pontoId + "-" + minutoDecisao);
+		when(doc.getString("pontoId")).thenReturn(pontoId);
+		when(doc.getString("idLogin")).thenReturn("123");
+		when(doc.getString("status")).thenReturn(status);
+		when(doc.get("horaPonto")).thenReturn(horaPonto);
+		when(doc.getTimestamp("horaPonto")).thenReturn(horaPonto);
+		when(doc.get("Recusado".equals(status) ? "dataRecusa" : "dataAprovacao")).thenReturn(decisao);
+		return doc;
+	}
+}
@@ -0,0 +1,83 @@
+package apontamentoweb.grupocolinas.service;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.Query;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class PontoCursorTests {
+
+	@Test
+	void pendentesIncluemStatusNuloGravadoPeloLogin() {
+		Query colecao = mock(Query.class);
+		Query filtrada = mock(Query.class);
+		when(colecao.whereIn(eq("status"), anyList())).thenReturn(filtrada);
+
+		assertSame(filtrada, PontoCursor.somentePendentes(colecao));
+		verify(colecao).whereIn("status", Arrays.asList(null, "Pendente"));
+	}
+
+	@Test
+	void cursorDeTimestampMantemOFormatoAnterior() {
+		PontoCursor.Posicao posicao = new PontoCursor.Posicao(1_700_000_000L, 123, "abc");
+		String cursor = PontoCursor.codificar(posicao);
+		assertEquals("1700000000:123:abc", new String(java.util.Base64.getUrlDecoder().decode(cursor)));
+		assertEquals(posicao, PontoCursor.decodificar(cursor));
+	}
+
+	@Test
+	void cursorDeHoraPontoEmTextoIdaEVolta() {
+		PontoCursor.Posicao posicao = PontoCursor.Posicao.texto("2023-05-01T08:00:00.000Z", "doc:1");
+		assertEquals(posicao, PontoCursor.decodificar(PontoCursor.codificar(posicao)));
+
+		PontoCursor.Posicao nulo = PontoCursor.Posicao.nulo("doc2");
+		assertEquals(nulo, PontoCursor.decodificar(PontoCursor.codificar(nulo)));
+	}
+
+	@Test
+	void ordemSegueAOrdemDeTiposDoFirestore() {
+		PontoCursor.Posicao nulo = PontoCursor.Posicao.nulo("z");
+		PontoCursor.Posicao cedo = new PontoCursor.Posicao(1, 0, "b");
+		PontoCursor.Posicao tarde = new PontoCursor.Posicao(Long.MAX_VALUE / 2, 0, "a");
+		PontoCursor.Posicao texto = PontoCursor.Posicao.texto("2020-01-01T00:00:00Z", "a");
+		PontoCursor.Posicao textoDepois = PontoCursor.Posicao.texto("2020-01-01T00:00:00Z", "b");
+
+		TreeSet<PontoCursor.Posicao> ordem = new TreeSet<>(List.of(textoDepois, tarde, texto, nulo, cedo));
+		assertEquals(List.of(nulo, cedo, tarde, texto, textoDepois), List.copyOf(ordem));
+		assertEquals(List.of(textoDepois), List.copyOf(ordem.tailSet(PontoCursor.decodificar(PontoCursor.codificar(texto)), false)));
+	}
+
+	@Test
+	void proximoComHoraPontoEmTextoNaoFalha() {
+		DocumentSnapshot timestamp = documento("a", Timestamp.ofTimeSecondsAndNanos(10, 5));
+		DocumentSnapshot legado = documento("b", "2019-03-01T10:00:00.000Z");
+
+		String cursor = PontoCursor.proximo(List.of(timestamp, legado), 2);
+		assertEquals(PontoCursor.Posicao.texto("2019-03-01T10:00:00.000Z", "b"), PontoCursor.decodificar(cursor));
+		assertEquals(new PontoCursor.Posicao(10, 5, "a"), PontoCursor.decodificar(PontoCursor.proximo(List.of(legado, timestamp), 2)));
+		assertNull(PontoCursor.proximo(List.of(legado), 2));
+	}
+
+	@Test
+	void cursorInvalido() {
+		assertThrows(IllegalArgumentException.class, () -> PontoCursor.decodificar("%%%"));
+		assertThrows(IllegalArgumentException.class, () -> PontoCursor.decodificar(
+				java.util.Base64.getUrlEncoder().encodeToString("x:y".getBytes())));
+	}
+
+	private static DocumentSnapshot documento(String id, Object horaPonto) {
+		DocumentSnapshot doc = mock(DocumentSnapshot.class);
+		when(doc.getId()).thenReturn(id);
+		when(doc.get("horaPonto")).thenReturn(horaPonto);
+		return doc;
+	}
+}
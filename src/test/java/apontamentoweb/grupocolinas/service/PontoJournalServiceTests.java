@@ -0,0 +1,200 @@
+package apontamentoweb.grupocolinas.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutures;
+import com.google.api.gax.grpc.GrpcStatusCode;
+import com.google.api.gax.rpc.InvalidArgumentException;
+import com.google.api.gax.rpc.UnavailableException;
+import com.google.cloud.firestore.*;
+import io.grpc.Status;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class PontoJournalServiceTests {
+
+	@TempDir
+	Path diretorio;
+
+	private final Firestore firestore = mock(Firestore.class);
+	private final MetricasService metricas = mock(MetricasService.class);
+	private final List<String> criados = Collections.synchronizedList(new ArrayList<>());
+	// docIds que o Firestore recusa com INVALID_ARGUMENT
+	private final Set<String> recusados = ConcurrentHashMap.newKeySet();
+	private volatile boolean indisponivel;
+	private PontoJournalService journal;
+
+	@BeforeEach
+	void criar() {
+		CollectionReference colecao = mock(CollectionReference.class);
+		when(firestore.collection(anyString())).thenReturn(colecao);
+		when(colecao.document(anyString())).thenAnswer(chamada -> referencia(chamada.getArgument(0)));
+		when(firestore.batch()).thenAnswer(chamada -> lote());
+		when(metricas.firestore(anyString(), anyString(), anyString(), any())).thenAnswer(chamada -> chamada.getArgument(3));
+	}
+
+	@AfterEach
+	void encerrar() throws Exception {
+		if (journal != null) {
+			journal.encerrar();
+		}
+	}
+
+	@Test
+	void reinicioReenviaSoOQueVemDepoisDoMarcador() throws Exception {
+		byte[] r1 = registro("r1");
+		gravarJournal(r1, registro("r2"), registro("r3"));
+		Files.writeString(diretorio.resolve("pontos.journal.marcador"), Integer.toString(r1.length));
+
+		iniciar(64);
+
+		aguardar(() -> criados.size() == 2);
+		assertEquals(List.of("r2", "r3"), criados);
+	}
+
+	@Test
+	void finalIncompletoETruncadoNaReinicializacao() throws Exception {
+		byte[] r1 = registro("r1");
+		byte[] r2 = registro("r2");
+		gravarJournal(r1, r2, Arrays.copyOf(registro("r3"), 20));
+
+		iniciar(64);
+
+		assertEquals(r1.length + r2.length, Files.size(diretorio.resolve("pontos.journal")));
+		aguardar(() -> criados.size() == 2);
+		assertEquals(List.of("r1", "r2"), criados);
+	}
+
+	@Test
+	void journalDrenadoECompactado() throws Exception {
+		iniciar(0);
+
+		journal.registrar("pontos", "a", Map.of("idLogin", "123")).join();
+		journal.registrar("pontos", "b", Map.of("idLogin", "456")).join();
+
+		aguardar(() -> criados.size() == 2 && (long) journal.estatisticas().get("posicaoGravada") == 0);
+		assertEquals(0, Files.size(diretorio.resolve("pontos.journal")));
+		assertEquals("0", Files.readString(diretorio.resolve("pontos.journal.marcador")));
+	}
+
+	@Test
+	void registroCorrompidoNoMeioVaiParaOsDescartadosEADrenagemSegue() throws Exception {
+		byte[] corrompido = registro("r2");
+		corrompido[corrompido.length - 3] ^= 0x7f;
+		gravarJournal(registro("r1"), corrompido, registro("r3"));
+
+		iniciar(64);
+
+		aguardar(() -> criados.size() == 2);
+		assertEquals(List.of("r1", "r3"), criados);
+		List<String> descartados = Files.readAllLines(diretorio.resolve("pontos.journal.descartados"));
+		assertEquals(1, descartados.size());
+		assertTrue(descartados.get(0).contains("CRC"), descartados.get(0));
+		verify(metricas).alerta(eq("journalDescartado"), anyString());
+	}
+
+	@Test
+	void erroPermanenteDescartaSoORegistroRecusado() throws Exception {
+		recusados.add("r2");
+		gravarJournal(registro("r1"), registro("r2"), registro("r3"));
+
+		iniciar(64);
+
+		aguardar(() -> criados.size() == 2 && (long) journal.estatisticas().get("descartados") == 1);
+		assertEquals(List.of("r1", "r3"), criados);
+		assertTrue(Files.readString(diretorio.resolve("pontos.journal.descartados")).contains("\"docId\":\"r2\""));
+	}
+
+	@Test
+	void erroTransitorioSeguraADrenagemSemDescartar() throws Exception {
+		indisponivel = true;
+		gravarJournal(registro("r1"));
+
+		iniciar(64);
+
+		aguardar(() -> (long) journal.estatisticas().get("falhasConsecutivas") > 0);
+		assertEquals(0L, journal.estatisticas().get("posicaoDrenada"));
+		indisponivel = false;
+		aguardar(() -> criados.size() == 1);
+		assertFalse(Files.exists(diretorio.resolve("pontos.journal.descartados")));
+	}
+
+	private void iniciar(long tamanhoCompactacaoMb) throws Exception {
+		journal = new PontoJournalService(firestore, new ObjectMapper(), metricas, true, diretorio.toString(), tamanhoCompactacaoMb);
+		journal.iniciar();
+	}
+
+	private void gravarJournal(byte[]... registros) throws Exception {
+		ByteArrayOutputStream conteudo = new ByteArrayOutputStream();
+		for (byte[] registro : registros) {
+			conteudo.write(registro);
+		}
+		Files.write(diretorio.resolve("pontos.journal"), conteudo.toByteArray());
+	}
+
+	// [int tamanho][int crc32][payload JSON], como o journal grava
+	private static byte[] registro(String docId) {
+		byte[] payload = ("{\"colecao\":\"pontos\",\"docId\":\"" + docId + "\",\"ponto\":{\"idLogin\":\"123\"}}")
+				.getBytes(StandardCharsets.UTF_8);
+		CRC32 crc = new CRC32();
+		crc.update(payload);
+		return ByteBuffer.allocate(8 + payload.length).putInt(payload.length).putInt((int) crc.getValue()).put(payload).array();
+	}
+
+	private DocumentReference referencia(String id) {
+		DocumentReference ref = mock(DocumentReference.class);
+		when(ref.getId()).thenReturn(id);
+		when(ref.create(anyMap())).thenAnswer(chamada -> gravar(List.of(id)));
+		return ref;
+	}
+
+	private WriteBatch lote() {
+		WriteBatch batch = mock(WriteBatch.class);
+		List<String> ids = new ArrayList<>();
+		when(batch.create(any(DocumentReference.class), anyMap())).thenAnswer(chamada -> {
+			ids.add(((DocumentReference) chamada.getArgument(0)).getId());
+			return batch;
+		});
+		when(batch.commit()).thenAnswer(chamada -> gravar(ids));
+		return batch;
+	}
+
+	private <T> ApiFuture<T> gravar(List<String> ids) {
+		if (indisponivel) {
+			return ApiFutures.immediateFailedFuture(new UnavailableException(
+					new RuntimeException("indisponível"), GrpcStatusCode.of(Status.Code.UNAVAILABLE), true));
+		}
+		for (String id : ids) {
+			if (recusados.contains(id)) {
+				return ApiFutures.immediateFailedFuture(new InvalidArgumentException(
+						new RuntimeException("campo inválido"), GrpcStatusCode.of(Status.Code.INVALID_ARGUMENT), false));
+			}
+		}
+		criados.addAll(ids);
+		return ApiFutures.immediateFuture(null);
+	}
+
+	private static void aguardar(BooleanSupplier condicao) throws InterruptedException {
+		long limite = System.currentTimeMillis() + 10_000;
+		while (!condicao.getAsBoolean()) {
+			assertTrue(System.currentTimeMillis() < limite, "condição não atingida em 10s");
+			Thread.sleep(20);
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package apontamentoweb.grupocolinas.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UltimosPontosServiceTests {
+
+	private static final long AGORA = 1_700_000_000_000L;
+
+	private UltimosPontosService ultimos;
+
+	@BeforeEach
+	void criar() {
+		// Sem aquecimento: Firestore, clientes e métricas não são usados
+		ultimos = new UltimosPontosService(null, null, null, 60, 4, 30);
+	}
+
+	@Test
+	void toqueDuploDoMesmoFuncionarioRetornaPontoOriginal() {
+		assertNull(ultimos.verificarERegistrar("pontos", "123", AGORA, "a"));
+
+		UltimosPontosService.Anterior anterior = ultimos.verificarERegistrar("pontos", "123", AGORA + 5_000, "b");
+		assertNotNull(anterior);
+		assertEquals("a", anterior.pontoId());
+		assertEquals(AGORA, anterior.horaPontoMs());
+	}
+
+	@Test
+	void reenvioDoMesmoPontoNaoESuprimido() {
+		assertNull(ultimos.verificarERegistrar("pontos", "123", AGORA, "a"));
+		assertNull(ultimos.verificarERegistrar("pontos", "123", AGORA, "a"));
+	}
+
+	@Test
+	void pontoForaDoIntervaloEAceito() {
+		assertNull(ultimos.verificarERegistrar("pontos", "123", AGORA, "a"));
+		assertNull(ultimos.verificarERegistrar("pontos", "123", AGORA + 60_000, "b"));
+	}
+
+	@Test
+	void mesmoIdLoginEmOutroClienteNaoESuprimido() {
+		assertNull(ultimos.verificarERegistrar("pontos", "123", AGORA, "a"));
+		assertNull(ultimos.verificarERegistrar("pontos_colinas25", "123", AGORA + 1_000, "b"));
+
+		// Cada cliente continua com o próprio ponto
+		assertEquals("a", ultimos.verificarERegistrar("pontos", "123", AGORA + 2_000, "c").pontoId());
+		assertEquals("b", ultimos.verificarERegistrar("pontos_colinas25", "123", AGORA + 2_000, "d").pontoId());
+	}
+
+	@Test
+	void zerosAEsquerdaIdentificamOutroFuncionario() {
+		assertNull(ultimos.verificarERegistrar("pontos", "123", AGORA, "a"));
+		assertNull(ultimos.verificarERegistrar("pontos", "0123", AGORA + 1_000, "b"));
+		assertNotEquals(UltimosPontosService.chave("pontos", "123"), UltimosPontosService.chave("pontos", "0123"));
+	}
+
+	@Test
+	void removerLiberaNovoToque() {
+		assertNull(ultimos.verificarERegistrar("pontos", "123", AGORA, "a"));
+		ultimos.remover("pontos", "123", "a");
+		assertNull(ultimos.verificarERegistrar("pontos", "123", AGORA + 1_000, "b"));
+	}
+
+	@Test
+	void removerNaoAfetaOutroCliente() {
+		assertNull(ultimos.verificarERegistrar("pontos", "123", AGORA, "a"));
+		assertNull(ultimos.verificarERegistrar("pontos_colinas25", "123", AGORA, "b"));
+
+		ultimos.remover("pontos_colinas25", "123", "a");
+		ultimos.remover("pontos", "0123", "a");
+		assertEquals("a", ultimos.verificarERegistrar("pontos", "123", AGORA + 1_000, "c").pontoId());
+
+		ultimos.remover("pontos_colinas25", "123", "b");
+		assertNull(ultimos.verificarERegistrar("pontos_colinas25", "123", AGORA + 1_000, "d"));
+	}
+
+	@Test
+	void tabelaCresceSemPerderFuncionarios() {
+		for (int i = 0; i < 5_000; i++) {
+			assertNull(ultimos.verificarERegistrar("pontos", String.valueOf(i), AGORA, "p" + i));
+		}
+		for (int i = 0; i < 5_000; i++) {
+			assertEquals("p" + i, ultimos.verificarERegistrar("pontos", String.valueOf(i), AGORA + 1_000, "q" + i).pontoId());
+		}
+	}
+}
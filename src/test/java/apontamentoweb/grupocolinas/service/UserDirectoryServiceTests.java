@@ -0,0 +1,149 @@
+package apontamentoweb.grupocolinas.service;
+
+import com.google.api.core.ApiFutures;
+import com.google.api.core.SettableApiFuture;
+import com.google.cloud.firestore.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class UserDirectoryServiceTests {
+
+	private final Firestore firestore = mock(Firestore.class);
+	private final MetricasService metricas = mock(MetricasService.class);
+	private final Query consulta = mock(Query.class);
+
+	@BeforeEach
+	void criar() {
+		CollectionReference usuarios = mock(CollectionReference.class);
+		when(firestore.collection("users")).thenReturn(usuarios);
+		when(usuarios.select(any(String[].class))).thenReturn(consulta);
+		when(metricas.firestore(anyString(), anyString(), anyString(), any())).thenAnswer(chamada -> chamada.getArgument(3));
+	}
+
+	@Test
+	void entradaGuardaSoOsCamposDoPonto() {
+		UserDirectoryService.Usuario usuario = UserDirectoryService.Usuario.de(documento("u1", "123", "posto1"));
+		assertEquals(new UserDirectoryService.Usuario("u1", "123", "Fulano", "4321", "posto1", true, "08:00", "17:00", "5x2"), usuario);
+	}
+
+	@Test
+	void cargaInicialAgrupaTodosOsDocumentosDoIdLogin() {
+		UserDirectoryService diretorio = new UserDirectoryService(firestore, metricas, 10, 300);
+		diretorio.carregarTudo(List.of(documento("u1", "123", "posto1"), documento("u2", "456", "posto1"), documento("u3", "123", "posto2")));
+
+		List<UserDirectoryService.Usuario> usuarios = diretorio.buscarTodosAsync("123").join();
+		assertEquals(List.of("u1", "u3"), usuarios.stream().map(UserDirectoryService.Usuario::id).toList());
+		verifyNoInteractions(consulta);
+	}
+
+	@Test
+	void mudancaDeIdLoginRemovidoPeloLruNaoCriaEntradaParcial() {
+		UserDirectoryService diretorio = new UserDirectoryService(firestore, metricas, 1, 300);
+		diretorio.carregarTudo(List.of(documento("u1", "123", "posto1"), documento("u2", "123", "posto2"), documento("u3", "456", "posto1")));
+
+		// 123 saiu pelo LRU; um terceiro cadastro dele chega pelo listener
+		diretorio.aplicarMudancas(List.of(mudanca(DocumentChange.Type.ADDED, documento("u4", "123", "posto3"))));
+		resposta("123", documento("u1", "123", "posto1"), documento("u2", "123", "posto2"), documento("u4", "123", "posto3"));
+
+		List<UserDirectoryService.Usuario> usuarios = diretorio.buscarTodosAsync("123").join();
+		assertEquals(List.of("u1", "u2", "u4"), usuarios.stream().map(UserDirectoryService.Usuario::id).toList());
+	}
+
+	@Test
+	void alteracaoDoUnicoDocumentoMantemAEntrada() {
+		UserDirectoryService diretorio = new UserDirectoryService(firestore, metricas, 10, 300);
+		diretorio.carregarTudo(List.of(documento("u1", "123", "posto1")));
+
+		diretorio.aplicarMudancas(List.of(mudanca(DocumentChange.Type.MODIFIED, documento("u1", "123", "posto2"))));
+
+		assertEquals("posto2", diretorio.buscarTodosAsync("123").join().get(0).posto());
+		verifyNoInteractions(consulta);
+	}
+
+	@Test
+	void trocaDeIdLoginMoveODocumentoSoSeODestinoEstiverCarregado() {
+		UserDirectoryService diretorio = new UserDirectoryService(firestore, metricas, 10, 300);
+		diretorio.carregarTudo(List.of(documento("u1", "123", "posto1"), documento("u2", "123", "posto2"), documento("u3", "456", "posto1")));
+
+		diretorio.aplicarMudancas(List.of(
+				mudanca(DocumentChange.Type.MODIFIED, documento("u1", "456", "posto1")),
+				mudanca(DocumentChange.Type.MODIFIED, documento("u2", "789", "posto2"))));
+
+		assertEquals(List.of("u3", "u1"), diretorio.buscarTodosAsync("456").join().stream().map(UserDirectoryService.Usuario::id).toList());
+		resposta("123");
+		assertTrue(diretorio.buscarTodosAsync("123").join().isEmpty());
+		resposta("789", documento("u2", "789", "posto2"));
+		assertEquals(1, diretorio.buscarTodosAsync("789").join().size());
+	}
+
+	@Test
+	void idLoginNumericoEntraNoCache() {
+		UserDirectoryService diretorio = new UserDirectoryService(firestore, metricas, 10, 300);
+		diretorio.carregarTudo(List.of(documento("u1", 123L, "posto1")));
+		diretorio.aplicarMudancas(List.of(mudanca(DocumentChange.Type.ADDED, documento("u2", 123L, "posto2"))));
+
+		List<UserDirectoryService.Usuario> usuarios = diretorio.buscarTodosAsync("123").join();
+		assertEquals(List.of("u1", "u2"), usuarios.stream().map(UserDirectoryService.Usuario::id).toList());
+		assertEquals("123", usuarios.get(1).idLogin());
+		verifyNoInteractions(consulta);
+	}
+
+	@Test
+	void buscaQueTerminaDepoisDeUmaInvalidacaoNaoPublica() {
+		UserDirectoryService diretorio = new UserDirectoryService(firestore, metricas, 10, 300);
+		SettableApiFuture<QuerySnapshot> pendente = SettableApiFuture.create();
+		Query porIdLogin = mock(Query.class);
+		when(porIdLogin.get()).thenReturn(pendente);
+		when(consulta.whereEqualTo("idLogin", "123")).thenReturn(porIdLogin);
+
+		CompletableFuture<List<UserDirectoryService.Usuario>> busca = diretorio.buscarTodosAsync("123");
+		// Cadastro alterado (e invalidado) enquanto a leitura antiga estava em voo
+		diretorio.invalidar("123");
+		QuerySnapshot antigo = mock(QuerySnapshot.class);
+		List<QueryDocumentSnapshot> documentos = List.of(documento("u1", "123", "posto1"));
+		when(antigo.getDocuments()).thenReturn(documentos);
+		when(antigo.size()).thenReturn(1);
+		pendente.set(antigo);
+
+		assertEquals("posto1", busca.join().get(0).posto(), "quem pediu recebe o que foi lido");
+		resposta("123", documento("u1", "123", "posto2"));
+		assertEquals("posto2", diretorio.buscarTodosAsync("123").join().get(0).posto());
+	}
+
+	private void resposta(String idLogin, QueryDocumentSnapshot... documentos) {
+		Query porIdLogin = mock(Query.class);
+		QuerySnapshot snapshot = mock(QuerySnapshot.class);
+		when(snapshot.getDocuments()).thenReturn(List.of(documentos));
+		when(snapshot.size()).thenReturn(documentos.length);
+		when(porIdLogin.get()).thenReturn(ApiFutures.immediateFuture(snapshot));
+		when(consulta.whereEqualTo("idLogin", idLogin)).thenReturn(porIdLogin);
+	}
+
+	private static DocumentChange mudanca(DocumentChange.Type tipo, QueryDocumentSnapshot documento) {
+		DocumentChange mudanca = mock(DocumentChange.class);
+		when(mudanca.getType()).thenReturn(tipo);
+		when(mudanca.getDocument()).thenReturn(documento);
+		return mudanca;
+	}
+
+	private static QueryDocumentSnapshot documento(String id, Object idLogin, String posto) {
+		QueryDocumentSnapshot doc = mock(QueryDocumentSnapshot.class);
+		when(doc.getId()).thenReturn(id);
+		when(doc.get("idLogin")).thenReturn(idLogin);
+		when(doc.get("name")).thenReturn("Fulano");
+		when(doc.get("senhaPdv")).thenReturn("4321");
+		when(doc.get("posto")).thenReturn(posto);
+		when(doc.get("ativo")).thenReturn("1");
+		when(doc.get("horarioEntrada")).thenReturn("08:00");
+		when(doc.get("horarioSaida")).thenReturn("17:00");
+		when(doc.get("escala")).thenReturn("5x2");
+		return doc;
+	}
+}